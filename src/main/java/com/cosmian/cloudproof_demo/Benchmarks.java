@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Ths class records timings for benchmarks
@@ -26,6 +27,8 @@ public class Benchmarks implements Serializable {
 
     private final ConcurrentHashMap<String, Long> recorder = new ConcurrentHashMap<>();
 
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
     public Benchmarks() {
 
     }
@@ -88,6 +91,34 @@ public class Benchmarks implements Serializable {
         return v == null ? 0 : v.sum;
     }
 
+    /**
+     * Increment a counter such as cache hits or misses
+     * 
+     * @param counter the counter name
+     * @param delta the increment
+     */
+    public void increment(String counter, long delta) {
+        counters.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public long getCounter(String counter) {
+        AtomicLong v = this.counters.get(counter);
+        return v == null ? 0 : v.get();
+    }
+
+    /**
+     * The ratio of the hits counter to the sum of the hits and misses counters
+     * 
+     * @param hits the hits counter name
+     * @param misses the misses counter name
+     * @return the ratio, 0 if both are 0
+     */
+    public double getHitRatio(String hits, String misses) {
+        long h = getCounter(hits);
+        long total = h + getCounter(misses);
+        return total == 0 ? 0 : (double) h / total;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -100,6 +131,9 @@ public class Benchmarks implements Serializable {
                 .append(", average: " + String.format("%,.0f", entry.getValue().sum / entry.getValue().count) + "µs");
             builder.append("\n");
         }
+        for (Entry<String, AtomicLong> entry : this.counters.entrySet()) {
+            builder.append(entry.getKey() + ": " + String.format("%,d", entry.getValue().get()) + "\n");
+        }
         return builder.toString();
     }
 
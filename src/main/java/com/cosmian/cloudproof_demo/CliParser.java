@@ -11,6 +11,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.logging.Logger;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -25,12 +26,21 @@ import com.cosmian.cloudproof_demo.extractor.Extractor;
 import com.cosmian.cloudproof_demo.fs.LocalFileSystem;
 import com.cosmian.cloudproof_demo.injector.Injector;
 import com.cosmian.cloudproof_demo.injector.KafkaLoader;
+import com.cosmian.cloudproof_demo.injector.RecordPlan;
+import com.cosmian.cloudproof_demo.injector.SparkInjector;
+import com.cosmian.cloudproof_demo.injector.StandaloneInjector;
 import com.cosmian.cloudproof_demo.search.Search;
+import com.cosmian.cloudproof_demo.sse.ChainCheckpointStore;
+import com.cosmian.cloudproof_demo.sse.ChainTableCache;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
 import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
 
 public class CliParser {
 
+    private static final Logger logger = Logger.getLogger(CliParser.class.getName());
+
     /**
      * This may be called by the binary or spark
      * 
@@ -116,6 +126,62 @@ public class CliParser {
         }
         DseDB.Configuration dseConf =
             new DseDB.Configuration(dseIP, dsePort, dseDatacenter, dseUsername, dsePassword, dseKeyspace);
+        if (cli.hasOption("storage-format")) {
+            String format = cli.getOptionValue("storage-format");
+            if (!format.equals("1") && !format.equals("2")) {
+                throw new AppException("Invalid storage format: " + format + ", it must be 1 or 2");
+            }
+            dseConf.withStorageFormat(DseDB.StorageFormat.valueOf("V" + format));
+        }
+        if (cli.hasOption("dse-compression")) {
+            dseConf.withCompression(true);
+        }
+        if (cli.hasOption("dse-read-consistency")) {
+            DefaultConsistencyLevel level = consistency(cli.getOptionValue("dse-read-consistency"));
+            dseConf.getProfile(DseDB.Operation.ENTRY_READ).withConsistency(level);
+            dseConf.getProfile(DseDB.Operation.CHAIN_READ).withConsistency(level);
+        }
+        if (cli.hasOption("dse-write-consistency")) {
+            DefaultConsistencyLevel level = consistency(cli.getOptionValue("dse-write-consistency"));
+            dseConf.getProfile(DseDB.Operation.ENTRY_LWT).withConsistency(level);
+            dseConf.getProfile(DseDB.Operation.CHAIN_WRITE).withConsistency(level);
+        }
+        if (cli.hasOption("dse-serial-consistency")) {
+            dseConf.getProfile(DseDB.Operation.ENTRY_LWT)
+                .withSerialConsistency(consistency(cli.getOptionValue("dse-serial-consistency")));
+        }
+        if (cli.hasOption("dse-speculative-delay")) {
+            long delayMs = Long.parseLong(cli.getOptionValue("dse-speculative-delay"), 10);
+            dseConf.getProfile(DseDB.Operation.ENTRY_READ).withSpeculativeExecutions(2, delayMs);
+            dseConf.getProfile(DseDB.Operation.CHAIN_READ).withSpeculativeExecutions(2, delayMs);
+        }
+
+        SseConfiguration sseConf = new SseConfiguration();
+        if (cli.hasOption("search-parallelism")) {
+            sseConf.withRetrieveParallelism(Integer.parseInt(cli.getOptionValue("search-parallelism"), 10));
+        }
+        if (cli.hasOption("search-chunk-size")) {
+            sseConf.withChainChunkSize(Integer.parseInt(cli.getOptionValue("search-chunk-size"), 10));
+        }
+        if (cli.hasOption("segment-size")) {
+            sseConf.withChainSegmentSize(Integer.parseInt(cli.getOptionValue("segment-size"), 10));
+        }
+        if (cli.hasOption("hot-words")) {
+            sseConf.withHotWordThreshold(Integer.parseInt(cli.getOptionValue("hot-words"), 10));
+        }
+
+        StandaloneInjector.Configuration injectorConf = new StandaloneInjector.Configuration();
+        if (cli.hasOption("injector-workers")) {
+            injectorConf.withWorkers(Integer.parseInt(cli.getOptionValue("injector-workers"), 10));
+        }
+        if (cli.hasOption("injector-queue-depth")) {
+            injectorConf.withQueueDepth(Integer.parseInt(cli.getOptionValue("injector-queue-depth"), 10));
+        }
+        if (cli.hasOption("sse-queue-depth")) {
+            injectorConf.withSseQueueDepth(Integer.parseInt(cli.getOptionValue("sse-queue-depth"), 10));
+        }
+        boolean sharedHeaders = cli.hasOption("shared-headers");
+        injectorConf.withSharedHeaders(sharedHeaders);
 
         int maxSizeInMB = Integer.MAX_VALUE;
         if (cli.hasOption("max-size")) {
@@ -127,6 +193,29 @@ public class CliParser {
             maxAgeInSeconds = Integer.parseInt(cli.getOptionValue("max-age"), 10);
         }
 
+        // the indexes are migrated as they are: no key is needed
+        if (cli.hasOption("migrate-indexes")) {
+            try (DseDB db = new DseDB(dseConf)) {
+                long[] copied = db.migrateToV2();
+                logger.info("Migrated " + String.format("%,d", copied[0]) + " Entry Table and "
+                    + String.format("%,d", copied[1]) + " Chain Table entries to the storage format 2");
+            } catch (CosmianException e) {
+                throw new AppException("Migration of the indexes failed: " + e.getMessage(), e);
+            }
+            return;
+        }
+
+        // the statistics are not encrypted: no key is needed
+        if (cli.hasOption("index-stats")) {
+            try (DseDB db = new DseDB(dseConf)) {
+                DseDB.Stats stats = cli.hasOption("recount-stats") ? db.recountStats() : db.stats();
+                logger.info("Indexes: " + stats);
+            } catch (CosmianException e) {
+                throw new AppException("Reading the index statistics failed: " + e.getMessage(), e);
+            }
+            return;
+        }
+
         String keyString = "key.json";
         if (cli.hasOption("key")) {
             keyString = cli.getOptionValue("key");
@@ -169,6 +258,20 @@ public class CliParser {
             } catch (IOException e) {
                 throw new AppException("Failed loading the public key file:" + e.getMessage(), e);
             }
+            // compile the schema of the records, if not the default one
+            if (cli.hasOption("schema")) {
+                String schema;
+                try {
+                    schema = LocalResource.load_file_string(new File(cli.getOptionValue("schema")));
+                } catch (IOException e) {
+                    throw new AppException("Failed loading the schema file:" + e.getMessage(), e);
+                }
+                RecordPlan plan = RecordPlan.compile(schema);
+                injectorConf.withPlan(plan);
+                if (injector instanceof SparkInjector) {
+                    ((SparkInjector) injector).withPlan(plan);
+                }
+            }
             // should the program drop the indexes first ?
             boolean dropIndexes = cli.hasOption("drop-indexes");
             // are the inputs kafka topics ?
@@ -191,8 +294,14 @@ public class CliParser {
                     }
                 }
             }
-            injector.run(k, kStar, publicKeyJson, outputDirString, dseConf, inputs, kafkaTopics, maxSizeInMB,
-                maxAgeInSeconds, dropIndexes);
+            // the pipeline sizes only apply to the standalone injector, the Spark one takes the headers mode and plan
+            if (injector instanceof StandaloneInjector) {
+                ((StandaloneInjector) injector).withConfiguration(injectorConf);
+            } else if (injector instanceof SparkInjector) {
+                ((SparkInjector) injector).withSharedHeaders(sharedHeaders);
+            }
+            injector.run(k, kStar, publicKeyJson, outputDirString, dseConf, sseConf, inputs, kafkaTopics,
+                maxSizeInMB, maxAgeInSeconds, dropIndexes);
         }
 
         if (cli.hasOption("decrypt")) {
@@ -240,7 +349,45 @@ public class CliParser {
             for (int i = 1; i < argsList.size(); i++) {
                 words.add(new Word(argsList.get(i).toLowerCase().getBytes(StandardCharsets.UTF_8)));
             }
-            search.run(words, disjunction, fsRootUri, k, privateKeyJson, dseConf, outputDirString, clearTextFilename);
+            ChainCheckpointStore checkpoints = null;
+            if (cli.hasOption("checkpoint-file")) {
+                try {
+                    checkpoints = new ChainCheckpointStore(ChainCheckpointStore.DEFAULT_CAPACITY,
+                        Paths.get(cli.getOptionValue("checkpoint-file")), k);
+                } catch (CosmianException e) {
+                    throw new AppException("Failed opening the chain checkpoints file: " + e.getMessage(), e);
+                }
+                sseConf.withCheckpoints(checkpoints);
+            }
+            if (cli.hasOption("chain-cache")) {
+                long heapMB = Long.parseLong(cli.getOptionValue("chain-cache"), 10);
+                if (heapMB < 0) {
+                    throw new AppException("The chain cache size cannot be negative");
+                }
+                int offHeapMB = 0;
+                if (cli.hasOption("chain-cache-off-heap")) {
+                    offHeapMB = Integer.parseInt(cli.getOptionValue("chain-cache-off-heap"), 10);
+                    if (offHeapMB < 0 || offHeapMB > 2047) {
+                        throw new AppException("The off-heap chain cache size must be between 0 and 2047 MB");
+                    }
+                }
+                sseConf.withChainCache(new ChainTableCache(heapMB * 1024 * 1024, offHeapMB * 1024 * 1024));
+            }
+            try {
+                search.run(words, disjunction, fsRootUri, k, privateKeyJson, dseConf, sseConf, outputDirString,
+                    clearTextFilename);
+            } finally {
+                if (sseConf.getChainCache() != null) {
+                    logger.info(sseConf.getChainCache().toString());
+                }
+                if (checkpoints != null) {
+                    try {
+                        checkpoints.close();
+                    } catch (CosmianException e) {
+                        logger.warning("Failed saving the chain checkpoints: " + e.getMessage());
+                    }
+                }
+            }
             return;
         }
 
@@ -255,6 +402,10 @@ public class CliParser {
         group.addOption(new Option("d", "decrypt", false, "decrypt the supplied files and directories URI(s)"));
         group.addOption(new Option("s", "search", false, "search the supplied root URI for the words"));
         group.addOption(new Option("l", "load-topic", false, "load a kafka topic with data"));
+        group.addOption(new Option("mi", "migrate-indexes", false,
+            "copy the indexes of the storage format 1 to the storage format 2; the indexes must not be updated meanwhile"));
+        group.addOption(new Option("is", "index-stats", false,
+            "print the number of rows and keywords and the average chain length of the indexes"));
         options.addOptionGroup(group);
         options.addOption(new Option("or", "disjunction", false,
             "run a disjunction (OR) between the search words. Defaults to conjunction (AND)"));
@@ -273,6 +424,15 @@ public class CliParser {
             new Option("du", "dse-username", true, "the username to connect to the DSE server. Defaults to NULL"));
         options.addOption(
             new Option("dup", "dse-password", true, "the password to connect to the DSE server. Defaults to NULL"));
+        options.addOption(new Option("dz", "dse-compression", false, "compress the DSE protocol frames with LZ4"));
+        options.addOption(new Option("drc", "dse-read-consistency", true,
+            "the consistency level of the reads of the indexes e.g. LOCAL_QUORUM. Defaults to LOCAL_ONE"));
+        options.addOption(new Option("dwc", "dse-write-consistency", true,
+            "the consistency level of the writes of the indexes e.g. LOCAL_QUORUM. Defaults to LOCAL_ONE"));
+        options.addOption(new Option("dsc", "dse-serial-consistency", true,
+            "the consistency level of the conditional updates of the indexes: SERIAL or LOCAL_SERIAL. Defaults to SERIAL"));
+        options.addOption(new Option("dsd", "dse-speculative-delay", true,
+            "send a read of the indexes to a second replica when the first one did not answer after this delay in milliseconds. Defaults to none"));
         options.addOption(new Option("ms", "max-size", true,
             "the maximum size in mega bytes of an encrypted file before it rolls over to a new file. Defaults to MAX_INT (2 147 483 647)"));
         options.addOption(new Option("ma", "max-age", true,
@@ -281,6 +441,34 @@ public class CliParser {
             new Option("zi", "drop-indexes", false, "drop the indexes before running the injector (i.e. --encrypt)"));
         options
             .addOption(new Option("kt", "kafka", false, "when encrypting the list of passed input are kafka topics"));
+        options.addOption(new Option("sp", "search-parallelism", true,
+            "the number of search words whose index chains are walked concurrently. Defaults to 1"));
+        options.addOption(new Option("sc", "search-chunk-size", true,
+            "stream the index chains in reads of this number of keys while they are derived. Defaults to 0 (a single read per chain)"));
+        options.addOption(new Option("ss", "segment-size", true,
+            "the number of entries per segment of the index chains written when encrypting, e.g. 1000, which lifts the limit of 10 000 results per word; segmented indexes cannot be searched by versions without segments. Defaults to 0: unsegmented chains"));
+        options.addOption(new Option("cf", "checkpoint-file", true,
+            "a local file keeping the positions of the index chains and their results, so that repeated searches only walk the new entries"));
+        options.addOption(new Option("cc", "chain-cache", true,
+            "when searching, the size in mega bytes of an in-memory cache of the index chains, shared by the search words. Defaults to none"));
+        options.addOption(new Option("cco", "chain-cache-off-heap", true,
+            "with --chain-cache, the size in mega bytes (at most 2047) of an off-heap tier receiving the entries evicted from the cache. Defaults to 0"));
+        options.addOption(new Option("sf", "storage-format", true,
+            "the storage format of the indexes: 1 (text keys) or 2 (binary keys, see --migrate-indexes). Defaults to 1"));
+        options.addOption(new Option("rs", "recount-stats", false,
+            "with --index-stats, recount the rows of the indexes with a full scan of the tables first; needed once for indexes written by earlier versions"));
+        options.addOption(new Option("hw", "hot-words", true,
+            "when encrypting, hold the index entries of the words found in at least this number of records of a batch of 100 and write them together, up to 10 000 entries or 10 seconds. Defaults to 0 (disabled)"));
+        options.addOption(new Option("iw", "injector-workers", true,
+            "when encrypting standalone, the number of threads parsing the records and encrypting their headers. Defaults to the number of processors"));
+        options.addOption(new Option("iq", "injector-queue-depth", true,
+            "when encrypting standalone, the maximum number of records read and not yet written. Defaults to 1024"));
+        options.addOption(new Option("sq", "sse-queue-depth", true,
+            "when encrypting standalone, the maximum number of written records waiting to be indexed. Defaults to 1024"));
+        options.addOption(new Option("sm", "schema", true,
+            "when encrypting, the JSON schema file of the records: their indexed keywords, parts and attributes. Defaults to the schema of the example people directory"));
+        options.addOption(new Option("sh", "shared-headers", false,
+            "when encrypting, write the attributes encryption headers once per encrypted file instead of once per part of every record"));
 
         return options;
     }
@@ -290,6 +478,14 @@ public class CliParser {
         formatter.printHelp("usage: app SUB-COMMAND [OPTIONS] [SOURCE URI] [WORD1, WORD2,...]", cliOptions());
     }
 
+    static DefaultConsistencyLevel consistency(String level) throws AppException {
+        try {
+            return DefaultConsistencyLevel.valueOf(level.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new AppException("Invalid consistency level: " + level);
+        }
+    }
+
     static Key k(Path keysDirectory) throws AppException {
         LocalFileSystem fs = new LocalFileSystem();
         File kFile = keysDirectory.resolve(KeyGenerator.SSE_K_KEY_FILENAME).toFile();
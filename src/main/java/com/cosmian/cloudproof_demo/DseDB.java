@@ -1,39 +1,62 @@
 package com.cosmian.cloudproof_demo;
 
 import java.io.Serializable;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.AsyncDBInterface;
 import com.cosmian.cloudproof_demo.sse.DBEntryTableRecord;
 import com.cosmian.cloudproof_demo.sse.DBInterface;
+import com.cosmian.cloudproof_demo.sse.Sse.Bytes;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
 import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
 import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.CqlSessionBuilder;
-import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
-import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.BatchStatement;
 import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
-import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
 
 /**
  * Implementation of the {@link DBInterface} for DSE 5.1.20 Documentation
  * https://docs.datastax.com/en/dse/5.1/cql/index.html and https://docs.datastax.com/en/developer/java-driver/4.13/
+ * <p>
+ * The operations are natively asynchronous ({@link AsyncDBInterface}): the synchronous ones wait for them.
  */
-public class DseDB implements DBInterface, AutoCloseable, Serializable {
+public class DseDB implements DBInterface, AsyncDBInterface, AutoCloseable, Serializable {
+
+    private static final Logger logger = Logger.getLogger(DseDB.class.getName());
 
     public static class DseEntryTableRecord implements DBEntryTableRecord {
 
@@ -58,7 +81,236 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
 
     }
 
-    private static final Logger logger = Logger.getLogger(DseDB.class.getName());
+    /**
+     * The layout of the index tables
+     */
+    public enum StorageFormat {
+        /** the entry_table and chain_table tables, keyed by the Base64 encoding of the keys */
+        V1("entry_table", "chain_table", "text"),
+        /** the entry_table_v2 and chain_table_v2 tables, keyed by the binary keys */
+        V2("entry_table_v2", "chain_table_v2", "blob");
+
+        final String entryTable;
+
+        final String chainTable;
+
+        final String keyType;
+
+        StorageFormat(String entryTable, String chainTable, String keyType) {
+            this.entryTable = entryTable;
+            this.chainTable = chainTable;
+            this.keyType = keyType;
+        }
+    }
+
+    /**
+     * The statistics of the indexes, maintained by the upserts in the index_stats table
+     */
+    public static class Stats {
+
+        private final long entryTableRows;
+
+        private final long chainTableRows;
+
+        Stats(long entryTableRows, long chainTableRows) {
+            this.entryTableRows = entryTableRows;
+            this.chainTableRows = chainTableRows;
+        }
+
+        /**
+         * @return the number of rows of the Entry Table
+         */
+        public long getEntryTableRows() {
+            return entryTableRows;
+        }
+
+        /**
+         * @return the number of rows of the Chain Table
+         */
+        public long getChainTableRows() {
+            return chainTableRows;
+        }
+
+        /**
+         * @return the number of indexed keywords: one per Entry Table row
+         */
+        public long getKeywords() {
+            return entryTableRows;
+        }
+
+        /**
+         * @return the average number of Chain Table entries of a keyword, 0 if there is none
+         */
+        public double getAverageChainLength() {
+            return entryTableRows == 0 ? 0 : (double) chainTableRows / entryTableRows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d", entryTableRows) + " Entry Table rows (keywords), "
+                + String.format("%,d", chainTableRows) + " Chain Table rows, "
+                + String.format("%.1f", getAverageChainLength()) + " entries per keyword on average";
+        }
+    }
+
+    /**
+     * The operations on the indexes; each of them is executed with its own {@link ExecutionProfile}
+     */
+    public enum Operation {
+        /** the conditional inserts and updates of the Entry Table */
+        ENTRY_LWT("cosmian-entry-lwt"),
+        /** the reads of the Entry Table */
+        ENTRY_READ("cosmian-entry-read"),
+        /** the writes of the Chain Table and the copies of the migration */
+        CHAIN_WRITE("cosmian-chain-write"),
+        /** the reads of the Chain Table */
+        CHAIN_READ("cosmian-chain-read");
+
+        /** the name of the driver execution profile */
+        final String profileName;
+
+        Operation(String profileName) {
+            this.profileName = profileName;
+        }
+    }
+
+    /**
+     * The driver settings of an {@link Operation}: consistency levels, idempotence and speculative executions. The
+     * defaults are those of the driver: LOCAL_ONE, SERIAL and no speculative execution.
+     */
+    public static class ExecutionProfile implements Serializable {
+
+        private DefaultConsistencyLevel consistency = DefaultConsistencyLevel.LOCAL_ONE;
+
+        private DefaultConsistencyLevel serialConsistency = DefaultConsistencyLevel.SERIAL;
+
+        private boolean idempotent;
+
+        private int speculativeExecutions = 1;
+
+        private long speculativeDelayMs = 0;
+
+        /**
+         * @param idempotent whether the statements of the profile can be safely retried and speculatively executed
+         */
+        public ExecutionProfile(boolean idempotent) {
+            this.idempotent = idempotent;
+        }
+
+        public DefaultConsistencyLevel getConsistency() {
+            return consistency;
+        }
+
+        /**
+         * @param consistency the consistency level of the statements
+         * @return this profile
+         */
+        public ExecutionProfile withConsistency(DefaultConsistencyLevel consistency) {
+            if (consistency == null || consistency.isSerial()) {
+                throw new IllegalArgumentException("the consistency must be a non serial consistency level");
+            }
+            this.consistency = consistency;
+            return this;
+        }
+
+        public DefaultConsistencyLevel getSerialConsistency() {
+            return serialConsistency;
+        }
+
+        /**
+         * @param serialConsistency the consistency level of the Paxos phase of the conditional updates: SERIAL or
+         *            LOCAL_SERIAL
+         * @return this profile
+         */
+        public ExecutionProfile withSerialConsistency(DefaultConsistencyLevel serialConsistency) {
+            if (serialConsistency == null || !serialConsistency.isSerial()) {
+                throw new IllegalArgumentException("the serial consistency must be SERIAL or LOCAL_SERIAL");
+            }
+            this.serialConsistency = serialConsistency;
+            return this;
+        }
+
+        public boolean isIdempotent() {
+            return idempotent;
+        }
+
+        /**
+         * @param idempotent whether the statements of the profile can be safely retried and speculatively executed
+         * @return this profile
+         */
+        public ExecutionProfile withIdempotent(boolean idempotent) {
+            if (!idempotent && this.speculativeExecutions > 1) {
+                throw new IllegalArgumentException("speculative executions require idempotent statements");
+            }
+            this.idempotent = idempotent;
+            return this;
+        }
+
+        public int getSpeculativeExecutions() {
+            return speculativeExecutions;
+        }
+
+        public long getSpeculativeDelayMs() {
+            return speculativeDelayMs;
+        }
+
+        /**
+         * Start another execution of a statement on the next node of the query plan when it did not complete after the
+         * delay, up to a maximum number of executions; the first response wins. This trims the tail latency due to a
+         * slow replica at the cost of extra load.
+         *
+         * @param maxExecutions the maximum number of executions of a statement, including the first one; 1 disables
+         *            the speculative executions
+         * @param delayMs the delay in milliseconds between executions
+         * @return this profile
+         */
+        public ExecutionProfile withSpeculativeExecutions(int maxExecutions, long delayMs) {
+            if (maxExecutions < 1) {
+                throw new IllegalArgumentException("the maximum number of executions must be at least 1");
+            }
+            if (delayMs < 0) {
+                throw new IllegalArgumentException("the speculative execution delay cannot be negative");
+            }
+            if (maxExecutions > 1 && !this.idempotent) {
+                throw new IllegalArgumentException("speculative executions require idempotent statements");
+            }
+            this.speculativeExecutions = maxExecutions;
+            this.speculativeDelayMs = delayMs;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ExecutionProfile)) {
+                return false;
+            }
+            ExecutionProfile other = (ExecutionProfile) o;
+            return consistency == other.consistency && serialConsistency == other.serialConsistency
+                && idempotent == other.idempotent && speculativeExecutions == other.speculativeExecutions
+                && speculativeDelayMs == other.speculativeDelayMs;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(consistency, serialConsistency, idempotent, speculativeExecutions, speculativeDelayMs);
+        }
+    }
+
+    /**
+     * How the Chain Table entries of an upsert are written. Chain Table entries are immutable and their inserts
+     * idempotent, so they do not need the atomicity of a logged batch.
+     */
+    public enum ChainWriteStrategy {
+        /** a single logged batch across all the partitions */
+        LOGGED,
+        /** concurrent single partition inserts */
+        ASYNC,
+        /** concurrent unlogged batches of the entries sharing the same replicas */
+        UNLOGGED
+    }
 
     public static class Configuration implements Serializable {
         private final String ip;
@@ -73,6 +325,24 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
 
         private final String keyspace;
 
+        private StorageFormat storageFormat = StorageFormat.V1;
+
+        private final EnumMap<Operation, ExecutionProfile> profiles = new EnumMap<>(Operation.class);
+
+        private boolean compression = false;
+
+        private int maxUpdatesInFlight = 32;
+
+        private int readChunkSize = 100;
+
+        private int maxReadsInFlight = 16;
+
+        private ChainWriteStrategy chainWriteStrategy = ChainWriteStrategy.ASYNC;
+
+        private int maxWritesInFlight = 32;
+
+        private int writeBatchSize = 50;
+
         public Configuration(String ip, int port, String dataCenter, String username, String password,
             String keyspace) {
             this.ip = ip;
@@ -81,6 +351,11 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
             this.username = username;
             this.password = password;
             this.keyspace = keyspace;
+            // the conditional updates must not be replayed
+            this.profiles.put(Operation.ENTRY_LWT, new ExecutionProfile(false));
+            this.profiles.put(Operation.ENTRY_READ, new ExecutionProfile(true));
+            this.profiles.put(Operation.CHAIN_WRITE, new ExecutionProfile(true));
+            this.profiles.put(Operation.CHAIN_READ, new ExecutionProfile(true));
         }
 
         /**
@@ -90,12 +365,274 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
             this("127.0.0.1", 9042, "dc1", null, null, null);
         }
 
+        public String getIp() {
+            return ip;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getDataCenter() {
+            return dataCenter;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public String getKeyspace() {
+            return keyspace;
+        }
+
+        /**
+         * @return the keyspace of the tables: the configured one, or cosmian_sse if none
+         */
+        String keyspaceName() {
+            return keyspace == null ? "cosmian_sse" : keyspace;
+        }
+
+        /**
+         * Two configurations are equal when they connect to the same contact point, data center and keyspace with the
+         * same credentials, execution profiles and compression; they then share the same session. The other tuning
+         * parameters are not compared.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Configuration)) {
+                return false;
+            }
+            Configuration other = (Configuration) o;
+            return port == other.port && Objects.equals(ip, other.ip) && Objects.equals(dataCenter, other.dataCenter)
+                && Objects.equals(username, other.username) && Objects.equals(password, other.password)
+                && Objects.equals(keyspace, other.keyspace) && profiles.equals(other.profiles)
+                && compression == other.compression;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ip, port, dataCenter, username, password, keyspace, profiles, compression);
+        }
+
+        /**
+         * @param operation the operation
+         * @return the {@link ExecutionProfile} of the operation
+         */
+        public ExecutionProfile getProfile(Operation operation) {
+            return profiles.get(operation);
+        }
+
+        /**
+         * Set the execution profile of an operation. The profiles are set on the session: they must be set before the
+         * first {@link DseDB} of the configuration is created.
+         *
+         * @param operation the operation
+         * @param profile the {@link ExecutionProfile}; the conditional updates of {@link Operation#ENTRY_LWT} cannot
+         *            be idempotent
+         * @return this configuration
+         */
+        public Configuration withProfile(Operation operation, ExecutionProfile profile) {
+            if (profile == null) {
+                throw new IllegalArgumentException("the execution profile cannot be null");
+            }
+            if (operation == Operation.ENTRY_LWT && profile.isIdempotent()) {
+                throw new IllegalArgumentException("the conditional updates of the Entry Table are not idempotent");
+            }
+            this.profiles.put(operation, profile);
+            return this;
+        }
+
+        /**
+         * @return true if the protocol frames are compressed with LZ4
+         */
+        public boolean isCompression() {
+            return compression;
+        }
+
+        /**
+         * Compress the protocol frames with LZ4, trading CPU for network bandwidth on the large chain reads. The
+         * lz4-java library must be on the class path.
+         *
+         * @param compression true to compress
+         * @return this configuration
+         */
+        public Configuration withCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @return the layout of the index tables
+         */
+        public StorageFormat getStorageFormat() {
+            return storageFormat;
+        }
+
+        /**
+         * Set the layout of the index tables. {@link StorageFormat#V2} stores the binary keys instead of their Base64
+         * encoding, which saves the encoding and a third of the key bytes on disk and in the caches; existing
+         * {@link StorageFormat#V1} indexes are copied with {@link DseDB#migrateToV2()}.
+         *
+         * @param storageFormat the {@link StorageFormat}
+         * @return this configuration
+         */
+        public Configuration withStorageFormat(StorageFormat storageFormat) {
+            if (storageFormat == null) {
+                throw new IllegalArgumentException("the storage format cannot be null");
+            }
+            this.storageFormat = storageFormat;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of concurrent conditional updates of the Entry Table
+         */
+        public int getMaxUpdatesInFlight() {
+            return maxUpdatesInFlight;
+        }
+
+        /**
+         * Set the maximum number of Entry Table conditional updates (LWT) sent concurrently by an upsert. Each of them
+         * costs a Paxos round trip; 1 sends them one after the other.
+         *
+         * @param maxUpdatesInFlight the number of concurrent updates; must be at least 1
+         * @return this configuration
+         */
+        public Configuration withMaxUpdatesInFlight(int maxUpdatesInFlight) {
+            if (maxUpdatesInFlight < 1) {
+                throw new IllegalArgumentException("the maximum number of updates in flight must be at least 1");
+            }
+            this.maxUpdatesInFlight = maxUpdatesInFlight;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of keys of a read of the Entry Table or the Chain Table
+         */
+        public int getReadChunkSize() {
+            return readChunkSize;
+        }
+
+        /**
+         * Set the maximum number of keys of a read. The keys of a lookup are grouped by replicas when the token map
+         * is known, split in chunks of this size and each chunk is routed to one of its replicas, so that the
+         * coordinator does not fan out to other nodes. 1 reads the keys one by one.
+         *
+         * @param readChunkSize the number of keys per read; must be at least 1
+         * @return this configuration
+         */
+        public Configuration withReadChunkSize(int readChunkSize) {
+            if (readChunkSize < 1) {
+                throw new IllegalArgumentException("the read chunk size must be at least 1");
+            }
+            this.readChunkSize = readChunkSize;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of concurrent reads of a lookup
+         */
+        public int getMaxReadsInFlight() {
+            return maxReadsInFlight;
+        }
+
+        /**
+         * Set the maximum number of chunk reads sent concurrently by a lookup of the Entry Table or the Chain Table
+         *
+         * @param maxReadsInFlight the number of concurrent reads; must be at least 1
+         * @return this configuration
+         */
+        public Configuration withMaxReadsInFlight(int maxReadsInFlight) {
+            if (maxReadsInFlight < 1) {
+                throw new IllegalArgumentException("the maximum number of reads in flight must be at least 1");
+            }
+            this.maxReadsInFlight = maxReadsInFlight;
+            return this;
+        }
+
+        /**
+         * @return the strategy writing the Chain Table entries
+         */
+        public ChainWriteStrategy getChainWriteStrategy() {
+            return chainWriteStrategy;
+        }
+
+        /**
+         * Set the strategy writing the Chain Table entries of an upsert
+         *
+         * @param chainWriteStrategy the {@link ChainWriteStrategy}
+         * @return this configuration
+         */
+        public Configuration withChainWriteStrategy(ChainWriteStrategy chainWriteStrategy) {
+            if (chainWriteStrategy == null) {
+                throw new IllegalArgumentException("the chain write strategy cannot be null");
+            }
+            this.chainWriteStrategy = chainWriteStrategy;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of concurrent Chain Table writes of an upsert
+         */
+        public int getMaxWritesInFlight() {
+            return maxWritesInFlight;
+        }
+
+        /**
+         * Set the maximum number of inserts or batches sent concurrently by an upsert of the Chain Table. Not used by
+         * the {@link ChainWriteStrategy#LOGGED} strategy.
+         *
+         * @param maxWritesInFlight the number of concurrent writes; must be at least 1
+         * @return this configuration
+         */
+        public Configuration withMaxWritesInFlight(int maxWritesInFlight) {
+            if (maxWritesInFlight < 1) {
+                throw new IllegalArgumentException("the maximum number of writes in flight must be at least 1");
+            }
+            this.maxWritesInFlight = maxWritesInFlight;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of entries of an unlogged Chain Table batch
+         */
+        public int getWriteBatchSize() {
+            return writeBatchSize;
+        }
+
+        /**
+         * Set the maximum number of entries of a batch of the {@link ChainWriteStrategy#UNLOGGED} strategy
+         *
+         * @param writeBatchSize the number of entries per batch; must be at least 1
+         * @return this configuration
+         */
+        public Configuration withWriteBatchSize(int writeBatchSize) {
+            if (writeBatchSize < 1) {
+                throw new IllegalArgumentException("the write batch size must be at least 1");
+            }
+            this.writeBatchSize = writeBatchSize;
+            return this;
+        }
+
     }
 
     final CqlSession session;
 
     final String keyspace;
 
+    final Configuration configuration;
+
+    private final DseSessions.Shared shared;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
     /**
      * Connect to the local cassandra on 127.0.0.1:9042 at data center 'dc1'
      * 
@@ -112,8 +649,24 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
      * @throws CosmianException if the contact point canot be contacted
      */
     public DseDB(Configuration configuration) throws CosmianException {
-        this(configuration.ip, configuration.port, configuration.dataCenter, configuration.username,
-            configuration.password, configuration.keyspace);
+        this.configuration = configuration;
+        this.keyspace = configuration.keyspace;
+        this.shared = DseSessions.acquire(configuration);
+        this.session = this.shared.session;
+    }
+
+    /**
+     * A DSE instance whose session, when none is open for the configuration, is opened by the connector
+     * 
+     * @param configuration the DSE configuration
+     * @param connector the connector opening the session
+     * @throws CosmianException if the session cannot be opened
+     */
+    DseDB(Configuration configuration, DseSessions.Connector connector) throws CosmianException {
+        this.configuration = configuration;
+        this.keyspace = configuration.keyspace;
+        this.shared = DseSessions.acquire(configuration, connector);
+        this.session = this.shared.session;
     }
 
     /**
@@ -129,108 +682,342 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
      */
     public DseDB(String ipAddress, int port, String dataCenter, String username, String password, String keyspace)
         throws CosmianException {
-        this.keyspace = keyspace;
-        try {
-            CqlSessionBuilder sessionBuilder =
-                CqlSession.builder().addContactPoint(new InetSocketAddress(ipAddress, port));
-            sessionBuilder = sessionBuilder.withConfigLoader(DriverConfigLoader.programmaticBuilder()
-                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofMillis(60000)).build());
-
-            if (dataCenter != null) {
-                sessionBuilder = sessionBuilder.withLocalDatacenter(dataCenter);
-            }
-            if (username != null) {
-                sessionBuilder = sessionBuilder.withAuthCredentials(username, password);
-            }
-            CqlSession session = sessionBuilder.build();
-            {
-                // 2.3.0 - deactivated because fails if the user does not have the right to
-                // create a keyspace even if the keyspace already exists
-                // null is the value for testing
-                if (keyspace == null) {
-                    session.execute("CREATE KEYSPACE IF NOT EXISTS cosmian_sse " + "WITH REPLICATION = { "
-                        + "'class' : 'SimpleStrategy', " + "'replication_factor' : 1 " + "};");
-                }
-                session.execute("CREATE TABLE IF NOT EXISTS cosmian_sse.entry_table "
-                    + "(key text , ciphertext blob, revision int, PRIMARY KEY(key));");
-                session.execute("CREATE TABLE IF NOT EXISTS cosmian_sse.chain_table "
-                    + "(key text , ciphertext blob, PRIMARY KEY(key));");
-            }
-            this.session = session;
-        } catch (Exception e) {
-            throw new CosmianException("Failed initializing the DSE DB: " + e.getMessage(), e);
-        }
+        this(new Configuration(ipAddress, port, dataCenter, username, password, keyspace));
     }
 
     @Override
     public HashMap<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes)
         throws CosmianException {
-        try {
-            PreparedStatement prepared = session.prepare("SELECT key, revision, ciphertext from "
-                + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".entry_table " + "WHERE key IN ?;");
-            List<String> list = new ArrayList<String>();
+        return AsyncDBInterface.await(selectEntryTable(wordHashes));
+    }
+
+    @Override
+    public CompletionStage<Map<WordHash, DBEntryTableRecord>> getEntryTableEntriesAsync(Set<WordHash> wordHashes) {
+        return selectEntryTable(wordHashes).thenApply(results -> results);
+    }
+
+    private CompletableFuture<HashMap<WordHash, DBEntryTableRecord>> selectEntryTable(Set<WordHash> wordHashes) {
+        return async("select in Entry Table", () -> {
+            PreparedStatement prepared = this.shared
+                .prepare("SELECT key, revision, ciphertext from " + entryTable() + " " + "WHERE key IN ?;");
+            List<Object> list = new ArrayList<>();
             for (WordHash wh : wordHashes) {
-                list.add(wh.toString());
+                list.add(bindKey(wh));
             }
-            BoundStatement bound = prepared.bind(list);
-            ResultSet rs = this.session.execute(bound);
             HashMap<WordHash, DBEntryTableRecord> results = new HashMap<>();
-            for (Row row : rs.all()) {
+            return selectByKeys(prepared, list, Operation.ENTRY_READ, row -> {
                 DseEntryTableRecord rec =
                     new DseEntryTableRecord(row.get(1, Integer.class), row.get(2, ByteBuffer.class).array());
-                results.put(WordHash.fromString(row.get(0, String.class)), rec);
-            }
-            return results;
-        } catch (Exception e) {
-            throw new CosmianException("select in Entry Table failed: " + e.getMessage(), e);
-        }
+                WordHash wordHash = new WordHash(keyBytes(row));
+                synchronized (results) {
+                    results.put(wordHash, rec);
+                }
+            }).thenApply(done -> results);
+        });
     }
 
     @Override
     public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
         throws CosmianException {
-        PreparedStatement insert =
-            session.prepare("INSERT INTO " + (this.keyspace == null ? "cosmian_sse" : this.keyspace)
-                + ".entry_table (key, revision, ciphertext) VALUES (:key, :revision, :ciphertext) IF NOT EXISTS");
-        PreparedStatement update = session.prepare("UPDATE " + (this.keyspace == null ? "cosmian_sse" : this.keyspace)
-            + ".entry_table SET revision = :new_revision, ciphertext = :ciphertext WHERE key = :key IF revision = :old_revision");
-        Map<WordHash, Boolean> results = new HashMap<>();
-        try {
-            for (Map.Entry<WordHash, DBEntryTableRecord> entry : entries.entrySet()) {
-                String key = entry.getKey().toString();
+        return AsyncDBInterface.await(upsertEntryTableEntriesAsync(entries));
+    }
+
+    @Override
+    public CompletionStage<Map<WordHash, Boolean>> upsertEntryTableEntriesAsync(
+        Map<WordHash, DBEntryTableRecord> entries) {
+        return async("upsert in Entry Table", () -> {
+            // the results are collected on the driver threads
+            Map<WordHash, Boolean> results = new ConcurrentHashMap<>();
+            AtomicLong inserted = new AtomicLong();
+            PreparedStatement insert = this.shared.prepare("INSERT INTO " + entryTable()
+                + " (key, revision, ciphertext) VALUES (:key, :revision, :ciphertext) IF NOT EXISTS");
+            PreparedStatement update = this.shared.prepare("UPDATE " + entryTable()
+                + " SET revision = :new_revision, ciphertext = :ciphertext"
+                + " WHERE key = :key IF revision = :old_revision");
+            return executeAll(entries.entrySet(), entry -> {
+                Object key = bindKey(entry.getKey());
                 int revision = entry.getValue().getRevision();
                 ByteBuffer ciphertext = ByteBuffer.wrap(entry.getValue().getEncryptedValue());
-                BoundStatement bound;
                 if (revision == 0) {
                     // should be a new entry - attempt insert
-                    bound = insert.bind(key, revision, ciphertext);
+                    return profile(insert.bind(key, revision, ciphertext), Operation.ENTRY_LWT);
+                }
+                // should be an update t the next revision
+                return profile(update.bind(revision, ciphertext, key, revision - 1), Operation.ENTRY_LWT);
+            }, this.configuration.maxUpdatesInFlight,
+                (entry, result) -> {
+                    results.put(entry.getKey(), result.wasApplied());
+                    if (result.wasApplied() && entry.getValue().getRevision() == 0) {
+                        inserted.incrementAndGet();
+                    }
+                }).thenCompose(done -> addRows(this.configuration.storageFormat.entryTable, inserted.get()))
+                .thenApply(done -> results);
+        });
+    }
+
+    /**
+     * Issue an operation and map its failure, synchronous or not, to a {@link CosmianException}
+     *
+     * @param operation the name of the operation in the error message
+     * @param issue issues the statements of the operation; it is called on the calling thread
+     * @return the future of the operation
+     */
+    private static <T> CompletableFuture<T> async(String operation, Supplier<CompletableFuture<T>> issue) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> future;
+        try {
+            future = issue.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                : error;
+            result.completeExceptionally(new CosmianException(operation + " failed: " + cause.getMessage(), cause));
+        });
+        return result;
+    }
+
+    /**
+     * Execute a statement per item asynchronously, with at most maxInFlight statements in flight, without blocking
+     * the calling thread: the first statements are issued by the call and each completed statement issues the next
+     * one from the driver thread it completed on. The result pages are handed to the consumer on the driver threads,
+     * as they arrive. After a failure, the remaining items are skipped.
+     *
+     * @param items the items
+     * @param statement builds the statement of an item; it must not block
+     * @param maxInFlight the maximum number of statements in flight
+     * @param onResult consumes a page of the result of the statement of an item; it must not block
+     * @return completes when all the statements completed, exceptionally with the first failure
+     */
+    private <T> CompletableFuture<Void> executeAll(Collection<T> items, Function<T, Statement<?>> statement,
+        int maxInFlight, BiConsumer<T, AsyncResultSet> onResult) {
+        return new Window<>(items, statement, onResult).start(maxInFlight);
+    }
+
+    /**
+     * The statements of {@link #executeAll(Collection, Function, int, BiConsumer)}
+     */
+    private final class Window<T> {
+
+        private final Iterator<T> items;
+
+        private final Function<T, Statement<?>> statement;
+
+        private final BiConsumer<T, AsyncResultSet> onResult;
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // the items whose statement has not completed
+        private int remaining;
+
+        Window(Collection<T> items, Function<T, Statement<?>> statement, BiConsumer<T, AsyncResultSet> onResult) {
+            this.items = items.iterator();
+            this.remaining = items.size();
+            this.statement = statement;
+            this.onResult = onResult;
+        }
 
+        CompletableFuture<Void> start(int maxInFlight) {
+            if (this.remaining == 0) {
+                this.done.complete(null);
+            }
+            for (int i = 0; i < maxInFlight; i++) {
+                next();
+            }
+            return this.done;
+        }
+
+        /**
+         * Issue the statement of the next item, if any
+         */
+        private void next() {
+            while (true) {
+                T item;
+                synchronized (this) {
+                    if (!this.items.hasNext()) {
+                        return;
+                    }
+                    item = this.items.next();
+                }
+                if (this.failure.get() == null) {
+                    try {
+                        session.executeAsync(this.statement.apply(item))
+                            .whenComplete((result, error) -> onPage(item, result, error));
+                        return;
+                    } catch (RuntimeException e) {
+                        this.failure.compareAndSet(null, e);
+                    }
+                }
+                completed();
+            }
+        }
+
+        /**
+         * Consume a page of the result of a statement then fetch the next one, or issue the next statement once the
+         * last page is consumed
+         */
+        private void onPage(T item, AsyncResultSet result, Throwable error) {
+            try {
+                if (error != null) {
+                    this.failure.compareAndSet(null, error);
                 } else {
-                    // should be an update t the next revision
-                    bound = update.bind(revision, ciphertext, key, revision - 1);
+                    this.onResult.accept(item, result);
+                    if (result.hasMorePages() && this.failure.get() == null) {
+                        result.fetchNextPage().whenComplete((nextPage, e) -> onPage(item, nextPage, e));
+                        return;
+                    }
                 }
-                ResultSet result = session.execute(bound);
-                results.put(entry.getKey(), result.wasApplied());
+            } catch (Throwable t) {
+                this.failure.compareAndSet(null, t);
             }
-        } catch (Exception e) {
-            throw new CosmianException("upsert in Entry Table failed: " + e.getMessage(), e);
+            completed();
+            next();
+        }
+
+        private void completed() {
+            boolean last;
+            synchronized (this) {
+                last = --this.remaining == 0;
+            }
+            if (!last) {
+                return;
+            }
+            Throwable t = this.failure.get();
+            if (t == null) {
+                this.done.complete(null);
+            } else {
+                this.done.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Select the rows of a list of keys with a <code>WHERE key IN ?</code> statement. The keys are grouped by
+     * replicas when the token map is known, split in chunks of at most the read chunk size, and each chunk is routed
+     * to its replicas. The chunks are read concurrently and their rows streamed to the consumer page by page.
+     *
+     * @param selectIn the prepared select statement with the list of keys as its only parameter
+     * @param keys the keys
+     * @param operation the {@link Operation} whose profile the reads are executed with
+     * @param onRow consumes a row on a driver thread; it must not block
+     * @return completes when all the rows were consumed, exceptionally if a read fails
+     */
+    private CompletableFuture<Void> selectByKeys(PreparedStatement selectIn, Collection<Object> keys,
+        Operation operation, Consumer<Row> onRow) {
+        int chunkSize = this.configuration.readChunkSize;
+        List<List<Object>> chunks = new ArrayList<>();
+        for (List<Object> group : groupByReplicas(keys)) {
+            for (int i = 0; i < group.size(); i += chunkSize) {
+                chunks.add(group.subList(i, Math.min(i + chunkSize, group.size())));
+            }
+        }
+        return executeAll(chunks,
+            chunk -> profile(selectIn.bind(chunk).setRoutingKey(routingKey(chunk.get(0))), operation),
+            this.configuration.maxReadsInFlight, (chunk, page) -> {
+                for (Row row : page.currentPage()) {
+                    onRow.accept(row);
+                }
+            });
+    }
+
+    /**
+     * Group the keys by their set of replicas, or in a single group if the token map is not available
+     */
+    private <K> Collection<List<K>> groupByReplicas(Collection<K> keys) {
+        Optional<TokenMap> tokenMap = this.session.getMetadata().getTokenMap();
+        if (!tokenMap.isPresent() || keys.size() <= 1) {
+            return Collections.singletonList(new ArrayList<>(keys));
+        }
+        String keyspaceName = this.configuration.keyspaceName();
+        Map<Set<Node>, List<K>> groups = new HashMap<>();
+        for (K key : keys) {
+            Set<Node> replicas = tokenMap.get().getReplicas(keyspaceName, routingKey(key));
+            groups.computeIfAbsent(replicas, r -> new ArrayList<>()).add(key);
+        }
+        return groups.values();
+    }
+
+    /**
+     * @return the statement executed with the execution profile of the operation
+     */
+    private <S extends Statement<S>> S profile(S statement, Operation operation) {
+        return statement.setExecutionProfileName(operation.profileName)
+            .setIdempotent(this.configuration.getProfile(operation).isIdempotent());
+    }
+
+    /**
+     * @return the serialized partition key of a bound key: a text key in V1, a blob key in V2
+     */
+    private static ByteBuffer routingKey(Object key) {
+        if (key instanceof ByteBuffer) {
+            return ((ByteBuffer) key).duplicate();
+        }
+        return ByteBuffer.wrap(((String) key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the value bound to the key column for a key of the indexes
+     */
+    private Object bindKey(Bytes key) {
+        if (this.configuration.storageFormat == StorageFormat.V1) {
+            return key.toString();
+        }
+        return ByteBuffer.wrap(key.bytes());
+    }
+
+    /**
+     * @return the key of the indexes in the first column of a row
+     */
+    private byte[] keyBytes(Row row) {
+        if (this.configuration.storageFormat == StorageFormat.V1) {
+            return Base64.getDecoder().decode(row.getString(0));
         }
-        return results;
+        return bytes(row.getByteBuffer(0));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private String entryTable() {
+        return this.configuration.keyspaceName() + "."
+            + this.configuration.storageFormat.entryTable;
+    }
+
+    private String chainTable() {
+        return this.configuration.keyspaceName() + "."
+            + this.configuration.storageFormat.chainTable;
     }
 
     public void truncateEntryTable() throws CosmianException {
         try {
-            this.session
-                .execute("TRUNCATE " + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".entry_table;");
+            this.session.execute("TRUNCATE " + entryTable() + ";");
         } catch (Exception e) {
             throw new CosmianException("truncate of Entry Table failed: " + e.getMessage(), e);
         }
+        resetRows(this.configuration.storageFormat.entryTable, 0);
     }
 
+    /**
+     * Count the rows of the Entry Table. This is a full scan of the table which times out on large indexes: use
+     * {@link #stats()} instead.
+     *
+     * @return the number of rows
+     * @throws CosmianException if the count fails
+     */
     public long entryTableSize() throws CosmianException {
         try {
-            ResultSet rs = this.session.execute(
-                "SELECT COUNT(*) FROM " + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".entry_table;");
+            ResultSet rs = this.session.execute("SELECT COUNT(*) FROM " + entryTable() + ";");
             Row row = rs.one();
             return row.getLong(0);
         } catch (Exception e) {
@@ -239,72 +1026,288 @@ public class DseDB implements DBInterface, AutoCloseable, Serializable {
     }
 
     @Override
-    public Set<byte[]> getChainTableEntries(Set<Key> chainTableKeys) throws CosmianException {
-        try {
-            PreparedStatement prepared = session.prepare("SELECT key, ciphertext from "
-                + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".chain_table " + "WHERE key IN ?;");
-            List<String> list = new ArrayList<String>();
+    public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+        return AsyncDBInterface.await(getChainTableEntriesByKeyAsync(chainTableKeys));
+    }
+
+    @Override
+    public CompletionStage<Map<Key, byte[]>> getChainTableEntriesByKeyAsync(Set<Key> chainTableKeys) {
+        return async("select in Chain Table", () -> {
+            PreparedStatement prepared =
+                this.shared.prepare("SELECT key, ciphertext from " + chainTable() + " " + "WHERE key IN ?;");
+            List<Object> list = new ArrayList<>();
             for (Key key : chainTableKeys) {
-                list.add(key.toString());
-            }
-            BoundStatement bound = prepared.bind(list);
-            ResultSet rs = this.session.execute(bound);
-            Set<byte[]> results = new HashSet<>();
-            for (Row row : rs.all()) {
-                results.add(row.get(1, ByteBuffer.class).array());
+                list.add(bindKey(key));
             }
-            return results;
-        } catch (Exception e) {
-            throw new CosmianException("select in Chain Table failed: " + e.getMessage(), e);
-        }
+            Map<Key, byte[]> results = new HashMap<>();
+            return selectByKeys(prepared, list, Operation.CHAIN_READ, row -> {
+                Key key = new Key(keyBytes(row));
+                byte[] value = row.get(1, ByteBuffer.class).array();
+                synchronized (results) {
+                    results.put(key, value);
+                }
+            }).thenApply(done -> results);
+        });
     }
 
     @Override
     public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
-        try {
-            PreparedStatement upsert =
-                session.prepare("INSERT INTO " + (this.keyspace == null ? "cosmian_sse" : this.keyspace)
-                    + ".chain_table (key, ciphertext) " + "VALUES (:key, :ciphertext)");
-            BatchStatementBuilder batchBuilder = BatchStatement.builder(DefaultBatchType.LOGGED);
-            for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
-                batchBuilder.addStatement(upsert.bind(entry.getKey().toString(), ByteBuffer.wrap(entry.getValue())));
-            }
-            BatchStatement batch = batchBuilder.build();
-            this.session.execute(batch);
-        } catch (Exception e) {
-            throw new CosmianException("upsert in Chain Table failed: " + e.getMessage(), e);
-        }
+        AsyncDBInterface.await(upsertChainTableEntriesAsync(entries));
+    }
 
+    @Override
+    public CompletionStage<Void> upsertChainTableEntriesAsync(Map<Key, byte[]> entries) {
+        return async("upsert in Chain Table", () -> {
+            PreparedStatement upsert = this.shared
+                .prepare("INSERT INTO " + chainTable() + " (key, ciphertext) " + "VALUES (:key, :ciphertext)");
+            CompletableFuture<Void> written;
+            switch (this.configuration.chainWriteStrategy) {
+                case LOGGED:
+                    BatchStatementBuilder batchBuilder = BatchStatement.builder(DefaultBatchType.LOGGED);
+                    for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+                        batchBuilder
+                            .addStatement(upsert.bind(bindKey(entry.getKey()), ByteBuffer.wrap(entry.getValue())));
+                    }
+                    BatchStatement batch = profile(batchBuilder.build(), Operation.CHAIN_WRITE);
+                    written = this.session.executeAsync(batch).toCompletableFuture().thenApply(result -> null);
+                    break;
+                case UNLOGGED:
+                    Map<Object, ByteBuffer> values = new HashMap<>(entries.size() * 2);
+                    for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+                        values.put(bindKey(entry.getKey()), ByteBuffer.wrap(entry.getValue()));
+                    }
+                    int batchSize = this.configuration.writeBatchSize;
+                    List<List<Object>> chunks = new ArrayList<>();
+                    for (List<Object> group : groupByReplicas(values.keySet())) {
+                        for (int i = 0; i < group.size(); i += batchSize) {
+                            chunks.add(group.subList(i, Math.min(i + batchSize, group.size())));
+                        }
+                    }
+                    written = executeAll(chunks, chunk -> {
+                        BatchStatementBuilder builder = BatchStatement.builder(DefaultBatchType.UNLOGGED);
+                        for (Object key : chunk) {
+                            builder.addStatement(upsert.bind(key, values.get(key)));
+                        }
+                        return profile(builder.setRoutingKey(routingKey(chunk.get(0))).build(), Operation.CHAIN_WRITE);
+                    }, this.configuration.maxWritesInFlight, (chunk, result) -> {
+                    });
+                    break;
+                case ASYNC:
+                default:
+                    written = executeAll(entries.entrySet(),
+                        entry -> profile(upsert.bind(bindKey(entry.getKey()), ByteBuffer.wrap(entry.getValue())),
+                            Operation.CHAIN_WRITE),
+                        this.configuration.maxWritesInFlight, (entry, result) -> {
+                        });
+                    break;
+            }
+            // Chain Table keys are never rewritten: every entry is a new row
+            return written.thenCompose(done -> addRows(this.configuration.storageFormat.chainTable, entries.size()));
+        });
     }
 
     public void truncateChainTable() throws CosmianException {
         try {
-            this.session
-                .execute("TRUNCATE " + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".chain_table;");
+            this.session.execute("TRUNCATE " + chainTable() + ";");
         } catch (Exception e) {
-            throw new CosmianException("truncate of Entry Table failed: " + e.getMessage(), e);
+            throw new CosmianException("truncate of Chain Table failed: " + e.getMessage(), e);
         }
+        resetRows(this.configuration.storageFormat.chainTable, 0);
     }
 
+    /**
+     * Count the rows of the Chain Table. This is a full scan of the table which times out on large indexes: use
+     * {@link #stats()} instead.
+     *
+     * @return the number of rows
+     * @throws CosmianException if the count fails
+     */
     public long chainTableSize() throws CosmianException {
         try {
-            ResultSet rs = this.session.execute(
-                "SELECT COUNT(*) FROM " + (this.keyspace == null ? "cosmian_sse" : this.keyspace) + ".chain_table;");
+            ResultSet rs = this.session.execute("SELECT COUNT(*) FROM " + chainTable() + ";");
             Row row = rs.one();
             return row.getLong(0);
         } catch (Exception e) {
-            throw new CosmianException("Count of Entry Table failed: " + e.getMessage(), e);
+            throw new CosmianException("Count of Chain Table failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copy the {@link StorageFormat#V1} tables to the {@link StorageFormat#V2} tables, creating them if needed. This is
+     * an offline migration: the indexes must not be updated while they are copied. The V1 tables are left untouched
+     * and may be dropped once the indexers and searches are configured with {@link StorageFormat#V2}.
+     *
+     * @return the number of copied Entry Table and Chain Table rows
+     * @throws CosmianException if the copy fails
+     */
+    public long[] migrateToV2() throws CosmianException {
+        String ks = this.configuration.keyspaceName();
+        DseSessions.checkSchema(this.session, this.configuration, StorageFormat.V2);
+        try {
+            PreparedStatement insertEntry = this.shared.prepare("INSERT INTO " + ks + "." + StorageFormat.V2.entryTable
+                + " (key, revision, ciphertext) VALUES (:key, :revision, :ciphertext)");
+            long entries = AsyncDBInterface.await(copyAsync(
+                "SELECT key, revision, ciphertext FROM " + ks + "." + StorageFormat.V1.entryTable + ";",
+                row -> profile(insertEntry.bind(ByteBuffer.wrap(Base64.getDecoder().decode(row.getString(0))),
+                    row.get(1, Integer.class), row.getByteBuffer(2)), Operation.CHAIN_WRITE)));
+
+            PreparedStatement insertChain = this.shared.prepare("INSERT INTO " + ks + "." + StorageFormat.V2.chainTable
+                + " (key, ciphertext) VALUES (:key, :ciphertext)");
+            long chains = AsyncDBInterface.await(
+                copyAsync("SELECT key, ciphertext FROM " + ks + "." + StorageFormat.V1.chainTable + ";",
+                    row -> profile(insertChain.bind(ByteBuffer.wrap(Base64.getDecoder().decode(row.getString(0))),
+                        row.getByteBuffer(1)), Operation.CHAIN_WRITE)));
+            resetRows(StorageFormat.V2.entryTable, entries);
+            resetRows(StorageFormat.V2.chainTable, chains);
+            return new long[] {entries, chains};
+        } catch (Exception e) {
+            throw new CosmianException("migration of the indexes to the V2 format failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copy the rows of a query: each page of rows is written with
+     * {@link #executeAll(Collection, Function, int, BiConsumer)} while the next page is fetched
+     *
+     * @param query the query of the rows
+     * @param insert builds the statement writing a row
+     * @return completes with the number of copied rows
+     */
+    private CompletableFuture<Long> copyAsync(String query, Function<Row, Statement<?>> insert) {
+        return copyPages(this.session.executeAsync(query), insert, new AtomicLong());
+    }
+
+    private CompletableFuture<Long> copyPages(CompletionStage<AsyncResultSet> page, Function<Row, Statement<?>> insert,
+        AtomicLong copied) {
+        return page.toCompletableFuture().thenCompose(rows -> {
+            List<Row> currentPage = new ArrayList<>(rows.remaining());
+            for (Row row : rows.currentPage()) {
+                currentPage.add(row);
+            }
+            CompletableFuture<Void> written = executeAll(currentPage, insert, this.configuration.maxWritesInFlight,
+                (row, result) -> copied.incrementAndGet());
+            if (!rows.hasMorePages()) {
+                return written.thenApply(done -> copied.get());
+            }
+            CompletionStage<AsyncResultSet> next = rows.fetchNextPage();
+            return written.thenCompose(done -> copyPages(next, insert, copied));
+        });
+    }
+
+    /**
+     * Read the statistics of the indexes. They are counters maintained by the upserts, truncations and migrations of
+     * the indexes: reading them is a single partition read, whatever the size of the indexes. Indexes written before
+     * the statistics existed must be counted once with {@link #recountStats()}.
+     *
+     * @return the {@link Stats} of the indexes of the configured storage format
+     * @throws CosmianException if the statistics cannot be read
+     */
+    public Stats stats() throws CosmianException {
+        try {
+            return new Stats(rows(this.configuration.storageFormat.entryTable),
+                rows(this.configuration.storageFormat.chainTable));
+        } catch (Exception e) {
+            throw new CosmianException("read of the index statistics failed: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Reset the statistics of the indexes to the actual number of rows of the tables. The tables are counted with a
+     * full scan (see {@link #entryTableSize()}): this is an offline operation for indexes written before the
+     * statistics existed.
+     *
+     * @return the recounted {@link Stats}
+     * @throws CosmianException if the tables cannot be counted
+     */
+    public Stats recountStats() throws CosmianException {
+        long entryTableRows = entryTableSize();
+        long chainTableRows = chainTableSize();
+        try {
+            setRows(this.configuration.storageFormat.entryTable, entryTableRows);
+            setRows(this.configuration.storageFormat.chainTable, chainTableRows);
+        } catch (Exception e) {
+            throw new CosmianException("update of the index statistics failed: " + e.getMessage(), e);
+        }
+        return new Stats(entryTableRows, chainTableRows);
+    }
+
+    private String statsTable() {
+        return this.configuration.keyspaceName() + ".index_stats";
+    }
+
+    /**
+     * Add the rows written by an upsert to the statistics of a table. The statistics are informative: a failure is
+     * logged and does not fail the upsert, whose rows are written.
+     *
+     * @return completes when the statistics were updated or failed updating
+     */
+    private CompletableFuture<Void> addRows(String table, long rows) {
+        if (rows == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> updated = new CompletableFuture<>();
+        try {
+            // counter updates are not idempotent: the driver does not retry them
+            this.session.executeAsync(incrementStatement().bind(rows, table)).whenComplete((result, error) -> {
+                if (error != null) {
+                    logger.warning(() -> "Failed updating the statistics of " + table + ": " + error.getMessage());
+                }
+                updated.complete(null);
+            });
+        } catch (RuntimeException e) {
+            logger.warning(() -> "Failed updating the statistics of " + table + ": " + e.getMessage());
+            updated.complete(null);
+        }
+        return updated;
+    }
+
+    private long rows(String table) {
+        Row row = this.session.execute(this.shared
+            .prepare("SELECT row_count FROM " + statsTable() + " WHERE table_name = :table_name").bind(table)).one();
+        return row == null || row.isNull(0) ? 0 : row.getLong(0);
+    }
+
+    /**
+     * Set the statistics of a table after a truncation or a migration, see {@link #setRows(String, long)}. The
+     * statistics are informative: a failure is logged and does not fail the operation.
+     */
+    private void resetRows(String table, long rows) {
+        try {
+            setRows(table, rows);
+        } catch (RuntimeException e) {
+            logger.warning(() -> "Failed updating the statistics of " + table + ": " + e.getMessage()
+                + ". Fix them with --index-stats --recount-stats");
+        }
+    }
+
+    /**
+     * Set the statistics of a table. Counters cannot be set: the difference with the current value is added, which
+     * is only exact when the table is not updated meanwhile.
+     */
+    private void setRows(String table, long rows) {
+        long delta = rows - rows(table);
+        if (delta != 0) {
+            incrementRows(table, delta);
+        }
+    }
+
+    private void incrementRows(String table, long delta) {
+        // counter updates are not idempotent: the driver does not retry them
+        this.session.execute(incrementStatement().bind(delta, table));
+    }
+
+    private PreparedStatement incrementStatement() {
+        return this.shared
+            .prepare("UPDATE " + statsTable() + " SET row_count = row_count + :delta WHERE table_name = :table_name");
+    }
+
+    /**
+     * Release the shared session of the configuration
+     */
     @Override
     public void close() {
-        if (this.session != null) {
-            try {
-                this.session.close();
-            } catch (Exception e) {
-                logger.warning(() -> "Failed closing the DSE session: " + e.getMessage());
-            }
+        if (this.shared != null && this.closed.compareAndSet(false, true)) {
+            DseSessions.release(this.shared);
         }
     }
 
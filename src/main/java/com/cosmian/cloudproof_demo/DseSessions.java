@@ -0,0 +1,292 @@
+package com.cosmian.cloudproof_demo;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.cosmian.CosmianException;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.CqlSessionBuilder;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.config.DriverConfigLoader;
+import com.datastax.oss.driver.api.core.config.ProgrammaticDriverConfigLoaderBuilder;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+
+/**
+ * The registry of the DSE sessions of the JVM, keyed by a snapshot of the settings of the {@link DseDB.Configuration}
+ * which the session depends on, see {@link DseDB.Configuration#equals(Object)}. A {@link DseDB} acquires the
+ * session of its configuration when it is created and releases it when it is closed: all the {@link DseDB} of a JVM
+ * connecting to the same cluster, such as the tasks of a Spark executor, share a single session, its prepared
+ * statements and its schema check.
+ * <p>
+ * A session which is no longer referenced lingers for {@link #LINGER_MS} before it is closed, so that short lived
+ * {@link DseDB} do not reconnect. The remaining sessions are closed on JVM shutdown.
+ * <p>
+ * The configurations are mutable: a configuration modified after its session was acquired still releases it, and
+ * the session is not shared with the configurations equal to the modified one.
+ */
+final class DseSessions {
+
+    private static final Logger logger = Logger.getLogger(DseSessions.class.getName());
+
+    /**
+     * The time in milliseconds an unreferenced session stays open
+     */
+    static final long LINGER_MS = 30_000;
+
+    private static final Map<List<Object>, Shared> sessions = new HashMap<>();
+
+    // the configuration keys and storage formats whose tables were created by this JVM
+    private static final Set<List<Object>> schemaChecked = new HashSet<>();
+
+    private static ScheduledExecutorService closer = null;
+
+    private static boolean shutdownHook = false;
+
+    private DseSessions() {
+    }
+
+    /**
+     * Opens the session of a configuration
+     */
+    interface Connector {
+        CqlSession connect(DseDB.Configuration configuration) throws CosmianException;
+    }
+
+    /**
+     * A session shared by the {@link DseDB} of a configuration
+     */
+    static class Shared {
+
+        private final List<Object> key;
+
+        final CqlSession session;
+
+        private final ConcurrentHashMap<String, PreparedStatement> prepared = new ConcurrentHashMap<>();
+
+        private int references = 0;
+
+        private ScheduledFuture<?> closing = null;
+
+        private Shared(List<Object> key, CqlSession session) {
+            this.key = key;
+            this.session = session;
+        }
+
+        /**
+         * Prepare a statement once per session
+         *
+         * @param cql the statement
+         * @return the prepared statement
+         */
+        PreparedStatement prepare(String cql) {
+            return this.prepared.computeIfAbsent(cql, this.session::prepare);
+        }
+    }
+
+    /**
+     * Acquire the session of a configuration, connecting and checking the schema if needed
+     *
+     * @param configuration the DSE configuration
+     * @return the shared session
+     * @throws CosmianException if the session cannot be created
+     */
+    static Shared acquire(DseDB.Configuration configuration) throws CosmianException {
+        return acquire(configuration, DseSessions::connect);
+    }
+
+    /**
+     * Acquire the session of a configuration, opening it with the connector and checking the schema if needed
+     *
+     * @param configuration the DSE configuration
+     * @param connector the connector opening the session when none is open
+     * @return the shared session
+     * @throws CosmianException if the session cannot be created
+     */
+    static synchronized Shared acquire(DseDB.Configuration configuration, Connector connector)
+        throws CosmianException {
+        List<Object> key = key(configuration);
+        Shared shared = sessions.get(key);
+        if (shared == null) {
+            CqlSession session = connector.connect(configuration);
+            try {
+                checkSchema(session, configuration, configuration.getStorageFormat());
+            } catch (CosmianException e) {
+                session.close();
+                throw e;
+            }
+            shared = new Shared(key, session);
+            sessions.put(key, shared);
+            if (!shutdownHook) {
+                Runtime.getRuntime().addShutdownHook(new Thread(DseSessions::closeAll, "dse-sessions-shutdown"));
+                shutdownHook = true;
+            }
+        } else {
+            checkSchema(shared.session, configuration, configuration.getStorageFormat());
+            if (shared.closing != null) {
+                shared.closing.cancel(false);
+                shared.closing = null;
+            }
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * Release a session acquired with {@link #acquire(DseDB.Configuration)}. The session is closed after lingering
+     * once it is no longer referenced.
+     *
+     * @param shared the shared session
+     */
+    static synchronized void release(Shared shared) {
+        shared.references--;
+        if (shared.references > 0 || sessions.get(shared.key) != shared) {
+            return;
+        }
+        if (closer == null) {
+            closer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "dse-sessions-closer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        shared.closing = closer.schedule(() -> closeIfUnused(shared), LINGER_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeIfUnused(Shared shared) {
+        synchronized (DseSessions.class) {
+            if (shared.references > 0 || sessions.get(shared.key) != shared) {
+                return;
+            }
+            sessions.remove(shared.key);
+        }
+        close(shared);
+    }
+
+    private static void closeAll() {
+        List<Shared> all;
+        synchronized (DseSessions.class) {
+            all = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        for (Shared shared : all) {
+            close(shared);
+        }
+    }
+
+    private static void close(Shared shared) {
+        try {
+            shared.session.close();
+        } catch (Exception e) {
+            logger.warning(() -> "Failed closing the DSE session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The settings of a configuration which its session depends on, copied so that the key of the session does not
+     * change when the configuration is modified
+     */
+    private static List<Object> key(DseDB.Configuration configuration) {
+        List<Object> key = new ArrayList<>(Arrays.asList(configuration.getIp(), configuration.getPort(),
+            configuration.getDataCenter(), configuration.getUsername(), configuration.getPassword(),
+            configuration.getKeyspace(), configuration.isCompression()));
+        for (DseDB.Operation operation : DseDB.Operation.values()) {
+            DseDB.ExecutionProfile profile = configuration.getProfile(operation);
+            key.add(Arrays.asList(profile.getConsistency(), profile.getSerialConsistency(), profile.isIdempotent(),
+                profile.getSpeculativeExecutions(), profile.getSpeculativeDelayMs()));
+        }
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Connect to DSE, with a driver execution profile per {@link DseDB.Operation}
+     */
+    private static CqlSession connect(DseDB.Configuration configuration) throws CosmianException {
+        try {
+            CqlSessionBuilder sessionBuilder = CqlSession.builder()
+                .addContactPoint(new InetSocketAddress(configuration.getIp(), configuration.getPort()));
+            ProgrammaticDriverConfigLoaderBuilder config = DriverConfigLoader.programmaticBuilder()
+                .withDuration(DefaultDriverOption.REQUEST_TIMEOUT, Duration.ofMillis(60000));
+            if (configuration.isCompression()) {
+                config = config.withString(DefaultDriverOption.PROTOCOL_COMPRESSION, "lz4");
+            }
+            for (DseDB.Operation operation : DseDB.Operation.values()) {
+                DseDB.ExecutionProfile profile = configuration.getProfile(operation);
+                config = config.startProfile(operation.profileName)
+                    .withString(DefaultDriverOption.REQUEST_CONSISTENCY, profile.getConsistency().name())
+                    .withString(DefaultDriverOption.REQUEST_SERIAL_CONSISTENCY, profile.getSerialConsistency().name())
+                    .withBoolean(DefaultDriverOption.REQUEST_DEFAULT_IDEMPOTENCE, profile.isIdempotent());
+                if (profile.getSpeculativeExecutions() > 1) {
+                    config = config
+                        .withString(DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS,
+                            "ConstantSpeculativeExecutionPolicy")
+                        .withInt(DefaultDriverOption.SPECULATIVE_EXECUTION_MAX, profile.getSpeculativeExecutions())
+                        .withDuration(DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY,
+                            Duration.ofMillis(profile.getSpeculativeDelayMs()));
+                }
+                config = config.endProfile();
+            }
+            sessionBuilder = sessionBuilder.withConfigLoader(config.build());
+
+            if (configuration.getDataCenter() != null) {
+                sessionBuilder = sessionBuilder.withLocalDatacenter(configuration.getDataCenter());
+            }
+            if (configuration.getUsername() != null) {
+                sessionBuilder =
+                    sessionBuilder.withAuthCredentials(configuration.getUsername(), configuration.getPassword());
+            }
+            return sessionBuilder.build();
+        } catch (Exception e) {
+            throw new CosmianException("Failed initializing the DSE DB: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Once per JVM, configuration and storage format, create the keyspace and tables if they do not exist
+     *
+     * @param session the session of the configuration
+     * @param configuration the DSE configuration
+     * @param format the storage format of the tables
+     * @throws CosmianException if the tables cannot be created
+     */
+    static synchronized void checkSchema(CqlSession session, DseDB.Configuration configuration,
+        DseDB.StorageFormat format) throws CosmianException {
+        List<Object> key = Arrays.asList(key(configuration), format);
+        if (!schemaChecked.add(key)) {
+            return;
+        }
+        try {
+            // 2.3.0 - deactivated because fails if the user does not have the right to
+            // create a keyspace even if the keyspace already exists
+            // null is the value for testing
+            if (configuration.getKeyspace() == null) {
+                session.execute("CREATE KEYSPACE IF NOT EXISTS cosmian_sse " + "WITH REPLICATION = { "
+                    + "'class' : 'SimpleStrategy', " + "'replication_factor' : 1 " + "};");
+            }
+            String keyspace = configuration.keyspaceName();
+            session.execute("CREATE TABLE IF NOT EXISTS " + keyspace + "." + format.entryTable + " (key "
+                + format.keyType + " , ciphertext blob, revision int, PRIMARY KEY(key));");
+            session.execute("CREATE TABLE IF NOT EXISTS " + keyspace + "." + format.chainTable + " (key "
+                + format.keyType + " , ciphertext blob, PRIMARY KEY(key));");
+            // the statistics of the tables of all the storage formats, see DseDB.stats()
+            session.execute("CREATE TABLE IF NOT EXISTS " + keyspace + ".index_stats "
+                + "(table_name text, row_count counter, PRIMARY KEY(table_name));");
+        } catch (Exception e) {
+            schemaChecked.remove(key);
+            throw new CosmianException("Failed initializing the DSE DB: " + e.getMessage(), e);
+        }
+    }
+}
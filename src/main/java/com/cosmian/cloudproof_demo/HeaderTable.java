@@ -0,0 +1,193 @@
+package com.cosmian.cloudproof_demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.cosmian.CosmianException;
+import com.cosmian.jna.FfiException;
+import com.cosmian.jna.cover_crypt.DecryptedHeader;
+import com.cosmian.jna.cover_crypt.EncryptedHeader;
+import com.cosmian.jna.cover_crypt.Ffi;
+import com.cosmian.rest.cover_crypt.acccess_policy.Attr;
+
+/**
+ * The CoverCrypt headers shared by all the records of an encrypted file.
+ * <p>
+ * By default, every part of a record carries its own encrypted header. In the shared header mode, a file starts with
+ * a table holding one encrypted header per set of attributes, and the parts of the records only hold the index of
+ * their header in the table, followed by the block encrypted with the symmetric key of that header and the record
+ * UID as authenticated data:
+ *
+ * <pre>
+ * file:   [MAGIC][number of headers][header length][encrypted header]...[record size][record]...
+ * record: [header index][block length][encrypted block]...
+ * </pre>
+ *
+ * All the integers are 4 bytes big endian. The records positions, hence their UIDs, are still absolute offsets in the
+ * file.
+ */
+public class HeaderTable {
+
+    private static final Logger logger = Logger.getLogger(HeaderTable.class.getName());
+
+    /**
+     * The first 4 bytes of a file in the shared header mode; a negative number, which is never the size of the first
+     * record of a file in the default mode
+     */
+    public static final int MAGIC = 0xC05EADE1;
+
+    // an encrypted header is a few hundred bytes: a larger length is a corrupt table
+    private static final int MAX_HEADER_LENGTH = 1 << 16;
+
+    // the encrypted headers when writing, null when reading
+    private final EncryptedHeader[] encryptedHeaders;
+
+    // null for the headers which cannot be decrypted with the user key
+    private final byte[][] symmetricKeys;
+
+    private final long length;
+
+    private HeaderTable(EncryptedHeader[] encryptedHeaders, byte[][] symmetricKeys, long length) {
+        this.encryptedHeaders = encryptedHeaders;
+        this.symmetricKeys = symmetricKeys;
+        this.length = length;
+    }
+
+    /**
+     * Encrypt a header for each set of attributes
+     *
+     * @param encryptionCache the handle of the encryption cache
+     * @param attributeSets the sets of attributes, in the order of their indexes in the table
+     * @return the table
+     * @throws AppException if a header cannot be encrypted
+     */
+    public static HeaderTable encrypt(int encryptionCache, List<Attr[]> attributeSets) throws AppException {
+        EncryptedHeader[] encryptedHeaders = new EncryptedHeader[attributeSets.size()];
+        byte[][] symmetricKeys = new byte[encryptedHeaders.length][];
+        long length = 8;
+        for (int i = 0; i < encryptedHeaders.length; i++) {
+            try {
+                encryptedHeaders[i] = Ffi.encryptHeaderUsingCache(encryptionCache, attributeSets.get(i));
+            } catch (FfiException | CosmianException e) {
+                throw new AppException("Failed to encrypt the header: " + e.getMessage(), e);
+            }
+            symmetricKeys[i] = encryptedHeaders[i].getSymmetricKey();
+            length += 4 + encryptedHeaders[i].getEncryptedHeaderBytes().length;
+        }
+        return new HeaderTable(encryptedHeaders, symmetricKeys, length);
+    }
+
+    /**
+     * Read the table at the start of a file and decrypt the headers the user key has access to
+     *
+     * @param decryptionCache the handle of the decryption cache
+     * @param is the stream at the start of the file; it must support {@link DataInputStream#mark(int)}
+     * @return the table or null if the file is in the default mode, in which case nothing is consumed from the stream
+     * @throws AppException if the table is truncated or corrupt
+     * @throws IOException if the stream cannot be read
+     */
+    public static HeaderTable read(int decryptionCache, DataInputStream is) throws AppException, IOException {
+        if (!is.markSupported()) {
+            throw new IllegalArgumentException("the stream of the file must support mark");
+        }
+        is.mark(4);
+        try {
+            if (is.readInt() != MAGIC) {
+                is.reset();
+                return null;
+            }
+        } catch (EOFException e) {
+            // an empty file or a truncated first record
+            is.reset();
+            return null;
+        }
+        try {
+            int size = is.readInt();
+            if (size < 0) {
+                throw new AppException("invalid number of headers: " + size);
+            }
+            // the keys are not allocated upfront: a corrupt number of headers fails on the end of the file
+            List<byte[]> symmetricKeys = new ArrayList<>();
+            long length = 8;
+            for (int i = 0; i < size; i++) {
+                int headerLength = is.readInt();
+                if (headerLength < 0 || headerLength > MAX_HEADER_LENGTH) {
+                    throw new AppException("invalid length of the shared header #" + i + ": " + headerLength);
+                }
+                byte[] encryptedHeader = new byte[headerLength];
+                is.readFully(encryptedHeader);
+                length += 4 + encryptedHeader.length;
+                try {
+                    DecryptedHeader decryptedHeader = Ffi.decryptHeaderUsingCache(decryptionCache, encryptedHeader);
+                    symmetricKeys.add(decryptedHeader.getSymmetricKey());
+                } catch (FfiException | CosmianException e) {
+                    // no right: the parts under this header are skipped
+                    symmetricKeys.add(null);
+                    int index = i;
+                    logger.finer(() -> "cannot decrypt the shared header #" + index + ": " + e.getMessage());
+                }
+            }
+            return new HeaderTable(null, symmetricKeys.toArray(new byte[size][]), length);
+        } catch (EOFException e) {
+            throw new AppException("truncated header table", e);
+        }
+    }
+
+    /**
+     * @return the serialized table, written at the start of the file
+     */
+    public byte[] toBytes() {
+        if (this.encryptedHeaders == null) {
+            throw new IllegalStateException("the encrypted headers of a read table are not kept");
+        }
+        ByteArrayOutputStream bao = new ByteArrayOutputStream((int) this.length);
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
+        bao.write(buffer.putInt(0, MAGIC).array(), 0, 4);
+        bao.write(buffer.putInt(0, this.encryptedHeaders.length).array(), 0, 4);
+        for (EncryptedHeader encryptedHeader : this.encryptedHeaders) {
+            byte[] bytes = encryptedHeader.getEncryptedHeaderBytes();
+            bao.write(buffer.putInt(0, bytes.length).array(), 0, 4);
+            bao.write(bytes, 0, bytes.length);
+        }
+        return bao.toByteArray();
+    }
+
+    /**
+     * @return the size of the table in bytes, which is the position of the first record of the file
+     */
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * @return the number of headers
+     */
+    public int size() {
+        return this.symmetricKeys.length;
+    }
+
+    /**
+     * The symmetric key of a header
+     *
+     * @param index the index of the header
+     * @return the key
+     * @throws AppException if there is no such header or if the user key cannot decrypt it
+     */
+    public byte[] symmetricKey(int index) throws AppException {
+        if (index < 0 || index >= this.symmetricKeys.length) {
+            throw new AppException("invalid header index: " + index);
+        }
+        byte[] key = this.symmetricKeys[index];
+        if (key == null) {
+            throw new AppException("the header #" + index + " cannot be decrypted");
+        }
+        return key;
+    }
+}
@@ -29,9 +29,11 @@ public class RecordUid {
     }
 
     public byte[] toBytes() {
-        ByteBuffer markBytes = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(mark);
+        // the mark in BE bytes after the file uid
         byte[] uid = Arrays.copyOf(fileUid, fileUid.length + 8);
-        System.arraycopy(markBytes.array(), 0, uid, fileUid.length, 8);
+        for (int i = 0; i < 8; i++) {
+            uid[fileUid.length + i] = (byte) (mark >>> (56 - 8 * i));
+        }
         return uid;
     }
 
@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
@@ -15,6 +16,7 @@ import org.json.JSONObject;
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.Benchmarks;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.DecryptedHeader;
@@ -35,11 +37,40 @@ public class RecordExtractor {
         }
     }
 
+    /**
+     * Skip bytes of the stream, looping as long as the stream makes progress: a buffered stream only skips its
+     * buffer at once
+     *
+     * @return the number of skipped bytes, less than requested at the end of the stream
+     */
+    public static long skip(InputStream is, long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            long s = is.skip(n - skipped);
+            if (s <= 0) {
+                break;
+            }
+            skipped += s;
+        }
+        return skipped;
+    }
+
     /**
      * Decrypt the record
      */
     public static Record readNext(int decryptionCache, RecordUid uid, DataInputStream is,
         Optional<Benchmarks> benchmarks) throws AppException {
+        return readNext(decryptionCache, null, uid, is, benchmarks);
+    }
+
+    /**
+     * Decrypt the record of a file whose parts have their own headers or share the headers of the file
+     *
+     * @param sharedHeaders the headers read at the start of the file or null if the parts have their own headers, see
+     *            {@link HeaderTable#read(int, DataInputStream)}
+     */
+    public static Record readNext(int decryptionCache, HeaderTable sharedHeaders, RecordUid uid, DataInputStream is,
+        Optional<Benchmarks> benchmarks) throws AppException {
 
         logger.finer(() -> "Decryption: record UID: " + uid.filename + " :: " + uid.mark);
 
@@ -61,38 +92,21 @@ public class RecordExtractor {
             is.readFully(encryptedRecord);
             ByteArrayInputStream bai = new ByteArrayInputStream(encryptedRecord);
 
-            // decrypt the common part
-            byte[] commonPart = decryptPart(decryptionCache, uid, bai);
-            JSONObject json = new JSONObject(new String(commonPart, StandardCharsets.UTF_8));
-
-            // try decrypting the marketing part
-            try {
-                byte[] mkgPart = decryptPart(decryptionCache, uid, bai);
-                JSONObject mkgJson = new JSONObject(new String(mkgPart, StandardCharsets.UTF_8));
-                mkgJson.keys().forEachRemaining(k -> json.put(k, mkgJson.getString(k)));
-            } catch (AppException e) {
-                // no right ignore
-                logger.finer(() -> " ... skipping the marketing part");
-            }
-
-            // try decrypting the HR part
-            try {
-                byte[] hrPart = decryptPart(decryptionCache, uid, bai);
-                JSONObject hrJson = new JSONObject(new String(hrPart, StandardCharsets.UTF_8));
-                hrJson.keys().forEachRemaining(k -> json.put(k, hrJson.getString(k)));
-            } catch (AppException e) {
-                // no right ignore
-                logger.finer(() -> " ... skipping the HR part");
-            }
-
-            // try decrypting the security part
-            try {
-                byte[] securityPart = decryptPart(decryptionCache, uid, bai);
-                JSONObject securityJson = new JSONObject(new String(securityPart, StandardCharsets.UTF_8));
-                securityJson.keys().forEachRemaining(k -> json.put(k, securityJson.getString(k)));
-            } catch (AppException e) {
-                // no right ignore
-                logger.finer(() -> " ... skipping the Security part");
+            // decrypt the first part, visible to all the readers of the record
+            byte[] firstPart = decryptPart(decryptionCache, sharedHeaders, uid, bai);
+            JSONObject json = new JSONObject(new String(firstPart, StandardCharsets.UTF_8));
+
+            // try decrypting the other parts
+            for (int part = 1; bai.available() > 0; part++) {
+                try {
+                    byte[] clearPart = decryptPart(decryptionCache, sharedHeaders, uid, bai);
+                    JSONObject partJson = new JSONObject(new String(clearPart, StandardCharsets.UTF_8));
+                    partJson.keys().forEachRemaining(k -> json.put(k, partJson.getString(k)));
+                } catch (AppException e) {
+                    // no right ignore
+                    int skipped = part;
+                    logger.finer(() -> " ... skipping the part #" + skipped);
+                }
             }
 
             return new Record(recordSize + 4, json.toString().getBytes(StandardCharsets.UTF_8));
@@ -104,8 +118,12 @@ public class RecordExtractor {
     /**
      * Decrypt a part
      */
-    static byte[] decryptPart(int decryptionCache, RecordUid uid, ByteArrayInputStream bai)
-        throws AppException, IOException {
+    static byte[] decryptPart(int decryptionCache, HeaderTable sharedHeaders, RecordUid uid,
+        ByteArrayInputStream bai) throws AppException, IOException {
+
+        if (sharedHeaders != null) {
+            return decryptSharedPart(sharedHeaders, uid, bai);
+        }
 
         byte[] headerBuffer = new byte[4];
         bai.read(headerBuffer, 0, 4);
@@ -114,21 +132,45 @@ public class RecordExtractor {
         // Encrypted header
         byte[] encryptedHeader = new byte[headerSize];
         bai.read(encryptedHeader, 0, headerSize);
+
+        // the block is consumed first so that the next part can be read when this one cannot be decrypted
+        byte[] blockBuffer = new byte[4];
+        bai.read(blockBuffer, 0, 4);
+        int blockSize = ByteBuffer.wrap(blockBuffer).order(ByteOrder.BIG_ENDIAN).getInt(0);
+
+        byte[] encryptedContent = new byte[blockSize];
+        bai.read(encryptedContent, 0, blockSize);
+
         DecryptedHeader decryptedHeader;
         try {
             decryptedHeader = Ffi.decryptHeaderUsingCache(decryptionCache, encryptedHeader);
         } catch (FfiException | CosmianException e) {
             throw new AppException("failed to decrypt the header: " + e.getMessage(), e);
         }
+        try {
+            return Ffi.decryptBlock(decryptedHeader.getSymmetricKey(), uid.toBytes(), 0, encryptedContent);
+        } catch (FfiException e) {
+            throw new AppException("failed to decrypt the content: " + e.getMessage(), e);
+        }
+    }
 
-        byte[] blockBuffer = new byte[4];
-        bai.read(blockBuffer, 0, 4);
-        int blockSize = ByteBuffer.wrap(blockBuffer).order(ByteOrder.BIG_ENDIAN).getInt(0);
+    /**
+     * Decrypt a part encrypted under a header of the file
+     */
+    static byte[] decryptSharedPart(HeaderTable sharedHeaders, RecordUid uid, ByteArrayInputStream bai)
+        throws AppException {
 
+        byte[] sizesBuffer = new byte[8];
+        bai.read(sizesBuffer, 0, 8);
+        ByteBuffer sizes = ByteBuffer.wrap(sizesBuffer).order(ByteOrder.BIG_ENDIAN);
+        int headerIndex = sizes.getInt(0);
+        int blockSize = sizes.getInt(4);
+
+        // the block is consumed first so that the next part can be read when this one cannot be decrypted
         byte[] encryptedContent = new byte[blockSize];
         bai.read(encryptedContent, 0, blockSize);
         try {
-            return Ffi.decryptBlock(decryptedHeader.getSymmetricKey(), uid.toBytes(), 0, encryptedContent);
+            return Ffi.decryptBlock(sharedHeaders.symmetricKey(headerIndex), uid.toBytes(), 0, encryptedContent);
         } catch (FfiException e) {
             throw new AppException("failed to decrypt the content: " + e.getMessage(), e);
         }
@@ -1,5 +1,6 @@
 package com.cosmian.cloudproof_demo.extractor;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -16,6 +17,7 @@ import org.apache.spark.util.LongAccumulator;
 
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
 import com.cosmian.jna.FfiException;
@@ -75,8 +77,9 @@ public class SparkExtractAllProcess implements VoidFunction<Iterator<Tuple2<Stri
                 }
 
                 final String filename = new File(uri.getPath()).getName();
-                try (DataInputStream is = tuple._2().open()) {
-                    int mark = 0;
+                try (DataInputStream is = new DataInputStream(new BufferedInputStream(tuple._2().open()))) {
+                    HeaderTable sharedHeaders = HeaderTable.read(decryptionCache, is);
+                    long mark = sharedHeaders == null ? 0 : sharedHeaders.length();
 
                     while (true) {
 
@@ -84,7 +87,8 @@ public class SparkExtractAllProcess implements VoidFunction<Iterator<Tuple2<Stri
                         logger.fine(() -> "Extracting " + uid);
                         RecordExtractor.Record record;
                         try {
-                            record = RecordExtractor.readNext(decryptionCache, uid, is, Optional.empty());
+                            record = RecordExtractor.readNext(decryptionCache, sharedHeaders, uid, is,
+                                Optional.empty());
                         } catch (AppException e) {
                             logger.fine(() -> "Skipping process of the file: " + filename + ": " + e.getMessage());
                             continue;
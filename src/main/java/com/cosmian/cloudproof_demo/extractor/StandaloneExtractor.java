@@ -1,5 +1,6 @@
 package com.cosmian.cloudproof_demo.extractor;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,6 +15,7 @@ import java.util.logging.Logger;
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.Benchmarks;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.fs.AppFileSystem;
 import com.cosmian.cloudproof_demo.fs.InputPath;
@@ -102,16 +104,17 @@ public class StandaloneExtractor implements Extractor {
         Benchmarks benchmarks) {
 
         String filename = Paths.get(absolutePath).getFileName().toString();
-        int mark = 0;
         int numRecords = 0;
 
-        try (DataInputStream is = fs.getInputStream(absolutePath)) {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(fs.getInputStream(absolutePath)))) {
 
+            HeaderTable sharedHeaders = HeaderTable.read(decryptionCache, is);
+            long mark = sharedHeaders == null ? 0 : sharedHeaders.length();
             while (true) {
 
                 RecordUid uid = new RecordUid(filename, mark);
                 RecordExtractor.Record record =
-                    RecordExtractor.readNext(decryptionCache, uid, is, Optional.of(benchmarks));
+                    RecordExtractor.readNext(decryptionCache, sharedHeaders, uid, is, Optional.of(benchmarks));
                 if (record.encryptedLength == 0) {
                     // eof
                     return numRecords;
@@ -147,23 +150,26 @@ public class StandaloneExtractor implements Extractor {
 
         positions.sort(Comparator.naturalOrder());
 
-        try (DataInputStream is = fsRootPath.getFs().getInputStream(absolutePath)) {
+        try (DataInputStream is =
+            new DataInputStream(new BufferedInputStream(fsRootPath.getFs().getInputStream(absolutePath)))) {
 
-            long previousMark = 0;
+            HeaderTable sharedHeaders = HeaderTable.read(decryptionCache, is);
+            long previousMark = sharedHeaders == null ? 0 : sharedHeaders.length();
             for (long mark : positions) {
 
                 RecordUid recordUid = new RecordUid(filename, mark);
 
                 long currentSkip = mark - previousMark;
                 logger.fine(() -> "Extracting " + recordUid + ": jumping: " + currentSkip);
-                long skipped = is.skip(currentSkip);
+                long skipped = RecordExtractor.skip(is, currentSkip);
                 if (skipped != currentSkip) {
                     throw new AppException("Expected to skip: " + currentSkip + " bytes, actual: " + skipped);
                 }
 
                 RecordExtractor.Record record;
                 try {
-                    record = RecordExtractor.readNext(decryptionCache, recordUid, is, Optional.of(benchmarks));
+                    record = RecordExtractor.readNext(decryptionCache, sharedHeaders, recordUid, is,
+                        Optional.of(benchmarks));
                 } catch (AppException e) {
                     logger.fine(() -> "Skipping process of the file: " + absolutePath + ": " + e.getMessage());
                     continue;
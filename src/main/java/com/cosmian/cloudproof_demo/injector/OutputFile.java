@@ -3,15 +3,16 @@ package com.cosmian.cloudproof_demo.injector;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import com.cosmian.cloudproof_demo.AppException;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
+import com.cosmian.rest.cover_crypt.acccess_policy.Attr;
 
 /**
  * Handles the encrypted data output to a file or a new file when the rollover conditions are met
@@ -34,6 +35,13 @@ public class OutputFile implements AutoCloseable, Serializable {
 
     private long startTime;
 
+    // the attributes of the headers shared by the records of a file; null when every part has its own header
+    private List<Attr[]> sharedAttributeSets = null;
+
+    private int encryptionCache;
+
+    private HeaderTable headers = null;
+
     public OutputFile(OutputDirectory outputDirectory, int maxSizeInMB, int maxAgeInSeconds) {
         this.outputDirectory = outputDirectory;
         this.maxSizeInMB = maxSizeInMB;
@@ -43,6 +51,29 @@ public class OutputFile implements AutoCloseable, Serializable {
         this.mark = 0;
     }
 
+    /**
+     * Start every file with a table of headers shared by its records, see {@link HeaderTable}
+     *
+     * @param encryptionCache the handle of the encryption cache of the headers
+     * @param attributeSets the attributes of the headers, in the order of their indexes
+     * @return this output file
+     */
+    public OutputFile withSharedHeaders(int encryptionCache, List<Attr[]> attributeSets) {
+        if (this.os != null) {
+            throw new IllegalStateException("the mode of the headers is set before the first record");
+        }
+        this.encryptionCache = encryptionCache;
+        this.sharedAttributeSets = attributeSets;
+        return this;
+    }
+
+    /**
+     * @return the headers shared by the records of the current file, or null if every part has its own header
+     */
+    public HeaderTable getHeaders() {
+        return this.headers;
+    }
+
     /**
      * Write to the currently opened stream
      * 
@@ -50,22 +81,31 @@ public class OutputFile implements AutoCloseable, Serializable {
      * @throws AppException if no stream is opened or an I/O occurs
      */
     public void write(byte[] bytes) throws AppException {
+        RecordBuffer buffer = RecordBuffer.get().begin();
+        buffer.write(bytes, 0, bytes.length);
+        write(buffer);
+    }
+
+    /**
+     * Write a record framed in a buffer to the currently opened stream, its length prefix included, in a single write
+     * 
+     * @param record the buffer of the record, see {@link RecordBuffer#begin()}
+     * @throws AppException if no stream is opened or an I/O occurs
+     */
+    public void write(RecordBuffer record) throws AppException {
         if (os == null) {
             throw new AppException("cannot write: no output stream");
         }
+        int written;
         try {
-            // The size of the bytes in BE bytes
-            ByteBuffer sizeBytes = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(bytes.length);
-            // Write the length and the content
-            this.os.write(sizeBytes.array());
-            this.os.write(bytes);
+            written = record.writeRecordTo(this.os);
             this.os.flush();
         } catch (IOException e) {
             String msg = "failed writing to file " + this.filename + ": " + e.getMessage();
             logger.severe(msg);
             throw new AppException(msg, e);
         }
-        this.mark += 4 + bytes.length;
+        this.mark += written;
     }
 
     /**
@@ -121,6 +161,17 @@ public class OutputFile implements AutoCloseable, Serializable {
         this.mark = 0;
         this.startTime = System.nanoTime();
         logger.info(() -> "started new output file: " + filename);
+        if (this.sharedAttributeSets != null) {
+            this.headers = HeaderTable.encrypt(this.encryptionCache, this.sharedAttributeSets);
+            try {
+                this.os.write(this.headers.toBytes());
+            } catch (IOException e) {
+                String msg = "failed writing the headers to file " + this.filename + ": " + e.getMessage();
+                logger.severe(msg);
+                throw new AppException(msg, e);
+            }
+            this.mark = this.headers.length();
+        }
     }
 
     @Override
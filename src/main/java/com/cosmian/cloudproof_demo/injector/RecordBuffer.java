@@ -0,0 +1,89 @@
+package com.cosmian.cloudproof_demo.injector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer an encrypted record is framed in: the length of the record is reserved when the record begins and
+ * filled in when it is written, so that the record goes to the output in a single write.
+ * <p>
+ * The buffer is meant to be reused: it keeps the capacity of the largest record it has framed and a record then
+ * allocates nothing beyond the encrypted blocks themselves. It is not thread safe; see {@link #get()} for the buffer of
+ * the calling thread.
+ */
+public final class RecordBuffer extends ByteArrayOutputStream {
+
+    private static final ThreadLocal<RecordBuffer> POOL = ThreadLocal.withInitial(RecordBuffer::new);
+
+    public RecordBuffer() {
+        super(4096);
+    }
+
+    /**
+     * @return the buffer of the calling thread, which may still hold its previous record
+     */
+    public static RecordBuffer get() {
+        return POOL.get();
+    }
+
+    /**
+     * Discard the current content and start a new record, reserving its length
+     *
+     * @return this buffer
+     */
+    public RecordBuffer begin() {
+        reset();
+        ensureCapacity(4);
+        this.count = 4;
+        return this;
+    }
+
+    /**
+     * Append an int as 4 BE bytes
+     *
+     * @param value the value
+     */
+    public void writeInt(int value) {
+        ensureCapacity(this.count + 4);
+        putInt(this.count, value);
+        this.count += 4;
+    }
+
+    /**
+     * @return the length of the record, excluding its length prefix
+     */
+    public int recordLength() {
+        return this.count - 4;
+    }
+
+    /**
+     * Fill in the length of the record and write the record, length prefix included, in a single write
+     *
+     * @param os the output stream
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    public int writeRecordTo(OutputStream os) throws IOException {
+        if (this.count < 4) {
+            throw new IllegalStateException("no record begun");
+        }
+        putInt(0, recordLength());
+        os.write(this.buf, 0, this.count);
+        return this.count;
+    }
+
+    private void putInt(int position, int value) {
+        this.buf[position] = (byte) (value >>> 24);
+        this.buf[position + 1] = (byte) (value >>> 16);
+        this.buf[position + 2] = (byte) (value >>> 8);
+        this.buf[position + 3] = (byte) value;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(capacity, this.buf.length << 1));
+        }
+    }
+}
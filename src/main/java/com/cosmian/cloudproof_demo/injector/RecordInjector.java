@@ -2,30 +2,30 @@ package com.cosmian.cloudproof_demo.injector;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import org.json.JSONObject;
 
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.Benchmarks;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
-import com.cosmian.cloudproof_demo.policy.Country;
-import com.cosmian.cloudproof_demo.policy.Department;
 import com.cosmian.cloudproof_demo.sse.Sse.Word;
 import com.cosmian.cloudproof_demo.sse.SseUpserter;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.EncryptedHeader;
 import com.cosmian.jna.cover_crypt.Ffi;
 import com.cosmian.rest.cover_crypt.acccess_policy.Attr;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 
 /**
  * This class exposes the main method that processes a record, whether in Spark or in the standalone runner
@@ -35,10 +35,18 @@ public class RecordInjector {
     private static final Logger logger = Logger.getLogger(StandaloneInjector.class.getName());
 
     /**
-     * Process the record, returning its uid
+     * Process the record with the default plan, returning its uid
      */
     public static RecordUid process(String line, MessageDigest sha256, SseUpserter sseUpserter, int encryptionCache,
         Optional<Benchmarks> benchmarks, OutputFile outputFile) throws AppException {
+        return process(RecordPlan.defaultPlan(), line, sha256, sseUpserter, encryptionCache, benchmarks, outputFile);
+    }
+
+    /**
+     * Process the record, returning its uid
+     */
+    public static RecordUid process(RecordPlan plan, String line, MessageDigest sha256, SseUpserter sseUpserter,
+        int encryptionCache, Optional<Benchmarks> benchmarks, OutputFile outputFile) throws AppException {
 
         if (benchmarks.isPresent()) {
             benchmarks.get().startRecording("record_total");
@@ -50,69 +58,22 @@ public class RecordInjector {
         byte[] uid = recordUid.toBytes();
 
         // recover data for indexing and attributes encryption
-        JSONObject json = new JSONObject(line);
-
-        String country = json.getString("country");
-        String firstName = json.getString("firstName").toLowerCase();
-        String lastName = json.getString("lastName").toLowerCase();
-
-        String[] indexedValues =
-            new String[] {firstName, lastName, "first=" + firstName, "last=" + lastName, "country=" + country};
-        Set<Word> set = Arrays.stream(indexedValues)
-            .map(v -> new Word(v.toLowerCase().getBytes(StandardCharsets.UTF_8))).collect(Collectors.toSet());
+        ParsedRecord record = ParsedRecord.parse(plan, line);
         if (benchmarks.isPresent())
             benchmarks.get().stopRecording("record_pre_processing", 1);
 
         // Indexing
-        sseUpserter.upsert(uid, set);
+        sseUpserter.upsert(uid, record.words);
 
         if (benchmarks.isPresent())
             benchmarks.get().startRecording("record_attributes_encryption");
 
-        // Attributes Encryption- the outputStream
-        ByteArrayOutputStream bao = new ByteArrayOutputStream();
-        Attr country_attribute;
-        try {
-
-            // get country attribute
-            country_attribute = Country.from(country).getAttribute();
-
-            // attributes for common part of the file
-            Attr[] common_attributes =
-                new Attr[] {country_attribute, Department.Marketing.getAttribute(), Department.HR.getAttribute()};
-            JSONObject common_json = new JSONObject();
-            common_json.put("firstName", json.getString("firstName"));
-            common_json.put("lastName", json.getString("lastName"));
-            common_json.put("country", country);
-            byte[] commonBytes = common_json.toString().getBytes(StandardCharsets.UTF_8);
-            encryptPart(bao, encryptionCache, common_attributes, uid, commonBytes);
-
-            // marketing part of the file
-            Attr[] mkg_attributes = new Attr[] {country_attribute, Department.Marketing.getAttribute()};
-            // we want all but employeeNumber and security
-            JSONObject mkg_json = new JSONObject();
-            mkg_json.put("region", json.getString("region"));
-            encryptPart(bao, encryptionCache, mkg_attributes, uid,
-                mkg_json.toString().getBytes(StandardCharsets.UTF_8));
-
-            // HR part of the file
-            Attr[] hr_attributes = new Attr[] {country_attribute, Department.HR.getAttribute()};
-            JSONObject hr_json = new JSONObject();
-            hr_json.put("phone", json.getString("phone"));
-            hr_json.put("email", json.getString("email"));
-            hr_json.put("employeeNumber", json.getString("employeeNumber"));
-            encryptPart(bao, encryptionCache, hr_attributes, uid, hr_json.toString().getBytes(StandardCharsets.UTF_8));
-
-            // security part of the file
-            Attr[] security_attributes = new Attr[] {country_attribute, Department.Security.getAttribute()}; // marketing
-            JSONObject security_json = new JSONObject();
-            security_json.put("security", json.getString("security"));
-            encryptPart(bao, encryptionCache, security_attributes, uid,
-                security_json.toString().getBytes(StandardCharsets.UTF_8));
-
-        } catch (CosmianException e) {
-            throw new AppException("Invalid attributes:" + e.getMessage(), e);
+        // Attributes Encryption, unless the file shares its headers
+        HeaderTable sharedHeaders = outputFile.getHeaders();
+        if (sharedHeaders == null) {
+            record.encryptHeaders(encryptionCache);
         }
+        RecordBuffer encrypted = record.encrypt(uid, sharedHeaders, RecordBuffer.get());
 
         if (benchmarks.isPresent()) {
             benchmarks.get().stopRecording("record_attributes_encryption", 1);
@@ -120,27 +81,198 @@ public class RecordInjector {
         }
 
         // write the result
-        outputFile.write(bao.toByteArray());
+        outputFile.write(encrypted);
 
         if (benchmarks.isPresent()) {
             benchmarks.get().stopRecording("record_write", 1);
             benchmarks.get().stopRecording("record_total", 1);
         }
 
-        logger.fine(() -> "Injected:" + recordUid + " with country: " + country_attribute.toString()
-            + ", indexed values: " + Arrays.toString(indexedValues));
+        logger.fine(() -> "Injected:" + recordUid + " with attribute: " + record.rowValue() + ", indexed values: "
+            + Arrays.toString(record.indexedValues));
 
         return recordUid;
     }
 
-    static void encryptPart(ByteArrayOutputStream bao, int encryptionCache, Attr[] attributes, byte[] hash,
-        byte[] clearText) throws AppException {
-        EncryptedHeader encryptedHeader;
+    /**
+     * The buffer the parts of a record are written to, reused by the records parsed on a thread
+     */
+    static final class PartsBuffer extends ByteArrayOutputStream {
+
+        PartsBuffer() {
+            super(1024);
+        }
+
+        /**
+         * @param start the start of the part in the buffer
+         * @return a copy of the bytes written since the start
+         */
+        byte[] copy(int start) {
+            return Arrays.copyOfRange(this.buf, start, this.count);
+        }
+    }
+
+    private static final ThreadLocal<PartsBuffer> PARTS_BUFFER = ThreadLocal.withInitial(PartsBuffer::new);
+
+    /**
+     * A record split in its indexed words and the parts encrypted under distinct attributes, following a
+     * {@link RecordPlan}. The encryption of the headers of the parts, which is the asymmetric work of the record, does
+     * not depend on the record UID: it can run before the UID is known, on any thread holding an encryption cache.
+     * The parts are then encrypted with the record UID as authenticated data, under these headers or under the
+     * headers shared by the records of the file.
+     */
+    static class ParsedRecord {
+
+        final Set<Word> words;
+
+        final String[] indexedValues;
+
+        private final RecordPlan plan;
+
+        private final int row;
+
+        private final byte[][] partClearTexts;
+
+        private EncryptedHeader[] headers = null;
+
+        private ParsedRecord(RecordPlan plan, int row, Set<Word> words, String[] indexedValues) {
+            this.plan = plan;
+            this.row = row;
+            this.words = words;
+            this.indexedValues = indexedValues;
+            this.partClearTexts = new byte[plan.parts()][];
+        }
+
+        /**
+         * Parse a JSON line: the fields of the plan are pulled from the stream of tokens of the line and the JSON of
+         * the parts is written to a buffer reused by the records of the thread
+         *
+         * @param plan the plan of the records
+         * @param line the line
+         * @return the parsed record
+         * @throws AppException if a field is missing or the attributes of the record are invalid
+         */
+        static ParsedRecord parse(RecordPlan plan, String line) throws AppException {
+            String[] fields = plan.readFields(line);
+            int row = plan.rowIndex(fields);
+
+            String[] indexedValues = plan.keywords(fields);
+            Set<Word> set = new HashSet<>(indexedValues.length * 2);
+            for (String value : indexedValues) {
+                set.add(new Word(value.getBytes(StandardCharsets.UTF_8)));
+            }
+
+            ParsedRecord record = new ParsedRecord(plan, row, set, indexedValues);
+            PartsBuffer buffer = PARTS_BUFFER.get();
+            buffer.reset();
+            try (JsonGenerator generator = RecordPlan.JSON.createGenerator(buffer, JsonEncoding.UTF8)) {
+                for (int part = 0; part < record.partClearTexts.length; part++) {
+                    int start = buffer.size();
+                    int[] partFields = plan.partFields(part);
+                    SerializedString[] partFieldNames = plan.partFieldNames(part);
+                    generator.writeStartObject();
+                    for (int f = 0; f < partFields.length; f++) {
+                        generator.writeFieldName(partFieldNames[f]);
+                        writeString(generator, fields[partFields[f]]);
+                    }
+                    generator.writeEndObject();
+                    generator.flush();
+                    record.partClearTexts[part] = buffer.copy(start);
+                }
+            } catch (IOException e) {
+                throw new AppException("Failed writing the parts of the record: " + e.getMessage(), e);
+            }
+            return record;
+        }
+
+        /**
+         * Write a string value escaped as {@link JSONObject#quote(String)} does, so that the parts are the ones written
+         * before the streaming of the records. Jackson escapes the same characters except for <code>&lt;/</code>, the
+         * C1 controls, the code points from U+2000 to U+20FF, the surrogate pairs and the case of the hexadecimal
+         * escapes: these rare values are quoted by org.json.
+         */
+        private static void writeString(JsonGenerator generator, String value) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c < ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\b' && c != '\f')
+                    || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100') || Character.isSurrogate(c)
+                    || (c == '/' && i > 0 && value.charAt(i - 1) == '<')) {
+                    generator.writeRawValue(JSONObject.quote(value));
+                    return;
+                }
+            }
+            generator.writeString(value);
+        }
+
+        /**
+         * @return the value of the row attribute of the record
+         */
+        String rowValue() {
+            return this.plan.rowValue(this.row);
+        }
+
+        /**
+         * @return the JSON of the part, before its encryption
+         */
+        byte[] partClearText(int part) {
+            return this.partClearTexts[part];
+        }
+
+        /**
+         * Encrypt the headers of the parts; not needed when the file shares its headers
+         *
+         * @param encryptionCache the handle of the encryption cache of the calling thread
+         * @throws AppException if a header cannot be encrypted
+         */
+        void encryptHeaders(int encryptionCache) throws AppException {
+            EncryptedHeader[] encryptedHeaders = new EncryptedHeader[this.partClearTexts.length];
+            for (int part = 0; part < encryptedHeaders.length; part++) {
+                encryptedHeaders[part] = encryptHeader(encryptionCache, this.plan.attributes(this.row, part));
+            }
+            this.headers = encryptedHeaders;
+        }
+
+        /**
+         * Encrypt the parts under their headers, see {@link #encryptHeaders(int)}, or under the headers shared by the
+         * records of the file, and frame them in a record buffer
+         *
+         * @param uid the record UID, used as authenticated data
+         * @param sharedHeaders the headers of the file or null if every part has its own header
+         * @param buffer the buffer the record is framed in, usually the one of the thread, see
+         *            {@link RecordBuffer#get()}
+         * @return the buffer holding the encrypted record
+         * @throws AppException if a part cannot be encrypted
+         */
+        RecordBuffer encrypt(byte[] uid, HeaderTable sharedHeaders, RecordBuffer buffer) throws AppException {
+            buffer.begin();
+            if (sharedHeaders != null) {
+                for (int part = 0; part < this.partClearTexts.length; part++) {
+                    writeSharedPart(buffer, sharedHeaders, this.plan.headerIndex(this.row, part), uid,
+                        this.partClearTexts[part]);
+                }
+                return buffer;
+            }
+            if (this.headers == null) {
+                throw new AppException("the headers of the record are not encrypted");
+            }
+            for (int part = 0; part < this.headers.length; part++) {
+                writePart(buffer, this.headers[part], this.plan.attributes(this.row, part), uid,
+                    this.partClearTexts[part]);
+            }
+            return buffer;
+        }
+    }
+
+    static EncryptedHeader encryptHeader(int encryptionCache, Attr[] attributes) throws AppException {
         try {
-            encryptedHeader = Ffi.encryptHeaderUsingCache(encryptionCache, attributes);
+            return Ffi.encryptHeaderUsingCache(encryptionCache, attributes);
         } catch (FfiException | CosmianException e) {
             throw new AppException("Failed to encrypt the header: " + e.getMessage(), e);
         }
+    }
+
+    static void writePart(RecordBuffer buffer, EncryptedHeader encryptedHeader, Attr[] attributes, byte[] hash,
+        byte[] clearText) throws AppException {
         byte[] encryptedBlock;
         try {
             encryptedBlock = Ffi.encryptBlock(encryptedHeader.getSymmetricKey(), hash, 0, clearText);
@@ -148,25 +280,33 @@ public class RecordInjector {
             throw new AppException("Failed to encrypt the content: " + e.getMessage(), e);
         }
 
-        // The size of the header as an int in BE bytes
-        int headerLength = encryptedHeader.getEncryptedHeaderBytes().length;
-        ByteBuffer headerSize = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(headerLength);
-        // The size of the header as an int in BE bytes
-        ByteBuffer blockSize = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(encryptedBlock.length);
+        // The sizes of the header and the block as ints in BE bytes, each followed by its bytes
+        byte[] headerBytes = encryptedHeader.getEncryptedHeaderBytes();
+        int headerLength = headerBytes.length;
+        buffer.writeInt(headerLength);
+        buffer.write(headerBytes, 0, headerLength);
+        buffer.writeInt(encryptedBlock.length);
+        buffer.write(encryptedBlock, 0, encryptedBlock.length);
+
+        logger.finer(() -> "Encrypted part with attributes: " + Arrays.toString(attributes) + ", header length: "
+            + headerLength);
+    }
 
-        // Write the result
+    static void writeSharedPart(RecordBuffer buffer, HeaderTable sharedHeaders, int headerIndex, byte[] hash,
+        byte[] clearText) throws AppException {
+        byte[] encryptedBlock;
         try {
-            bao.write(headerSize.array());
-            bao.write(encryptedHeader.getEncryptedHeaderBytes());
-            bao.write(blockSize.array());
-            bao.write(encryptedBlock);
-            bao.flush();
-        } catch (IOException e) {
-            throw new AppException("Failed to write the encrypted bytes: " + e.getMessage(), e);
+            encryptedBlock = Ffi.encryptBlock(sharedHeaders.symmetricKey(headerIndex), hash, 0, clearText);
+        } catch (FfiException e) {
+            throw new AppException("Failed to encrypt the content: " + e.getMessage(), e);
         }
 
-        logger.finer(() -> "Encrypted part with attributes: " + Arrays.toString(attributes) + ", header length: "
-            + headerLength);
+        // The index of the header and the size of the block as ints in BE bytes
+        buffer.writeInt(headerIndex);
+        buffer.writeInt(encryptedBlock.length);
+        buffer.write(encryptedBlock, 0, encryptedBlock.length);
+
+        logger.finer(() -> "Encrypted part with shared header #" + headerIndex);
     }
 
 }
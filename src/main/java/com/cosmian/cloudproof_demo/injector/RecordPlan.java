@@ -0,0 +1,371 @@
+package com.cosmian.cloudproof_demo.injector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.AppException;
+import com.cosmian.cloudproof_demo.LocalResource;
+import com.cosmian.rest.cover_crypt.acccess_policy.Attr;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * The encryption and indexing plan of the records, compiled once from a declarative schema:
+ *
+ * <pre>
+ * {
+ *     "rowAttribute": {"field": "country", "axis": "Country", "values": ["France", "Spain"]},
+ *     "parts": [
+ *         {"name": "common", "fields": ["firstName", "country"], "attributes": ["Department::Marketing"]},
+ *         ...
+ *     ],
+ *     "keywords": [
+ *         {"field": "firstName", "prefix": "first=", "normalization": "lowercase"},
+ *         ...
+ *     ]
+ * }
+ * </pre>
+ *
+ * The records are single JSON objects, without duplicate fields, whose fields are strings. The value of the row field
+ * selects the attribute of the row axis of the record: a part is encrypted under this attribute and the attributes of
+ * the part. The first part is the one every reader of the record must be able to decrypt. A keyword is indexed as its
+ * prefix followed by the normalized value of its field; the normalization is one of <code>lowercase</code> (the
+ * default), <code>trim_lowercase</code> or <code>none</code>. The searched words are lower cased.
+ * <p>
+ * The attributes of every part and row value are built when the plan is compiled: the records only look them up.
+ * The plan is immutable and shared by the threads of an injector.
+ */
+public class RecordPlan {
+
+    static final JsonFactory JSON = new JsonFactory();
+
+    static {
+        // the parts are written one after the other to the same buffer
+        JSON.setRootValueSeparator(null);
+        // a record with a duplicate field is ambiguous
+        JSON.enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION);
+    }
+
+    private static final String DEFAULT_SCHEMA = "schema.json";
+
+    private static volatile RecordPlan defaultPlan = null;
+
+    /**
+     * The normalization of the value of a keyword
+     */
+    enum Normalization {
+        NONE, LOWERCASE, TRIM_LOWERCASE;
+
+        String apply(String value) {
+            switch (this) {
+                case LOWERCASE:
+                    return value.toLowerCase();
+                case TRIM_LOWERCASE:
+                    return value.trim().toLowerCase();
+                default:
+                    return value;
+            }
+        }
+    }
+
+    private final String schema;
+
+    private final String[] fieldNames;
+
+    private final HashMap<String, Integer> fieldIndexes;
+
+    private final int rowField;
+
+    private final String[] rowValues;
+
+    private final HashMap<String, Integer> rowIndexes;
+
+    private final String[] partNames;
+
+    private final int[][] partFields;
+
+    private final SerializedString[][] partFieldNames;
+
+    // by row value, then by part
+    private final Attr[][][] attributes;
+
+    private final int[] keywordFields;
+
+    private final String[] keywordPrefixes;
+
+    private final Normalization[] keywordNormalizations;
+
+    private RecordPlan(String schema, List<String> fieldNames, int rowField, String[] rowValues, String[] partNames,
+        int[][] partFields, Attr[][][] attributes, int[] keywordFields, String[] keywordPrefixes,
+        Normalization[] keywordNormalizations) {
+        this.schema = schema;
+        this.fieldNames = fieldNames.toArray(new String[fieldNames.size()]);
+        this.fieldIndexes = new HashMap<>();
+        for (int i = 0; i < this.fieldNames.length; i++) {
+            this.fieldIndexes.put(this.fieldNames[i], i);
+        }
+        this.rowField = rowField;
+        this.rowValues = rowValues;
+        this.rowIndexes = new HashMap<>();
+        for (int i = 0; i < rowValues.length; i++) {
+            this.rowIndexes.put(rowValues[i], i);
+        }
+        this.partNames = partNames;
+        this.partFields = partFields;
+        this.partFieldNames = new SerializedString[partFields.length][];
+        for (int p = 0; p < partFields.length; p++) {
+            this.partFieldNames[p] = new SerializedString[partFields[p].length];
+            for (int f = 0; f < partFields[p].length; f++) {
+                this.partFieldNames[p][f] = new SerializedString(this.fieldNames[partFields[p][f]]);
+            }
+        }
+        this.attributes = attributes;
+        this.keywordFields = keywordFields;
+        this.keywordPrefixes = keywordPrefixes;
+        this.keywordNormalizations = keywordNormalizations;
+    }
+
+    /**
+     * @return the plan of the schema of the example people directory, shipped as the schema.json resource
+     * @throws AppException if the resource cannot be read or compiled
+     */
+    public static RecordPlan defaultPlan() throws AppException {
+        RecordPlan plan = defaultPlan;
+        if (plan == null) {
+            String schema;
+            try {
+                schema = LocalResource.load_resource(DEFAULT_SCHEMA);
+            } catch (IOException | NullPointerException e) {
+                throw new AppException("Failed loading the default schema: " + e.getMessage(), e);
+            }
+            plan = compile(schema);
+            defaultPlan = plan;
+        }
+        return plan;
+    }
+
+    /**
+     * Compile a schema
+     *
+     * @param schema the JSON schema
+     * @return the plan
+     * @throws AppException if the schema is invalid
+     */
+    public static RecordPlan compile(String schema) throws AppException {
+        try {
+            JSONObject json = new JSONObject(schema);
+            List<String> fieldNames = new ArrayList<>();
+
+            JSONObject rowAttribute = json.getJSONObject("rowAttribute");
+            int rowField = fieldIndex(fieldNames, rowAttribute.getString("field"));
+            String axis = rowAttribute.getString("axis");
+            JSONArray values = rowAttribute.getJSONArray("values");
+            if (values.length() == 0) {
+                throw new AppException("Invalid schema: the row attribute has no values");
+            }
+            String[] rowValues = new String[values.length()];
+            for (int i = 0; i < rowValues.length; i++) {
+                rowValues[i] = values.getString(i);
+            }
+
+            JSONArray parts = json.getJSONArray("parts");
+            if (parts.length() == 0) {
+                throw new AppException("Invalid schema: no parts");
+            }
+            String[] partNames = new String[parts.length()];
+            int[][] partFields = new int[parts.length()][];
+            Attr[][][] attributes = new Attr[rowValues.length][parts.length()][];
+            for (int p = 0; p < partNames.length; p++) {
+                JSONObject part = parts.getJSONObject(p);
+                partNames[p] = part.getString("name");
+                JSONArray fields = part.getJSONArray("fields");
+                partFields[p] = new int[fields.length()];
+                for (int f = 0; f < fields.length(); f++) {
+                    partFields[p][f] = fieldIndex(fieldNames, fields.getString(f));
+                }
+                JSONArray partAttributes = part.getJSONArray("attributes");
+                for (int v = 0; v < rowValues.length; v++) {
+                    Attr[] attrs = new Attr[partAttributes.length() + 1];
+                    attrs[0] = new Attr(axis, rowValues[v]);
+                    for (int a = 0; a < partAttributes.length(); a++) {
+                        attrs[a + 1] = attribute(partAttributes.getString(a));
+                    }
+                    attributes[v][p] = attrs;
+                }
+            }
+
+            JSONArray keywords = json.getJSONArray("keywords");
+            int[] keywordFields = new int[keywords.length()];
+            String[] keywordPrefixes = new String[keywords.length()];
+            Normalization[] keywordNormalizations = new Normalization[keywords.length()];
+            for (int k = 0; k < keywordFields.length; k++) {
+                JSONObject keyword = keywords.getJSONObject(k);
+                keywordFields[k] = fieldIndex(fieldNames, keyword.getString("field"));
+                keywordPrefixes[k] = keyword.optString("prefix", "");
+                String normalization = keyword.optString("normalization", "lowercase");
+                try {
+                    keywordNormalizations[k] = Normalization.valueOf(normalization.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new AppException("Invalid schema: unknown normalization: " + normalization, e);
+                }
+            }
+
+            return new RecordPlan(schema, fieldNames, rowField, rowValues, partNames, partFields, attributes,
+                keywordFields, keywordPrefixes, keywordNormalizations);
+        } catch (JSONException | CosmianException e) {
+            throw new AppException("Invalid schema: " + e.getMessage(), e);
+        }
+    }
+
+    private static int fieldIndex(List<String> fieldNames, String name) {
+        int index = fieldNames.indexOf(name);
+        if (index < 0) {
+            fieldNames.add(name);
+            index = fieldNames.size() - 1;
+        }
+        return index;
+    }
+
+    private static Attr attribute(String attribute) throws AppException, CosmianException {
+        int separator = attribute.indexOf("::");
+        if (separator <= 0 || separator == attribute.length() - 2) {
+            throw new AppException("Invalid schema: the attribute " + attribute + " is not axis::name");
+        }
+        return new Attr(attribute.substring(0, separator), attribute.substring(separator + 2));
+    }
+
+    /**
+     * @return the JSON schema the plan was compiled from
+     */
+    public String getSchema() {
+        return schema;
+    }
+
+    /**
+     * Pull the fields of the schema from a JSON line; the other fields are skipped without being converted
+     *
+     * @param line the JSON object of the record
+     * @return the values of the fields, by field index
+     * @throws AppException if the line is not a single JSON object, a field is missing or not a string, or a field
+     *             appears twice in an object
+     */
+    String[] readFields(String line) throws AppException {
+        String[] fields = new String[this.fieldNames.length];
+        try (JsonParser parser = JSON.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new AppException("Invalid record: not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Integer field = this.fieldIndexes.get(parser.getCurrentName());
+                JsonToken value = parser.nextToken();
+                if (field == null) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.VALUE_STRING) {
+                    throw new AppException("Invalid record: the field " + this.fieldNames[field] + " is not a string");
+                }
+                fields[field] = parser.getText();
+            }
+            if (parser.nextToken() != null) {
+                throw new AppException("Invalid record: trailing content after the JSON object");
+            }
+        } catch (IOException e) {
+            throw new AppException("Invalid record: " + e.getMessage(), e);
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                throw new AppException("Invalid record: missing field " + this.fieldNames[i]);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @param fields the fields of a record
+     * @return the index of the row value of the record
+     * @throws AppException if the value is not one of the schema
+     */
+    int rowIndex(String[] fields) throws AppException {
+        Integer row = this.rowIndexes.get(fields[this.rowField]);
+        if (row == null) {
+            throw new AppException("Invalid attributes: unknown " + this.fieldNames[this.rowField] + ": "
+                + fields[this.rowField]);
+        }
+        return row;
+    }
+
+    /**
+     * @param fields the fields of a record
+     * @return the indexed keywords of the record
+     */
+    String[] keywords(String[] fields) {
+        String[] keywords = new String[this.keywordFields.length];
+        for (int k = 0; k < keywords.length; k++) {
+            keywords[k] = this.keywordPrefixes[k] + this.keywordNormalizations[k].apply(fields[this.keywordFields[k]]);
+        }
+        return keywords;
+    }
+
+    /**
+     * @return the number of parts of a record
+     */
+    int parts() {
+        return this.partNames.length;
+    }
+
+    int[] partFields(int part) {
+        return this.partFields[part];
+    }
+
+    SerializedString[] partFieldNames(int part) {
+        return this.partFieldNames[part];
+    }
+
+    /**
+     * @return the attributes of the part of the records of the row value
+     */
+    Attr[] attributes(int row, int part) {
+        return this.attributes[row][part];
+    }
+
+    /**
+     * @return the row value of the index
+     */
+    String rowValue(int row) {
+        return this.rowValues[row];
+    }
+
+    /**
+     * @return the index in the shared header table of the part of the records of the row value
+     */
+    int headerIndex(int row, int part) {
+        return row * this.partNames.length + part;
+    }
+
+    /**
+     * The attributes of the shared headers of a file: one set per row value and part, see
+     * {@link #headerIndex(int, int)}
+     *
+     * @return the attribute sets in the order of their indexes
+     */
+    public List<Attr[]> sharedAttributeSets() {
+        List<Attr[]> attributeSets = new ArrayList<>(this.rowValues.length * this.partNames.length);
+        for (Attr[][] rowAttributes : this.attributes) {
+            for (Attr[] partAttributes : rowAttributes) {
+                attributeSets.add(partAttributes);
+            }
+        }
+        return attributeSets;
+    }
+}
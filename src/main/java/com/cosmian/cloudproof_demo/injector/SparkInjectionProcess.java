@@ -15,6 +15,7 @@ import com.cosmian.cloudproof_demo.DseDB;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 import com.cosmian.cloudproof_demo.sse.SseUpserter;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.Ffi;
@@ -32,6 +33,8 @@ class SparkInjectionProcess implements VoidFunction<Iterator<String>> {
 
     private final DseDB.Configuration dseConf;
 
+    private final SseConfiguration sseConf;
+
     private final String outputDirectory;
 
     private final LongAccumulator counter;
@@ -40,16 +43,24 @@ class SparkInjectionProcess implements VoidFunction<Iterator<String>> {
 
     private final int maxAgeInSeconds;
 
+    private final boolean sharedHeaders;
+
+    private final String schema;
+
     public SparkInjectionProcess(Key k, Key kStar, String publicKeyJson, DseDB.Configuration dseConf,
-        String outputDirectory, LongAccumulator counter, int maxSizeInMB, int maxAgeInSeconds) {
+        SseConfiguration sseConf, String outputDirectory, LongAccumulator counter, int maxSizeInMB,
+        int maxAgeInSeconds, boolean sharedHeaders, String schema) {
         this.k = k;
         this.kStar = kStar;
         this.dseConf = dseConf;
+        this.sseConf = sseConf;
         this.outputDirectory = outputDirectory;
         this.publicKeyJson = publicKeyJson;
         this.counter = counter;
         this.maxSizeInMB = maxSizeInMB;
         this.maxAgeInSeconds = maxAgeInSeconds;
+        this.sharedHeaders = sharedHeaders;
+        this.schema = schema;
     }
 
     public void call(Iterator<String> iter) throws AppException {
@@ -62,6 +73,7 @@ class SparkInjectionProcess implements VoidFunction<Iterator<String>> {
         }
 
         OutputDirectory outputDir = OutputDirectory.parse(outputDirectory);
+        RecordPlan plan = schema == null ? RecordPlan.defaultPlan() : RecordPlan.compile(schema);
 
         int encryptionCacheHandle;
         try {
@@ -73,11 +85,14 @@ class SparkInjectionProcess implements VoidFunction<Iterator<String>> {
             throw new AppException("Failed creating the encryption cache:" + e.getMessage(), e);
         }
 
-        try (SseUpserter sseUpserter = new SseUpserter(k, kStar, dseConf, Optional.empty());
+        try (SseUpserter sseUpserter = new SseUpserter(k, kStar, dseConf, sseConf, Optional.empty());
             OutputFile outputFile = new OutputFile(outputDir, maxSizeInMB, maxAgeInSeconds)) {
+            if (sharedHeaders) {
+                outputFile.withSharedHeaders(encryptionCacheHandle, plan.sharedAttributeSets());
+            }
             while (iter.hasNext()) {
-                RecordUid recordUid = RecordInjector.process(iter.next(), sha256, sseUpserter, encryptionCacheHandle,
-                    Optional.empty(), outputFile);
+                RecordUid recordUid = RecordInjector.process(plan, iter.next(), sha256, sseUpserter,
+                    encryptionCacheHandle, Optional.empty(), outputFile);
                 if (recordUid != null) {
                     counter.add(1);
                 }
@@ -10,7 +10,9 @@ import org.apache.spark.util.LongAccumulator;
 import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.Benchmarks;
 import com.cosmian.cloudproof_demo.DseDB.Configuration;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 import com.cosmian.cloudproof_demo.sse.SseUpserter;
 
 public class SparkInjector implements Injector {
@@ -21,14 +23,38 @@ public class SparkInjector implements Injector {
 
     private final Benchmarks benchmarks = new Benchmarks();
 
+    private boolean sharedHeaders = false;
+
+    // the schema of the plan, compiled again by the executors; null for the default plan
+    private String schema = null;
+
     public SparkInjector(JavaSparkContext spark) {
         this.spark = spark;
     }
 
+    /**
+     * @param sharedHeaders true to encrypt the headers once per output file instead of once per record part, see
+     *            {@link HeaderTable}
+     * @return this injector
+     */
+    public SparkInjector withSharedHeaders(boolean sharedHeaders) {
+        this.sharedHeaders = sharedHeaders;
+        return this;
+    }
+
+    /**
+     * @param plan the plan of the records, compiled from their schema
+     * @return this injector
+     */
+    public SparkInjector withPlan(RecordPlan plan) {
+        this.schema = plan.getSchema();
+        return this;
+    }
+
     @Override
     public void run(Key k, Key kStar, String publicKeyJson, String outputDirectory, Configuration dseConf,
-        List<String> inputs, boolean kafka, int maxSizeInMB, int maxAgeInSeconds, boolean dropIndexes)
-        throws AppException {
+        SseConfiguration sseConf, List<String> inputs, boolean kafka, int maxSizeInMB, int maxAgeInSeconds,
+        boolean dropIndexes) throws AppException {
 
         benchmarks.startRecording("total_time");
 
@@ -48,8 +74,8 @@ public class SparkInjector implements Injector {
             for (String inputPathString : inputs) {
                 LongAccumulator counter = spark.sc().longAccumulator();
                 JavaRDD<String> inputRdd = spark.textFile(inputPathString).cache();
-                inputRdd.foreachPartition(new SparkInjectionProcess(k, kStar, publicKeyJson, dseConf, outputDirectory,
-                    counter, maxSizeInMB, maxAgeInSeconds));
+                inputRdd.foreachPartition(new SparkInjectionProcess(k, kStar, publicKeyJson, dseConf, sseConf,
+                    outputDirectory, counter, maxSizeInMB, maxAgeInSeconds, sharedHeaders, schema));
                 numRecords += counter.value();
             }
         } finally {
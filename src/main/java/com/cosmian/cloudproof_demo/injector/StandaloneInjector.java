@@ -1,18 +1,34 @@
 package com.cosmian.cloudproof_demo.injector;
 
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.Benchmarks;
 import com.cosmian.cloudproof_demo.DseDB;
+import com.cosmian.cloudproof_demo.HeaderTable;
+import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
+import com.cosmian.cloudproof_demo.injector.RecordInjector.ParsedRecord;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 import com.cosmian.cloudproof_demo.sse.SseUpserter;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.Ffi;
@@ -20,6 +36,21 @@ import com.cosmian.rest.kmip.objects.PublicKey;
 
 /**
  * The standalone injector is a an{@link Injector} that runs as a standalone Java program
+ * <p>
+ * The records flow through a pipeline of stages connected by bounded queues:
+ * <ol>
+ * <li>a reader thread reads the lines and submits them, in order, to the workers</li>
+ * <li>the workers parse the records and encrypt the headers of their parts, each with its own encryption cache</li>
+ * <li>the writer, on the calling thread, takes the records in their input order, assigns their {@link RecordUid},
+ * encrypts their parts with it and writes them</li>
+ * <li>an SSE thread upserts the indexed words of the written records</li>
+ * </ol>
+ * The record UID is the position of the record in the output file, which depends on the size of the records written
+ * before it: it is only known by the writer. The parts, which are authenticated with the UID, are encrypted by the
+ * writer while the asymmetric encryption of the headers, which does not depend on the UID, runs on the workers.
+ * <p>
+ * In the shared header mode, the headers are encrypted once per output file, see {@link HeaderTable}, and the
+ * workers only parse the records.
  */
 public class StandaloneInjector implements Injector {
 
@@ -27,72 +58,545 @@ public class StandaloneInjector implements Injector {
 
     private final Benchmarks benchmarks = new Benchmarks();
 
+    private Configuration configuration = new Configuration();
+
+    /**
+     * The plan of the records, the sizes of the stages and queues of the pipeline and the mode of the headers
+     */
+    public static class Configuration {
+
+        private int workers = Runtime.getRuntime().availableProcessors();
+
+        private int queueDepth = 1024;
+
+        private int sseQueueDepth = 1024;
+
+        private boolean sharedHeaders = false;
+
+        private RecordPlan plan = null;
+
+        /**
+         * @return the number of workers parsing the records and encrypting their headers. Defaults to the number of
+         *         processors.
+         */
+        public int getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @param workers the number of workers parsing the records and encrypting their headers
+         * @return this configuration
+         */
+        public Configuration withWorkers(int workers) {
+            if (workers < 1) {
+                throw new IllegalArgumentException("the number of workers must be at least 1");
+            }
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of records read and not yet written. Defaults to 1024.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @param queueDepth the maximum number of records read and not yet written
+         * @return this configuration
+         */
+        public Configuration withQueueDepth(int queueDepth) {
+            if (queueDepth < 1) {
+                throw new IllegalArgumentException("the queue depth must be at least 1");
+            }
+            this.queueDepth = queueDepth;
+            return this;
+        }
+
+        /**
+         * @return the maximum number of records written and not yet handed to the SSE upserter. Defaults to 1024.
+         */
+        public int getSseQueueDepth() {
+            return sseQueueDepth;
+        }
+
+        /**
+         * @param sseQueueDepth the maximum number of records written and not yet handed to the SSE upserter
+         * @return this configuration
+         */
+        public Configuration withSseQueueDepth(int sseQueueDepth) {
+            if (sseQueueDepth < 1) {
+                throw new IllegalArgumentException("the SSE queue depth must be at least 1");
+            }
+            this.sseQueueDepth = sseQueueDepth;
+            return this;
+        }
+
+        /**
+         * @return true when the headers are shared by the records of an output file. Defaults to false.
+         */
+        public boolean isSharedHeaders() {
+            return sharedHeaders;
+        }
+
+        /**
+         * @param sharedHeaders true to encrypt the headers once per output file instead of once per record part
+         * @return this configuration
+         */
+        public Configuration withSharedHeaders(boolean sharedHeaders) {
+            this.sharedHeaders = sharedHeaders;
+            return this;
+        }
+
+        /**
+         * @return the plan of the records or null for the default plan
+         */
+        public RecordPlan getPlan() {
+            return plan;
+        }
+
+        /**
+         * @param plan the plan of the records, compiled from their schema
+         * @return this configuration
+         */
+        public Configuration withPlan(RecordPlan plan) {
+            this.plan = plan;
+            return this;
+        }
+    }
+
     public StandaloneInjector() {
     }
 
+    /**
+     * @param configuration the sizes of the stages and queues of the pipeline
+     * @return this injector
+     */
+    public StandaloneInjector withConfiguration(Configuration configuration) {
+        this.configuration = configuration;
+        return this;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
     @Override
     public void run(Key k, Key kStar, String publicKeyJson, String outputDirectory, DseDB.Configuration dseConf,
-        List<String> inputs, boolean kafka, int maxSizeInMB, int maxAgeInSeconds, boolean dropIndexes)
-        throws AppException {
+        SseConfiguration sseConf, List<String> inputs, boolean kafka, int maxSizeInMB, int maxAgeInSeconds,
+        boolean dropIndexes) throws AppException {
 
         benchmarks.startRecording("total_time");
         benchmarks.startRecording("init");
 
-        // The sha256 is used to calculate hashes
-        MessageDigest md;
+        // Pre-process the access to the output directory
+        OutputDirectory outputDir = OutputDirectory.parse(outputDirectory);
+
+        List<Integer> cacheHandles = createCaches(publicKeyJson);
+
+        long numRecords = 0;
         try {
-            md = MessageDigest.getInstance("sha-256");
-        } catch (NoSuchAlgorithmException e1) {
-            throw new AppException("Sha 256 is not supported on this machine; cannot continue");
+            // truncate the DSE Index Tables - you may want to remove this
+            if (dropIndexes) {
+                SseUpserter.truncate(dseConf);
+            }
+
+            // done with init - now start processing records
+            benchmarks.stopRecording("init", 1);
+            benchmarks.startRecording("record_process_time");
+
+            try (SseUpserter sseUpserter = new SseUpserter(k, kStar, dseConf, sseConf, Optional.of(benchmarks));
+                LineReader reader = kafka ? new KafkaLineReader(inputs) : new FilesLineReader(inputs);
+                OutputFile outputFile = new OutputFile(outputDir, maxSizeInMB, maxAgeInSeconds)) {
+                numRecords = inject(cacheHandles, reader, outputFile, sseUpserter);
+            } catch (IOException e) {
+                logger.warning("Failed closing the input reader: " + e.getMessage());
+            }
+        } finally {
+            // The caches should be destroyed to reclaim memory
+            benchmarks.stopRecording("record_process_time", numRecords);
+            benchmarks.stopRecording("total_time", 1);
+            logBenchmarks(benchmarks);
+            destroyCaches(cacheHandles);
         }
 
-        // Pre-process the access to the output directory
-        OutputDirectory outputDir = OutputDirectory.parse(outputDirectory);
+    }
 
-        // cache the encryption key for efficiency
-        int cacheHandle;
+    /**
+     * Encrypt, write and index the records of a reader through the pipeline, without the set up of the output file
+     * and of the indexes: the caller closes the reader, the output file and the upserter
+     *
+     * @param publicKeyJson the public key the headers are encrypted with
+     * @param reader the reader of the records
+     * @param outputFile the file the encrypted records are written to
+     * @param sseUpserter the upserter of the indexed words
+     * @return the number of written records
+     * @throws AppException if a stage failed; all the stages are stopped when it is thrown
+     */
+    public long inject(String publicKeyJson, LineReader reader, OutputFile outputFile, SseUpserter sseUpserter)
+        throws AppException {
+        List<Integer> cacheHandles = createCaches(publicKeyJson);
+        try {
+            return inject(cacheHandles, reader, outputFile, sseUpserter);
+        } finally {
+            destroyCaches(cacheHandles);
+        }
+    }
+
+    private long inject(List<Integer> cacheHandles, LineReader reader, OutputFile outputFile,
+        SseUpserter sseUpserter) throws AppException {
+        RecordPlan plan = configuration.plan == null ? RecordPlan.defaultPlan() : configuration.plan;
+        if (configuration.sharedHeaders) {
+            outputFile.withSharedHeaders(cacheHandles.get(0), plan.sharedAttributeSets());
+        }
+        return new Pipeline(plan, cacheHandles, reader, outputFile, sseUpserter).run();
+    }
+
+    /**
+     * Cache the encryption key for efficiency: one cache per worker, or a single one for the shared headers
+     */
+    private List<Integer> createCaches(String publicKeyJson) throws AppException {
+        List<Integer> cacheHandles = new ArrayList<>();
         try {
             PublicKey publicKey = PublicKey.fromJson(publicKeyJson);
-            cacheHandle = Ffi.createEncryptionCache(publicKey);
+            int caches = configuration.sharedHeaders ? 1 : configuration.workers;
+            for (int i = 0; i < caches; i++) {
+                cacheHandles.add(Ffi.createEncryptionCache(publicKey));
+            }
         } catch (CosmianException e) {
+            destroyCaches(cacheHandles);
             throw new AppException("Failed processing the public key file:" + e.getMessage(), e);
         } catch (FfiException e) {
+            destroyCaches(cacheHandles);
             throw new AppException("Failed creating the cache:" + e.getMessage(), e);
         }
+        return cacheHandles;
+    }
 
-        // truncate the DSE Index Tables - you may want to remove this
-        if (dropIndexes) {
-            SseUpserter.truncate(dseConf);
-        }
-
-        // done with init - now start processing records
-        benchmarks.stopRecording("init", 1);
-        benchmarks.startRecording("record_process_time");
-
-        Optional<Benchmarks> doBench = Optional.of(benchmarks);
-        long numRecords = 0;
-        try (SseUpserter sseUpserter = new SseUpserter(k, kStar, dseConf, Optional.of(benchmarks));
-            LineReader reader = kafka ? new KafkaLineReader(inputs) : new FilesLineReader(inputs);
-            OutputFile outputFile = new OutputFile(outputDir, maxSizeInMB, maxAgeInSeconds)) {
-            String line;
-            while ((line = reader.readNext()) != null) {
-                numRecords += 1;
-                RecordInjector.process(line, md, sseUpserter, cacheHandle, doBench, outputFile);
-            }
-        } catch (IOException e) {
-            logger.warning("Failed closing the input reader: " + e.getMessage());
-        } finally {
-            // The cache should be destroyed to reclaim memory
-            benchmarks.stopRecording("record_process_time", numRecords);
-            benchmarks.stopRecording("total_time", 1);
-            logBenchmarks(benchmarks);
+    private static void destroyCaches(List<Integer> cacheHandles) {
+        for (int cacheHandle : cacheHandles) {
             try {
                 Ffi.destroyEncryptionCache(cacheHandle);
             } catch (FfiException | CosmianException e) {
                 logger.warning("Failed destroying the encryption cache and reclaiming memory: " + e.getMessage());
             }
         }
+    }
+
+    /**
+     * A record whose headers are encrypted, with the time in nanoseconds the worker spent on it
+     */
+    private static class Prepared {
+
+        final ParsedRecord record;
+
+        final long workNanos;
+
+        Prepared(ParsedRecord record, long workNanos) {
+            this.record = record;
+            this.workNanos = workNanos;
+        }
+    }
 
+    /**
+     * The words of a written record
+     */
+    private static class Indexed {
+
+        final byte[] uid;
+
+        final Set<Word> words;
+
+        Indexed(byte[] uid, Set<Word> words) {
+            this.uid = uid;
+            this.words = words;
+        }
+    }
+
+    // the end of the records read
+    private static final Future<Prepared> END_OF_RECORDS = CompletableFuture.completedFuture(null);
+
+    // the end of the records written
+    private static final Indexed END_OF_INDEXED = new Indexed(null, null);
+
+    /**
+     * A run of the pipeline
+     */
+    private final class Pipeline {
+
+        private final RecordPlan plan;
+
+        private final LineReader reader;
+
+        private final OutputFile outputFile;
+
+        private final SseUpserter sseUpserter;
+
+        private final ExecutorService workers;
+
+        // the encryption caches not yet taken by a worker thread
+        private final BlockingQueue<Integer> freeCaches;
+
+        private final ThreadLocal<Integer> cache;
+
+        private final BlockingQueue<Future<Prepared>> prepared;
+
+        private final BlockingQueue<Indexed> indexed;
+
+        private final Thread sseThread = new Thread(this::index, "injector-sse");
+
+        // the records are framed by the writer only, one at a time
+        private final RecordBuffer buffer = new RecordBuffer();
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // set when the writer stops, so that the reader does not wait for it
+        private volatile boolean stopped = false;
+
+        Pipeline(RecordPlan plan, List<Integer> cacheHandles, LineReader reader, OutputFile outputFile,
+            SseUpserter sseUpserter) {
+            this.plan = plan;
+            this.reader = reader;
+            this.outputFile = outputFile;
+            this.sseUpserter = sseUpserter;
+            this.freeCaches = new ArrayBlockingQueue<>(cacheHandles.size(), false, cacheHandles);
+            this.cache = ThreadLocal.withInitial(this.freeCaches::poll);
+            AtomicInteger counter = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(configuration.workers, r -> {
+                Thread thread = new Thread(r, "injector-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.prepared = new ArrayBlockingQueue<>(configuration.queueDepth);
+            this.indexed = new ArrayBlockingQueue<>(configuration.sseQueueDepth);
+        }
+
+        /**
+         * Run the pipeline until all the records are written and indexed
+         *
+         * @return the number of written records
+         * @throws AppException if a stage failed
+         */
+        long run() throws AppException {
+            Thread readerThread = new Thread(this::read, "injector-reader");
+            readerThread.setDaemon(true);
+            this.sseThread.setDaemon(true);
+            readerThread.start();
+            this.sseThread.start();
+
+            long numRecords = 0;
+            try {
+                numRecords = write();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.failure.compareAndSet(null, new AppException("Interrupted while writing the records", e));
+            } catch (AppException | RuntimeException e) {
+                this.failure.compareAndSet(null, e);
+            } finally {
+                this.stopped = true;
+                // the SSE thread drains its queue until the end marker, unless it was interrupted
+                boolean interrupted = putIndexed(END_OF_INDEXED);
+                // the reader is done unless the writer failed: a Kafka poll is interrupted
+                readerThread.interrupt();
+                // the upserter, the reader and the encryption caches are released by the caller once all the stages
+                // are done with them
+                interrupted |= join(this.sseThread);
+                interrupted |= join(readerThread);
+                this.workers.shutdownNow();
+                while (true) {
+                    try {
+                        if (this.workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                            break;
+                        }
+                        logger.warning("Waiting for the injector workers to stop");
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            Throwable t = this.failure.get();
+            if (t instanceof AppException) {
+                throw (AppException) t;
+            }
+            if (t != null) {
+                throw new AppException("Failed injecting the records: " + t.getMessage(), t);
+            }
+            return numRecords;
+        }
+
+        /**
+         * Wait until the SSE thread accepts the record or stops, even if the calling thread is interrupted
+         *
+         * @return true if the calling thread was interrupted
+         */
+        private boolean putIndexed(Indexed record) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (this.indexed.offer(record, 100, TimeUnit.MILLISECONDS) || !this.sseThread.isAlive()) {
+                        return interrupted;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        /**
+         * Wait until a stage thread terminates, even if the calling thread is interrupted
+         *
+         * @return true if the calling thread was interrupted
+         */
+        private boolean join(Thread thread) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    return interrupted;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        /**
+         * The reader stage: submit the lines to the workers in their input order
+         */
+        private void read() {
+            try {
+                String line;
+                while ((line = this.reader.readNext()) != null && !this.stopped) {
+                    String l = line;
+                    if (!offer(this.workers.submit(() -> prepare(l)))) {
+                        return;
+                    }
+                }
+            } catch (AppException | RuntimeException e) {
+                this.failure.compareAndSet(null, e);
+            }
+            offer(END_OF_RECORDS);
+        }
+
+        /**
+         * Wait until the writer accepts the record or stops
+         *
+         * @return false if the writer stopped
+         */
+        private boolean offer(Future<Prepared> record) {
+            try {
+                while (!this.prepared.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                    if (this.stopped) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * The worker stage: parse a record and encrypt its headers with the encryption cache of the worker, unless
+         * they are shared
+         */
+        private Prepared prepare(String line) throws AppException {
+            long start = System.nanoTime();
+            ParsedRecord record = ParsedRecord.parse(this.plan, line);
+            long parsed = System.nanoTime();
+            benchmarks.record("record_pre_processing", 1, TimeUnit.NANOSECONDS.toMicros(parsed - start));
+            if (configuration.sharedHeaders) {
+                return new Prepared(record, parsed - start);
+            }
+            Integer cacheHandle = this.cache.get();
+            if (cacheHandle == null) {
+                throw new AppException(
+                    "No encryption cache left for the injector worker " + Thread.currentThread().getName());
+            }
+            record.encryptHeaders(cacheHandle);
+            long encrypted = System.nanoTime();
+            benchmarks.record("record_attributes_encryption", 1, TimeUnit.NANOSECONDS.toMicros(encrypted - parsed));
+            return new Prepared(record, encrypted - start);
+        }
+
+        /**
+         * The writer stage: assign the record UIDs in the input order, encrypt the parts and write the records
+         */
+        private long write() throws AppException, InterruptedException {
+            long numRecords = 0;
+            while (this.failure.get() == null) {
+                Future<Prepared> future = this.prepared.take();
+                if (future == END_OF_RECORDS) {
+                    break;
+                }
+                Prepared record;
+                try {
+                    record = future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof AppException) {
+                        throw (AppException) cause;
+                    }
+                    throw new AppException("Failed processing a record: " + cause.getMessage(), cause);
+                }
+
+                long start = System.nanoTime();
+                RecordUid recordUid = this.outputFile.nextRecordUid();
+                logger.finer(() -> "Encryption: record UID: " + recordUid.filename + " :: " + recordUid.mark);
+                byte[] uid = recordUid.toBytes();
+                RecordBuffer encrypted = record.record.encrypt(uid, this.outputFile.getHeaders(), this.buffer);
+                long blocks = System.nanoTime();
+                benchmarks.record("record_block", 1, TimeUnit.NANOSECONDS.toMicros(blocks - start));
+
+                this.outputFile.write(encrypted);
+                long written = System.nanoTime();
+                benchmarks.record("record_write", 1, TimeUnit.NANOSECONDS.toMicros(written - blocks));
+                // the time spent on the record by the workers and the writer
+                benchmarks.record("record_total", 1,
+                    TimeUnit.NANOSECONDS.toMicros(record.workNanos + written - start));
+
+                if (putIndexed(new Indexed(uid, record.record.words))) {
+                    throw new InterruptedException();
+                }
+                numRecords++;
+
+                logger.fine(() -> "Injected:" + recordUid + " with attribute: " + record.record.rowValue()
+                    + ", indexed values: " + Arrays.toString(record.record.indexedValues));
+            }
+            return numRecords;
+        }
+
+        /**
+         * The SSE stage: upsert the words of the written records. After a failure, the queue is drained until the
+         * end marker so that the writer never waits for it.
+         */
+        private void index() {
+            while (true) {
+                Indexed record;
+                try {
+                    record = this.indexed.take();
+                } catch (InterruptedException e) {
+                    this.failure.compareAndSet(null, new AppException("Interrupted while indexing the records", e));
+                    return;
+                }
+                if (record == END_OF_INDEXED) {
+                    return;
+                }
+                if (this.failure.get() != null) {
+                    continue;
+                }
+                try {
+                    this.sseUpserter.upsert(record.uid, record.words);
+                } catch (AppException | RuntimeException e) {
+                    this.failure.compareAndSet(null, e);
+                }
+            }
+        }
     }
 
     static void logBenchmarks(Benchmarks benchmarks) {
@@ -124,6 +628,22 @@ public class StandaloneInjector implements Injector {
             builder.append("  - SSE DB: ").append(record_sse_db).append("ms (")
                 .append(String.format("%,.2f", record_sse_db / record_total * 100.0)).append("%)\n");
 
+            builder.append("  - SSE word memo hits: ")
+                .append(String.format("%,.1f",
+                    benchmarks.getHitRatio("sse_word_memo_hits", "sse_word_memo_misses") * 100.0))
+                .append("%\n");
+            builder.append("  - SSE entry table reads skipped: ")
+                .append(String.format("%,.1f",
+                    benchmarks.getHitRatio("sse_write_back_hits", "sse_write_back_misses") * 100.0))
+                .append("% (").append(String.format("%,d", benchmarks.getCounter("sse_write_back_conflicts")))
+                .append(" conflicts)\n");
+            builder.append("  - SSE update conflicts: ")
+                .append(String.format("%,d", benchmarks.getCounter("sse_update_conflicts"))).append(" words, ")
+                .append(String.format("%,d", benchmarks.getCounter("sse_update_retries"))).append(" retries, ")
+                .append(String.format("%,d", benchmarks.getCounter("sse_retry_backoff_ms"))).append("ms backoff\n");
+            builder.append("  - SSE hot word flushes: ")
+                .append(String.format("%,d", benchmarks.getCounter("sse_hot_word_flushes"))).append("\n");
+
             double record_attributes_encryption = benchmarks.getAverage("record_attributes_encryption") / 1000.0;
             builder.append("  - attributes enc.: ").append(record_attributes_encryption).append("ms (")
                 .append(String.format("%,.2f", record_attributes_encryption / record_total * 100.0)).append("%)\n");
@@ -6,9 +6,17 @@ import com.cosmian.cloudproof_demo.AppException;
 import com.cosmian.cloudproof_demo.DseDB;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
 import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 
 public interface Search {
 
+    public default long[] run(Set<Word> words, boolean disjunction, String fsRootUri, Key k, String privateKeyJson,
+        DseDB.Configuration dseConf, String outputDirectory, String cleartextFilename) throws AppException {
+        return run(words, disjunction, fsRootUri, k, privateKeyJson, dseConf, new SseConfiguration(),
+            outputDirectory, cleartextFilename);
+    }
+
     public long[] run(Set<Word> words, boolean disjunction, String fsRootUri, Key k, String privateKeyJson,
-        DseDB.Configuration dseConf, String outputDirectory, String cleartextFilename) throws AppException;
+        DseDB.Configuration dseConf, SseConfiguration sseConf, String outputDirectory, String cleartextFilename)
+        throws AppException;
 }
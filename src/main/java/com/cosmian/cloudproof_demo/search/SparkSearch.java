@@ -15,14 +15,12 @@ import org.apache.spark.util.LongAccumulator;
 
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
-import com.cosmian.cloudproof_demo.DseDB;
 import com.cosmian.cloudproof_demo.DseDB.Configuration;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.Spark;
-import com.cosmian.cloudproof_demo.sse.Sse;
-import com.cosmian.cloudproof_demo.sse.Sse.DbUid;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
 import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 import com.cosmian.cloudproof_demo.sse.SseFinder;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.Ffi;
@@ -40,22 +38,11 @@ public class SparkSearch implements Search {
 
     @Override
     public long[] run(Set<Word> words, boolean disjunction, String fsRootUri, Key k, String privateKeyJson,
-        Configuration dseConf, String outputDirectory, String cleartextFilename) throws AppException {
-
-        HashMap<Word, Set<DbUid>> result;
-        try (DseDB dseDb = new DseDB(dseConf)) {
-            try {
-                result = Sse.bulkRetrieve(k, words, dseDb);
-            } catch (CosmianException e) {
-                throw new AppException("failed querying the SSE index: " + e.getMessage(), e);
-            }
-        } catch (CosmianException e) {
-            throw new AppException("Failed initializing the SSE DB: " + e.getMessage(), e);
-        }
-        logger.fine(() -> "found results for " + result.size() + " word(s)");
+        Configuration dseConf, SseConfiguration sseConf, String outputDirectory, String cleartextFilename)
+        throws AppException {
 
         // finds results per file
-        Set<byte[]> uids = SseFinder.find(words, disjunction, k, dseConf);
+        Set<byte[]> uids = SseFinder.find(words, disjunction, k, dseConf, sseConf);
         HashMap<String, List<Long>> positionsPerFile = RecordUid.positionsPerFile(uids);
 
         // process the resource using a decryption cache
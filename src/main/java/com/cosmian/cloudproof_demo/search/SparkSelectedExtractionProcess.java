@@ -1,5 +1,6 @@
 package com.cosmian.cloudproof_demo.search;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -19,6 +20,7 @@ import org.apache.spark.util.LongAccumulator;
 
 import com.cosmian.CosmianException;
 import com.cosmian.cloudproof_demo.AppException;
+import com.cosmian.cloudproof_demo.HeaderTable;
 import com.cosmian.cloudproof_demo.RecordUid;
 import com.cosmian.cloudproof_demo.extractor.RecordExtractor;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
@@ -88,9 +90,10 @@ public class SparkSelectedExtractionProcess implements VoidFunction<Iterator<Tup
                 positions.sort(Comparator.naturalOrder());
                 logger.info(() -> "file: " + filename + " has " + positions.size() + " entries");
 
-                try (DataInputStream is = tuple._2().open()) {
+                try (DataInputStream is = new DataInputStream(new BufferedInputStream(tuple._2().open()))) {
 
-                    long previousMark = 0;
+                    HeaderTable sharedHeaders = HeaderTable.read(decryptionCache, is);
+                    long previousMark = sharedHeaders == null ? 0 : sharedHeaders.length();
                     for (final long mark : positions) {
 
                         RecordUid uid = new RecordUid(filename, mark);
@@ -98,14 +101,15 @@ public class SparkSelectedExtractionProcess implements VoidFunction<Iterator<Tup
                         // skip to the next mark
                         long currentSkip = mark - previousMark;
                         logger.fine(() -> "Extracting " + uid + ": jumping: " + currentSkip);
-                        long skipped = is.skip(currentSkip);
+                        long skipped = RecordExtractor.skip(is, currentSkip);
                         if (skipped != currentSkip) {
                             throw new AppException("Expected to skip: " + currentSkip + " bytes, actual: " + skipped);
                         }
 
                         RecordExtractor.Record record;
                         try {
-                            record = RecordExtractor.readNext(decryptionCache, uid, is, Optional.empty());
+                            record = RecordExtractor.readNext(decryptionCache, sharedHeaders, uid, is,
+                                Optional.empty());
                         } catch (AppException e) {
                             logger.fine(() -> "Skipping process of the file: " + filename + ": " + e.getMessage());
                             continue;
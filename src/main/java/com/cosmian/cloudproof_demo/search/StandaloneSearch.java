@@ -18,6 +18,7 @@ import com.cosmian.cloudproof_demo.fs.InputPath;
 import com.cosmian.cloudproof_demo.fs.OutputDirectory;
 import com.cosmian.cloudproof_demo.sse.Sse.Key;
 import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
 import com.cosmian.cloudproof_demo.sse.SseFinder;
 import com.cosmian.jna.FfiException;
 import com.cosmian.jna.cover_crypt.Ffi;
@@ -30,14 +31,15 @@ public class StandaloneSearch implements Search {
     private final Benchmarks benchmarks = new Benchmarks();
 
     public long[] run(Set<Word> words, boolean disjunction, String fsRootUri, Key k, String privateKeyJson,
-        DseDB.Configuration dseConf, String outputDirectory, String cleartextFilename) throws AppException {
+        DseDB.Configuration dseConf, SseConfiguration sseConf, String outputDirectory, String cleartextFilename)
+        throws AppException {
 
         logger.finer(() -> "Searching words: " + words);
 
         benchmarks.startRecording("total_time");
         benchmarks.startRecording("sse");
 
-        Set<byte[]> uids = SseFinder.find(words, disjunction, k, dseConf);
+        Set<byte[]> uids = SseFinder.find(words, disjunction, k, dseConf, sseConf);
         HashMap<String, List<Long>> positionsPerFile = RecordUid.positionsPerFile(uids);
         logger.fine(() -> "found " + uids.size() + " UIDs matching the search");
 
@@ -0,0 +1,67 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * An {@link AsyncDBInterface} running the operations of a synchronous {@link DBInterface} on an executor
+ *
+ * @see AsyncDBInterface#of(DBInterface, Executor)
+ */
+class AsyncDBAdapter implements AsyncDBInterface {
+
+    private final DBInterface db;
+
+    private final Executor executor;
+
+    AsyncDBAdapter(DBInterface db, Executor executor) {
+        this.db = db;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Map<WordHash, DBEntryTableRecord>> getEntryTableEntriesAsync(Set<WordHash> wordHashes) {
+        return supply(() -> this.db.getEntryTableEntries(wordHashes));
+    }
+
+    @Override
+    public CompletionStage<Map<WordHash, Boolean>> upsertEntryTableEntriesAsync(
+        Map<WordHash, DBEntryTableRecord> entries) {
+        return supply(() -> this.db.upsertEntryTableEntries(entries));
+    }
+
+    @Override
+    public CompletionStage<Map<Key, byte[]>> getChainTableEntriesByKeyAsync(Set<Key> chainTableKeys) {
+        return supply(() -> this.db.getChainTableEntriesByKey(chainTableKeys));
+    }
+
+    @Override
+    public CompletionStage<Void> upsertChainTableEntriesAsync(Map<Key, byte[]> entries) {
+        return supply(() -> {
+            this.db.upsertChainTableEntries(entries);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> supply(Operation<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.call();
+            } catch (CosmianException e) {
+                throw new CompletionException(e);
+            }
+        }, this.executor);
+    }
+
+    private interface Operation<T> {
+        T call() throws CosmianException;
+    }
+}
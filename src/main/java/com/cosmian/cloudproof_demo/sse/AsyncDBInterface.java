@@ -0,0 +1,120 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * The asynchronous counterpart of {@link DBInterface}: the operations return as soon as they are issued and their
+ * {@link CompletionStage} completes when the key value store answered, exceptionally with a {@link CosmianException}
+ * if the operation failed. The stages may complete on the I/O threads of the store: their callbacks must not block.
+ * <p>
+ * A synchronous store is adapted with {@link #of(DBInterface, Executor)} and an asynchronous one is used by the
+ * synchronous callers through {@link #blocking(AsyncDBInterface)}.
+ */
+public interface AsyncDBInterface {
+
+    /**
+     * Retrieve the encrypted values of the Entry Table for a given set of word hashes
+     *
+     * @param wordHashes as set of word hashes (sated by K₁)
+     * @return the entries of word hashes to encrypted values
+     */
+    CompletionStage<Map<WordHash, DBEntryTableRecord>> getEntryTableEntriesAsync(Set<WordHash> wordHashes);
+
+    /**
+     * Upsert the entries (Word hash -> encrypted value) in the Entry Table If there is a revision conflict, the
+     * operation will be unsuccessful and false will be returned in the results map
+     *
+     * @param entries the entries to upsert
+     * @return a map of successful operations per WordHash
+     */
+    CompletionStage<Map<WordHash, Boolean>> upsertEntryTableEntriesAsync(Map<WordHash, DBEntryTableRecord> entries);
+
+    /**
+     * Retrieve the encrypted db UIDs from the Chain Table with their chain table key. Keys which are not in the table
+     * are absent from the result.
+     *
+     * @param chainTableKeys a list of chain table keys
+     * @return the entries of chain table keys to encrypted DB Uids
+     */
+    CompletionStage<Map<Key, byte[]>> getChainTableEntriesByKeyAsync(Set<Key> chainTableKeys);
+
+    /**
+     * Upsert the entries (chain table keys -> encrypted DB uids) in the Chain Table
+     *
+     * @param entries the entries to upsert
+     * @return completes when the entries are upserted
+     */
+    CompletionStage<Void> upsertChainTableEntriesAsync(Map<Key, byte[]> entries);
+
+    /**
+     * Adapt a synchronous store: its operations run on the executor. A store which is already asynchronous is
+     * returned as is.
+     *
+     * @param db the synchronous store
+     * @param executor the executor running the operations, whose threads are blocked by the calls to the store
+     * @return the asynchronous store
+     */
+    static AsyncDBInterface of(DBInterface db, Executor executor) {
+        if (db instanceof AsyncDBInterface) {
+            return (AsyncDBInterface) db;
+        }
+        return new AsyncDBAdapter(db, executor);
+    }
+
+    /**
+     * Adapt an asynchronous store to the synchronous callers: every operation waits for its stage. A store which is
+     * already synchronous is returned as is.
+     *
+     * @param db the asynchronous store
+     * @return the synchronous store
+     */
+    static DBInterface blocking(AsyncDBInterface db) {
+        if (db instanceof DBInterface) {
+            return (DBInterface) db;
+        }
+        return new BlockingDBAdapter(db);
+    }
+
+    /**
+     * Wait for a stage of an operation
+     *
+     * @param stage the stage of the operation
+     * @return the result of the operation
+     * @throws CosmianException the failure of the operation, or if the thread is interrupted
+     */
+    static <T> T await(CompletionStage<T> stage) throws CosmianException {
+        try {
+            return stage.toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CosmianException("Interrupted while waiting for the DB", e);
+        }
+    }
+
+    /**
+     * @param error the failure of a stage
+     * @return the {@link CosmianException} of the failure
+     */
+    static CosmianException unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+            && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof CosmianException) {
+            return (CosmianException) cause;
+        }
+        return new CosmianException("DB operation failed: " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,43 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A {@link DBInterface} waiting for the stages of an {@link AsyncDBInterface}
+ *
+ * @see AsyncDBInterface#blocking(AsyncDBInterface)
+ */
+class BlockingDBAdapter implements DBInterface {
+
+    private final AsyncDBInterface db;
+
+    BlockingDBAdapter(AsyncDBInterface db) {
+        this.db = db;
+    }
+
+    @Override
+    public Map<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes) throws CosmianException {
+        return AsyncDBInterface.await(this.db.getEntryTableEntriesAsync(wordHashes));
+    }
+
+    @Override
+    public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
+        throws CosmianException {
+        return AsyncDBInterface.await(this.db.upsertEntryTableEntriesAsync(entries));
+    }
+
+    @Override
+    public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+        return AsyncDBInterface.await(this.db.getChainTableEntriesByKeyAsync(chainTableKeys));
+    }
+
+    @Override
+    public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
+        AsyncDBInterface.await(this.db.upsertChainTableEntriesAsync(entries));
+    }
+}
@@ -0,0 +1,78 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A {@link DBInterface} decorator serving the Chain Table reads from a {@link ChainTableCache}: only the keys which
+ * are not cached are fetched from the underlying DB, and the fetched entries are added to the cache. Entry Table
+ * operations and Chain Table writes are passed through.
+ * <p>
+ * The decorator is thread safe if the underlying DB is.
+ */
+public class CachingDBInterface implements DBInterface {
+
+    private final DBInterface db;
+
+    private final ChainTableCache cache;
+
+    /**
+     * @param db the underlying DB
+     * @param cache the cache, which may be shared with other decorators of the same indexes
+     */
+    public CachingDBInterface(DBInterface db, ChainTableCache cache) {
+        this.db = db;
+        this.cache = cache;
+    }
+
+    @Override
+    public Map<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes) throws CosmianException {
+        return this.db.getEntryTableEntries(wordHashes);
+    }
+
+    @Override
+    public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
+        throws CosmianException {
+        return this.db.upsertEntryTableEntries(entries);
+    }
+
+    @Override
+    public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+        Map<Key, byte[]> results = new HashMap<>(chainTableKeys.size() * 2);
+        Set<Key> missing = new HashSet<>();
+        for (Key key : chainTableKeys) {
+            byte[] value = this.cache.get(key);
+            if (value == null) {
+                missing.add(key);
+            } else {
+                results.put(key, value);
+            }
+        }
+        if (missing.size() > 0) {
+            Map<Key, byte[]> fetched = this.db.getChainTableEntriesByKey(missing);
+            for (Map.Entry<Key, byte[]> entry : fetched.entrySet()) {
+                this.cache.put(entry.getKey(), entry.getValue());
+            }
+            results.putAll(fetched);
+        }
+        return results;
+    }
+
+    @Override
+    public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
+        this.db.upsertChainTableEntries(entries);
+    }
+
+    /**
+     * @return the cache of the Chain Table entries
+     */
+    public ChainTableCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,264 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.DbUid;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A client side store of chain checkpoints: for a word hash, the last known position of its segmented chain and the
+ * DB Uids already retrieved up to that position. A search with a checkpoint only walks and fetches the new suffix of
+ * the chain. A checkpoint is invalidated when the Entry Table revision of the word goes backwards, its chain no
+ * longer extends the checkpointed one or is derived from another key Kwᵢ, or the Chain Table row at the checkpoint
+ * changed (e.g. the indexes were dropped and rewritten). The row is read again with the suffix of the chain. A
+ * checkpoint is only moved once every key of the chain returned a row.
+ * <p>
+ * Checkpoints are kept in memory, with a LRU eviction once the total number of DB Uids they hold exceeds the capacity.
+ * When a file is supplied, the checkpoints are loaded from it when the store is created and saved to it on
+ * {@link #close()}, encrypted under a key derived from K.
+ * <p>
+ * The store is thread safe.
+ */
+public class ChainCheckpointStore implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ChainCheckpointStore.class.getName());
+
+    public final static int DEFAULT_CAPACITY = 1_000_000;
+
+    // the salt identifies the file format: the files of a previous format cannot be decrypted and are ignored
+    private final static byte[] FILE_KEY_SALT = "cloudproof chain checkpoints v2".getBytes(StandardCharsets.UTF_8);
+
+    private final int capacity;
+
+    private final Path file;
+
+    private final Key fileKey;
+
+    private final LinkedHashMap<WordHash, Checkpoint> checkpoints = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the number of DB Uids held by the checkpoints
+    private long size = 0;
+
+    /**
+     * An in memory store
+     *
+     * @param capacity the maximum number of DB Uids held by the checkpoints
+     */
+    public ChainCheckpointStore(int capacity) {
+        this.capacity = capacity;
+        this.file = null;
+        this.fileKey = null;
+    }
+
+    /**
+     * A store saved to a local file, loading the existing checkpoints from it. A file which cannot be read or
+     * decrypted with the key is ignored.
+     *
+     * @param capacity the maximum number of DB Uids held by the checkpoints
+     * @param file the file
+     * @param k the main symmetric key of the indexes
+     * @throws CosmianException if the file key cannot be derived
+     */
+    public ChainCheckpointStore(int capacity, Path file, Key k) throws CosmianException {
+        this.capacity = capacity;
+        this.file = file;
+        this.fileKey = SseCrypto.get().context(k).derive(FILE_KEY_SALT);
+        if (Files.exists(file)) {
+            try {
+                load();
+            } catch (IOException | CosmianException e) {
+                logger.warning(() -> "Ignoring the chain checkpoints file " + file + ": " + e.getMessage());
+                this.checkpoints.clear();
+                this.size = 0;
+            }
+        }
+    }
+
+    /**
+     * @param wordHash the word hash
+     * @return the checkpoint of the word or null
+     */
+    public synchronized Checkpoint get(WordHash wordHash) {
+        return this.checkpoints.get(wordHash);
+    }
+
+    /**
+     * Save a checkpoint for the word, replacing the previous one. The checkpoint is not kept if it holds more DB Uids
+     * than the capacity.
+     *
+     * @param wordHash the word hash
+     * @param checkpoint the checkpoint
+     */
+    public synchronized void put(WordHash wordHash, Checkpoint checkpoint) {
+        remove(wordHash);
+        if (checkpoint.dbUids.size() > this.capacity) {
+            return;
+        }
+        this.checkpoints.put(wordHash, checkpoint);
+        this.size += checkpoint.dbUids.size();
+        Iterator<Checkpoint> it = this.checkpoints.values().iterator();
+        while (this.size > this.capacity && it.hasNext()) {
+            this.size -= it.next().dbUids.size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Invalidate the checkpoint of a word
+     *
+     * @param wordHash the word hash
+     */
+    public synchronized void remove(WordHash wordHash) {
+        Checkpoint previous = this.checkpoints.remove(wordHash);
+        if (previous != null) {
+            this.size -= previous.dbUids.size();
+        }
+    }
+
+    /**
+     * @return the number of checkpoints
+     */
+    public synchronized int size() {
+        return this.checkpoints.size();
+    }
+
+    /**
+     * Save the checkpoints to the file, if any
+     */
+    @Override
+    public synchronized void close() throws CosmianException {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(this.checkpoints.size());
+            for (Map.Entry<WordHash, Checkpoint> entry : this.checkpoints.entrySet()) {
+                Checkpoint checkpoint = entry.getValue();
+                writeBytes(out, entry.getKey().bytes());
+                out.writeInt(checkpoint.revision);
+                out.writeInt(checkpoint.segmentSize);
+                out.writeInt(checkpoint.segment);
+                out.writeInt(checkpoint.count);
+                out.write(checkpoint.r.bytes());
+                out.write(checkpoint.kwi.bytes());
+                writeBytes(out, checkpoint.value);
+                out.writeInt(checkpoint.dbUids.size());
+                for (DbUid dbUid : checkpoint.dbUids) {
+                    writeBytes(out, dbUid.bytes());
+                }
+            }
+            out.flush();
+            byte[] ciphertext = SseCrypto.get().context(this.fileKey).encrypt(bos.toByteArray());
+            Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+            Files.write(tmp, ciphertext);
+            Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new CosmianException("Failed saving the chain checkpoints: " + e.getMessage(), e);
+        }
+    }
+
+    private void load() throws IOException, CosmianException {
+        byte[] plaintext = SseCrypto.get().context(this.fileKey).decrypt(Files.readAllBytes(this.file));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext));
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            WordHash wordHash = new WordHash(readBytes(in));
+            int revision = in.readInt();
+            int segmentSize = in.readInt();
+            int segment = in.readInt();
+            int count = in.readInt();
+            byte[] r = new byte[Key.KEY_LENGTH];
+            in.readFully(r);
+            byte[] kwi = new byte[Key.KEY_LENGTH];
+            in.readFully(kwi);
+            byte[] value = readBytes(in);
+            int numDbUids = in.readInt();
+            Set<DbUid> dbUids = new HashSet<>(numDbUids * 2);
+            for (int j = 0; j < numDbUids; j++) {
+                dbUids.add(new DbUid(readBytes(in)));
+            }
+            put(wordHash,
+                new Checkpoint(revision, segmentSize, segment, count, new Key(r), new Key(kwi), value, dbUids));
+        }
+        logger.fine(() -> "Loaded " + this.checkpoints.size() + " chain checkpoints from " + this.file);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * The position of a segmented chain at a given revision of its Entry Table value, the key Kwᵢ of the chain, the
+     * encrypted Chain Table row at that position and the DB Uids of the chain up to that position
+     */
+    public static class Checkpoint {
+
+        final int revision;
+
+        final int segmentSize;
+
+        final int segment;
+
+        final int count;
+
+        final Key r;
+
+        final Key kwi;
+
+        final byte[] value;
+
+        final Set<DbUid> dbUids;
+
+        Checkpoint(int revision, int segmentSize, int segment, int count, Key r, Key kwi, byte[] value,
+            Set<DbUid> dbUids) {
+            this.revision = revision;
+            this.segmentSize = segmentSize;
+            this.segment = segment;
+            this.count = count;
+            this.r = r;
+            this.kwi = kwi;
+            this.value = value;
+            this.dbUids = Collections.unmodifiableSet(dbUids);
+        }
+
+        /**
+         * @return the revision of the Entry Table value at the checkpoint
+         */
+        public int getRevision() {
+            return revision;
+        }
+
+        /**
+         * @return the DB Uids of the chain up to the checkpoint
+         */
+        public Set<DbUid> getDbUids() {
+            return dbUids;
+        }
+    }
+}
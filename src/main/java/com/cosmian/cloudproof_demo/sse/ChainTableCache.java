@@ -0,0 +1,251 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+
+/**
+ * A cache of Chain Table entries (chain table key -> encrypted DB Uid). Chain Table entries are written once and never
+ * updated while the index lives. The chain table keys are however derived from the keys K, K* and the words only: once
+ * the index is truncated, see {@link SseUpserter#truncate}, a reindex under the same keys writes other DB Uids under
+ * the same chain table keys. The cache must then be cleared, see {@link #clear()}, or discarded.
+ * <p>
+ * The cache has two tiers:
+ * <ul>
+ * <li>an on-heap LRU, bounded by the number of bytes of its entries</li>
+ * <li>an optional off-heap tier which receives the entries evicted from the on-heap LRU. It is a ring buffer in a
+ * direct {@link ByteBuffer}: the oldest entries are overwritten first. Entries found there are promoted back to the
+ * on-heap tier.</li>
+ * </ul>
+ * A cache may be shared by several {@link CachingDBInterface} and is thread safe.
+ */
+public class ChainTableCache {
+
+    // estimated on-heap cost of an entry in addition to its value: key, array headers and map entry
+    private final static int ENTRY_OVERHEAD = 96;
+
+    private final long maxHeapBytes;
+
+    private final LinkedHashMap<Key, byte[]> heap = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long heapBytes = 0;
+
+    private final OffHeapRing offHeap;
+
+    private final AtomicLong heapHits = new AtomicLong();
+
+    private final AtomicLong offHeapHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A cache with an on-heap tier only
+     *
+     * @param maxHeapBytes the maximum size in bytes of the on-heap tier
+     */
+    public ChainTableCache(long maxHeapBytes) {
+        this(maxHeapBytes, 0);
+    }
+
+    /**
+     * A cache with an on-heap tier and an off-heap tier
+     *
+     * @param maxHeapBytes the maximum size in bytes of the on-heap tier
+     * @param offHeapBytes the size in bytes of the off-heap tier, 0 for none; at most {@link Integer#MAX_VALUE}
+     */
+    public ChainTableCache(long maxHeapBytes, int offHeapBytes) {
+        this.maxHeapBytes = maxHeapBytes;
+        this.offHeap = offHeapBytes > 0 ? new OffHeapRing(offHeapBytes) : null;
+    }
+
+    /**
+     * Get an entry, promoting it to the on-heap tier if it is found off-heap
+     *
+     * @param key the chain table key
+     * @return the encrypted DB Uid or null if it is not cached
+     */
+    public byte[] get(Key key) {
+        byte[] value;
+        synchronized (this) {
+            value = this.heap.get(key);
+            if (value == null && this.offHeap != null) {
+                value = this.offHeap.get(key);
+                if (value != null) {
+                    putHeap(key, value);
+                    this.offHeapHits.incrementAndGet();
+                    return value;
+                }
+            }
+        }
+        if (value == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.heapHits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Cache an entry
+     *
+     * @param key the chain table key
+     * @param value the encrypted DB Uid
+     */
+    public synchronized void put(Key key, byte[] value) {
+        if (!this.heap.containsKey(key)) {
+            putHeap(key, value);
+        }
+    }
+
+    private void putHeap(Key key, byte[] value) {
+        this.heap.put(key, value);
+        this.heapBytes += value.length + ENTRY_OVERHEAD;
+        Iterator<Map.Entry<Key, byte[]>> it = this.heap.entrySet().iterator();
+        while (this.heapBytes > this.maxHeapBytes && it.hasNext()) {
+            Map.Entry<Key, byte[]> eldest = it.next();
+            it.remove();
+            this.heapBytes -= eldest.getValue().length + ENTRY_OVERHEAD;
+            if (this.offHeap != null) {
+                this.offHeap.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries, as needed when the index is truncated; the counters are kept
+     */
+    public synchronized void clear() {
+        this.heap.clear();
+        this.heapBytes = 0;
+        if (this.offHeap != null) {
+            this.offHeap.clear();
+        }
+    }
+
+    /**
+     * @return the number of entries found in the on-heap tier
+     */
+    public long getHeapHits() {
+        return heapHits.get();
+    }
+
+    /**
+     * @return the number of entries found in the off-heap tier
+     */
+    public long getOffHeapHits() {
+        return offHeapHits.get();
+    }
+
+    /**
+     * @return the number of entries which were not cached
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of cached entries among the requested ones, 0 if none was requested
+     */
+    public double getHitRatio() {
+        long hits = getHeapHits() + getOffHeapHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of entries in the on-heap tier
+     */
+    public synchronized int getHeapSize() {
+        return this.heap.size();
+    }
+
+    /**
+     * @return the number of entries in the off-heap tier
+     */
+    public synchronized int getOffHeapSize() {
+        return this.offHeap == null ? 0 : this.offHeap.index.size();
+    }
+
+    @Override
+    public String toString() {
+        return "chain table cache: " + String.format("%,d", getHeapHits()) + " on-heap hits, "
+            + String.format("%,d", getOffHeapHits()) + " off-heap hits, " + String.format("%,d", getMisses())
+            + " misses (" + String.format("%.1f", getHitRatio() * 100.0) + "% hits), " + getHeapSize()
+            + " on-heap and " + getOffHeapSize() + " off-heap entries";
+    }
+
+    /**
+     * A ring buffer of entries [key][value length][value] in a direct {@link ByteBuffer}. Positions are absolute and
+     * only grow; an entry is valid while it has not been overwritten i.e. while its position is within the capacity of
+     * the write position. Not thread safe.
+     */
+    static class OffHeapRing {
+
+        private final ByteBuffer buffer;
+
+        private final int capacity;
+
+        private final HashMap<Key, Long> index = new HashMap<>();
+
+        // the entries in write order, to clean up the index when they are overwritten
+        private final ArrayDeque<Map.Entry<Key, Long>> order = new ArrayDeque<>();
+
+        private long writePosition = 0;
+
+        OffHeapRing(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+            this.capacity = capacity;
+        }
+
+        byte[] get(Key key) {
+            Long position = this.index.get(key);
+            if (position == null) {
+                return null;
+            }
+            int offset = (int) (position % this.capacity) + Key.KEY_LENGTH;
+            byte[] value = new byte[this.buffer.getInt(offset)];
+            ByteBuffer view = this.buffer.duplicate();
+            view.position(offset + 4);
+            view.get(value);
+            return value;
+        }
+
+        void put(Key key, byte[] value) {
+            int size = Key.KEY_LENGTH + 4 + value.length;
+            if (size > this.capacity || this.index.containsKey(key)) {
+                return;
+            }
+            long position = this.writePosition;
+            int offset = (int) (position % this.capacity);
+            if (offset + size > this.capacity) {
+                // skip to the start of the buffer
+                position += this.capacity - offset;
+                offset = 0;
+            }
+            this.writePosition = position + size;
+            // drop the entries overwritten by this one
+            while (!this.order.isEmpty() && this.order.peekFirst().getValue() < this.writePosition - this.capacity) {
+                Map.Entry<Key, Long> overwritten = this.order.pollFirst();
+                this.index.remove(overwritten.getKey(), overwritten.getValue());
+            }
+            ByteBuffer view = this.buffer.duplicate();
+            view.position(offset);
+            view.put(key.bytes()).putInt(value.length).put(value);
+            this.index.put(key, position);
+            this.order.addLast(new AbstractMap.SimpleImmutableEntry<>(key, position));
+        }
+
+        void clear() {
+            this.index.clear();
+            this.order.clear();
+            this.writePosition = 0;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.DbUid;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+
+/**
+ * Walks chains of the Chain Table: derives the chain keys r = H(Kwᵢ, r), fetches the encrypted DB Uids and decrypts
+ * them.
+ * <p>
+ * When a chunk size is set, the keys are emitted in chunks: each chunk is read from the Chain Table on the I/O
+ * executor while the derivation of the next keys continues, and its DB Uids are decrypted as soon as it arrives. The
+ * number of chunks in flight is bounded across all the walks of this walker. Without a chunk size, the whole chain is
+ * derived first and fetched in a single read.
+ * <p>
+ * A walk reports whether every derived key returned a row: a chain whose Entry Table value was updated before its
+ * Chain Table rows were written is read incomplete.
+ * <p>
+ * The walks of an {@link AsyncDBInterface} do not block: the keys are derived and the DB Uids decrypted on a crypto
+ * executor while the chunks are read by the store.
+ * <p>
+ * A walker is thread safe if its {@link DBInterface} is.
+ */
+class ChainWalker {
+
+    private final DBInterface db;
+
+    private final AsyncDBInterface asyncDb;
+
+    private final Executor cryptoExecutor;
+
+    private final int chunkSize;
+
+    private final Executor ioExecutor;
+
+    private final Semaphore inFlight;
+
+    /**
+     * A walker fetching whole chains in a single read on the calling thread
+     *
+     * @param db the key value store holding the indexes
+     */
+    ChainWalker(DBInterface db) {
+        this.db = db;
+        this.asyncDb = null;
+        this.cryptoExecutor = null;
+        this.chunkSize = 0;
+        this.ioExecutor = null;
+        this.inFlight = null;
+    }
+
+    /**
+     * A walker streaming the chains in chunks
+     *
+     * @param db the key value store holding the indexes
+     * @param chunkSize the number of keys per Chain Table read
+     * @param maxInFlight the maximum number of chunk reads in flight
+     * @param ioExecutor the executor running the chunk reads
+     */
+    ChainWalker(DBInterface db, int chunkSize, int maxInFlight, Executor ioExecutor) {
+        this.db = db;
+        this.asyncDb = null;
+        this.cryptoExecutor = null;
+        this.chunkSize = chunkSize;
+        this.ioExecutor = ioExecutor;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * A walker of {@link #walkAsync(Key, Key, Key, int)}, streaming the chains in chunks if a chunk size is set
+     *
+     * @param db the asynchronous key value store holding the indexes
+     * @param chunkSize the number of keys per Chain Table read, 0 to read whole chains
+     * @param cryptoExecutor the executor of the key derivations and decryptions
+     */
+    ChainWalker(AsyncDBInterface db, int chunkSize, Executor cryptoExecutor) {
+        this.db = null;
+        this.asyncDb = db;
+        this.cryptoExecutor = cryptoExecutor;
+        this.chunkSize = chunkSize;
+        this.ioExecutor = null;
+        this.inFlight = null;
+    }
+
+    /**
+     * Walk a chain starting at r = start, until r = end or maxLinks keys have been derived
+     *
+     * @param kwi the key Kwᵢ of the word
+     * @param start the first key of the chain
+     * @param end the last key of the chain, null to walk exactly maxLinks keys
+     * @param maxLinks the maximum number of keys of the chain
+     * @return the walk
+     * @throws CosmianException if the entries cannot be fetched or decrypted
+     */
+    Walk walk(Key kwi, Key start, Key end, int maxLinks) throws CosmianException {
+        SseCrypto.Context kwiContext = SseCrypto.get().context(kwi);
+        Walk walk = new Walk();
+        if (this.ioExecutor == null) {
+            forEachChunk(kwiContext, start, end, maxLinks, Integer.MAX_VALUE, chainTableKeys -> walk
+                .add(read(kwiContext, start, end, chainTableKeys, db.getChainTableEntriesByKey(chainTableKeys))));
+            return walk;
+        }
+
+        List<CompletableFuture<Walk>> chunks = new ArrayList<>();
+        forEachChunk(kwiContext, start, end, maxLinks, chunkSize, chunk -> chunks.add(fetch(kwi, start, end, chunk)));
+
+        for (CompletableFuture<Walk> future : chunks) {
+            try {
+                walk.add(future.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof CosmianException) {
+                    throw (CosmianException) cause;
+                }
+                throw new CosmianException("Failed fetching the chain: " + cause.getMessage(), cause);
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * Walk a chain without blocking: the keys are derived on the crypto executor, each chunk is read from the Chain
+     * Table as soon as it is derived and its DB Uids are decrypted on the crypto executor when it arrives.
+     *
+     * @param kwi the key Kwᵢ of the word
+     * @param start the first key of the chain
+     * @param end the last key of the chain, null to walk exactly maxLinks keys
+     * @param maxLinks the maximum number of keys of the chain
+     * @return the walk; completes exceptionally if the entries cannot be fetched or decrypted
+     */
+    CompletableFuture<Walk> walkAsync(Key kwi, Key start, Key end, int maxLinks) {
+        return CompletableFuture.supplyAsync(() -> Sse.unchecked(() -> {
+            SseCrypto.Context kwiContext = SseCrypto.get().context(kwi);
+            List<CompletableFuture<Walk>> chunks = new ArrayList<>();
+            forEachChunk(kwiContext, start, end, maxLinks, chunkSize > 0 ? chunkSize : Integer.MAX_VALUE,
+                chunk -> chunks.add(this.asyncDb.getChainTableEntriesByKeyAsync(chunk)
+                    .thenApplyAsync(
+                        entries -> Sse.unchecked(() -> read(SseCrypto.get().context(kwi), start, end, chunk, entries)),
+                        this.cryptoExecutor)
+                    .toCompletableFuture()));
+            return chunks;
+        }), this.cryptoExecutor).thenCompose(chunks -> CompletableFuture
+            .allOf(chunks.toArray(new CompletableFuture<?>[chunks.size()])).thenApply(done -> {
+                Walk walk = new Walk();
+                for (CompletableFuture<Walk> chunk : chunks) {
+                    walk.add(chunk.join());
+                }
+                return walk;
+            }));
+    }
+
+    /**
+     * Derive the keys of a chain starting at r = start, until r = end or maxLinks keys have been derived, and hand
+     * them to the consumer in chunks of at most chunkSize keys
+     */
+    private static void forEachChunk(SseCrypto.Context kwiContext, Key start, Key end, int maxLinks, int chunkSize,
+        ChunkConsumer consumer) throws CosmianException {
+        Set<Key> chunk = new HashSet<>();
+        Key currentR = start;
+        for (int i = 0; i < maxLinks; i++) {
+            chunk.add(currentR);
+            if (currentR.equals(end)) {
+                break;
+            }
+            if (chunk.size() == chunkSize) {
+                consumer.accept(chunk);
+                chunk = new HashSet<>(chunkSize * 2);
+            }
+            // get the next value in chain
+            currentR = kwiContext.derive(currentR.bytes);
+        }
+        if (chunk.size() > 0) {
+            consumer.accept(chunk);
+        }
+    }
+
+    private interface ChunkConsumer {
+        void accept(Set<Key> chunk) throws CosmianException;
+    }
+
+    /**
+     * Read a chunk of keys from the Chain Table on the I/O executor and decrypt the DB Uids on arrival. Blocks while
+     * the maximum number of chunks is in flight.
+     */
+    private CompletableFuture<Walk> fetch(Key kwi, Key start, Key end, Set<Key> chunk) throws CosmianException {
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CosmianException("Interrupted while walking the chain", e);
+        }
+        CompletableFuture<Walk> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(SseCrypto.get().context(kwi), start, end, chunk, db.getChainTableEntriesByKey(chunk));
+            } catch (CosmianException e) {
+                throw new CompletionException(e);
+            }
+        }, this.ioExecutor);
+        future.whenComplete((result, error) -> this.inFlight.release());
+        return future;
+    }
+
+    /**
+     * Decrypt the rows of a chunk of keys
+     */
+    private static Walk read(SseCrypto.Context kwiContext, Key start, Key end, Set<Key> chunk,
+        Map<Key, byte[]> entries) throws CosmianException {
+        Walk walk = new Walk();
+        for (byte[] encDbUid : entries.values()) {
+            walk.dbUids.add(Sse.getDbUidFromChainTableValue(kwiContext, encDbUid));
+        }
+        walk.keys = chunk.size();
+        walk.rows = entries.size();
+        walk.startValue = entries.get(start);
+        walk.endValue = end == null ? null : entries.get(end);
+        return walk;
+    }
+
+    /**
+     * The result of a walk: the DB Uids of the chain, the number of keys derived and of rows read, and the encrypted
+     * rows at the start and end keys when they were read
+     */
+    static class Walk {
+
+        final Set<DbUid> dbUids = new HashSet<>();
+
+        int keys = 0;
+
+        int rows = 0;
+
+        byte[] startValue = null;
+
+        byte[] endValue = null;
+
+        /**
+         * @return true if every derived key returned a row
+         */
+        boolean isComplete() {
+            return this.rows == this.keys;
+        }
+
+        private void add(Walk chunk) {
+            this.dbUids.addAll(chunk.dbUids);
+            this.keys += chunk.keys;
+            this.rows += chunk.rows;
+            if (chunk.startValue != null) {
+                this.startValue = chunk.startValue;
+            }
+            if (chunk.endValue != null) {
+                this.endValue = chunk.endValue;
+            }
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.cosmian.cloudproof_demo.sse;
 
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,7 +36,19 @@ public interface DBInterface {
      * @return the set of encrypted DB Uids
      * @throws CosmianException if the entries cannot be fetched
      */
-    Set<byte[]> getChainTableEntries(Set<Key> chainTableKeys) throws CosmianException;
+    default Set<byte[]> getChainTableEntries(Set<Key> chainTableKeys) throws CosmianException {
+        return new HashSet<>(getChainTableEntriesByKey(chainTableKeys).values());
+    }
+
+    /**
+     * Retrieve the encrypted db UIDs from the Chain Table with their chain table key. Keys which are not in the table
+     * are absent from the result.
+     * 
+     * @param chainTableKeys a list of chain table keys
+     * @return the entries of chain table keys to encrypted DB Uids
+     * @throws CosmianException if the entries cannot be fetched
+     */
+    Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException;
 
     /**
      * Upsert the entries (chain table keys -> encrypted DB uids) in the Entry Table
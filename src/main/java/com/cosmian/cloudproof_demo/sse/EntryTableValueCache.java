@@ -0,0 +1,91 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.EntryTableValue;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A write-back cache of the clear text Entry Table values last written by an indexer. The next upsert of a cached word
+ * uses the cached value instead of reading the Entry Table first; if another indexer updated the word meanwhile, the
+ * conditional update on the revision fails and the value is read again.
+ * <p>
+ * The cache is thread safe.
+ */
+public class EntryTableValueCache {
+
+    private final LinkedHashMap<WordHash, EntryTableValue> values;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long conflicts = 0;
+
+    /**
+     * @param capacity the maximum number of cached words; the least recently written ones are evicted first
+     */
+    public EntryTableValueCache(int capacity) {
+        this.values = new LinkedHashMap<WordHash, EntryTableValue>(Math.min(capacity, 1024) * 2, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<WordHash, EntryTableValue> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param wordHash the word hash
+     * @return a copy of the last written value of the word, or null
+     * @throws CosmianException if the value cannot be copied
+     */
+    synchronized EntryTableValue get(WordHash wordHash) throws CosmianException {
+        EntryTableValue value = this.values.get(wordHash);
+        if (value == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return value.copy();
+    }
+
+    /**
+     * Keep the value successfully written for the word. The value must not be modified afterwards.
+     */
+    synchronized void put(WordHash wordHash, EntryTableValue value) {
+        this.values.put(wordHash, value);
+    }
+
+    /**
+     * Drop the value of a word whose conditional update failed
+     */
+    synchronized void conflict(WordHash wordHash) {
+        if (this.values.remove(wordHash) != null) {
+            this.conflicts++;
+        }
+    }
+
+    /**
+     * @return the number of upserted words whose Entry Table read was skipped
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of upserted words which had to be read
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of cached values found stale on write
+     */
+    public synchronized long getConflicts() {
+        return conflicts;
+    }
+}
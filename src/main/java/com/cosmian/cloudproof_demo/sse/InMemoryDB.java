@@ -0,0 +1,266 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * An in-process {@link DBInterface} backed by concurrent hash maps, to run and benchmark the SSE algorithms without a
+ * DSE cluster. The Entry Table updates have the compare-and-set semantics of the DSE conditional updates: a revision 0
+ * record is only inserted if the word is absent and a revision n record only replaces the revision n - 1 one.
+ * <p>
+ * The behaviour of a loaded cluster can be simulated with:
+ * <ul>
+ * <li>a latency added to every call, as a round trip would</li>
+ * <li>a probability that an Entry Table update is reported as conflicting, as if another indexer had updated the word;
+ * the stored record is left unchanged</li>
+ * <li>a probability that a call fails with a {@link CosmianException} before reaching the tables</li>
+ * </ul>
+ * The injected conflicts and failures are drawn from a seeded random generator, so that a single threaded run is
+ * reproducible.
+ * <p>
+ * The database is thread safe.
+ */
+public class InMemoryDB implements DBInterface {
+
+    private final ConcurrentHashMap<WordHash, Record> entryTable = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Key, byte[]> chainTable = new ConcurrentHashMap<>();
+
+    private final Random random;
+
+    private long latencyMs = 0;
+
+    private double conflictProbability = 0;
+
+    private double failureProbability = 0;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong injectedConflicts = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * A database without latency, injected conflicts or failures
+     */
+    public InMemoryDB() {
+        this(0);
+    }
+
+    /**
+     * @param seed the seed of the injected conflicts and failures
+     */
+    public InMemoryDB(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param latencyMs the latency in milliseconds added to every call; 0 for none
+     * @return this database
+     */
+    public InMemoryDB withLatencyMs(long latencyMs) {
+        if (latencyMs < 0) {
+            throw new IllegalArgumentException("the latency cannot be negative");
+        }
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * @param conflictProbability the probability that an Entry Table update is reported as conflicting
+     * @return this database
+     */
+    public InMemoryDB withConflictProbability(double conflictProbability) {
+        if (conflictProbability < 0 || conflictProbability > 1) {
+            throw new IllegalArgumentException("the conflict probability must be between 0 and 1");
+        }
+        this.conflictProbability = conflictProbability;
+        return this;
+    }
+
+    /**
+     * @param failureProbability the probability that a call fails
+     * @return this database
+     */
+    public InMemoryDB withFailureProbability(double failureProbability) {
+        if (failureProbability < 0 || failureProbability > 1) {
+            throw new IllegalArgumentException("the failure probability must be between 0 and 1");
+        }
+        this.failureProbability = failureProbability;
+        return this;
+    }
+
+    @Override
+    public Map<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes) throws CosmianException {
+        call("select in Entry Table");
+        Map<WordHash, DBEntryTableRecord> results = new HashMap<>(wordHashes.size() * 2);
+        for (WordHash wordHash : wordHashes) {
+            Record record = this.entryTable.get(wordHash);
+            if (record != null) {
+                results.put(wordHash, record);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
+        throws CosmianException {
+        call("upsert in Entry Table");
+        Map<WordHash, Boolean> results = new HashMap<>(entries.size() * 2);
+        for (Map.Entry<WordHash, DBEntryTableRecord> entry : entries.entrySet()) {
+            if (draw(this.conflictProbability)) {
+                this.injectedConflicts.incrementAndGet();
+                this.conflicts.incrementAndGet();
+                results.put(entry.getKey(), false);
+                continue;
+            }
+            Record update = new Record(entry.getValue().getRevision(), entry.getValue().getEncryptedValue().clone());
+            boolean[] applied = new boolean[1];
+            this.entryTable.compute(entry.getKey(), (wordHash, current) -> {
+                // IF NOT EXISTS for a new word, IF revision = n - 1 for an update
+                applied[0] = current == null ? update.revision == 0 : current.revision == update.revision - 1;
+                return applied[0] ? update : current;
+            });
+            if (!applied[0]) {
+                this.conflicts.incrementAndGet();
+            }
+            results.put(entry.getKey(), applied[0]);
+        }
+        return results;
+    }
+
+    @Override
+    public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+        call("select in Chain Table");
+        Map<Key, byte[]> results = new HashMap<>(chainTableKeys.size() * 2);
+        for (Key key : chainTableKeys) {
+            byte[] value = this.chainTable.get(key);
+            if (value != null) {
+                results.put(key, value.clone());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
+        call("upsert in Chain Table");
+        for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+            this.chainTable.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    /**
+     * Simulate the round trip of a call
+     */
+    private void call(String operation) throws CosmianException {
+        this.calls.incrementAndGet();
+        if (this.latencyMs > 0) {
+            try {
+                Thread.sleep(this.latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CosmianException(operation + " interrupted", e);
+            }
+        }
+        if (draw(this.failureProbability)) {
+            this.failures.incrementAndGet();
+            throw new CosmianException(operation + " failed: injected failure");
+        }
+    }
+
+    private boolean draw(double probability) {
+        if (probability == 0) {
+            return false;
+        }
+        synchronized (this.random) {
+            return this.random.nextDouble() < probability;
+        }
+    }
+
+    /**
+     * Empty both tables; the counters are kept
+     */
+    public void clear() {
+        this.entryTable.clear();
+        this.chainTable.clear();
+    }
+
+    /**
+     * @return the number of rows of the Entry Table
+     */
+    public long entryTableSize() {
+        return this.entryTable.size();
+    }
+
+    /**
+     * @return the number of rows of the Chain Table
+     */
+    public long chainTableSize() {
+        return this.chainTable.size();
+    }
+
+    /**
+     * @return the number of calls, including the failed ones
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of Entry Table updates which were not applied, including the injected conflicts
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of injected conflicts
+     */
+    public long getInjectedConflicts() {
+        return injectedConflicts.get();
+    }
+
+    /**
+     * @return the number of injected failures
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * An immutable Entry Table row
+     */
+    private static class Record implements DBEntryTableRecord {
+
+        private final int revision;
+
+        private final byte[] encryptedValue;
+
+        Record(int revision, byte[] encryptedValue) {
+            this.revision = revision;
+            this.encryptedValue = encryptedValue;
+        }
+
+        @Override
+        public int getRevision() {
+            return revision;
+        }
+
+        @Override
+        public byte[] getEncryptedValue() {
+            return encryptedValue.clone();
+        }
+    }
+}
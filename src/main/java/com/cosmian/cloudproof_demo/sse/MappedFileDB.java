@@ -0,0 +1,743 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A persistent {@link DBInterface} keeping the indexes in memory-mapped files of a local directory, for the edge and
+ * single node installs without DSE. Each table is made of two files:
+ * <ul>
+ * <li>an append-only log of records [length][key][value][CRC32], mapped in segments of {@value #SEGMENT_SIZE} bytes.
+ * An Entry Table update appends a new record; the previous ones are left in place, so that the Entry Table log grows
+ * by the size of the value of a word with each of its updates, until the logs are compacted with {@link #compact()}.
+ * </li>
+ * <li>an open addressing hash index, with linear probing, of the fixed size keys to the offset of their last record
+ * in the log. The index is a single mapping of at most 2 GiB, which limits a table to {@value #MAX_KEYS} keys: the
+ * upserts of new keys fail beyond, with the existing ones left untouched.</li>
+ * </ul>
+ * The Entry Table updates are compare-and-set on the revision, as the DSE conditional updates. The lookups are served
+ * from the mapped files, without system calls.
+ * <p>
+ * The indexes are marked clean when the database is closed. If a database was not closed, e.g. after a crash, its
+ * indexes are rebuilt from the logs when it is opened again; a log is truncated at its first torn or corrupted record.
+ * The records are durable once the OS writes the mapped pages back or, when sync is set, at the end of each upsert.
+ * <p>
+ * A directory can only be opened by one database at a time. The database is thread safe: the reads of a table run
+ * concurrently and its writes are serialized.
+ */
+public class MappedFileDB implements DBInterface, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(MappedFileDB.class.getName());
+
+    /**
+     * The size of the mapped segments of the logs, which is also the maximum size of a record
+     */
+    static final int SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The maximum number of keys of a table: 3/4 of the largest index capacity, 2²⁵ slots of a 32 byte key and an
+     * offset
+     */
+    public static final int MAX_KEYS = (1 << 25) / 4 * 3;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final MappedTable entryTable;
+
+    private final MappedTable chainTable;
+
+    private final boolean sync;
+
+    private boolean closed = false;
+
+    /**
+     * Open or create a database whose writes are left to the OS to persist
+     *
+     * @param directory the directory of the files, created if needed
+     * @throws CosmianException if the files cannot be opened or the directory is already open
+     */
+    public MappedFileDB(Path directory) throws CosmianException {
+        this(directory, false);
+    }
+
+    /**
+     * Open or create a database
+     *
+     * @param directory the directory of the files, created if needed
+     * @param sync true to force the written records to disk at the end of each upsert
+     * @throws CosmianException if the files cannot be opened or the directory is already open
+     */
+    public MappedFileDB(Path directory, boolean sync) throws CosmianException {
+        this.sync = sync;
+        FileChannel lockChannel = null;
+        MappedTable entryTable = null;
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new CosmianException("The index directory " + directory + " is already open");
+            }
+            this.lock = lock;
+            entryTable = new MappedTable(directory, "entry_table", SseCrypto.HMAC_LENGTH);
+            this.entryTable = entryTable;
+            this.chainTable = new MappedTable(directory, "chain_table", Key.KEY_LENGTH);
+            this.lockChannel = lockChannel;
+        } catch (IOException | CosmianException e) {
+            try {
+                if (entryTable != null) {
+                    entryTable.close();
+                }
+                if (lockChannel != null) {
+                    lockChannel.close();
+                }
+            } catch (IOException e1) {
+                logger.warning(() -> "Failed closing the index directory: " + e1.getMessage());
+            }
+            if (e instanceof CosmianException) {
+                throw (CosmianException) e;
+            }
+            throw new CosmianException("Failed opening the index directory " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes) throws CosmianException {
+        Map<WordHash, DBEntryTableRecord> results = new HashMap<>(wordHashes.size() * 2);
+        for (WordHash wordHash : wordHashes) {
+            byte[] value = this.entryTable.get(key(wordHash.bytes(), SseCrypto.HMAC_LENGTH));
+            if (value != null) {
+                results.put(wordHash,
+                    new Record(ByteBuffer.wrap(value).getInt(), Arrays.copyOfRange(value, 4, value.length)));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
+        throws CosmianException {
+        Map<WordHash, Boolean> results = new HashMap<>(entries.size() * 2);
+        try {
+            for (Map.Entry<WordHash, DBEntryTableRecord> entry : entries.entrySet()) {
+                int revision = entry.getValue().getRevision();
+                byte[] ciphertext = entry.getValue().getEncryptedValue();
+                byte[] value = ByteBuffer.allocate(4 + ciphertext.length).putInt(revision).put(ciphertext).array();
+                // IF NOT EXISTS for a new word, IF revision = n - 1 for an update
+                boolean applied = this.entryTable.putIf(key(entry.getKey().bytes(), SseCrypto.HMAC_LENGTH), value,
+                    current -> current == null ? revision == 0 : ByteBuffer.wrap(current).getInt() == revision - 1);
+                results.put(entry.getKey(), applied);
+            }
+            if (this.sync) {
+                this.entryTable.force();
+            }
+        } catch (IOException e) {
+            throw new CosmianException("upsert in Entry Table failed: " + e.getMessage(), e);
+        }
+        return results;
+    }
+
+    @Override
+    public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+        Map<Key, byte[]> results = new HashMap<>(chainTableKeys.size() * 2);
+        for (Key key : chainTableKeys) {
+            byte[] value = this.chainTable.get(key.bytes());
+            if (value != null) {
+                results.put(key, value);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
+        try {
+            for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+                this.chainTable.putIf(entry.getKey().bytes(), entry.getValue(), current -> true);
+            }
+            if (this.sync) {
+                this.chainTable.force();
+            }
+        } catch (IOException e) {
+            throw new CosmianException("upsert in Chain Table failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] key(byte[] key, int length) throws CosmianException {
+        if (key.length != length) {
+            throw new CosmianException("Invalid key length: " + key.length + ", expected " + length);
+        }
+        return key;
+    }
+
+    /**
+     * @return the number of rows of the Entry Table
+     */
+    public long entryTableSize() {
+        return this.entryTable.size();
+    }
+
+    /**
+     * @return the number of rows of the Chain Table
+     */
+    public long chainTableSize() {
+        return this.chainTable.size();
+    }
+
+    /**
+     * Rewrite the logs with the last record of each key only, dropping the previous revisions of the Entry Table
+     * values. The tables are locked while their log is rewritten, which takes about the time of a full read of the
+     * live records.
+     *
+     * @return the number of log bytes reclaimed
+     * @throws CosmianException if a log cannot be rewritten; the database is left as it was
+     */
+    public long compact() throws CosmianException {
+        try {
+            return this.entryTable.compact() + this.chainTable.compact();
+        } catch (IOException e) {
+            throw new CosmianException("Failed compacting the index logs: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Force the records to disk, mark the indexes clean and release the directory. Closing a closed database does
+     * nothing.
+     */
+    @Override
+    public synchronized void close() throws CosmianException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            try {
+                this.entryTable.close();
+            } finally {
+                try {
+                    this.chainTable.close();
+                } finally {
+                    this.lock.release();
+                    this.lockChannel.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new CosmianException("Failed closing the index directory: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * An immutable Entry Table row
+     */
+    private static class Record implements DBEntryTableRecord {
+
+        private final int revision;
+
+        private final byte[] encryptedValue;
+
+        Record(int revision, byte[] encryptedValue) {
+            this.revision = revision;
+            this.encryptedValue = encryptedValue;
+        }
+
+        @Override
+        public int getRevision() {
+            return revision;
+        }
+
+        @Override
+        public byte[] getEncryptedValue() {
+            return encryptedValue;
+        }
+    }
+
+    /**
+     * A table of fixed size keys to values: a log of records mapped in segments and a hash index mapped from its own
+     * file. The index has a header [magic][capacity][count][log length][clean] followed by slots [key][offset + 1],
+     * an offset of 0 marking an empty slot.
+     */
+    static class MappedTable {
+
+        private static final long MAGIC = 0x636c6f7564707266L;
+
+        private static final int HEADER = 64;
+
+        private static final int CAPACITY_AT = 8;
+
+        private static final int COUNT_AT = 12;
+
+        private static final int LOG_LENGTH_AT = 16;
+
+        private static final int CLEAN_AT = 24;
+
+        private static final int INITIAL_CAPACITY = 1 << 16;
+
+        // a length marking the end of a segment: the next record starts at the next segment
+        private static final int PADDING = -1;
+
+        private final Path indexFile;
+
+        private final Path logFile;
+
+        private final String name;
+
+        private final int keyLength;
+
+        private final int slotSize;
+
+        private FileChannel log;
+
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+        private final Set<Integer> dirty = new HashSet<>();
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private MappedByteBuffer index;
+
+        private int capacity;
+
+        private int count;
+
+        private long logLength;
+
+        MappedTable(Path directory, String name, int keyLength) throws IOException {
+            this.name = name;
+            this.indexFile = directory.resolve(name + ".idx");
+            this.logFile = directory.resolve(name + ".log");
+            this.keyLength = keyLength;
+            this.slotSize = keyLength + 8;
+            this.log = FileChannel.open(this.logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            try {
+                long size = this.log.size();
+                for (long position = 0; position < size; position += SEGMENT_SIZE) {
+                    mapSegment();
+                }
+                if (!openIndex(size)) {
+                    logger.info(() -> "Rebuilding the index of " + name + " from its log");
+                    rebuild();
+                }
+                // the index is dirty until it is closed
+                this.index.putInt(CLEAN_AT, 0);
+                this.index.force();
+            } catch (IOException e) {
+                this.log.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return true if a clean index matching the log was found
+         */
+        private boolean openIndex(long logSize) throws IOException {
+            if (!Files.exists(this.indexFile)) {
+                return false;
+            }
+            MappedByteBuffer index = map(this.indexFile, 0);
+            if (index.capacity() < HEADER || index.getLong(0) != MAGIC || index.getInt(CLEAN_AT) != 1) {
+                return false;
+            }
+            int capacity = index.getInt(CAPACITY_AT);
+            long logLength = index.getLong(LOG_LENGTH_AT);
+            if (index.capacity() != HEADER + (long) capacity * this.slotSize || logLength > logSize) {
+                return false;
+            }
+            this.index = index;
+            this.capacity = capacity;
+            this.count = index.getInt(COUNT_AT);
+            this.logLength = logLength;
+            return true;
+        }
+
+        /**
+         * Rebuild the index from the valid records of the log and drop the rest of the log
+         */
+        private void rebuild() throws IOException {
+            this.index = newIndex(this.indexFile, INITIAL_CAPACITY);
+            this.capacity = INITIAL_CAPACITY;
+            this.count = 0;
+            long position = 0;
+            CRC32 crc = new CRC32();
+            while (position / SEGMENT_SIZE < this.segments.size()) {
+                MappedByteBuffer segment = this.segments.get((int) (position / SEGMENT_SIZE));
+                int offset = (int) (position % SEGMENT_SIZE);
+                int length = offset + 4 > SEGMENT_SIZE ? PADDING : segment.getInt(offset);
+                if (length == PADDING) {
+                    position += SEGMENT_SIZE - offset;
+                    continue;
+                }
+                if (length < this.keyLength || offset + 8L + length > SEGMENT_SIZE) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                ByteBuffer view = segment.duplicate();
+                view.position(offset + 4);
+                view.get(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != view.getInt()) {
+                    break;
+                }
+                index(Arrays.copyOf(record, this.keyLength), position);
+                position += 8 + length;
+            }
+            this.logLength = position;
+            // clear what follows the last valid record, so that it is not read back after the next crash
+            int kept = (int) ((position + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            if (position % SEGMENT_SIZE != 0) {
+                MappedByteBuffer last = this.segments.get(kept - 1);
+                for (int offset = (int) (position % SEGMENT_SIZE); offset < SEGMENT_SIZE;) {
+                    int end = Math.min(SEGMENT_SIZE, (offset & ~4095) + 4096);
+                    if (!isZero(last, offset, end)) {
+                        for (int i = offset; i < end; i++) {
+                            last.put(i, (byte) 0);
+                        }
+                    }
+                    offset = end;
+                }
+                last.force();
+            }
+            while (this.segments.size() > kept) {
+                this.segments.remove(this.segments.size() - 1);
+            }
+            this.log.truncate((long) kept * SEGMENT_SIZE);
+            logger.info(() -> "Rebuilt the index of " + this.name + ": " + this.count + " keys, "
+                + this.logLength + " log bytes");
+        }
+
+        private static boolean isZero(ByteBuffer buffer, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the value of the last record of the key or null
+         */
+        byte[] get(byte[] key) {
+            this.lock.readLock().lock();
+            try {
+                long position = find(key);
+                return position < 0 ? null : read(position);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Append a record for the key if the value of its last record, null if there is none, satisfies the condition
+         *
+         * @return true if the record was appended
+         */
+        boolean putIf(byte[] key, byte[] value, Predicate<byte[]> condition) throws IOException {
+            this.lock.writeLock().lock();
+            try {
+                long position = find(key);
+                if (!condition.test(position < 0 ? null : read(position))) {
+                    return false;
+                }
+                if (position < 0 && this.count >= MAX_KEYS) {
+                    throw new IOException(
+                        "The " + this.name + " is full: it holds at most " + String.format("%,d", MAX_KEYS) + " keys");
+                }
+                index(key, append(key, value));
+                return true;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        int size() {
+            this.lock.readLock().lock();
+            try {
+                return this.count;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Force the segments written since the last call to disk
+         */
+        void force() {
+            this.lock.writeLock().lock();
+            try {
+                for (int segment : this.dirty) {
+                    this.segments.get(segment).force();
+                }
+                this.dirty.clear();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        void close() throws IOException {
+            this.lock.writeLock().lock();
+            try {
+                for (MappedByteBuffer segment : this.segments) {
+                    segment.force();
+                }
+                this.dirty.clear();
+                this.index.putInt(COUNT_AT, this.count);
+                this.index.putLong(LOG_LENGTH_AT, this.logLength);
+                this.index.putInt(CLEAN_AT, 1);
+                this.index.force();
+                this.log.close();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Rewrite the log with the last record of each key, in a new file which replaces the log once complete
+         *
+         * @return the number of log bytes reclaimed
+         */
+        long compact() throws IOException {
+            this.lock.writeLock().lock();
+            try {
+                Path tmp = this.logFile.resolveSibling(this.logFile.getFileName() + ".tmp");
+                FileChannel previousLog = this.log;
+                List<MappedByteBuffer> previousSegments = new ArrayList<>(this.segments);
+                long previousLength = this.logLength;
+                Files.deleteIfExists(tmp);
+                this.log = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+                this.segments.clear();
+                this.dirty.clear();
+                this.logLength = 0;
+                try {
+                    byte[] key = new byte[this.keyLength];
+                    for (int slot = 0; slot < this.capacity; slot++) {
+                        int at = HEADER + slot * this.slotSize;
+                        long position = this.index.getLong(at + this.keyLength);
+                        if (position != 0) {
+                            ByteBuffer view = this.index.duplicate();
+                            view.position(at);
+                            view.get(key);
+                            byte[] value = read(previousSegments, position - 1);
+                            this.index.putLong(at + this.keyLength, append(key, value) + 1);
+                        }
+                    }
+                    for (MappedByteBuffer segment : this.segments) {
+                        segment.force();
+                    }
+                    this.dirty.clear();
+                    Files.move(tmp, this.logFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // the index may point to the new log: rebuild it from the previous one
+                    this.log.close();
+                    Files.deleteIfExists(tmp);
+                    this.log = previousLog;
+                    this.segments.clear();
+                    this.segments.addAll(previousSegments);
+                    rebuild();
+                    throw e;
+                }
+                previousLog.close();
+                long reclaimed = previousLength - this.logLength;
+                logger.info(() -> "Compacted the log of " + this.name + ": " + this.count + " keys, " + reclaimed
+                    + " log bytes reclaimed");
+                return reclaimed;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        private byte[] read(long position) {
+            return read(this.segments, position);
+        }
+
+        private byte[] read(List<MappedByteBuffer> segments, long position) {
+            MappedByteBuffer segment = segments.get((int) (position / SEGMENT_SIZE));
+            int offset = (int) (position % SEGMENT_SIZE);
+            byte[] value = new byte[segment.getInt(offset) - this.keyLength];
+            ByteBuffer view = segment.duplicate();
+            view.position(offset + 4 + this.keyLength);
+            view.get(value);
+            return value;
+        }
+
+        /**
+         * @return the position of the appended record
+         */
+        private long append(byte[] key, byte[] value) throws IOException {
+            int length = this.keyLength + value.length;
+            if (8L + length > SEGMENT_SIZE) {
+                throw new IOException("The record of " + value.length + " bytes is too large");
+            }
+            int offset = (int) (this.logLength % SEGMENT_SIZE);
+            if (offset + 8 + length > SEGMENT_SIZE) {
+                if (offset + 4 <= SEGMENT_SIZE) {
+                    this.segments.get((int) (this.logLength / SEGMENT_SIZE)).putInt(offset, PADDING);
+                }
+                this.logLength += SEGMENT_SIZE - offset;
+                offset = 0;
+            }
+            int segment = (int) (this.logLength / SEGMENT_SIZE);
+            while (this.segments.size() <= segment) {
+                mapSegment();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(value);
+            ByteBuffer view = this.segments.get(segment).duplicate();
+            view.position(offset);
+            view.putInt(length).put(key).put(value).putInt((int) crc.getValue());
+            this.dirty.add(segment);
+            long position = this.logLength;
+            this.logLength += 8 + length;
+            return position;
+        }
+
+        /**
+         * @return the log position of the last record of the key, -1 if there is none
+         */
+        private long find(byte[] key) {
+            for (int slot = hash(key, this.capacity);; slot = (slot + 1) & (this.capacity - 1)) {
+                int at = HEADER + slot * this.slotSize;
+                long position = this.index.getLong(at + this.keyLength);
+                if (position == 0) {
+                    return -1;
+                }
+                if (matches(this.index, at, key)) {
+                    return position - 1;
+                }
+            }
+        }
+
+        /**
+         * Point the key to a record, growing the index above a load factor of 0.75
+         */
+        private void index(byte[] key, long position) throws IOException {
+            if (insert(this.index, this.capacity, key, position)) {
+                this.count++;
+                if (this.count > this.capacity / 4 * 3) {
+                    grow();
+                }
+            }
+        }
+
+        /**
+         * @return true if the key was not in the index
+         */
+        private boolean insert(MappedByteBuffer index, int capacity, byte[] key, long position) {
+            for (int slot = hash(key, capacity);; slot = (slot + 1) & (capacity - 1)) {
+                int at = HEADER + slot * this.slotSize;
+                boolean empty = index.getLong(at + this.keyLength) == 0;
+                if (empty || matches(index, at, key)) {
+                    if (empty) {
+                        ByteBuffer view = index.duplicate();
+                        view.position(at);
+                        view.put(key);
+                    }
+                    index.putLong(at + this.keyLength, position + 1);
+                    return empty;
+                }
+            }
+        }
+
+        private void grow() throws IOException {
+            int capacity = this.capacity * 2;
+            if (HEADER + (long) capacity * this.slotSize > Integer.MAX_VALUE) {
+                throw new IOException("The index of " + this.name + " is full");
+            }
+            Path tmp = this.indexFile.resolveSibling(this.indexFile.getFileName() + ".tmp");
+            MappedByteBuffer index = newIndex(tmp, capacity);
+            byte[] key = new byte[this.keyLength];
+            for (int slot = 0; slot < this.capacity; slot++) {
+                int at = HEADER + slot * this.slotSize;
+                long position = this.index.getLong(at + this.keyLength);
+                if (position != 0) {
+                    ByteBuffer view = this.index.duplicate();
+                    view.position(at);
+                    view.get(key);
+                    insert(index, capacity, key, position - 1);
+                }
+            }
+            index.force();
+            Files.move(tmp, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.index = index;
+            this.capacity = capacity;
+        }
+
+        private boolean matches(ByteBuffer index, int at, byte[] key) {
+            for (int i = 0; i < this.keyLength; i++) {
+                if (index.get(at + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The keys are hashes or random: their first bytes are uniformly distributed
+         */
+        private static int hash(byte[] key, int capacity) {
+            long h = ByteBuffer.wrap(key).getLong();
+            return (int) (h ^ (h >>> 32)) & (capacity - 1);
+        }
+
+        private void mapSegment() throws IOException {
+            this.segments.add(this.log.map(FileChannel.MapMode.READ_WRITE,
+                (long) this.segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+
+        /**
+         * Create an empty dirty index file of the given capacity, replacing any existing one
+         */
+        private MappedByteBuffer newIndex(Path file, int capacity) throws IOException {
+            Files.deleteIfExists(file);
+            MappedByteBuffer index = map(file, HEADER + capacity * this.slotSize);
+            index.putLong(0, MAGIC);
+            index.putInt(CAPACITY_AT, capacity);
+            return index;
+        }
+
+        /**
+         * Map a whole file, extending it to the size if it is larger than 0
+         */
+        private static MappedByteBuffer map(Path file, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : channel.size());
+            }
+        }
+    }
+}
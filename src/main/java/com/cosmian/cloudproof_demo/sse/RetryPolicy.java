@@ -0,0 +1,134 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cosmian.CosmianException;
+
+/**
+ * The retry policy of the Entry Table conditional updates which fail because another indexer updated the same words.
+ * The conflicted words are retried after a jittered exponential backoff: the n-th retry waits a random time between 0
+ * and min(max delay, base delay × 2ⁿ), so that the indexers conflicting on the same words do not retry in lockstep.
+ * An upsert fails once its words are still conflicted after the retry budget.
+ * <p>
+ * The policy counts the conflicts and retries; it may be shared by several indexers and is thread safe.
+ */
+public class RetryPolicy {
+
+    private final int budget;
+
+    private final long baseDelayMs;
+
+    private final long maxDelayMs;
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong backoffMs = new AtomicLong();
+
+    /**
+     * A policy using the retry parameters of the configuration
+     *
+     * @param sseConf the SSE configuration
+     */
+    public RetryPolicy(SseConfiguration sseConf) {
+        this(sseConf.getRetryBudget(), sseConf.getRetryBaseDelayMs(), sseConf.getRetryMaxDelayMs());
+    }
+
+    /**
+     * @param budget the maximum number of retries of an upsert
+     * @param baseDelayMs the maximum delay in milliseconds before the first retry
+     * @param maxDelayMs the maximum delay in milliseconds before any retry
+     */
+    public RetryPolicy(int budget, long baseDelayMs, long maxDelayMs) {
+        this.budget = budget;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Record the words whose conditional update failed and wait before retrying them
+     *
+     * @param attempt the number of retries already made by the upsert
+     * @param conflicted the number of conflicted words
+     * @throws CosmianException if the retry budget is exhausted or the thread is interrupted
+     */
+    void beforeRetry(int attempt, int conflicted) throws CosmianException {
+        long delay = retryDelayMs(attempt, conflicted);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CosmianException("Interrupted while retrying conflicting updates", e);
+            }
+        }
+    }
+
+    /**
+     * Record the words whose conditional update failed and draw the delay before retrying them, for the callers which
+     * do not wait on their thread
+     *
+     * @param attempt the number of retries already made by the upsert
+     * @param conflicted the number of conflicted words
+     * @return the delay in milliseconds before the retry
+     * @throws CosmianException if the retry budget is exhausted
+     */
+    long retryDelayMs(int attempt, int conflicted) throws CosmianException {
+        this.conflicts.addAndGet(conflicted);
+        if (attempt >= this.budget) {
+            throw new CosmianException(
+                "Failed upserting " + conflicted + " words after " + attempt + " retries on conflicting updates");
+        }
+        long delay = delayMs(attempt);
+        this.retries.incrementAndGet();
+        this.backoffMs.addAndGet(delay);
+        return delay;
+    }
+
+    /**
+     * @param attempt the number of retries already made
+     * @return a random delay in milliseconds between 0 and {@link #ceilingMs(int)}
+     */
+    long delayMs(int attempt) {
+        long ceiling = ceilingMs(attempt);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param attempt the number of retries already made
+     * @return min(max delay, base delay × 2^attempt) in milliseconds; 0 when the base delay is 0
+     */
+    long ceilingMs(int attempt) {
+        if (this.baseDelayMs <= 0) {
+            return 0;
+        }
+        // the shift overflows once the attempt reaches the leading zeros of the base delay
+        if (attempt >= Long.numberOfLeadingZeros(this.baseDelayMs)) {
+            return this.maxDelayMs;
+        }
+        return Math.min(this.maxDelayMs, this.baseDelayMs << attempt);
+    }
+
+    /**
+     * @return the number of words whose conditional update failed
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting before the retries
+     */
+    public long getBackoffMs() {
+        return backoffMs.get();
+    }
+}
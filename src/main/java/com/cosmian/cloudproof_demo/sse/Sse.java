@@ -1,15 +1,12 @@
 package com.cosmian.cloudproof_demo.sse;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.AlgorithmParameterSpec;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -17,62 +14,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.ChainWalker.Walk;
 
 public class Sse {
 
     private final static Logger logger = Logger.getLogger(Sse.class.getName());
 
-    private final static SecureRandom SECURE_RANDOM = new SecureRandom();
-
-    private static byte[] encryptAes(SecureRandom rd, Key key, byte[] plaintext) throws CosmianException {
-        try {
-            SecretKey secretKey = new SecretKeySpec(key.bytes(), "AES");
-            byte[] nonce = new byte[12];
-            rd.nextBytes(nonce);
-            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(16 * 8, nonce); // 128 bit auth tag length
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-            byte[] ciphertext = cipher.doFinal(plaintext);
-            byte[] result = new byte[12 + ciphertext.length];
-            System.arraycopy(nonce, 0, result, 0, 12);
-            System.arraycopy(ciphertext, 0, result, 12, ciphertext.length);
-            return result;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
-            | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-            throw new CosmianException("Failed encrypting: " + e.getMessage(), e);
-        }
-    }
-
-    private static byte[] decryptAes(SecureRandom rd, Key key, byte[] ciphertext) throws CosmianException {
-        try {
-            SecretKey secretKey = new SecretKeySpec(key.bytes(), "AES");
-            byte[] nonce = new byte[12];
-            rd.nextBytes(nonce);
-            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            // use first 12 bytes for iv
-            AlgorithmParameterSpec gcmIv = new GCMParameterSpec(16 * 8, ciphertext, 0, 12);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmIv);
-            return cipher.doFinal(ciphertext, 12, ciphertext.length - 12);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException
-            | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-            throw new CosmianException("Failed decrypting: " + e.getMessage(), e);
-        }
-    }
-
     /**
      * A Byte array that implements hashcode() and equals() and hence can be used in Maps
      */
@@ -136,14 +99,24 @@ public class Sse {
         }
 
         public WordHash hash(byte[] salt) throws CosmianException {
+            return hash(SseCrypto.get().context(salt));
+        }
+
+        /**
+         * Hash the word using a context initialized with the salt
+         * 
+         * @param salt the {@link SseCrypto.Context} of the salt
+         * @return the word hash
+         * @throws CosmianException if the hash cannot be computed
+         */
+        public WordHash hash(SseCrypto.Context salt) throws CosmianException {
+            byte[] out = new byte[SseCrypto.HMAC_LENGTH];
             try {
-                Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-                SecretKeySpec secret_key = new SecretKeySpec(salt, "HmacSHA256");
-                sha256_HMAC.init(secret_key);
-                return new WordHash(sha256_HMAC.doFinal(this.bytes));
-            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                salt.hmac(this.bytes, 0, this.bytes.length, out, 0);
+            } catch (CosmianException e) {
                 throw new CosmianException("failed computing the word hash: " + e.getMessage(), e);
             }
+            return new WordHash(out);
         }
     }
 
@@ -199,6 +172,31 @@ public class Sse {
             super(rd, KEY_LENGTH);
         }
 
+        private Key(byte[] bytes, boolean wrap) {
+            super(bytes);
+        }
+
+        /**
+         * Wrap an array of exactly {@value Key#KEY_LENGTH} bytes without copying it
+         */
+        static Key wrap(byte[] bytes) {
+            if (bytes.length != KEY_LENGTH) {
+                return new Key(bytes);
+            }
+            return new Key(bytes, true);
+        }
+
+        /**
+         * Copy {@value Key#KEY_LENGTH} bytes of an array, starting at offset
+         */
+        static Key copyOf(byte[] bytes, int offset) {
+            return new Key(Arrays.copyOfRange(bytes, offset, offset + KEY_LENGTH), true);
+        }
+
+        public static Key fromString(String base64) {
+            return new Key(Base64.getDecoder().decode(base64));
+        }
+
         /**
          * Build a key by deriving another key and some derivation data
          * 
@@ -208,11 +206,8 @@ public class Sse {
          */
         public static Key derive(byte[] fromKey, byte[] data) throws CosmianException {
             try {
-                Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-                SecretKeySpec secret_key = new SecretKeySpec(fromKey, "HmacSHA256");
-                sha256_HMAC.init(secret_key);
-                return new Key(sha256_HMAC.doFinal(data));
-            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                return SseCrypto.get().context(fromKey).derive(data);
+            } catch (CosmianException e) {
                 throw new CosmianException("failed deriving a new key: " + e.getMessage(), e);
             }
         }
@@ -234,9 +229,21 @@ public class Sse {
      * A clear text Entry table value. where - r is the last value of the chain and - Kwᵢ the key for keyword wᵢ which
      * is derived ah H(K*, wᵢ) where ---- K* is key only known by the Directory Authority and ---- wᵢ is the word which
      * is indexed The value saved in the table is the cipher text: AES(K₂, (r, Kwᵢ))
+     * <p>
+     * Version 2 values describe a segmented chain: the chain is split in segments of segmentSize keys, each starting
+     * at its own r = H(Kwᵢ, wᵢ || segment) (r = H(Kwᵢ, wᵢ) for segment 0), so that the segments can be walked
+     * independently. The value then also holds the current segment, the number of keys in that segment and the length
+     * of segment 0 once it is complete (it may differ from segmentSize when a version 1 chain was converted). The
+     * cipher text is AES(K₂, (2, r, Kwᵢ, segmentSize, segment, count, headLength)).
      */
     static class EntryTableValue {
 
+        final static byte VERSION_2 = 2;
+
+        private final static int V1_LENGTH = 2 * Key.KEY_LENGTH;
+
+        private final static int V2_LENGTH = 1 + 2 * Key.KEY_LENGTH + 4 * 4;
+
         // this should never be updated
         private int revision;
 
@@ -244,6 +251,15 @@ public class Sse {
 
         private final Key kwi;
 
+        // the segmented chain layout; segmentSize is 0 for the (version 1) unsegmented chains
+        private int segmentSize;
+
+        private int segment;
+
+        private int count;
+
+        private int headLength;
+
         public EntryTableValue(Key r, Key kStar, Word wi) throws CosmianException {
             this.revision = 0;
             this.r = r;
@@ -263,17 +279,181 @@ public class Sse {
             this.kwi = kwi;
         }
 
+        /**
+         * A new segmented chain with r the first key of its first segment
+         */
+        protected EntryTableValue(Key r, Key kwi, int segmentSize) throws CosmianException {
+            this(0, r, kwi);
+            this.segmentSize = segmentSize;
+            this.segment = 0;
+            this.count = 1;
+            this.headLength = 0;
+        }
+
+        /**
+         * @return a copy of this value which can be modified independently
+         */
+        EntryTableValue copy() throws CosmianException {
+            EntryTableValue copy = new EntryTableValue(this.revision, this.r, this.kwi);
+            copy.segmentSize = this.segmentSize;
+            copy.segment = this.segment;
+            copy.count = this.count;
+            copy.headLength = this.headLength;
+            return copy;
+        }
+
+        /**
+         * @return true if this value describes a segmented (version 2) chain
+         */
+        boolean isSegmented() {
+            return this.segmentSize > 0;
+        }
+
         /**
          * Set r = H(Kwᵢ,r) which determines the next value in the chain to use in the Chain table
          */
         public void nextR() throws CosmianException {
+            nextR(SseCrypto.get().context(this.kwi));
+        }
+
+        /**
+         * Set r = H(Kwᵢ,r) using the context of Kwᵢ
+         * 
+         * @param kwiContext the {@link SseCrypto.Context} of Kwᵢ
+         */
+        void nextR(SseCrypto.Context kwiContext) throws CosmianException {
             try {
-                this.r = Key.derive(this.kwi, this.r.bytes());
+                this.r = kwiContext.derive(this.r.bytes());
             } catch (CosmianException e) {
                 throw new CosmianException("failed generating the next r value: " + e.getMessage(), e);
             }
         }
 
+        /**
+         * Move r to the next key of the chain: the next key of the current segment or, when it is full, the first key
+         * of a new segment
+         * 
+         * @param wi the word
+         * @param kwiContext the {@link SseCrypto.Context} of Kwᵢ
+         */
+        void nextR(Word wi, SseCrypto.Context kwiContext) throws CosmianException {
+            if (!isSegmented()) {
+                nextR(kwiContext);
+                return;
+            }
+            if (this.count < this.segmentSize) {
+                nextR(kwiContext);
+                this.count += 1;
+                return;
+            }
+            if (this.segment == 0) {
+                this.headLength = this.count;
+            }
+            if (this.segment == Integer.MAX_VALUE) {
+                throw new CosmianException("the chain has reached the maximum number of segments");
+            }
+            this.segment += 1;
+            this.count = 1;
+            this.r = segmentStart(kwiContext, wi, this.segment);
+        }
+
+        /**
+         * Convert a version 1 chain to a segmented chain: the existing chain becomes segment 0 and its length is
+         * counted by deriving its keys. The chain is not read. The conversion runs on the upsert path: it derives at
+         * most {@value Sse#LOOP_ITERATION_LIMIT} keys, the part of a version 1 chain a search walks, and a longer
+         * chain is left unsegmented.
+         * 
+         * @param segmentSize the size of the segments
+         * @param wi the word
+         * @param kwiContext the {@link SseCrypto.Context} of Kwᵢ
+         * @return true if the chain is segmented, false if it is too long to be converted
+         * @throws CosmianException if a key cannot be derived
+         */
+        boolean toSegmented(int segmentSize, Word wi, SseCrypto.Context kwiContext) throws CosmianException {
+            if (isSegmented()) {
+                return true;
+            }
+            Key currentR = segmentStart(kwiContext, wi, 0);
+            int length = 1;
+            while (!currentR.equals(this.r)) {
+                if (length == LOOP_ITERATION_LIMIT) {
+                    return false;
+                }
+                currentR = kwiContext.derive(currentR.bytes);
+                length++;
+            }
+            this.segmentSize = segmentSize;
+            this.segment = 0;
+            this.count = length;
+            this.headLength = 0;
+            return true;
+        }
+
+        /**
+         * The segments to walk to retrieve the whole chain
+         * 
+         * @param wi the word
+         * @return the segments of the chain, a single one with up to {@value Sse#LOOP_ITERATION_LIMIT} keys for a
+         *         version 1 chain
+         */
+        List<ChainSegment> segments(Word wi) {
+            if (!isSegmented()) {
+                return Collections.singletonList(new ChainSegment(wi, this.kwi, 0, this.r, LOOP_ITERATION_LIMIT));
+            }
+            List<ChainSegment> segments = new ArrayList<>(this.segment + 1);
+            for (int s = 0; s < this.segment; s++) {
+                segments.add(new ChainSegment(wi, this.kwi, s, null, s == 0 ? this.headLength : this.segmentSize));
+            }
+            segments.add(new ChainSegment(wi, this.kwi, this.segment, this.r, this.count));
+            return segments;
+        }
+
+        /**
+         * The segments to walk to retrieve the part of the chain added after a checkpoint
+         * 
+         * @param wi the word
+         * @param checkpoint the checkpoint of the chain
+         * @return the segments of the suffix of the chain, starting at the key of the checkpoint whose row must be
+         *         unchanged, or null if this chain does not extend the checkpointed one
+         */
+        List<ChainSegment> segmentsAfter(Word wi, ChainCheckpointStore.Checkpoint checkpoint) {
+            if (!isSegmented() || !checkpoint.kwi.equals(this.kwi) || checkpoint.segmentSize != this.segmentSize
+                || checkpoint.revision > this.revision || checkpoint.segment > this.segment
+                || (checkpoint.segment == this.segment && checkpoint.count > this.count)) {
+                return null;
+            }
+            List<ChainSegment> segments = new ArrayList<>(this.segment - checkpoint.segment + 1);
+            if (checkpoint.segment == this.segment) {
+                segments.add(new ChainSegment(wi, this.kwi, this.segment, checkpoint.r, checkpoint.value, this.r,
+                    this.count - checkpoint.count + 1));
+                return segments;
+            }
+            // the end of the checkpointed segment
+            int length = (checkpoint.segment == 0 ? this.headLength : this.segmentSize) - checkpoint.count + 1;
+            if (length <= 0) {
+                return null;
+            }
+            segments.add(new ChainSegment(wi, this.kwi, checkpoint.segment, checkpoint.r, checkpoint.value, null,
+                length));
+            for (int s = checkpoint.segment + 1; s < this.segment; s++) {
+                segments.add(new ChainSegment(wi, this.kwi, s, null, this.segmentSize));
+            }
+            segments.add(new ChainSegment(wi, this.kwi, this.segment, this.r, this.count));
+            return segments;
+        }
+
+        /**
+         * A checkpoint at the current end of this segmented chain
+         * 
+         * @param value the encrypted Chain Table row at the end of the chain
+         * @param dbUids the DB Uids of the whole chain
+         * @return the checkpoint
+         */
+        ChainCheckpointStore.Checkpoint checkpoint(byte[] value, Set<DbUid> dbUids) {
+            return new ChainCheckpointStore.Checkpoint(this.revision, this.segmentSize, this.segment, this.count,
+                this.r, this.kwi, value, new HashSet<>(dbUids));
+        }
+
         public void incrementRevision() {
             this.revision += 1;
         }
@@ -281,16 +461,24 @@ public class Sse {
         /**
          * The DB Record with ciphertext set to the AES cipher of the entry table value encrypted under key K₂
          * 
-         * @param keyK2 the encryption key
+         * @param keyK2 the {@link SseCrypto.Context} of the encryption key
          * @return the cipher text
          * @throws CosmianException
          */
-        public DBEntryTableRecord toRecord(Key keyK2) throws CosmianException {
-            byte[] plaintext = new byte[2 * Key.KEY_LENGTH];
-            System.arraycopy(this.r.bytes, 0, plaintext, 0, Key.KEY_LENGTH);
-            System.arraycopy(this.kwi.bytes, 0, plaintext, Key.KEY_LENGTH, Key.KEY_LENGTH);
+        public DBEntryTableRecord toRecord(SseCrypto.Context keyK2) throws CosmianException {
+            int length = isSegmented() ? V2_LENGTH : V1_LENGTH;
+            byte[] plaintext = SseCrypto.get().scratch(length);
+            if (isSegmented()) {
+                ByteBuffer buffer = ByteBuffer.wrap(plaintext);
+                buffer.put(VERSION_2).put(this.r.bytes).put(this.kwi.bytes).putInt(this.segmentSize)
+                    .putInt(this.segment).putInt(this.count).putInt(this.headLength);
+            } else {
+                System.arraycopy(this.r.bytes, 0, plaintext, 0, Key.KEY_LENGTH);
+                System.arraycopy(this.kwi.bytes, 0, plaintext, Key.KEY_LENGTH, Key.KEY_LENGTH);
+            }
             final int revision = this.revision;
-            final byte[] ciphertext = encryptAes(SECURE_RANDOM, keyK2, plaintext);
+            final byte[] ciphertext = new byte[length + SseCrypto.OVERHEAD];
+            keyK2.encrypt(plaintext, 0, length, ciphertext, 0);
             return new DBEntryTableRecord() {
 
                 @Override
@@ -307,24 +495,92 @@ public class Sse {
         }
 
         /**
-         * Decrypt the Entry Table value using key K₂
+         * Decrypt the Entry Table value using key K₂. Both the version 1 and the segmented version 2 values are read.
          * 
          * @param encryptedValue the encrypted entry valu
-         * @param keyK2 the decryption Key
+         * @param keyK2 the {@link SseCrypto.Context} of the decryption Key
          * @return a {@link EntryTableValue}
          * @throws CosmianException if the it cannot be decrypted
          */
-        public static EntryTableValue fromRecord(DBEntryTableRecord record, Key keyK2) throws CosmianException {
-            byte[] plaintext;
+        public static EntryTableValue fromRecord(DBEntryTableRecord record, SseCrypto.Context keyK2)
+            throws CosmianException {
+            byte[] ciphertext = record.getEncryptedValue();
+            byte[] plaintext = SseCrypto.get().scratch(ciphertext.length);
+            int length;
             try {
-                plaintext = decryptAes(SECURE_RANDOM, keyK2, record.getEncryptedValue());
+                length = keyK2.decrypt(ciphertext, 0, ciphertext.length, plaintext, 0);
             } catch (CosmianException e) {
                 throw new CosmianException(
                     "Failed decrypting the Entry Table Value under key K₂: " + e.getCause().getMessage(), e);
             }
-            Key r = new Key(Arrays.copyOfRange(plaintext, 0, Key.KEY_LENGTH));
-            Key kwi = new Key(Arrays.copyOfRange(plaintext, Key.KEY_LENGTH, Key.KEY_LENGTH + Key.KEY_LENGTH));
-            return new EntryTableValue(record.getRevision(), r, kwi);
+            if (length == V1_LENGTH) {
+                Key r = Key.copyOf(plaintext, 0);
+                Key kwi = Key.copyOf(plaintext, Key.KEY_LENGTH);
+                return new EntryTableValue(record.getRevision(), r, kwi);
+            }
+            if (length != V2_LENGTH || plaintext[0] != VERSION_2) {
+                throw new CosmianException("Invalid Entry Table Value length: " + length);
+            }
+            Key r = Key.copyOf(plaintext, 1);
+            Key kwi = Key.copyOf(plaintext, 1 + Key.KEY_LENGTH);
+            EntryTableValue value = new EntryTableValue(record.getRevision(), r, kwi);
+            ByteBuffer buffer = ByteBuffer.wrap(plaintext, 1 + 2 * Key.KEY_LENGTH, 4 * 4);
+            value.segmentSize = buffer.getInt();
+            value.segment = buffer.getInt();
+            value.count = buffer.getInt();
+            value.headLength = buffer.getInt();
+            if (value.segmentSize <= 0 || value.count <= 0 || value.segment < 0) {
+                throw new CosmianException("Invalid segmented Entry Table Value");
+            }
+            return value;
+        }
+
+        /**
+         * The first key of a segment of the chain: r = H(Kwᵢ, wᵢ) for segment 0, r = H(Kwᵢ, wᵢ || segment) in big
+         * endian for the other ones
+         */
+        static Key segmentStart(SseCrypto.Context kwiContext, Word wi, int segment) throws CosmianException {
+            if (segment == 0) {
+                return kwiContext.derive(wi.bytes);
+            }
+            byte[] data = Arrays.copyOf(wi.bytes, wi.bytes.length + 4);
+            ByteBuffer.wrap(data, wi.bytes.length, 4).putInt(segment);
+            return kwiContext.derive(data);
+        }
+    }
+
+    /**
+     * A segment of a chain to walk: length keys from the segment start, or from the key from when it is set, up to
+     * end when it is known. A segment resuming at a checkpoint holds the row expected at its first key.
+     */
+    static class ChainSegment {
+
+        final Word wi;
+
+        final Key kwi;
+
+        final int segment;
+
+        final Key from;
+
+        final byte[] expected;
+
+        final Key end;
+
+        final int length;
+
+        ChainSegment(Word wi, Key kwi, int segment, Key end, int length) {
+            this(wi, kwi, segment, null, null, end, length);
+        }
+
+        ChainSegment(Word wi, Key kwi, int segment, Key from, byte[] expected, Key end, int length) {
+            this.wi = wi;
+            this.kwi = kwi;
+            this.segment = segment;
+            this.from = from;
+            this.expected = expected;
+            this.end = end;
+            this.length = length;
         }
     }
 
@@ -337,13 +593,26 @@ public class Sse {
             this.key = key;
             this.value = value;
         }
+
+        /**
+         * Build the update of the chain table entry at key r with value AES(Kwᵢ, dbUID)
+         * 
+         * @param r the chain table key
+         * @param kwi the {@link SseCrypto.Context} of Kwᵢ
+         * @param dbUid the DB table UUID
+         * @return the chain table update
+         * @throws CosmianException if encryption fails
+         */
+        static ChainTableUpdate encrypt(Key r, SseCrypto.Context kwi, DbUid dbUid) throws CosmianException {
+            return new ChainTableUpdate(r, generateChainTableValue(kwi, dbUid));
+        }
     }
 
     // These arbitrary salts are used to derive the Key K which is the symmetric key
     // known by every authorized clients
     // (= applications) - they can be overwritten by setting the public static
     // variable
-    private final static byte[] K1_SALT =
+    final static byte[] K1_SALT =
         {(byte) 0x6B, (byte) 0x66, (byte) 0xF3, (byte) 0x19, (byte) 0x28, (byte) 0x72, (byte) 0xFC, (byte) 0x41,
             (byte) 0xED, (byte) 0x17, (byte) 0x59, (byte) 0x74, (byte) 0x35, (byte) 0xAD, (byte) 0xE6, (byte) 0x62,
             (byte) 0xF0, (byte) 0x3D, (byte) 0x4A, (byte) 0x9F, (byte) 0x53, (byte) 0x6B, (byte) 0x76, (byte) 0xF2,
@@ -351,7 +620,7 @@ public class Sse {
             (byte) 0x6A, (byte) 0xDA, (byte) 0x18, (byte) 0x04, (byte) 0x1B, (byte) 0x13, (byte) 0x6B, (byte) 0x5D,
             (byte) 0x9F, (byte) 0xD0, (byte) 0x1D, (byte) 0x20, (byte) 0x22, (byte) 0xB2, (byte) 0x85, (byte) 0x1F};
 
-    private final static byte[] K2_SALT =
+    final static byte[] K2_SALT =
         {(byte) 0x22, (byte) 0x8D, (byte) 0x81, (byte) 0xDE, (byte) 0x62, (byte) 0x04, (byte) 0xA6, (byte) 0xB4,
             (byte) 0x0E, (byte) 0xC5, (byte) 0xA9, (byte) 0x99, (byte) 0x11, (byte) 0x50, (byte) 0x6A, (byte) 0xFC,
             (byte) 0x38, (byte) 0xEE, (byte) 0x52, (byte) 0xDE, (byte) 0x97, (byte) 0xB7, (byte) 0x9C, (byte) 0xFC,
@@ -359,6 +628,7 @@ public class Sse {
             (byte) 0xBF, (byte) 0x88, (byte) 0x55, (byte) 0x60, (byte) 0xD2, (byte) 0xAD, (byte) 0x5D, (byte) 0x09,
             (byte) 0xD0, (byte) 0x59, (byte) 0x19, (byte) 0x79, (byte) 0x52, (byte) 0x8E, (byte) 0x86, (byte) 0x55};
 
+    // the maximum number of keys walked in an unsegmented (version 1) chain by a search
     private final static int LOOP_ITERATION_LIMIT = 10000;
 
     /**
@@ -373,174 +643,461 @@ public class Sse {
      */
     public static long[] bulkUpsert(Key k, Key kStar, Map<DbUid, Set<Word>> dbUidToWords, DBInterface db)
         throws CosmianException {
+        return bulkUpsert(k, kStar, dbUidToWords, db, new SseConfiguration());
+    }
 
-        // record benchmarks
-        long cryptoTime = 0;
-        long dbTime = 0;
+    /**
+     * Upsert the a set of words for a list od DB UIDs, using the chain layout of the configuration: the chains of new
+     * words are segmented when {@link SseConfiguration#getChainSegmentSize()} is set, and the unsegmented chains they
+     * extend are then converted.
+     * 
+     * @param k the main symmetric key
+     * @param kStar the symmetric key known to the updater only
+     * @param dbUidToWords the set of words to index for each DB entry
+     * @param db the db that holds the index
+     * @param sseConf the SSE configuration
+     * @return the crypto and DB times in microseconds
+     * @throws CosmianException if anything wrong happens
+     */
+    public static long[] bulkUpsert(Key k, Key kStar, Map<DbUid, Set<Word>> dbUidToWords, DBInterface db,
+        SseConfiguration sseConf) throws CosmianException {
+        return bulkUpsert(dbUidToWords, db, sseConf, new WordKeyMemo(k, kStar, 0));
+    }
 
-        long thenCrypto1 = System.nanoTime();
+    /**
+     * Upsert the a set of words for a list od DB UIDs, using the memoized key derivations of the memo: K₁, K₂ and,
+     * for the memoized words, their hash, Kwᵢ and first chain key are not recomputed.
+     * 
+     * @param dbUidToWords the set of words to index for each DB entry
+     * @param db the db that holds the index
+     * @param sseConf the SSE configuration
+     * @param memo the {@link WordKeyMemo} of the keys K and K*
+     * @return the crypto and DB times in microseconds
+     * @throws CosmianException if anything wrong happens
+     */
+    public static long[] bulkUpsert(Map<DbUid, Set<Word>> dbUidToWords, DBInterface db, SseConfiguration sseConf,
+        WordKeyMemo memo) throws CosmianException {
+        return bulkUpsert(dbUidToWords, db, sseConf, memo, null);
+    }
 
-        // First compute derived keys K1 and K2
-        Key k1 = Key.derive(k, K1_SALT);
-        Key k2 = Key.derive(k, K2_SALT);
+    /**
+     * Upsert the a set of words for a list od DB UIDs, using the memoized key derivations of the memo and the Entry
+     * Table values last written by this indexer: the words found in the write-back cache are not read from the Entry
+     * Table. They are only read if their conditional update fails.
+     * 
+     * @param dbUidToWords the set of words to index for each DB entry
+     * @param db the db that holds the index
+     * @param sseConf the SSE configuration
+     * @param memo the {@link WordKeyMemo} of the keys K and K*
+     * @param writeBack the {@link EntryTableValueCache} of the values written by this indexer, null to read them all
+     * @return the crypto and DB times in microseconds
+     * @throws CosmianException if anything wrong happens
+     */
+    public static long[] bulkUpsert(Map<DbUid, Set<Word>> dbUidToWords, DBInterface db, SseConfiguration sseConf,
+        WordKeyMemo memo, EntryTableValueCache writeBack) throws CosmianException {
+        return bulkUpsert(dbUidToWords, db, sseConf, memo, writeBack, new RetryPolicy(sseConf));
+    }
 
-        // record time
-        cryptoTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenCrypto1);
-        long thenDB0 = System.nanoTime();
+    /**
+     * Upsert the a set of words for a list od DB UIDs, retrying the words whose Entry Table update conflicts with
+     * another indexer according to the retry policy. Only the conflicted words are read, derived and encrypted again.
+     * 
+     * @param dbUidToWords the set of words to index for each DB entry
+     * @param db the db that holds the index
+     * @param sseConf the SSE configuration
+     * @param memo the {@link WordKeyMemo} of the keys K and K*
+     * @param writeBack the {@link EntryTableValueCache} of the values written by this indexer, null to read them all
+     * @param retry the {@link RetryPolicy} of the conflicting updates
+     * @return the crypto and DB times in microseconds
+     * @throws CosmianException if anything wrong happens or the retry budget is exhausted
+     */
+    public static long[] bulkUpsert(Map<DbUid, Set<Word>> dbUidToWords, DBInterface db, SseConfiguration sseConf,
+        WordKeyMemo memo, EntryTableValueCache writeBack, RetryPolicy retry) throws CosmianException {
+
+        BulkUpsert upsert = new BulkUpsert(dbUidToWords, memo, sseConf.getChainSegmentSize(), writeBack);
+        int attempt = 0;
+        while (true) {
+            long thenDB1 = System.nanoTime();
+            // fetch the current values from the entry table
+            Set<WordHash> toRead = upsert.toRead();
+            Map<WordHash, DBEntryTableRecord> records =
+                toRead.isEmpty() ? Collections.emptyMap() : db.getEntryTableEntries(toRead);
+            upsert.dbTime(thenDB1);
+
+            Map<WordHash, DBEntryTableRecord> entryTableUpdates = upsert.encrypt(records);
+
+            // perform the DB updates
+            long thenDB2 = System.nanoTime();
+            Map<Key, byte[]> chainTableUpdates = upsert.applied(db.upsertEntryTableEntries(entryTableUpdates));
+            if (chainTableUpdates.size() > 0) {
+                db.upsertChainTableEntries(chainTableUpdates);
+            }
+            upsert.dbTime(thenDB2);
 
-        // build a map of clear text words to DbUidSet and a map of word hash to word
-        HashMap<Word, Set<DbUid>> wordToDbUidSet = new HashMap<>();
-        HashMap<WordHash, Word> wordHashToWord = new HashMap<>();
-        for (Map.Entry<DbUid, Set<Word>> entry : dbUidToWords.entrySet()) {
-            DbUid dbUid = entry.getKey();
-            Set<Word> words = entry.getValue();
-            for (Word wi : words) {
-                Set<DbUid> dbUidSet = wordToDbUidSet.get(wi);
-                if (dbUidSet == null) {
-                    dbUidSet = new HashSet<>();
-                }
-                dbUidSet.add(dbUid);
-                wordToDbUidSet.put(wi, dbUidSet);
-                // the Entry table uses the hash of the word computed as H(K₁, wᵢ) as key
-                wordHashToWord.put(wi.hash(k1.bytes), wi);
+            if (upsert.isDone()) {
+                break;
             }
+            // retry the conflicted words after a backoff
+            retry.beforeRetry(attempt++, upsert.remaining());
         }
 
-        dbTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenDB0);
+        return upsert.timings();
+    }
 
-        // call internal part which may be recursive
-        long[] timings = bulkUpsertInternal(k1, k2, kStar, wordHashToWord, wordToDbUidSet, db);
+    /**
+     * Upsert the a set of words for a list od DB UIDs asynchronously: the stages of {@link #bulkUpsert(Map,
+     * DBInterface, SseConfiguration, WordKeyMemo, EntryTableValueCache, RetryPolicy)} are composed with the stages of
+     * the store. The key derivations and encryptions run on the crypto executor while the threads of the store only
+     * carry the I/O, so that the crypto of a batch overlaps with the I/O of the batches upserted concurrently. The
+     * conflicting words are retried after the backoff of the retry policy, without holding a thread.
+     * <p>
+     * The memo, write-back cache and retry policy may be shared by concurrent upserts.
+     * 
+     * @param dbUidToWords the set of words to index for each DB entry
+     * @param db the asynchronous db that holds the index
+     * @param sseConf the SSE configuration
+     * @param memo the {@link WordKeyMemo} of the keys K and K*
+     * @param writeBack the {@link EntryTableValueCache} of the values written by this indexer, null to read them all
+     * @param retry the {@link RetryPolicy} of the conflicting updates
+     * @param cryptoExecutor the executor of the key derivations and encryptions
+     * @return the crypto and DB times in microseconds; completes exceptionally with a {@link CosmianException} if
+     *         anything wrong happens or the retry budget is exhausted
+     */
+    public static CompletionStage<long[]> bulkUpsertAsync(Map<DbUid, Set<Word>> dbUidToWords, AsyncDBInterface db,
+        SseConfiguration sseConf, WordKeyMemo memo, EntryTableValueCache writeBack, RetryPolicy retry,
+        Executor cryptoExecutor) {
+        return CompletableFuture
+            .supplyAsync(
+                () -> unchecked(() -> new BulkUpsert(dbUidToWords, memo, sseConf.getChainSegmentSize(), writeBack)),
+                cryptoExecutor)
+            .thenCompose(upsert -> upsertRoundAsync(upsert, db, retry, 0, cryptoExecutor));
+    }
 
-        return new long[] {cryptoTime + timings[0], dbTime + timings[1]};
+    /**
+     * Run a round of an asynchronous upsert, then the rounds of its retries
+     */
+    private static CompletableFuture<long[]> upsertRoundAsync(BulkUpsert upsert, AsyncDBInterface db,
+        RetryPolicy retry, int attempt, Executor cryptoExecutor) {
+        long thenDB1 = System.nanoTime();
+        Set<WordHash> toRead;
+        try {
+            toRead = upsert.toRead();
+        } catch (CosmianException e) {
+            CompletableFuture<long[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletionStage<Map<WordHash, DBEntryTableRecord>> records = toRead.isEmpty()
+            ? CompletableFuture.completedFuture(Collections.emptyMap()) : db.getEntryTableEntriesAsync(toRead);
+        return records.thenApplyAsync(entries -> {
+            upsert.dbTime(thenDB1);
+            return unchecked(() -> upsert.encrypt(entries));
+        }, cryptoExecutor).thenCompose(entryTableUpdates -> {
+            long thenDB2 = System.nanoTime();
+            return db.upsertEntryTableEntriesAsync(entryTableUpdates).thenCompose(results -> {
+                Map<Key, byte[]> chainTableUpdates = upsert.applied(results);
+                if (chainTableUpdates.isEmpty()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return db.upsertChainTableEntriesAsync(chainTableUpdates);
+            }).thenApply(done -> {
+                upsert.dbTime(thenDB2);
+                return done;
+            });
+        }).thenCompose(done -> {
+            if (upsert.isDone()) {
+                return CompletableFuture.completedFuture(upsert.timings());
+            }
+            // retry the conflicted words after a backoff
+            long delay = unchecked(() -> retry.retryDelayMs(attempt, upsert.remaining()));
+            return delay(delay).thenComposeAsync(
+                scheduled -> upsertRoundAsync(upsert, db, retry, attempt + 1, cryptoExecutor), cryptoExecutor);
+        }).toCompletableFuture();
     }
 
-    private static long[] bulkUpsertInternal(Key k1, Key k2, Key kStar, HashMap<WordHash, Word> wordHashToWord,
-        HashMap<Word, Set<DbUid>> wordToDbUidSet, DBInterface db) throws CosmianException {
+    /**
+     * A step of an asynchronous upsert or retrieve
+     */
+    interface Step<T> {
+        T run() throws CosmianException;
+    }
 
-        // record benchmarks
-        long cryptoTime = 0;
-        long dbTime = 0;
+    /**
+     * Run a step in a stage: its {@link CosmianException} completes the stage exceptionally
+     */
+    static <T> T unchecked(Step<T> step) {
+        try {
+            return step.run();
+        } catch (CosmianException e) {
+            throw new CompletionException(e);
+        }
+    }
 
-        long thenDB1 = System.nanoTime();
+    // the timer of the retries of the asynchronous upserts
+    private static ScheduledExecutorService retryTimer = null;
 
-        // a map of Table Entry, word hash to clear text values
-        HashMap<WordHash, EntryTableValue> entryTableValues = new HashMap<>();
-        // fetch the current values from the entry table the given words and decrypt
-        // them
-        for (Map.Entry<WordHash, DBEntryTableRecord> entry : db.getEntryTableEntries(wordHashToWord.keySet())
-            .entrySet()) {
-            EntryTableValue etv = EntryTableValue.fromRecord(entry.getValue(), k2);
-            etv.incrementRevision();
-            entryTableValues.put(entry.getKey(), etv);
+    /**
+     * @return completes after the delay, on the timer thread
+     */
+    private static CompletableFuture<Void> delay(long delayMs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (delayMs <= 0) {
+            future.complete(null);
+            return future;
+        }
+        synchronized (Sse.class) {
+            if (retryTimer == null) {
+                retryTimer = Executors.newSingleThreadScheduledExecutor(new RetrieveThreadFactory("sse-retry-"));
+            }
+            retryTimer.schedule(() -> future.complete(null), delayMs, TimeUnit.MILLISECONDS);
         }
+        return future;
+    }
 
-        dbTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenDB1);
-        long thenCrypto2 = System.nanoTime();
+    /**
+     * The state of a bulk upsert across its rounds. A round reads the Entry Table values of the words which are not
+     * in the write-back cache ({@link #toRead()}), derives the chain keys and encrypts the updates
+     * ({@link #encrypt(Map)}), then keeps the chain table updates of the words whose conditional update was applied
+     * ({@link #applied(Map)}). The words which were upserted are removed from the maps; the ones whose conditional
+     * update failed are left to be retried.
+     * <p>
+     * The steps of a round are called in sequence, possibly on distinct threads.
+     */
+    private static final class BulkUpsert {
 
-        // the entries that will be updated in the Entry table and their encrypted
-        // values
-        HashMap<WordHash, DBEntryTableRecord> entryTableUpdates = new HashMap<>(wordHashToWord.size());
+        private final Key k2;
+
+        private final int segmentSize;
+
+        private final EntryTableValueCache writeBack;
+
+        private final HashMap<Word, Set<DbUid>> wordToDbUidSet = new HashMap<>();
+
+        private final HashMap<WordHash, Word> wordHashToWord = new HashMap<>();
+
+        private final HashMap<WordHash, WordKeyMemo.WordKeys> wordKeys = new HashMap<>();
+
+        // a map of Table Entry, word hash to clear text values
+        private HashMap<WordHash, EntryTableValue> entryTableValues;
 
         // entries in the Chain Table
-        HashMap<WordHash, List<ChainTableUpdate>> chainTableUpdatesMap = new HashMap<>();
+        private HashMap<WordHash, List<ChainTableUpdate>> chainTableUpdatesMap;
 
-        for (Map.Entry<WordHash, Word> entry : wordHashToWord.entrySet()) {
+        // the clear text values of the entry table updates
+        private HashMap<WordHash, EntryTableValue> writtenValues;
 
-            WordHash wordHash = entry.getKey();
-            Word wi = entry.getValue();
-            Set<DbUid> dbUidSet = wordToDbUidSet.get(wi);
-
-            // check if we already updated that entry
-            EntryTableValue entryTableValue = entryTableValues.get(wordHash);
-            if (entryTableValue == null) {
-                // Kwᵢ = H(K*, wᵢ)
-                Key kwi = Key.derive(kStar, wi.bytes());
-                // the start of the chan value is r = H(Kwᵢ, wᵢ)
-                Key r = Key.derive(kwi, wi.bytes());
-                entryTableValue = new EntryTableValue(r, kStar, wi);
-            } else {
-                // Increment the next r value to add an entry = AES(Kwᵢ, dbUID)
-                // this value is the the key to the chain table
-                entryTableValue.nextR();
-            }
-
-            // update the chain table
-            Iterator<DbUid> it = dbUidSet.iterator();
-            while (true) {
-                DbUid dbUid = it.next();
-                final EntryTableValue etv = entryTableValue;
-                chainTableUpdatesMap.compute(wordHash, (wh, list) -> {
-                    if (list == null) {
-                        list = new ArrayList<ChainTableUpdate>();
+        // record benchmarks
+        private long cryptoTime = 0;
+
+        private long dbTime = 0;
+
+        BulkUpsert(Map<DbUid, Set<Word>> dbUidToWords, WordKeyMemo memo, int segmentSize,
+            EntryTableValueCache writeBack) throws CosmianException {
+            long thenCrypto1 = System.nanoTime();
+            this.k2 = memo.k2();
+            this.segmentSize = segmentSize;
+            this.writeBack = writeBack;
+
+            // build a map of clear text words to DbUidSet and a map of word hash to word
+            for (Map.Entry<DbUid, Set<Word>> entry : dbUidToWords.entrySet()) {
+                DbUid dbUid = entry.getKey();
+                Set<Word> words = entry.getValue();
+                for (Word wi : words) {
+                    Set<DbUid> dbUidSet = wordToDbUidSet.get(wi);
+                    if (dbUidSet == null) {
+                        dbUidSet = new HashSet<>();
+                        wordToDbUidSet.put(wi, dbUidSet);
+                        // the Entry table uses the hash of the word computed as H(K₁, wᵢ) as key
+                        WordKeyMemo.WordKeys keys = memo.get(wi);
+                        wordHashToWord.put(keys.hash, wi);
+                        wordKeys.put(keys.hash, keys);
+                    }
+                    dbUidSet.add(dbUid);
+                }
+            }
+
+            // the hashes of the words are crypto time
+            this.cryptoTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenCrypto1);
+        }
+
+        /**
+         * Start a round
+         *
+         * @return the words whose Entry Table value must be read
+         * @throws CosmianException if a cached value cannot be copied
+         */
+        Set<WordHash> toRead() throws CosmianException {
+            this.entryTableValues = new HashMap<>();
+            // the words last written by this indexer are optimistically not read
+            Set<WordHash> toRead = new HashSet<>(wordHashToWord.size() * 2);
+            for (WordHash wordHash : wordHashToWord.keySet()) {
+                EntryTableValue etv = writeBack == null ? null : writeBack.get(wordHash);
+                if (etv == null) {
+                    toRead.add(wordHash);
+                } else {
+                    etv.incrementRevision();
+                    entryTableValues.put(wordHash, etv);
+                }
+            }
+            return toRead;
+        }
+
+        /**
+         * Decrypt the Entry Table values read, then derive the chain keys and encrypt the updates of the round
+         *
+         * @param records the Entry Table records of the words read
+         * @return the Entry Table updates
+         * @throws CosmianException if a value cannot be decrypted or encrypted
+         */
+        Map<WordHash, DBEntryTableRecord> encrypt(Map<WordHash, DBEntryTableRecord> records)
+            throws CosmianException {
+            long thenCrypto2 = System.nanoTime();
+
+            SseCrypto crypto = SseCrypto.get();
+            SseCrypto.Context k2Context = crypto.context(k2);
+
+            for (Map.Entry<WordHash, DBEntryTableRecord> entry : records.entrySet()) {
+                EntryTableValue etv = EntryTableValue.fromRecord(entry.getValue(), k2Context);
+                etv.incrementRevision();
+                entryTableValues.put(entry.getKey(), etv);
+            }
+
+            // the entries that will be updated in the Entry table and their encrypted
+            // values
+            HashMap<WordHash, DBEntryTableRecord> entryTableUpdates = new HashMap<>(wordHashToWord.size());
+            this.chainTableUpdatesMap = new HashMap<>();
+            this.writtenValues = new HashMap<>(wordHashToWord.size());
+
+            for (Map.Entry<WordHash, Word> entry : wordHashToWord.entrySet()) {
+
+                WordHash wordHash = entry.getKey();
+                Word wi = entry.getValue();
+                Set<DbUid> dbUidSet = wordToDbUidSet.get(wi);
+
+                // check if we already updated that entry
+                EntryTableValue entryTableValue = entryTableValues.get(wordHash);
+                SseCrypto.Context kwiContext;
+                if (entryTableValue == null) {
+                    // Kwᵢ = H(K*, wᵢ)
+                    WordKeyMemo.WordKeys keys = wordKeys.get(wordHash);
+                    Key kwi = keys.kwi();
+                    kwiContext = crypto.context(kwi);
+                    // the start of the chan value is r = H(Kwᵢ, wᵢ)
+                    Key r = keys.r0();
+                    entryTableValue = segmentSize > 0 ? new EntryTableValue(r, kwi, segmentSize)
+                        : new EntryTableValue(0, r, kwi);
+                } else {
+                    kwiContext = crypto.context(entryTableValue.kwi);
+                    if (segmentSize > 0 && !entryTableValue.toSegmented(segmentSize, wi, kwiContext)) {
+                        logger.fine(() -> "Upsert: the chain of a word is longer than " + LOOP_ITERATION_LIMIT
+                            + " keys and is extended unsegmented");
                     }
+                    // Increment the next r value to add an entry = AES(Kwᵢ, dbUID)
+                    // this value is the the key to the chain table
+                    entryTableValue.nextR(wi, kwiContext);
+                }
+
+                // update the chain table
+                List<ChainTableUpdate> list = new ArrayList<>(dbUidSet.size());
+                chainTableUpdatesMap.put(wordHash, list);
+                Iterator<DbUid> it = dbUidSet.iterator();
+                while (true) {
+                    DbUid dbUid = it.next();
                     try {
-                        list.add(new ChainTableUpdate(etv.r, generateChainTableValue(etv.kwi, dbUid)));
+                        list.add(ChainTableUpdate.encrypt(entryTableValue.r, kwiContext, dbUid));
                     } catch (CosmianException e1) {
                         logger.severe("Failed generating the chain table value for dbUid " + dbUid.toString()
                             + ", wordHash " + wordHash.toString());
                     }
-                    return list;
-                });
-                // chainTableUpdates.put(entryTableValue.r, generateChainTableValue(entryTableValue.kwi, dbUid));
-                if (it.hasNext()) {
-                    // increment the next r value
-                    entryTableValue.nextR();
-                } else {
-                    // done
-                    break;
+                    if (it.hasNext()) {
+                        // increment the next r value
+                        entryTableValue.nextR(wi, kwiContext);
+                    } else {
+                        // done
+                        break;
+                    }
                 }
+
+                // update the entry table
+                entryTableUpdates.put(wordHash, entryTableValue.toRecord(k2Context));
+                writtenValues.put(wordHash, entryTableValue);
+                logger.fine(() -> "SSE: added entry table entry: " + wordHash.toString());
             }
 
-            // update the entry table
-            entryTableUpdates.put(wordHash, entryTableValue.toRecord(k2));
-            logger.fine(() -> "SSE: added entry table entry: " + wordHash.toString());
+            this.cryptoTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenCrypto2);
+            return entryTableUpdates;
         }
 
-        cryptoTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenCrypto2);
-        long thenDB2 = System.nanoTime();
-
-        // perform the DB updates
-        Map<WordHash, Boolean> results = db.upsertEntryTableEntries(entryTableUpdates);
-        // - for Word hashes updated (i.e. result==true) perform the updates to the chain table
-        // - for the other one, attempt re-insertion
-        Map<Key, byte[]> chainTableUpdates = new HashMap<>();
-        results.entrySet().stream().filter(e -> e.getValue()).forEach(entry -> {
-            WordHash wordHash = entry.getKey();
-            // remove word from ap to DbUids
-            Word word = wordHashToWord.get(wordHash);
-            if (word == null) {
-                logger.warning("No word for word hash: " + wordHash.toString() + ". This should not happen");
-                return;
-            }
-            // these words were inserted and do not need to be retried
-            wordToDbUidSet.remove(word);
-            wordHashToWord.remove(wordHash);
-            // ... and the corresponding entries must be added to the chain table
-            List<ChainTableUpdate> list = chainTableUpdatesMap.get(wordHash);
-            if (list == null) {
-                logger.warning("No chain table updates for word: " + word + ". This should not happen");
-                return;
+        /**
+         * Remove the words whose conditional update was applied from the maps
+         *
+         * @param results the results of the Entry Table updates
+         * @return the Chain Table updates of the applied words
+         */
+        Map<Key, byte[]> applied(Map<WordHash, Boolean> results) {
+            if (writeBack != null) {
+                // keep the written values; the failed ones will be read again
+                for (Map.Entry<WordHash, Boolean> entry : results.entrySet()) {
+                    if (entry.getValue()) {
+                        writeBack.put(entry.getKey(), writtenValues.get(entry.getKey()));
+                    } else {
+                        writeBack.conflict(entry.getKey());
+                    }
+                }
             }
-            list.stream().forEach(ctu -> chainTableUpdates.put(ctu.key, ctu.value));
-        });
-        // perform updates on chain table
-        if (chainTableUpdates.size() > 0) {
-            db.upsertChainTableEntries(chainTableUpdates);
+            // - for Word hashes updated (i.e. result==true) perform the updates to the chain table
+            // - for the other one, attempt re-insertion
+            Map<Key, byte[]> chainTableUpdates = new HashMap<>();
+            results.entrySet().stream().filter(e -> e.getValue()).forEach(entry -> {
+                WordHash wordHash = entry.getKey();
+                // remove word from ap to DbUids
+                Word word = wordHashToWord.get(wordHash);
+                if (word == null) {
+                    logger.warning("No word for word hash: " + wordHash.toString() + ". This should not happen");
+                    return;
+                }
+                // these words were inserted and do not need to be retried
+                wordToDbUidSet.remove(word);
+                wordHashToWord.remove(wordHash);
+                // ... and the corresponding entries must be added to the chain table
+                List<ChainTableUpdate> list = chainTableUpdatesMap.get(wordHash);
+                if (list == null) {
+                    logger.warning("No chain table updates for word: " + word + ". This should not happen");
+                    return;
+                }
+                list.stream().forEach(ctu -> chainTableUpdates.put(ctu.key, ctu.value));
+            });
+
+            Level level = wordToDbUidSet.size() > 0 ? Level.INFO : Level.FINE;
+            logger.log(level, () -> "SSE: " + Thread.currentThread().getName() + ": total words: " + results.size()
+                + ", " + wordToDbUidSet.size() + " words need to be retried");
+            return chainTableUpdates;
+        }
+
+        /**
+         * Add the time elapsed since a DB call was issued to the DB time
+         */
+        void dbTime(long then) {
+            this.dbTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - then);
         }
 
-        dbTime += TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - thenDB2);
+        boolean isDone() {
+            return wordToDbUidSet.isEmpty();
+        }
 
-        Level level = wordToDbUidSet.size() > 0 ? Level.INFO : Level.FINE;
-        logger.log(level, () -> "SSE: " + Thread.currentThread().getName() + ": total words: "
-            + entryTableUpdates.size() + ", " + wordToDbUidSet.size() + " words need to be retried");
+        /**
+         * @return the number of words left to retry
+         */
+        int remaining() {
+            return wordToDbUidSet.size();
+        }
 
-        // retry failed/conflicted entries to entry table
-        if (wordToDbUidSet.size() > 0) {
-            long[] times = bulkUpsertInternal(k1, k2, kStar, wordHashToWord, wordToDbUidSet, db);
-            cryptoTime += times[0];
-            dbTime += times[1];
+        /**
+         * @return the crypto and DB times in microseconds
+         */
+        long[] timings() {
+            return new long[] {cryptoTime, dbTime};
         }
-        return new long[] {cryptoTime, dbTime};
     }
 
     /**
@@ -551,9 +1108,9 @@ public class Sse {
      * @return the generated value
      * @throws CosmianException if encryption fails
      */
-    private static byte[] generateChainTableValue(Key kwi, DbUid dbUid) throws CosmianException {
+    private static byte[] generateChainTableValue(SseCrypto.Context kwi, DbUid dbUid) throws CosmianException {
         try {
-            return encryptAes(SECURE_RANDOM, kwi, dbUid.bytes);
+            return kwi.encrypt(dbUid.bytes);
         } catch (CosmianException e) {
             throw new CosmianException(
                 "Failed encrypting the Chain Table Value under key Kwᵢ: " + e.getCause().getMessage(), e);
@@ -569,9 +1126,22 @@ public class Sse {
      * @throws CosmianException if the value cannot be decrypted
      */
     public static DbUid getDbUidFromChainTableValue(Key kwi, byte[] encryptedValue) throws CosmianException {
+        return getDbUidFromChainTableValue(SseCrypto.get().context(kwi), encryptedValue);
+    }
+
+    /**
+     * Decrypt the Chain Table value to retrieve the UID
+     * 
+     * @param kwi the {@link SseCrypto.Context} of the derived key for the word
+     * @param encryptedValue the encrypted DB UID
+     * @return the DB UID
+     * @throws CosmianException if the value cannot be decrypted
+     */
+    static DbUid getDbUidFromChainTableValue(SseCrypto.Context kwi, byte[] encryptedValue)
+        throws CosmianException {
         byte[] dbUid;
         try {
-            dbUid = decryptAes(SECURE_RANDOM, kwi, encryptedValue);
+            dbUid = kwi.decrypt(encryptedValue);
         } catch (CosmianException e) {
             throw new CosmianException(
                 "Failed decrypting the Chain Table Value under key Kwᵢ: " + e.getCause().getMessage(), e);
@@ -590,20 +1160,77 @@ public class Sse {
      */
     public static HashMap<Word, Set<DbUid>> bulkRetrieve(Key k, Set<Word> words, DBInterface db)
         throws CosmianException {
+        return bulkRetrieve(k, words, db, 1);
+    }
+
+    /**
+     * Retrieve the set of DB Uid for a given set of words, walking the chains of up to parallelism words concurrently.
+     * 
+     * @param k the main symmetric key
+     * @param words the set of words
+     * @param db the key value store holding the indexes
+     * @param parallelism the maximum number of chains walked concurrently; 1 walks them on the calling thread
+     * @return a map of Word -> [dbUid,...]
+     * @throws CosmianException if an error occurs
+     * @see #bulkRetrieve(Key, Set, DBInterface, SseConfiguration)
+     */
+    public static HashMap<Word, Set<DbUid>> bulkRetrieve(Key k, Set<Word> words, DBInterface db, int parallelism)
+        throws CosmianException {
+        return bulkRetrieve(k, words, db, new SseConfiguration().withRetrieveParallelism(parallelism));
+    }
+
+    /**
+     * Retrieve the set of DB Uid for a given set of words.
+     * <p>
+     * The chains of distinct words, and the segments of a segmented chain, are independent: up to
+     * {@link SseConfiguration#getRetrieveParallelism()} walks derive the chain keys, fetch the chain table entries and
+     * decrypt the DB Uids on their own thread. Segmented chains are walked in full; unsegmented chains are cut after
+     * {@value Sse#LOOP_ITERATION_LIMIT} keys. When a
+     * {@link SseConfiguration#getChainChunkSize()} is set, each walk streams its chain in chunks read asynchronously
+     * (see {@link ChainWalker}). In both cases, the {@link DBInterface} must be thread safe. When the configuration
+     * holds a {@link ChainCheckpointStore}, segmented chains are only walked after their checkpoint, which is then
+     * moved to their current end.
+     * 
+     * @param k the main symmetric key
+     * @param words the set of words
+     * @param db the key value store holding the indexes
+     * @param sseConf the search parallelism and streaming parameters
+     * @return a map of Word -> [dbUid,...], holding an empty set for the searched words which are not indexed
+     * @throws CosmianException if an error occurs
+     * @see #bulkRetrieve(Key, Set, DBInterface, SseConfiguration, Executor)
+     */
+    public static HashMap<Word, Set<DbUid>> bulkRetrieve(Key k, Set<Word> words, DBInterface db,
+        SseConfiguration sseConf) throws CosmianException {
+        return bulkRetrieve(k, words, db, sseConf, retrieveExecutor());
+    }
+
+    /**
+     * Retrieve the set of DB Uid for a given set of words, see
+     * {@link #bulkRetrieve(Key, Set, DBInterface, SseConfiguration)}, running the chain walks and the chunk reads on
+     * the given executor. The parallelism of the call is bounded by the configuration, not by the executor. The walks
+     * wait for their chunk reads: the executor must be able to run the walks and the reads of the call concurrently,
+     * as a cached thread pool does.
+     * 
+     * @param k the main symmetric key
+     * @param words the set of words
+     * @param db the key value store holding the indexes
+     * @param sseConf the search parallelism and streaming parameters
+     * @param executor the executor of the chain walks and the chunk reads
+     * @return a map of Word -> [dbUid,...]
+     * @throws CosmianException if an error occurs
+     */
+    public static HashMap<Word, Set<DbUid>> bulkRetrieve(Key k, Set<Word> words, DBInterface db,
+        SseConfiguration sseConf, Executor executor) throws CosmianException {
 
         // First compute derived keys K1 and K2
-        Key k1 = Key.derive(k, K1_SALT);
-        Key k2 = Key.derive(k, K2_SALT);
+        SseCrypto crypto = SseCrypto.get();
+        Key k1 = crypto.context(k).derive(K1_SALT);
+        Key k2 = crypto.context(k).derive(K2_SALT);
+        SseCrypto.Context k1Context = crypto.context(k1);
 
-        logger.finer(() -> "SSE: searching " + words.size() + " word: " + Arrays.toString(words.toArray()));
-        HashMap<WordHash, Word> wordHashToWord = new HashMap<>();
-        for (Word wi : words) {
-            WordHash wh = wi.hash(k1.bytes);
-            logger.finer(() -> "SSE: searching word: " + wh.toString());
-            wordHashToWord.put(wh, wi);
-        }
+        HashMap<WordHash, Word> wordHashToWord = hashWords(words, k1Context);
 
-        HashMap<Word, Set<DbUid>> results = new HashMap<>();
+        HashMap<Word, Set<DbUid>> results = emptyResults(wordHashToWord);
 
         // retrieve the Entry Table entries for the words
         Map<WordHash, DBEntryTableRecord> entryTable = db.getEntryTableEntries(wordHashToWord.keySet());
@@ -614,40 +1241,367 @@ public class Sse {
         logger.fine(() -> "Search: found " + entryTable.size() + " words in entry table out of " + words.size()
             + " words searched");
 
+        // the segments of the chains to walk, after their checkpoint if any
+        ChainCheckpointStore checkpoints = sseConf.getCheckpoints();
+        HashMap<WordHash, EntryTableValue> segmented = new HashMap<>();
+        List<ChainSegment> segments = segmentsToWalk(wordHashToWord, entryTable, crypto.context(k2), checkpoints,
+            results, segmented);
+
+        ChainWalker walker;
+        if (sseConf.getChainChunkSize() > 0) {
+            // the walker bounds the chunk reads in flight of the call
+            walker = new ChainWalker(db, sseConf.getChainChunkSize(), sseConf.getChainReadsInFlight(), executor);
+        } else {
+            walker = new ChainWalker(db);
+        }
+
+        List<Walk> walks;
+        if (sseConf.getRetrieveParallelism() <= 1 || segments.size() <= 1) {
+            walks = new ArrayList<>(segments.size());
+            for (ChainSegment segment : segments) {
+                walks.add(walkSegment(segment, walker));
+            }
+        } else {
+            // up to parallelism walkers take the next segment until none is left or a walk failed
+            List<Walk> walked = new ArrayList<>(Collections.nCopies(segments.size(), null));
+            AtomicInteger nextSegment = new AtomicInteger();
+            AtomicBoolean failed = new AtomicBoolean();
+            int walkers = Math.min(sseConf.getRetrieveParallelism(), segments.size());
+            List<CompletableFuture<Void>> futures = new ArrayList<>(walkers);
+            for (int w = 0; w < walkers; w++) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    int i;
+                    while (!failed.get() && (i = nextSegment.getAndIncrement()) < segments.size()) {
+                        ChainSegment segment = segments.get(i);
+                        try {
+                            walked.set(i, unchecked(() -> walkSegment(segment, walker)));
+                        } catch (RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                }, executor));
+            }
+            for (CompletableFuture<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                        ? e.getCause().getCause() : e.getCause();
+                    if (cause instanceof CosmianException) {
+                        throw (CosmianException) cause;
+                    }
+                    throw new CosmianException("Failed walking the chain: " + cause.getMessage(), cause);
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                    Thread.currentThread().interrupt();
+                    throw new CosmianException("Interrupted while walking the chains", e);
+                }
+            }
+            walks = walked;
+        }
+        HashSet<Word> incomplete = new HashSet<>();
+        HashMap<Word, byte[]> ends = new HashMap<>();
+        Set<Word> stale = walked(segments, walks, results, incomplete, ends);
+        if (!stale.isEmpty()) {
+            List<ChainSegment> rewalk = rewalk(stale, wordHashToWord, checkpoints, segmented, results, incomplete);
+            List<Walk> rewalks = new ArrayList<>(rewalk.size());
+            for (ChainSegment segment : rewalk) {
+                rewalks.add(walkSegment(segment, walker));
+            }
+            walked(rewalk, rewalks, results, incomplete, ends);
+        }
+        retrieved(wordHashToWord, checkpoints, segmented, results, incomplete, ends);
+        return results;
+    }
+
+    // the threads of the chain walks and chunk reads of the synchronous retrieves, shared by all the calls
+    private static ExecutorService retrieveExecutor = null;
+
+    /**
+     * @return the executor of {@link #bulkRetrieve(Key, Set, DBInterface, SseConfiguration)}: a cached pool of daemon
+     *         threads, which are reclaimed once idle
+     */
+    private static synchronized Executor retrieveExecutor() {
+        if (retrieveExecutor == null) {
+            retrieveExecutor = Executors.newCachedThreadPool(new RetrieveThreadFactory("sse-retrieve-"));
+        }
+        return retrieveExecutor;
+    }
+
+    /**
+     * Retrieve the set of DB Uid for a given set of words asynchronously: the stages of
+     * {@link #bulkRetrieve(Key, Set, DBInterface, SseConfiguration)} are composed with the stages of the store. The
+     * word hashes, chain keys and decryptions run on the crypto executor while the threads of the store only carry
+     * the I/O: the chains of all the words are walked concurrently and, when a
+     * {@link SseConfiguration#getChainChunkSize()} is set, each chain is read in chunks as soon as they are derived.
+     * The retrieve parallelism and chunk reads in flight of the configuration are not used: the parallelism is the
+     * one of the crypto executor and of the store.
+     *
+     * @param k the main symmetric key
+     * @param words the set of words
+     * @param db the asynchronous key value store holding the indexes
+     * @param sseConf the streaming parameters and checkpoints
+     * @param cryptoExecutor the executor of the key derivations and decryptions
+     * @return a map of Word -> [dbUid,...], holding an empty set for the searched words which are not indexed;
+     *         completes exceptionally with a {@link CosmianException} if an error occurs
+     */
+    public static CompletionStage<HashMap<Word, Set<DbUid>>> bulkRetrieveAsync(Key k, Set<Word> words,
+        AsyncDBInterface db, SseConfiguration sseConf, Executor cryptoExecutor) {
+        ChainCheckpointStore checkpoints = sseConf.getCheckpoints();
+        ChainWalker walker = new ChainWalker(db, sseConf.getChainChunkSize(), cryptoExecutor);
+        return CompletableFuture.supplyAsync(() -> unchecked(() -> {
+            SseCrypto crypto = SseCrypto.get();
+            return hashWords(words, crypto.context(crypto.context(k).derive(K1_SALT)));
+        }), cryptoExecutor).thenCompose(wordHashToWord -> db.getEntryTableEntriesAsync(wordHashToWord.keySet())
+            .thenComposeAsync(entryTable -> {
+                HashMap<Word, Set<DbUid>> results = emptyResults(wordHashToWord);
+                if (entryTable.size() == 0) {
+                    logger.fine(() -> "Search: words not found in the entry table");
+                    return CompletableFuture.completedFuture(results);
+                }
+                HashMap<WordHash, EntryTableValue> segmented = new HashMap<>();
+                List<ChainSegment> segments = unchecked(() -> {
+                    SseCrypto crypto = SseCrypto.get();
+                    return segmentsToWalk(wordHashToWord, entryTable,
+                        crypto.context(crypto.context(k).derive(K2_SALT)), checkpoints, results, segmented);
+                });
+                HashSet<Word> incomplete = new HashSet<>();
+                HashMap<Word, byte[]> ends = new HashMap<>();
+                return walkSegmentsAsync(segments, walker).thenCompose(walks -> {
+                    Set<Word> stale = walked(segments, walks, results, incomplete, ends);
+                    if (stale.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    List<ChainSegment> rewalk =
+                        rewalk(stale, wordHashToWord, checkpoints, segmented, results, incomplete);
+                    return walkSegmentsAsync(rewalk, walker)
+                        .thenAccept(rewalks -> walked(rewalk, rewalks, results, incomplete, ends));
+                }).thenApply(done -> {
+                    retrieved(wordHashToWord, checkpoints, segmented, results, incomplete, ends);
+                    return results;
+                });
+            }, cryptoExecutor));
+    }
+
+    /**
+     * @return the hashes H(K₁, wᵢ) of the words
+     */
+    private static HashMap<WordHash, Word> hashWords(Set<Word> words, SseCrypto.Context k1Context)
+        throws CosmianException {
+        logger.finer(() -> "SSE: searching " + words.size() + " word: " + Arrays.toString(words.toArray()));
+        HashMap<WordHash, Word> wordHashToWord = new HashMap<>();
+        for (Word wi : words) {
+            WordHash wh = wi.hash(k1Context);
+            logger.finer(() -> "SSE: searching word: " + wh.toString());
+            wordHashToWord.put(wh, wi);
+        }
+        return wordHashToWord;
+    }
+
+    /**
+     * @return the results of a search before its walks: an empty set for every searched word, so that the words which
+     *         are not indexed are in the results whether the other words are found or not
+     */
+    private static HashMap<Word, Set<DbUid>> emptyResults(HashMap<WordHash, Word> wordHashToWord) {
+        HashMap<Word, Set<DbUid>> results = new HashMap<>();
+        for (Word wi : wordHashToWord.values()) {
+            results.put(wi, new HashSet<>());
+        }
+        return results;
+    }
+
+    /**
+     * Decrypt the Entry Table values of the searched words and list the segments of their chains to walk, after
+     * their checkpoint if any. The DB Uids of the checkpoints are added to the results, see
+     * {@link #emptyResults(HashMap)}.
+     *
+     * @param wordHashToWord the searched words
+     * @param entryTable the Entry Table records of the words
+     * @param k2Context the {@link SseCrypto.Context} of K₂
+     * @param checkpoints the checkpoints, or null
+     * @param results the results of the search
+     * @param segmented receives the values of the segmented chains whose checkpoint must be moved
+     * @return the segments of the chains to walk
+     * @throws CosmianException if a value cannot be decrypted
+     */
+    private static List<ChainSegment> segmentsToWalk(HashMap<WordHash, Word> wordHashToWord,
+        Map<WordHash, DBEntryTableRecord> entryTable, SseCrypto.Context k2Context, ChainCheckpointStore checkpoints,
+        HashMap<Word, Set<DbUid>> results, HashMap<WordHash, EntryTableValue> segmented) throws CosmianException {
+        List<ChainSegment> segments = new ArrayList<>();
         for (Map.Entry<WordHash, Word> entry : wordHashToWord.entrySet()) {
-            WordHash wordHash = entry.getKey();
             Word wi = entry.getValue();
-            DBEntryTableRecord record = entryTable.get(wordHash);
-            byte[] encEntryTableValues = record.getEncryptedValue();
-            if (encEntryTableValues == null) {
-                results.put(wi, new HashSet<>());
+            DBEntryTableRecord record = entryTable.get(entry.getKey());
+            if (record == null || record.getEncryptedValue() == null) {
                 continue;
             }
-            EntryTableValue entryTableValue = EntryTableValue.fromRecord(record, k2);
-
-            Set<Key> chainTableKeys = new HashSet<>();
-            // the start of the chan value is r = H(Kwᵢ, wᵢ)
-            Key currentR = Key.derive(entryTableValue.kwi, wi.bytes);
-            int i = 0;
-            while (i < LOOP_ITERATION_LIMIT) {
-                chainTableKeys.add(currentR);
-                if (currentR.equals(entryTableValue.r)) {
-                    break;
+            EntryTableValue entryTableValue = EntryTableValue.fromRecord(record, k2Context);
+            List<ChainSegment> chainSegments = null;
+            if (checkpoints != null && entryTableValue.isSegmented()) {
+                segmented.put(entry.getKey(), entryTableValue);
+                ChainCheckpointStore.Checkpoint checkpoint = checkpoints.get(entry.getKey());
+                if (checkpoint != null) {
+                    chainSegments = entryTableValue.segmentsAfter(wi, checkpoint);
+                    if (chainSegments == null) {
+                        checkpoints.remove(entry.getKey());
+                    } else {
+                        results.get(wi).addAll(checkpoint.dbUids);
+                        logger.fine(() -> "SSE: resuming word " + entry.getKey().toString() + " from revision "
+                            + checkpoint.revision);
+                    }
                 }
-                // get the next value in chain
-                currentR = Key.derive(entryTableValue.kwi, currentR.bytes);
-                i++;
             }
-            Set<byte[]> encDbUidSet = db.getChainTableEntries(chainTableKeys);
-            Set<DbUid> dbUidSet = new HashSet<>();
-            for (byte[] encDbUid : encDbUidSet) {
-                dbUidSet.add(getDbUidFromChainTableValue(entryTableValue.kwi, encDbUid));
+            segments.addAll(chainSegments == null ? entryTableValue.segments(wi) : chainSegments);
+        }
+        return segments;
+    }
+
+    /**
+     * Add the DB Uids of the walked segments to the results
+     *
+     * @param segments the walked segments
+     * @param walks the walks of the segments
+     * @param results the results of the search
+     * @param incomplete receives the words of which a chain key returned no row
+     * @param ends receives the rows read at the end of the chains
+     * @return the words whose chain no longer holds the row of their checkpoint
+     */
+    private static Set<Word> walked(List<ChainSegment> segments, List<Walk> walks, HashMap<Word, Set<DbUid>> results,
+        Set<Word> incomplete, HashMap<Word, byte[]> ends) {
+        Set<Word> stale = new HashSet<>();
+        for (int i = 0; i < segments.size(); i++) {
+            ChainSegment segment = segments.get(i);
+            Walk walk = walks.get(i);
+            results.get(segment.wi).addAll(walk.dbUids);
+            if (!walk.isComplete()) {
+                incomplete.add(segment.wi);
+            }
+            if (segment.end != null && walk.endValue != null) {
+                ends.put(segment.wi, walk.endValue);
+            }
+            if (segment.expected != null && !Arrays.equals(segment.expected, walk.startValue)) {
+                stale.add(segment.wi);
             }
-            logger.fine(() -> "Word " + new String(wi.bytes, StandardCharsets.UTF_8) + " has " + dbUidSet.size()
-                + " distinct DB UIDs");
-            results.put(wi, dbUidSet);
         }
-        return results;
+        return stale;
+    }
+
+    /**
+     * Drop the checkpoints whose row changed: the indexes were truncated and rewritten since, with the same chain
+     * keys. The results of these words are reset and their whole chains must be walked again.
+     *
+     * @return the segments of the chains to walk again
+     */
+    private static List<ChainSegment> rewalk(Set<Word> stale, HashMap<WordHash, Word> wordHashToWord,
+        ChainCheckpointStore checkpoints, HashMap<WordHash, EntryTableValue> segmented,
+        HashMap<Word, Set<DbUid>> results, Set<Word> incomplete) {
+        List<ChainSegment> segments = new ArrayList<>();
+        for (Map.Entry<WordHash, EntryTableValue> entry : segmented.entrySet()) {
+            Word wi = wordHashToWord.get(entry.getKey());
+            if (stale.contains(wi)) {
+                logger.fine(() -> "SSE: the chain of word " + entry.getKey().toString()
+                    + " was rewritten since its checkpoint");
+                checkpoints.remove(entry.getKey());
+                results.put(wi, new HashSet<>());
+                incomplete.remove(wi);
+                segments.addAll(entry.getValue().segments(wi));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Move the checkpoints of the segmented chains read completely to their current end and log the results. The
+     * checkpoint of a chain of which a key returned no row is kept: its Entry Table value may have been updated
+     * before all its Chain Table rows were written.
+     */
+    private static void retrieved(HashMap<WordHash, Word> wordHashToWord, ChainCheckpointStore checkpoints,
+        HashMap<WordHash, EntryTableValue> segmented, HashMap<Word, Set<DbUid>> results, Set<Word> incomplete,
+        HashMap<Word, byte[]> ends) {
+        for (Map.Entry<WordHash, EntryTableValue> entry : segmented.entrySet()) {
+            Word wi = wordHashToWord.get(entry.getKey());
+            if (incomplete.contains(wi) || !ends.containsKey(wi)) {
+                logger.fine(() -> "SSE: the chain of word " + entry.getKey().toString()
+                    + " was read incomplete, its checkpoint is kept");
+                continue;
+            }
+            checkpoints.put(entry.getKey(), entry.getValue().checkpoint(ends.get(wi), results.get(wi)));
+        }
+        for (Map.Entry<Word, Set<DbUid>> entry : results.entrySet()) {
+            logger.fine(() -> "Word " + new String(entry.getKey().bytes, StandardCharsets.UTF_8) + " has "
+                + entry.getValue().size() + " distinct DB UIDs");
+        }
+    }
+
+    /**
+     * Walk a segment of the chain of a word: derive its chain table keys, fetch the chain table entries and decrypt
+     * the DB Uids using the walker
+     * 
+     * @param segment the segment of the chain
+     * @param walker the {@link ChainWalker} fetching the chain
+     * @return the walk of the segment
+     * @throws CosmianException if the entries cannot be fetched or decrypted
+     */
+    static Walk walkSegment(ChainSegment segment, ChainWalker walker) throws CosmianException {
+        Key start = segment.from == null
+            ? EntryTableValue.segmentStart(SseCrypto.get().context(segment.kwi), segment.wi, segment.segment)
+            : segment.from;
+        return walker.walk(segment.kwi, start, segment.end, segment.length);
+    }
+
+    /**
+     * Walk the segments without blocking, see {@link #walkSegmentAsync(ChainSegment, ChainWalker)}
+     */
+    private static CompletableFuture<List<Walk>> walkSegmentsAsync(List<ChainSegment> segments, ChainWalker walker) {
+        List<CompletableFuture<Walk>> walks = new ArrayList<>(segments.size());
+        for (ChainSegment segment : segments) {
+            walks.add(walkSegmentAsync(segment, walker));
+        }
+        return CompletableFuture.allOf(walks.toArray(new CompletableFuture<?>[walks.size()])).thenApply(done -> {
+            List<Walk> walked = new ArrayList<>(walks.size());
+            for (CompletableFuture<Walk> walk : walks) {
+                walked.add(walk.join());
+            }
+            return walked;
+        });
+    }
+
+    /**
+     * Walk a segment of the chain of a word without blocking, see {@link ChainWalker#walkAsync(Key, Key, Key, int)}
+     */
+    private static CompletableFuture<Walk> walkSegmentAsync(ChainSegment segment, ChainWalker walker) {
+        Key start;
+        try {
+            start = segment.from == null
+                ? EntryTableValue.segmentStart(SseCrypto.get().context(segment.kwi), segment.wi, segment.segment)
+                : segment.from;
+        } catch (CosmianException e) {
+            CompletableFuture<Walk> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return walker.walkAsync(segment.kwi, start, segment.end, segment.length);
+    }
+
+    /**
+     * Daemon threads for the concurrent chain walks and chunk reads
+     */
+    static class RetrieveThreadFactory implements ThreadFactory {
+
+        private final static AtomicInteger COUNTER = new AtomicInteger();
+
+        private final String prefix;
+
+        RetrieveThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
 }
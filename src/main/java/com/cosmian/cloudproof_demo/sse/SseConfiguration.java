@@ -0,0 +1,354 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.io.Serializable;
+
+/**
+ * Tuning parameters of the SSE indexing and search. The defaults reproduce the sequential behavior.
+ */
+public class SseConfiguration implements Serializable {
+
+    private int retrieveParallelism = 1;
+
+    private int chainChunkSize = 0;
+
+    private int chainReadsInFlight = 4;
+
+    private int chainSegmentSize = 0;
+
+    private int wordMemoSize = 10_000;
+
+    private int writeBackSize = 10_000;
+
+    private int hotWordThreshold = 0;
+
+    private int hotWordMaxPostings = 10_000;
+
+    private long hotWordMaxAgeMs = 10_000;
+
+    private int retryBudget = 100;
+
+    private long retryBaseDelayMs = 10;
+
+    private long retryMaxDelayMs = 1000;
+
+    private transient ChainCheckpointStore checkpoints = null;
+
+    private transient ChainTableCache chainCache = null;
+
+    /**
+     * A default configuration
+     */
+    public SseConfiguration() {
+    }
+
+    /**
+     * @return the number of words whose chains are walked concurrently by a search
+     */
+    public int getRetrieveParallelism() {
+        return retrieveParallelism;
+    }
+
+    /**
+     * Set the number of words whose chains are walked, fetched and decrypted concurrently by a search. 1 walks them
+     * one after the other.
+     *
+     * @param retrieveParallelism the number of concurrent chain walks; must be at least 1
+     * @return this configuration
+     */
+    public SseConfiguration withRetrieveParallelism(int retrieveParallelism) {
+        if (retrieveParallelism < 1) {
+            throw new IllegalArgumentException("the retrieve parallelism must be at least 1");
+        }
+        this.retrieveParallelism = retrieveParallelism;
+        return this;
+    }
+
+    /**
+     * @return the number of chain keys per Chain Table read; 0 when chains are fetched in a single read
+     */
+    public int getChainChunkSize() {
+        return chainChunkSize;
+    }
+
+    /**
+     * Stream the chain walks: the chain keys are emitted in chunks of this size, each chunk being read asynchronously
+     * while the derivation of the chain continues, and decrypted as soon as it arrives. 0 derives the whole chain
+     * before fetching it in a single read.
+     *
+     * @param chainChunkSize the number of keys per Chain Table read; 0 to disable streaming
+     * @return this configuration
+     */
+    public SseConfiguration withChainChunkSize(int chainChunkSize) {
+        if (chainChunkSize < 0) {
+            throw new IllegalArgumentException("the chain chunk size cannot be negative");
+        }
+        this.chainChunkSize = chainChunkSize;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of chunk reads in flight during a search
+     */
+    public int getChainReadsInFlight() {
+        return chainReadsInFlight;
+    }
+
+    /**
+     * Set the maximum number of Chain Table chunk reads in flight during a search, across all the walked chains. The
+     * derivation pauses when it is reached. Only used when a chain chunk size is set.
+     *
+     * @param chainReadsInFlight the maximum number of concurrent chunk reads; must be at least 1
+     * @return this configuration
+     */
+    public SseConfiguration withChainReadsInFlight(int chainReadsInFlight) {
+        if (chainReadsInFlight < 1) {
+            throw new IllegalArgumentException("the number of chain reads in flight must be at least 1");
+        }
+        this.chainReadsInFlight = chainReadsInFlight;
+        return this;
+    }
+
+    /**
+     * @return the number of keys per segment of the chains written by the indexer; 0 for unsegmented chains
+     */
+    public int getChainSegmentSize() {
+        return chainSegmentSize;
+    }
+
+    /**
+     * Set the number of keys per segment of the chains written by the indexer. Segments start from their own key and
+     * are walked independently by a search, which removes the limit on the number of DB Uids per word. The size of the
+     * existing segmented chains is not changed; unsegmented chains are converted when they are extended.
+     * <p>
+     * Segmentation changes the format of the Entry Table values: versions of the search without segments cannot read
+     * the values of the segmented chains. It is opt-in: 0, the default, writes unsegmented chains, readable by all the
+     * versions but limited to 10,000 DB Uids per word.
+     *
+     * @param chainSegmentSize the number of keys per chain segment; 0 to disable segmentation
+     * @return this configuration
+     */
+    public SseConfiguration withChainSegmentSize(int chainSegmentSize) {
+        if (chainSegmentSize < 0) {
+            throw new IllegalArgumentException("the chain segment size cannot be negative");
+        }
+        this.chainSegmentSize = chainSegmentSize;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of words whose hash and keys are memoized by an indexer
+     */
+    public int getWordMemoSize() {
+        return wordMemoSize;
+    }
+
+    /**
+     * Set the maximum number of words whose hash H(K₁, wᵢ), key Kwᵢ and first chain key are memoized by an indexer,
+     * the least recently used ones being evicted first. Frequent words are then derived once instead of once per
+     * batch.
+     *
+     * @param wordMemoSize the number of memoized words; 0 to disable the memo
+     * @return this configuration
+     */
+    public SseConfiguration withWordMemoSize(int wordMemoSize) {
+        if (wordMemoSize < 0) {
+            throw new IllegalArgumentException("the word memo size cannot be negative");
+        }
+        this.wordMemoSize = wordMemoSize;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of Entry Table values kept by an indexer after writing them
+     */
+    public int getWriteBackSize() {
+        return writeBackSize;
+    }
+
+    /**
+     * Set the maximum number of Entry Table values kept by an indexer after writing them. The next upsert of these
+     * words skips the Entry Table read and relies on the conditional update to detect a concurrent write, in which
+     * case the value is read again.
+     *
+     * @param writeBackSize the number of kept values; 0 to read every upserted word
+     * @return this configuration
+     */
+    public SseConfiguration withWriteBackSize(int writeBackSize) {
+        if (writeBackSize < 0) {
+            throw new IllegalArgumentException("the write-back size cannot be negative");
+        }
+        this.writeBackSize = writeBackSize;
+        return this;
+    }
+
+    /**
+     * @return the number of records of a batch a word must appear in to be held by an indexer; 0 when disabled
+     */
+    public int getHotWordThreshold() {
+        return hotWordThreshold;
+    }
+
+    /**
+     * Hold the postings of hot words across batches. A word found in at least this number of records of a batch, such
+     * as a low cardinality attribute, becomes hot: its postings are held by the indexer and flushed in a single chain
+     * extension and Entry Table update once the maximum number of postings or the maximum age is reached. The other
+     * words are flushed with every batch.
+     *
+     * @param hotWordThreshold the number of records of a batch; 0 flushes every word with its batch
+     * @return this configuration
+     */
+    public SseConfiguration withHotWordThreshold(int hotWordThreshold) {
+        if (hotWordThreshold < 0) {
+            throw new IllegalArgumentException("the hot word threshold cannot be negative");
+        }
+        this.hotWordThreshold = hotWordThreshold;
+        return this;
+    }
+
+    /**
+     * @return the number of held postings of a hot word which triggers its flush
+     */
+    public int getHotWordMaxPostings() {
+        return hotWordMaxPostings;
+    }
+
+    /**
+     * Set the number of held postings of a hot word which triggers its flush
+     *
+     * @param hotWordMaxPostings the number of postings; must be at least 1
+     * @return this configuration
+     */
+    public SseConfiguration withHotWordMaxPostings(int hotWordMaxPostings) {
+        if (hotWordMaxPostings < 1) {
+            throw new IllegalArgumentException("the maximum number of hot word postings must be at least 1");
+        }
+        this.hotWordMaxPostings = hotWordMaxPostings;
+        return this;
+    }
+
+    /**
+     * @return the maximum time in milliseconds the postings of a hot word are held
+     */
+    public long getHotWordMaxAgeMs() {
+        return hotWordMaxAgeMs;
+    }
+
+    /**
+     * Set the maximum time the postings of a hot word are held, measured from the first held posting. The age is
+     * checked when a batch is flushed, so a word may be held longer when records arrive slowly.
+     *
+     * @param hotWordMaxAgeMs the time in milliseconds; 0 flushes the hot words with the next batch
+     * @return this configuration
+     */
+    public SseConfiguration withHotWordMaxAgeMs(long hotWordMaxAgeMs) {
+        if (hotWordMaxAgeMs < 0) {
+            throw new IllegalArgumentException("the maximum hot word age cannot be negative");
+        }
+        this.hotWordMaxAgeMs = hotWordMaxAgeMs;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of retries of the conflicting Entry Table updates of an upsert
+     */
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Set the maximum number of retries of the conflicting Entry Table updates of an upsert. The upsert fails when
+     * words are still conflicted after that number of retries.
+     *
+     * @param retryBudget the number of retries
+     * @return this configuration
+     */
+    public SseConfiguration withRetryBudget(int retryBudget) {
+        if (retryBudget < 0) {
+            throw new IllegalArgumentException("the retry budget cannot be negative");
+        }
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * @return the maximum delay in milliseconds before the first retry of conflicting updates
+     */
+    public long getRetryBaseDelayMs() {
+        return retryBaseDelayMs;
+    }
+
+    /**
+     * Set the maximum delay before the first retry of conflicting updates. The maximum delay doubles with each retry
+     * up to {@link #getRetryMaxDelayMs()} and the actual delay is drawn at random below it.
+     *
+     * @param retryBaseDelayMs the delay in milliseconds; 0 to retry immediately
+     * @return this configuration
+     */
+    public SseConfiguration withRetryBaseDelayMs(long retryBaseDelayMs) {
+        if (retryBaseDelayMs < 0) {
+            throw new IllegalArgumentException("the retry base delay cannot be negative");
+        }
+        this.retryBaseDelayMs = retryBaseDelayMs;
+        return this;
+    }
+
+    /**
+     * @return the maximum delay in milliseconds before any retry of conflicting updates
+     */
+    public long getRetryMaxDelayMs() {
+        return retryMaxDelayMs;
+    }
+
+    /**
+     * Set the maximum delay before any retry of conflicting updates
+     *
+     * @param retryMaxDelayMs the delay in milliseconds
+     * @return this configuration
+     */
+    public SseConfiguration withRetryMaxDelayMs(long retryMaxDelayMs) {
+        if (retryMaxDelayMs < 0) {
+            throw new IllegalArgumentException("the retry maximum delay cannot be negative");
+        }
+        this.retryMaxDelayMs = retryMaxDelayMs;
+        return this;
+    }
+
+    /**
+     * @return the store of chain checkpoints used by searches, or null
+     */
+    public ChainCheckpointStore getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Set the store of chain checkpoints: searches then only walk the part of the segmented chains added since their
+     * previous walk. The store is not serialized with the configuration.
+     *
+     * @param checkpoints the store, null to walk the whole chains
+     * @return this configuration
+     */
+    public SseConfiguration withCheckpoints(ChainCheckpointStore checkpoints) {
+        this.checkpoints = checkpoints;
+        return this;
+    }
+
+    /**
+     * @return the cache of Chain Table entries used by searches, or null
+     */
+    public ChainTableCache getChainCache() {
+        return chainCache;
+    }
+
+    /**
+     * Set the cache of Chain Table entries: searches then only fetch the chain keys which are not cached. The cache is
+     * not serialized with the configuration.
+     *
+     * @param chainCache the cache, null to fetch all the chain keys
+     * @return this configuration
+     */
+    public SseConfiguration withChainCache(ChainTableCache chainCache) {
+        this.chainCache = chainCache;
+        return this;
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+
+/**
+ * The HMAC-SHA256 and AES-256-GCM engine used by the SSE scheme.
+ * <p>
+ * Instances are bound to a thread (see {@link #get()}): they hold a reusable {@link Cipher} and a small LRU of keyed
+ * {@link Context}s, so that a key (K₁, K₂, Kwᵢ,...) is only initialized once while it is in use, instead of calling
+ * {@link Mac#getInstance(String)} and {@link Cipher#getInstance(String)} on every operation. Operations write into
+ * caller-provided buffers.
+ * <p>
+ * Neither this class nor its contexts are thread safe: they must not be shared between threads.
+ */
+public final class SseCrypto {
+
+    public final static int HMAC_LENGTH = 32;
+
+    public final static int NONCE_LENGTH = 12;
+
+    public final static int TAG_LENGTH = 16;
+
+    /**
+     * The number of bytes added by {@link Context#encrypt(byte[], int, int, byte[], int)}: nonce and tag
+     */
+    public final static int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    // the number of keyed contexts kept per thread
+    private final static int MAX_CONTEXTS = 64;
+
+    private final static SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final static ThreadLocal<SseCrypto> INSTANCES = new ThreadLocal<>();
+
+    private final Cipher cipher;
+
+    private final byte[] nonce = new byte[NONCE_LENGTH];
+
+    private byte[] scratch = new byte[4 * Key.KEY_LENGTH];
+
+    private final LinkedHashMap<ByteBuffer, Context> contexts =
+        new LinkedHashMap<ByteBuffer, Context>(MAX_CONTEXTS * 2, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Context> eldest) {
+                return size() > MAX_CONTEXTS;
+            }
+        };
+
+    private SseCrypto() throws CosmianException {
+        try {
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new CosmianException("AES GCM is not available: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the engine of the current thread, creating it if needed
+     *
+     * @return the {@link SseCrypto} of the current thread
+     * @throws CosmianException if the algorithms are not available
+     */
+    public static SseCrypto get() throws CosmianException {
+        SseCrypto crypto = INSTANCES.get();
+        if (crypto == null) {
+            crypto = new SseCrypto();
+            INSTANCES.set(crypto);
+        }
+        return crypto;
+    }
+
+    /**
+     * Get the context for the given key, initializing it if it is not among the recently used ones
+     *
+     * @param key the key bytes. They are copied and must not be modified while the context is in use
+     * @return the keyed {@link Context}
+     * @throws CosmianException if the key is invalid
+     */
+    public Context context(byte[] key) throws CosmianException {
+        Context context = this.contexts.get(ByteBuffer.wrap(key));
+        if (context == null) {
+            byte[] copy = key.clone();
+            context = new Context(copy);
+            this.contexts.put(ByteBuffer.wrap(copy), context);
+        }
+        return context;
+    }
+
+    /**
+     * @see #context(byte[])
+     */
+    public Context context(Key key) throws CosmianException {
+        return context(key.bytes());
+    }
+
+    /**
+     * A per thread buffer which can be used for temporary plaintexts. Its content is overwritten by the next call.
+     *
+     * @param minLength the minimum length of the buffer
+     * @return the buffer
+     */
+    byte[] scratch(int minLength) {
+        if (this.scratch.length < minLength) {
+            this.scratch = new byte[minLength];
+        }
+        return this.scratch;
+    }
+
+    /**
+     * The HMAC and AES contexts pre-initialized with a key
+     */
+    public final class Context {
+
+        private final Mac mac;
+
+        private final SecretKeySpec aesKey;
+
+        private Context(byte[] key) throws CosmianException {
+            try {
+                this.mac = Mac.getInstance("HmacSHA256");
+                this.mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new CosmianException("failed initializing HMAC SHA256: " + e.getMessage(), e);
+            }
+            this.aesKey = new SecretKeySpec(key, "AES");
+        }
+
+        /**
+         * Compute the HMAC-SHA256 of the data and write its {@value SseCrypto#HMAC_LENGTH} bytes to out
+         *
+         * @throws CosmianException if out is too small
+         */
+        public void hmac(byte[] data, int offset, int length, byte[] out, int outOffset) throws CosmianException {
+            try {
+                this.mac.update(data, offset, length);
+                this.mac.doFinal(out, outOffset);
+            } catch (GeneralSecurityException e) {
+                throw new CosmianException("failed computing the HMAC: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Derive a new {@link Key} as HMAC(key, data)
+         *
+         * @param data the derivation data
+         * @return the derived key
+         * @throws CosmianException if the computation fails
+         */
+        public Key derive(byte[] data) throws CosmianException {
+            byte[] out = new byte[HMAC_LENGTH];
+            hmac(data, 0, data.length, out, 0);
+            return Key.wrap(out);
+        }
+
+        /**
+         * Encrypt the plaintext and write nonce || ciphertext || tag to out
+         *
+         * @return the number of bytes written i.e. length + {@value SseCrypto#OVERHEAD}
+         * @throws CosmianException if encryption fails or out is too small
+         */
+        public int encrypt(byte[] plaintext, int offset, int length, byte[] out, int outOffset)
+            throws CosmianException {
+            try {
+                SECURE_RANDOM.nextBytes(nonce);
+                System.arraycopy(nonce, 0, out, outOffset, NONCE_LENGTH);
+                cipher.init(Cipher.ENCRYPT_MODE, this.aesKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+                return NONCE_LENGTH + cipher.doFinal(plaintext, offset, length, out, outOffset + NONCE_LENGTH);
+            } catch (GeneralSecurityException e) {
+                throw new CosmianException("Failed encrypting: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Encrypt the plaintext into a new array of exactly the needed size
+         */
+        public byte[] encrypt(byte[] plaintext) throws CosmianException {
+            byte[] out = new byte[plaintext.length + OVERHEAD];
+            encrypt(plaintext, 0, plaintext.length, out, 0);
+            return out;
+        }
+
+        /**
+         * Decrypt nonce || ciphertext || tag and write the plaintext to out
+         *
+         * @return the number of bytes written i.e. length - {@value SseCrypto#OVERHEAD}
+         * @throws CosmianException if decryption or authentication fails
+         */
+        public int decrypt(byte[] ciphertext, int offset, int length, byte[] out, int outOffset)
+            throws CosmianException {
+            if (length < OVERHEAD) {
+                throw new CosmianException("Failed decrypting: the ciphertext is too short");
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, this.aesKey,
+                    new GCMParameterSpec(TAG_LENGTH * 8, ciphertext, offset, NONCE_LENGTH));
+                return cipher.doFinal(ciphertext, offset + NONCE_LENGTH, length - NONCE_LENGTH, out, outOffset);
+            } catch (GeneralSecurityException e) {
+                throw new CosmianException("Failed decrypting: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Decrypt the ciphertext into a new array of exactly the needed size
+         */
+        public byte[] decrypt(byte[] ciphertext) throws CosmianException {
+            byte[] out = new byte[Math.max(0, ciphertext.length - OVERHEAD)];
+            decrypt(ciphertext, 0, ciphertext.length, out, 0);
+            return out;
+        }
+    }
+
+}
@@ -20,18 +20,30 @@ public class SseFinder {
 
     public static Set<byte[]> find(Set<Word> words, boolean disjunction, Key k, DseDB.Configuration dseConf)
         throws AppException {
+        return find(words, disjunction, k, dseConf, new SseConfiguration());
+    }
+
+    public static Set<byte[]> find(Set<Word> words, boolean disjunction, Key k, DseDB.Configuration dseConf,
+        SseConfiguration sseConf) throws AppException {
 
         HashMap<Word, Set<DbUid>> result;
         try (DseDB dseDb = new DseDB(dseConf)) {
             try {
-                result = Sse.bulkRetrieve(k, words, dseDb);
+                ChainTableCache chainCache = sseConf.getChainCache();
+                if (chainCache == null) {
+                    result = Sse.bulkRetrieve(k, words, dseDb, sseConf);
+                } else {
+                    result = Sse.bulkRetrieve(k, words, new CachingDBInterface(dseDb, chainCache), sseConf);
+                    logger.fine(() -> chainCache.toString());
+                }
             } catch (CosmianException e) {
                 throw new AppException("failed querying the SSE index: " + e.getMessage(), e);
             }
         } catch (CosmianException e) {
             throw new AppException("Failed initializing the SSE DB: " + e.getMessage(), e);
         }
-        logger.fine(() -> "found results for " + result.size() + " word(s)");
+        logger.fine(() -> "found results for " + result.values().stream().filter(s -> !s.isEmpty()).count() + " of "
+            + result.size() + " word(s)");
 
         if (disjunction) {
             final Set<byte[]> set = new HashSet<byte[]>();
@@ -2,6 +2,9 @@ package com.cosmian.cloudproof_demo.sse;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -20,29 +23,82 @@ public class SseUpserter implements AutoCloseable, Serializable {
     // So say we want to run insert batches of
     final int SSE_BATCH = 100;
 
-    private final Key k;
+    private final SseConfiguration sseConf;
 
-    private final Key kStar;
+    private final WordKeyMemo memo;
 
-    private final DseDB sseDb;
+    private final EntryTableValueCache writeBack;
+
+    private final RetryPolicy retry;
+
+    // the counters already recorded in the benchmarks
+    private final HashMap<String, Long> recordedCounters = new HashMap<>();
+
+    private final DBInterface sseDb;
+
+    // the DB opened by this upserter, closed with it
+    private final DseDB ownedDb;
 
     private final Optional<Benchmarks> benchmarks;
 
     private final HashMap<DbUid, Set<Word>> dbUidToWords;
 
+    // the postings of the hot words held across batches
+    private final HashMap<Word, HeldPostings> hotWords = new HashMap<>();
+
     public SseUpserter(Key k, Key kStar, DseDB.Configuration dseConf, Optional<Benchmarks> benchmarks)
         throws AppException {
-        this.k = k;
-        this.kStar = kStar;
+        this(k, kStar, dseConf, new SseConfiguration(), benchmarks);
+    }
+
+    public SseUpserter(Key k, Key kStar, DseDB.Configuration dseConf, SseConfiguration sseConf,
+        Optional<Benchmarks> benchmarks) throws AppException {
+        this(k, kStar, open(dseConf), sseConf, benchmarks, true);
+    }
+
+    /**
+     * An upserter of the indexes of a DB which is not closed with the upserter
+     *
+     * @param k the main symmetric key
+     * @param kStar the symmetric key known to the updater only
+     * @param db the DB of the indexes
+     * @param sseConf the SSE configuration
+     * @param benchmarks the benchmarks the upserts are recorded in
+     * @throws AppException if the keys cannot be derived
+     */
+    public SseUpserter(Key k, Key kStar, DBInterface db, SseConfiguration sseConf, Optional<Benchmarks> benchmarks)
+        throws AppException {
+        this(k, kStar, db, sseConf, benchmarks, false);
+    }
+
+    private SseUpserter(Key k, Key kStar, DBInterface db, SseConfiguration sseConf, Optional<Benchmarks> benchmarks,
+        boolean owned) throws AppException {
+        this.sseConf = sseConf;
         try {
-            this.sseDb = new DseDB(dseConf);
+            this.memo = new WordKeyMemo(k, kStar, sseConf.getWordMemoSize());
         } catch (CosmianException e) {
-            throw new AppException("Failed initializing the SSE DB: " + e.getMessage(), e);
+            if (owned) {
+                ((DseDB) db).close();
+            }
+            throw new AppException("Failed deriving the SSE keys: " + e.getMessage(), e);
         }
+        this.writeBack =
+            sseConf.getWriteBackSize() > 0 ? new EntryTableValueCache(sseConf.getWriteBackSize()) : null;
+        this.retry = new RetryPolicy(sseConf);
+        this.sseDb = db;
+        this.ownedDb = owned ? (DseDB) db : null;
         this.benchmarks = benchmarks;
         this.dbUidToWords = new HashMap<>();
     }
 
+    private static DseDB open(DseDB.Configuration dseConf) throws AppException {
+        try {
+            return new DseDB(dseConf);
+        } catch (CosmianException e) {
+            throw new AppException("Failed initializing the SSE DB: " + e.getMessage(), e);
+        }
+    }
+
     public void upsert(byte[] uid, Set<Word> words) throws AppException {
 
         dbUidToWords.put(new DbUid(uid), words);
@@ -50,40 +106,144 @@ public class SseUpserter implements AutoCloseable, Serializable {
         // the index values are upserted in a batch; this mixes data for the server and
         // provides additional statistical security
         if (dbUidToWords.size() == SSE_BATCH) {
-            try {
-                long[] times = Sse.bulkUpsert(this.k, this.kStar, dbUidToWords, this.sseDb);
-                if (benchmarks.isPresent()) {
-                    benchmarks.get().record("record_sse_crypto", SSE_BATCH, times[0]);
-                    benchmarks.get().record("record_sse_db", SSE_BATCH, times[1]);
-                }
-            } catch (CosmianException e) {
-                throw new AppException("Failed upserting the indexes: " + e.getMessage(), e);
-            }
-            dbUidToWords.clear();
+            flushBatch(false);
         }
 
     }
 
     @Override
     public void close() throws AppException {
-        // flush the remaining SSE indexes
-        if (dbUidToWords.size() >= 0) {
-            try {
-                long[] times = Sse.bulkUpsert(this.k, this.kStar, dbUidToWords, this.sseDb);
-                if (benchmarks.isPresent()) {
-                    benchmarks.get().record("record_sse_crypto", dbUidToWords.size(), times[0]);
-                    benchmarks.get().record("record_sse_db", dbUidToWords.size(), times[1]);
+        // flush the remaining SSE indexes and the held hot words
+        flushBatch(true);
+        if (this.ownedDb != null) {
+            this.ownedDb.close();
+        }
+    }
+
+    /**
+     * Flush the current batch. When hot words are enabled, their postings are moved to the held ones and the hot words
+     * which reached their maximum number of postings or age are flushed in a single upsert.
+     *
+     * @param all true to flush all the held hot words
+     */
+    private void flushBatch(boolean all) throws AppException {
+        int numRecords = dbUidToWords.size();
+        Map<DbUid, Set<Word>> batch = this.sseConf.getHotWordThreshold() > 0 ? holdHotWords() : dbUidToWords;
+        upsert(batch, numRecords);
+        dbUidToWords.clear();
+
+        long now = System.currentTimeMillis();
+        HashMap<DbUid, Set<Word>> due = new HashMap<>();
+        Iterator<Map.Entry<Word, HeldPostings>> it = this.hotWords.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Word, HeldPostings> entry = it.next();
+            HeldPostings held = entry.getValue();
+            if (all || held.dbUids.size() >= this.sseConf.getHotWordMaxPostings()
+                || now - held.since >= this.sseConf.getHotWordMaxAgeMs()) {
+                for (DbUid dbUid : held.dbUids) {
+                    due.computeIfAbsent(dbUid, d -> new HashSet<>()).add(entry.getKey());
+                }
+                it.remove();
+            }
+        }
+        if (due.size() > 0) {
+            // the records were already counted with their batch
+            upsert(due, 0);
+            benchmarks.ifPresent(b -> b.increment("sse_hot_word_flushes", 1));
+        }
+    }
+
+    /**
+     * Move the postings of the hot words of the current batch to the held ones: the words found in at least the
+     * threshold number of records, and the words already held.
+     *
+     * @return the batch without the hot words
+     */
+    private Map<DbUid, Set<Word>> holdHotWords() {
+        HashMap<Word, Integer> occurrences = new HashMap<>();
+        for (Set<Word> words : dbUidToWords.values()) {
+            for (Word word : words) {
+                occurrences.merge(word, 1, Integer::sum);
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Word, Integer> entry : occurrences.entrySet()) {
+            if (entry.getValue() >= this.sseConf.getHotWordThreshold()) {
+                this.hotWords.computeIfAbsent(entry.getKey(), w -> new HeldPostings(now));
+            }
+        }
+        if (this.hotWords.isEmpty()) {
+            return dbUidToWords;
+        }
+        HashMap<DbUid, Set<Word>> cold = new HashMap<>(dbUidToWords.size() * 2);
+        for (Map.Entry<DbUid, Set<Word>> entry : dbUidToWords.entrySet()) {
+            Set<Word> coldWords = new HashSet<>(entry.getValue().size() * 2);
+            for (Word word : entry.getValue()) {
+                HeldPostings held = this.hotWords.get(word);
+                if (held == null) {
+                    coldWords.add(word);
+                } else {
+                    held.dbUids.add(entry.getKey());
                 }
+            }
+            if (coldWords.size() > 0) {
+                cold.put(entry.getKey(), coldWords);
+            }
+        }
+        return cold;
+    }
 
-            } catch (CosmianException e) {
-                throw new AppException("Failed upserting the indexes: " + e.getMessage(), e);
+    private void upsert(Map<DbUid, Set<Word>> batch, int numRecords) throws AppException {
+        try {
+            long[] times = Sse.bulkUpsert(batch, this.sseDb, this.sseConf, this.memo, this.writeBack, this.retry);
+            if (benchmarks.isPresent()) {
+                benchmarks.get().record("record_sse_crypto", numRecords, times[0]);
+                benchmarks.get().record("record_sse_db", numRecords, times[1]);
+                recordCounters(benchmarks.get());
             }
+        } catch (CosmianException e) {
+            throw new AppException("Failed upserting the indexes: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Record the word memo, write-back cache and retry counters since the last call
+     */
+    private void recordCounters(Benchmarks benchmarks) {
+        recordCounter(benchmarks, "sse_word_memo_hits", this.memo.getHits());
+        recordCounter(benchmarks, "sse_word_memo_misses", this.memo.getMisses());
+        recordCounter(benchmarks, "sse_update_conflicts", this.retry.getConflicts());
+        recordCounter(benchmarks, "sse_update_retries", this.retry.getRetries());
+        recordCounter(benchmarks, "sse_retry_backoff_ms", this.retry.getBackoffMs());
+        if (this.writeBack != null) {
+            recordCounter(benchmarks, "sse_write_back_hits", this.writeBack.getHits());
+            recordCounter(benchmarks, "sse_write_back_misses", this.writeBack.getMisses());
+            recordCounter(benchmarks, "sse_write_back_conflicts", this.writeBack.getConflicts());
+        }
+    }
+
+    private void recordCounter(Benchmarks benchmarks, String counter, long value) {
+        Long recorded = this.recordedCounters.put(counter, value);
+        benchmarks.increment(counter, value - (recorded == null ? 0 : recorded));
+    }
+
+    /**
+     * The postings of a hot word held since a given time
+     */
+    private static class HeldPostings implements Serializable {
+
+        final long since;
+
+        final Set<DbUid> dbUids = new HashSet<>();
+
+        HeldPostings(long since) {
+            this.since = since;
         }
-        this.sseDb.close();
     }
 
     /**
-     * Truncate the index
+     * Truncate the index. The {@link ChainTableCache} of the searches must be cleared: a reindex under the same keys
+     * writes other DB Uids under the same chain table keys.
      * 
      * @param dseConf
      * @throws AppException
@@ -0,0 +1,149 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * A memo of the deterministic derivations of a key set (K, K*): the keys K₁ and K₂ and, for the most recently used
+ * words, H(K₁, wᵢ), Kwᵢ = H(K*, wᵢ) and the first chain key H(Kwᵢ, wᵢ). Frequent words are then hashed and derived
+ * once instead of once per batch.
+ * <p>
+ * The memo is thread safe.
+ */
+public class WordKeyMemo {
+
+    private final Key kStar;
+
+    private final Key k1;
+
+    private final Key k2;
+
+    private final LinkedHashMap<Word, WordKeys> memo;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * @param k the main symmetric key
+     * @param kStar the symmetric key known to the updater only, null if the memo is only used for searches
+     * @param capacity the maximum number of memoized words; 0 only memoizes K₁ and K₂
+     * @throws CosmianException if the keys cannot be derived
+     */
+    public WordKeyMemo(Key k, Key kStar, int capacity) throws CosmianException {
+        this.kStar = kStar;
+        SseCrypto.Context kContext = SseCrypto.get().context(k);
+        this.k1 = kContext.derive(Sse.K1_SALT);
+        this.k2 = kContext.derive(Sse.K2_SALT);
+        this.memo = new LinkedHashMap<Word, WordKeys>(Math.min(capacity, 1024) * 2, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Word, WordKeys> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the key K₁ = H(K, K1_SALT)
+     */
+    Key k1() {
+        return k1;
+    }
+
+    /**
+     * @return the key K₂ = H(K, K2_SALT)
+     */
+    Key k2() {
+        return k2;
+    }
+
+    /**
+     * Get the derivations of a word, computing its hash if it is not memoized
+     *
+     * @param wi the word
+     * @return the {@link WordKeys} of the word
+     * @throws CosmianException if the hash cannot be computed
+     */
+    WordKeys get(Word wi) throws CosmianException {
+        synchronized (this) {
+            WordKeys keys = this.memo.get(wi);
+            if (keys != null) {
+                this.hits++;
+                return keys;
+            }
+            this.misses++;
+        }
+        WordKeys keys = new WordKeys(wi, wi.hash(SseCrypto.get().context(this.k1)));
+        synchronized (this) {
+            this.memo.put(wi, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of words found in the memo
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of words which had to be hashed
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The derivations of a word. Kwᵢ and the first chain key are only computed when first needed i.e. when the word
+     * is not yet in the Entry Table.
+     */
+    class WordKeys {
+
+        private final Word wi;
+
+        final WordHash hash;
+
+        private volatile Key kwi;
+
+        private volatile Key r0;
+
+        WordKeys(Word wi, WordHash hash) {
+            this.wi = wi;
+            this.hash = hash;
+        }
+
+        /**
+         * @return Kwᵢ = H(K*, wᵢ)
+         */
+        Key kwi() throws CosmianException {
+            Key kwi = this.kwi;
+            if (kwi == null) {
+                if (kStar == null) {
+                    throw new CosmianException("Kwᵢ cannot be derived without the key K*");
+                }
+                kwi = SseCrypto.get().context(kStar).derive(this.wi.bytes());
+                this.kwi = kwi;
+            }
+            return kwi;
+        }
+
+        /**
+         * @return the first key of the chain r = H(Kwᵢ, wᵢ)
+         */
+        Key r0() throws CosmianException {
+            Key r0 = this.r0;
+            if (r0 == null) {
+                r0 = SseCrypto.get().context(kwi()).derive(this.wi.bytes());
+                this.r0 = r0;
+            }
+            return r0;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.sse.DBEntryTableRecord;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+
+/**
+ * The statements of {@link DseDB} run on a {@link FakeSession}
+ */
+public class DseFakeSessionTest {
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    /**
+     * A configuration of its own, so that the session of the test is not shared with the other tests
+     */
+    private static DseDB.Configuration configuration(String test) {
+        return new DseDB.Configuration("fake-" + test, 9042, "dc1", null, null, "fake");
+    }
+
+    private static Map<Key, byte[]> chainEntries(Random rd, int entries) {
+        Map<Key, byte[]> chainEntries = new HashMap<>(entries * 2);
+        for (int i = 0; i < entries; i++) {
+            byte[] value = new byte[16];
+            rd.nextBytes(value);
+            chainEntries.put(new Key(rd), value);
+        }
+        return chainEntries;
+    }
+
+    private static void assertEntries(Map<Key, byte[]> expected, Map<Key, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Key, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * The keys bound to a select or a write of the Chain Table, as routing keys
+     */
+    private static List<ByteBuffer> routingKeys(List<Object> keys) {
+        List<ByteBuffer> routingKeys = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            routingKeys.add(key instanceof ByteBuffer ? ((ByteBuffer) key).duplicate()
+                : ByteBuffer.wrap(((String) key).getBytes(StandardCharsets.UTF_8)));
+        }
+        return routingKeys;
+    }
+
+    /**
+     * The Chain Table keys are read in chunks of at most the read chunk size, grouped by replicas and routed to them
+     * when the token map is known, with at most the maximum number of reads in flight. The rows of the chunks are
+     * streamed page by page.
+     */
+    @Test
+    public void testChunkedReads() throws Exception {
+        Random rd = new Random(5);
+        Map<Key, byte[]> entries = chainEntries(rd, 100);
+        Set<Key> keys = new HashSet<>(entries.keySet());
+        for (int i = 0; i < 50; i++) {
+            keys.add(new Key(rd));
+        }
+        for (boolean tokenMap : new boolean[] {false, true}) {
+            FakeSession fake = new FakeSession(2);
+            if (tokenMap) {
+                fake.withReplicas(3);
+            }
+            for (DseDB.StorageFormat format : DseDB.StorageFormat.values()) {
+                for (int chunkSize : new int[] {1, 7, 1000}) {
+                    DseDB.Configuration configuration = configuration("reads-" + tokenMap).withStorageFormat(format)
+                        .withReadChunkSize(chunkSize).withMaxReadsInFlight(4);
+                    try (DseDB db = new DseDB(configuration, fake.connector())) {
+                        db.upsertChainTableEntries(entries);
+                        fake.executed.clear();
+                        fake.maxInFlight.set(0);
+                        assertEntries(entries, db.getChainTableEntriesByKey(keys));
+
+                        String select = "SELECT key, ciphertext from fake." + format.chainTable + " WHERE key IN ?;";
+                        List<FakeSession.Executed> selects = fake.executed(select);
+                        assertEquals(fake.executed.size(), selects.size());
+                        int selected = 0;
+                        for (FakeSession.Executed statement : selects) {
+                            @SuppressWarnings("unchecked")
+                            List<Object> chunk = (List<Object>) statement.values.get(0);
+                            assertTrue(chunk.size() <= chunkSize);
+                            selected += chunk.size();
+                            List<ByteBuffer> routingKeys = routingKeys(chunk);
+                            assertEquals(routingKeys.get(0), statement.routingKey);
+                            if (tokenMap) {
+                                for (ByteBuffer routingKey : routingKeys) {
+                                    assertEquals(fake.replicas(statement.routingKey), fake.replicas(routingKey));
+                                }
+                            }
+                        }
+                        assertEquals(keys.size(), selected);
+                        if (!tokenMap) {
+                            assertEquals((keys.size() + chunkSize - 1) / chunkSize, selects.size());
+                        }
+                        assertTrue(fake.maxInFlight.get() <= 4);
+                        assertTrue(selects.size() == 1 || fake.maxInFlight.get() > 1);
+                    }
+                }
+            }
+            assertEquals(1, fake.connections.get());
+        }
+    }
+
+    /**
+     * The Chain Table entries are written concurrently, with at most the maximum number of writes in flight: as
+     * single partition inserts with ASYNC, as unlogged batches of the entries sharing the same replicas with
+     * UNLOGGED, and as a single logged batch with LOGGED
+     */
+    @Test
+    public void testChainWrites() throws Exception {
+        Random rd = new Random(7);
+        FakeSession fake = new FakeSession(2).withReplicas(3);
+        String insert = "INSERT INTO fake.chain_table_v2 (key, ciphertext) VALUES (:key, :ciphertext)";
+        long rows = 0;
+        for (DseDB.ChainWriteStrategy strategy : DseDB.ChainWriteStrategy.values()) {
+            DseDB.Configuration configuration = configuration("writes").withStorageFormat(DseDB.StorageFormat.V2)
+                .withChainWriteStrategy(strategy).withMaxWritesInFlight(4).withWriteBatchSize(10);
+            try (DseDB db = new DseDB(configuration, fake.connector())) {
+                fake.executed.clear();
+                fake.maxInFlight.set(0);
+                Map<Key, byte[]> entries = chainEntries(rd, 200);
+                db.upsertChainTableEntries(entries);
+                int inFlight = fake.maxInFlight.get();
+                rows += entries.size();
+                assertEntries(entries, db.getChainTableEntriesByKey(entries.keySet()));
+                assertEquals(rows, fake.table("fake.chain_table_v2").size());
+                assertEquals(rows, fake.counter("chain_table_v2"));
+                assertEquals(entries.size(), fake.executed(insert).size());
+
+                List<FakeSession.Executed> writes = new ArrayList<>();
+                for (FakeSession.Executed statement : fake.executed) {
+                    if (insert.equals(statement.cql) || statement.batch != null) {
+                        writes.add(statement);
+                    }
+                }
+                switch (strategy) {
+                    case LOGGED:
+                        assertEquals(1, writes.size());
+                        assertEquals(entries.size(), writes.get(0).batch.size());
+                        break;
+                    case UNLOGGED:
+                        assertTrue(writes.size() >= entries.size() / 10);
+                        for (FakeSession.Executed batch : writes) {
+                            assertTrue(batch.batch.size() <= 10);
+                            for (FakeSession.Executed statement : batch.batch) {
+                                assertEquals(fake.replicas(batch.routingKey),
+                                    fake.replicas(routingKeys(statement.values.subList(0, 1)).get(0)));
+                            }
+                        }
+                        assertTrue(inFlight > 1 && inFlight <= 4);
+                        break;
+                    case ASYNC:
+                    default:
+                        assertEquals(entries.size(), writes.size());
+                        assertTrue(inFlight > 1 && inFlight <= 4);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The V1 tables are copied to the V2 tables page by page, with at most the maximum number of writes in flight,
+     * and the statistics of the V2 tables are set to the copied rows
+     */
+    @Test
+    public void testMigrateToV2() throws Exception {
+        Random rd = new Random(11);
+        FakeSession fake = new FakeSession(1);
+        DseDB.Configuration v1 = configuration("migrate").withMaxWritesInFlight(4);
+        Map<WordHash, byte[]> entryTable = new HashMap<>();
+        Map<Object, Map<String, Object>> v1EntryTable = fake.table("fake.entry_table");
+        for (int i = 0; i < 50; i++) {
+            WordHash wordHash = new WordHash(rd, 32);
+            byte[] ciphertext = new byte[48];
+            rd.nextBytes(ciphertext);
+            entryTable.put(wordHash, ciphertext);
+            Map<String, Object> row = new HashMap<>();
+            row.put("key", wordHash.toString());
+            row.put("revision", i);
+            row.put("ciphertext", ByteBuffer.wrap(ciphertext));
+            v1EntryTable.put(wordHash.toString(), row);
+        }
+        Map<Key, byte[]> chainTable = chainEntries(rd, 200);
+        try (DseDB db = new DseDB(v1, fake.connector())) {
+            db.upsertChainTableEntries(chainTable);
+            fake.executed.clear();
+            fake.maxInFlight.set(0);
+            assertArrayEquals(new long[] {50, 200}, db.migrateToV2());
+        }
+        // a single scan of each table, whose pages are written while the next ones are fetched
+        assertEquals(1, fake.executed("SELECT key, revision, ciphertext FROM fake.entry_table;").size());
+        assertEquals(1, fake.executed("SELECT key, ciphertext FROM fake.chain_table;").size());
+        assertEquals(50, fake.executed("INSERT INTO fake.entry_table_v2 (key, revision, ciphertext) "
+            + "VALUES (:key, :revision, :ciphertext)").size());
+        assertEquals(200,
+            fake.executed("INSERT INTO fake.chain_table_v2 (key, ciphertext) VALUES (:key, :ciphertext)").size());
+        assertTrue(fake.maxInFlight.get() > 1 && fake.maxInFlight.get() <= 4);
+        assertTrue(fake.queries.contains("CREATE TABLE IF NOT EXISTS fake.chain_table_v2 (key blob , ciphertext blob, "
+            + "PRIMARY KEY(key));"));
+
+        DseDB.Configuration v2 = configuration("migrate").withStorageFormat(DseDB.StorageFormat.V2);
+        try (DseDB db = new DseDB(v2, fake.connector())) {
+            Map<WordHash, DBEntryTableRecord> copied = db.getEntryTableEntries(entryTable.keySet());
+            assertEquals(entryTable.keySet(), copied.keySet());
+            for (Map.Entry<WordHash, DBEntryTableRecord> entry : copied.entrySet()) {
+                assertArrayEquals(entryTable.get(entry.getKey()), entry.getValue().getEncryptedValue());
+                assertEquals(v1EntryTable.get(entry.getKey().toString()).get("revision"),
+                    entry.getValue().getRevision());
+            }
+            assertEntries(chainTable, db.getChainTableEntriesByKey(chainTable.keySet()));
+            assertEquals(50, db.stats().getEntryTableRows());
+            assertEquals(200, db.stats().getChainTableRows());
+        }
+        assertEquals(1, fake.connections.get());
+    }
+
+    /**
+     * The statements of each operation are executed with its driver execution profile and idempotence
+     */
+    @Test
+    public void testExecutionProfiles() throws Exception {
+        Random rd = new Random(13);
+        FakeSession fake = new FakeSession();
+        DseDB.Configuration configuration = configuration("profiles").withStorageFormat(DseDB.StorageFormat.V2)
+            .withProfile(DseDB.Operation.ENTRY_READ, new DseDB.ExecutionProfile(false))
+            .withChainWriteStrategy(DseDB.ChainWriteStrategy.UNLOGGED);
+        assertThrows(IllegalArgumentException.class,
+            () -> configuration.withProfile(DseDB.Operation.ENTRY_LWT, new DseDB.ExecutionProfile(true)));
+        assertThrows(IllegalArgumentException.class,
+            () -> new DseDB.ExecutionProfile(false).withSpeculativeExecutions(2, 10));
+
+        Map<WordHash, DBEntryTableRecord> entries = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] ciphertext = new byte[48];
+            rd.nextBytes(ciphertext);
+            entries.put(new WordHash(rd, 32), new DseDB.DseEntryTableRecord(0, ciphertext));
+        }
+        Map<WordHash, DBEntryTableRecord> updates = new HashMap<>();
+        for (Map.Entry<WordHash, DBEntryTableRecord> entry : entries.entrySet()) {
+            updates.put(entry.getKey(), new DseDB.DseEntryTableRecord(1, entry.getValue().getEncryptedValue()));
+        }
+        try (DseDB db = new DseDB(configuration, fake.connector())) {
+            // the conditional updates are applied once
+            assertFalse(db.upsertEntryTableEntries(entries).containsValue(false));
+            assertFalse(db.upsertEntryTableEntries(entries).containsValue(true));
+            assertFalse(db.upsertEntryTableEntries(updates).containsValue(false));
+            assertFalse(db.upsertEntryTableEntries(updates).containsValue(true));
+            assertEquals(entries.keySet(), db.getEntryTableEntries(entries.keySet()).keySet());
+            Map<Key, byte[]> chainEntries = chainEntries(rd, 20);
+            db.upsertChainTableEntries(chainEntries);
+            assertEntries(chainEntries, db.getChainTableEntriesByKey(chainEntries.keySet()));
+        }
+
+        Map<DseDB.Operation, Integer> statements = new HashMap<>();
+        for (FakeSession.Executed statement : fake.executed) {
+            if (statement.profile == null) {
+                // the updates of the statistics
+                assertTrue(statement.cql.contains("index_stats"));
+                continue;
+            }
+            DseDB.Operation operation = null;
+            for (DseDB.Operation o : DseDB.Operation.values()) {
+                if (o.profileName.equals(statement.profile)) {
+                    operation = o;
+                }
+            }
+            assertEquals(configuration.getProfile(operation).isIdempotent(), statement.idempotent);
+            statements.merge(operation, 1, Integer::sum);
+        }
+        assertEquals(40, statements.get(DseDB.Operation.ENTRY_LWT));
+        assertEquals(1, statements.get(DseDB.Operation.ENTRY_READ));
+        assertEquals(1, statements.get(DseDB.Operation.CHAIN_WRITE));
+        assertEquals(1, statements.get(DseDB.Operation.CHAIN_READ));
+    }
+}
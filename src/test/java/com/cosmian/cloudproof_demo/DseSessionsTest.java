@@ -0,0 +1,51 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class DseSessionsTest {
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    private static DseDB.Configuration configuration(String ip) {
+        return new DseDB.Configuration(ip, 9042, "dc1", null, null, "fake");
+    }
+
+    /**
+     * A configuration modified after it acquired its session still shares and releases it
+     */
+    @Test
+    public void testModifiedConfiguration() throws Exception {
+        FakeSession fake = new FakeSession();
+        DseDB.Configuration configuration = configuration("fake-modified");
+        DseDB db = new DseDB(configuration, fake.connector());
+        configuration.withCompression(true).getProfile(DseDB.Operation.CHAIN_READ).withSpeculativeExecutions(2, 10);
+
+        // the session stays the one of the settings it was opened with
+        DseDB same = new DseDB(configuration("fake-modified"), fake.connector());
+        assertSame(db.session, same.session);
+        assertEquals(1, fake.connections.get());
+        DseDB modified = new DseDB(configuration, fake.connector());
+        assertNotSame(db.session, modified.session);
+        assertEquals(2, fake.connections.get());
+
+        // the released sessions linger: they are acquired again without reconnecting
+        db.close();
+        same.close();
+        modified.close();
+        DseDB again = new DseDB(configuration("fake-modified"), fake.connector());
+        assertSame(db.session, again.session);
+        again.close();
+        assertEquals(2, fake.connections.get());
+        assertEquals(0, fake.closed.get());
+    }
+}
@@ -108,6 +108,7 @@ public class DseTest {
                 generateEntryTableEntries(rd, WordHash.class, NUM_ENTRIES, 32);
             Map<WordHash, Boolean> firstInsertResults = db.upsertEntryTableEntries(entryTableEntries);
             assertEquals(NUM_ENTRIES, db.entryTableSize());
+            assertEquals(NUM_ENTRIES, db.stats().getEntryTableRows());
             assertEquals(NUM_ENTRIES, firstInsertResults.size());
             firstInsertResults.values().stream().forEach(b -> assertEquals(true, b));
 
@@ -150,12 +151,16 @@ public class DseTest {
             Map<WordHash, Boolean> secondUpdateResults = db.upsertEntryTableEntries(updatedEntryTableEntries);
             assertEquals(NUM_ENTRIES, secondUpdateResults.size());
             secondUpdateResults.values().stream().forEach(b -> assertEquals(false, b));
+            // updates do not add keywords
+            assertEquals(NUM_ENTRIES, db.stats().getKeywords());
 
             // Chain Table
             db.truncateChainTable();
             HashMap<Key, byte[]> chainTableEntries = generateByteEntries(rd, Key.class, NUM_ENTRIES, 32);
             db.upsertChainTableEntries(chainTableEntries);
             assertEquals(NUM_ENTRIES, db.chainTableSize());
+            assertEquals(NUM_ENTRIES, db.stats().getChainTableRows());
+            assertEquals(1.0, db.stats().getAverageChainLength());
 
             Set<byte[]> chainResults = db.getChainTableEntries(chainTableEntries.keySet());
             Collection<byte[]> originals = chainTableEntries.values();
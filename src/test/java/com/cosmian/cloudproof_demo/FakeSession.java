@@ -0,0 +1,489 @@
+package com.cosmian.cloudproof_demo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.Metadata;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
+
+/**
+ * A {@link CqlSession} without a cluster, for the tests of {@link DseDB} which do not need DSE: the sessions are
+ * opened by the {@link DseSessions.Connector} of the fake and record the CQL queries executed.
+ * <p>
+ * The sessions hold the tables in memory and run the statements of {@link DseDB}: the selects by keys and full
+ * scans, the inserts, the conditional updates of the Entry Table and the statistics counters. The asynchronous
+ * statements complete after a latency, their results are paged by {@link #PAGE_SIZE} rows and the maximum number of
+ * statements in flight is recorded. When a number of replicas is set, the token map places each partition key on one
+ * of them.
+ */
+class FakeSession {
+
+    /**
+     * The number of rows of a result page
+     */
+    static final int PAGE_SIZE = 3;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(4, r -> {
+        Thread thread = new Thread(r, "fake-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Pattern SELECT_IN =
+        Pattern.compile("SELECT (.+) from (\\S+) WHERE key IN \\?;", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SELECT_ALL = Pattern.compile("SELECT (.+) FROM (\\S+);");
+
+    private static final Pattern INSERT =
+        Pattern.compile("INSERT INTO (\\S+) \\((.+?)\\) VALUES \\(.+?\\)( IF NOT EXISTS)?");
+
+    private static final Pattern UPDATE_REVISION = Pattern.compile("UPDATE (\\S+) SET revision = :new_revision, "
+        + "ciphertext = :ciphertext WHERE key = :key IF revision = :old_revision");
+
+    private static final Pattern INCREMENT =
+        Pattern.compile("UPDATE \\S+ SET row_count = row_count \\+ :delta WHERE table_name = :table_name");
+
+    private static final Pattern COUNTER = Pattern.compile("SELECT row_count FROM \\S+ WHERE table_name = :table_name");
+
+    final AtomicInteger connections = new AtomicInteger();
+
+    final AtomicInteger closed = new AtomicInteger();
+
+    final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+
+    final List<Executed> executed = Collections.synchronizedList(new ArrayList<>());
+
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // the rows of the tables by table and key, a row being its values by column
+    private final Map<String, Map<Object, Map<String, Object>>> tables = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> counters = new HashMap<>();
+
+    private final long latencyMs;
+
+    private List<Node> nodes = null;
+
+    FakeSession() {
+        this(0);
+    }
+
+    /**
+     * @param latencyMs the latency of the asynchronous statements
+     */
+    FakeSession(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Place the partition keys on replicas, in the token map of the sessions
+     *
+     * @param replicas the number of replicas
+     * @return this fake
+     */
+    FakeSession withReplicas(int replicas) {
+        List<Node> nodes = new ArrayList<>(replicas);
+        for (int i = 0; i < replicas; i++) {
+            nodes.add(proxy(Node.class, (node, method, args) -> identity(node, method.getName(), args)));
+        }
+        this.nodes = nodes;
+        return this;
+    }
+
+    /**
+     * @param routingKey a partition key
+     * @return the replicas of the partition key, see {@link #withReplicas(int)}
+     */
+    Set<Node> replicas(ByteBuffer routingKey) {
+        return Collections.singleton(this.nodes.get(Math.floorMod(routingKey.hashCode(), this.nodes.size())));
+    }
+
+    /**
+     * @param table the table, with its keyspace
+     * @return the rows of the table by key
+     */
+    Map<Object, Map<String, Object>> table(String table) {
+        return this.tables.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param table the table, without its keyspace
+     * @return the number of rows counted by the statistics of the table
+     */
+    synchronized long counter(String table) {
+        return this.counters.getOrDefault(table, 0L);
+    }
+
+    /**
+     * @param cql the prepared CQL
+     * @return the statements executed asynchronously with the prepared CQL, the statements of the batches included
+     */
+    List<Executed> executed(String cql) {
+        List<Executed> statements = new ArrayList<>();
+        synchronized (this.executed) {
+            for (Executed statement : this.executed) {
+                for (Executed bound : statement.batch == null ? Collections.singletonList(statement)
+                    : statement.batch) {
+                    if (cql.equals(bound.cql)) {
+                        statements.add(bound);
+                    }
+                }
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * @return a connector opening a new fake session
+     */
+    DseSessions.Connector connector() {
+        return configuration -> {
+            this.connections.incrementAndGet();
+            return proxy(CqlSession.class, (session, method, args) -> {
+                switch (method.getName()) {
+                    case "prepare":
+                        return prepare(args[0] instanceof String ? (String) args[0]
+                            : ((SimpleStatement) args[0]).getQuery());
+                    case "execute":
+                        if (args[0] instanceof String) {
+                            this.queries.add((String) args[0]);
+                            return resultSet(Collections.emptyList());
+                        }
+                        return resultSet(run(args[0]));
+                    case "executeAsync":
+                        return executeAsync(args[0]);
+                    case "getMetadata":
+                        return proxy(Metadata.class, (metadata, m, a) -> "getTokenMap".equals(m.getName())
+                            ? Optional.ofNullable(this.nodes == null ? null : tokenMap())
+                            : identity(metadata, m.getName(), a));
+                    case "close":
+                        this.closed.incrementAndGet();
+                        return null;
+                    default:
+                        return identity(session, method.getName(), args);
+                }
+            });
+        };
+    }
+
+    private TokenMap tokenMap() {
+        return proxy(TokenMap.class, (tokenMap, method, args) -> "getReplicas".equals(method.getName())
+            ? replicas((ByteBuffer) args[1]) : identity(tokenMap, method.getName(), args));
+    }
+
+    private PreparedStatement prepare(String cql) {
+        return proxy(PreparedStatement.class, (prepared, method, args) -> {
+            if ("bind".equals(method.getName())) {
+                Bound bound = new Bound(cql, Arrays.asList((Object[]) args[0]));
+                bound.statement = proxy(BoundStatement.class, bound);
+                return bound.statement;
+            }
+            return identity(prepared, method.getName(), args);
+        });
+    }
+
+    /**
+     * A statement bound to its values
+     */
+    private static class Bound implements InvocationHandler {
+
+        final String cql;
+
+        final List<Object> values;
+
+        BoundStatement statement;
+
+        ByteBuffer routingKey = null;
+
+        String profile = null;
+
+        Boolean idempotent = null;
+
+        Bound(String cql, List<Object> values) {
+            this.cql = cql;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "setRoutingKey":
+                    this.routingKey = args[0] instanceof ByteBuffer ? (ByteBuffer) args[0] : null;
+                    return this.statement;
+                case "getRoutingKey":
+                    return this.routingKey;
+                case "setExecutionProfileName":
+                    this.profile = (String) args[0];
+                    return this.statement;
+                case "setIdempotent":
+                    this.idempotent = (Boolean) args[0];
+                    return this.statement;
+                default:
+                    return identity(proxy, method.getName(), args);
+            }
+        }
+    }
+
+    /**
+     * A statement executed asynchronously: a bound statement or a batch of bound statements
+     */
+    static class Executed {
+
+        final String cql;
+
+        final List<Object> values;
+
+        final ByteBuffer routingKey;
+
+        final String profile;
+
+        final Boolean idempotent;
+
+        final List<Executed> batch;
+
+        private Executed(String cql, List<Object> values, ByteBuffer routingKey, String profile, Boolean idempotent,
+            List<Executed> batch) {
+            this.cql = cql;
+            this.values = values;
+            this.routingKey = routingKey;
+            this.profile = profile;
+            this.idempotent = idempotent;
+            this.batch = batch;
+        }
+
+        static Executed of(Object statement) {
+            if (statement instanceof BatchStatement) {
+                BatchStatement batch = (BatchStatement) statement;
+                List<Executed> statements = new ArrayList<>(batch.size());
+                for (BatchableStatement<?> bound : batch) {
+                    statements.add(of(bound));
+                }
+                return new Executed(null, Collections.emptyList(), batch.getRoutingKey(),
+                    batch.getExecutionProfileName(), batch.isIdempotent(), statements);
+            }
+            if (statement instanceof Statement) {
+                if (!Proxy.isProxyClass(statement.getClass())) {
+                    return new Executed(((SimpleStatement) statement).getQuery(), Collections.emptyList(), null,
+                        null, null, null);
+                }
+                Bound bound = (Bound) Proxy.getInvocationHandler(statement);
+                return new Executed(bound.cql, bound.values, bound.routingKey, bound.profile, bound.idempotent,
+                    null);
+            }
+            return new Executed((String) statement, Collections.emptyList(), null, null, null, null);
+        }
+    }
+
+    private CompletionStage<AsyncResultSet> executeAsync(Object statement) {
+        this.executed.add(Executed.of(statement));
+        this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+        CompletableFuture<AsyncResultSet> result = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> {
+            this.inFlight.decrementAndGet();
+            try {
+                result.complete(page(run(statement), 0));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, this.latencyMs, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Run a statement on the tables
+     *
+     * @return the selected rows
+     */
+    private List<List<Object>> run(Object statement) {
+        Executed executed = Executed.of(statement);
+        if (executed.batch != null) {
+            for (BatchableStatement<?> bound : (BatchStatement) statement) {
+                run(bound);
+            }
+            return Collections.emptyList();
+        }
+        String cql = executed.cql;
+        List<Object> values = executed.values;
+        Matcher matcher;
+        if (INCREMENT.matcher(cql).matches()) {
+            synchronized (this) {
+                this.counters.merge((String) values.get(1), ((Number) values.get(0)).longValue(), Long::sum);
+            }
+            return Collections.emptyList();
+        }
+        if (COUNTER.matcher(cql).matches()) {
+            synchronized (this) {
+                Long counter = this.counters.get((String) values.get(0));
+                return counter == null ? Collections.emptyList()
+                    : Collections.singletonList(Collections.singletonList(counter));
+            }
+        }
+        if ((matcher = SELECT_IN.matcher(cql)).matches()) {
+            Map<Object, Map<String, Object>> table = table(matcher.group(2));
+            List<List<Object>> rows = new ArrayList<>();
+            for (Object key : (List<?>) values.get(0)) {
+                Map<String, Object> row = table.get(key);
+                if (row != null) {
+                    rows.add(select(row, matcher.group(1)));
+                }
+            }
+            return rows;
+        }
+        if ((matcher = SELECT_ALL.matcher(cql)).matches()) {
+            List<List<Object>> rows = new ArrayList<>();
+            for (Map<String, Object> row : table(matcher.group(2)).values()) {
+                rows.add(select(row, matcher.group(1)));
+            }
+            return rows;
+        }
+        if ((matcher = INSERT.matcher(cql)).matches()) {
+            String[] columns = matcher.group(2).split(",\\s*");
+            Map<String, Object> row = new HashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                Object value = values.get(i);
+                row.put(columns[i], value instanceof ByteBuffer ? ((ByteBuffer) value).duplicate() : value);
+            }
+            if (matcher.group(3) == null) {
+                table(matcher.group(1)).put(row.get("key"), row);
+                return Collections.emptyList();
+            }
+            return applied(table(matcher.group(1)).putIfAbsent(row.get("key"), row) == null);
+        }
+        if ((matcher = UPDATE_REVISION.matcher(cql)).matches()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("key", values.get(2));
+            row.put("revision", values.get(0));
+            row.put("ciphertext", ((ByteBuffer) values.get(1)).duplicate());
+            Map<Object, Map<String, Object>> table = table(matcher.group(1));
+            synchronized (table) {
+                Map<String, Object> current = table.get(values.get(2));
+                boolean applied = current != null && current.get("revision").equals(values.get(3));
+                if (applied) {
+                    table.put(values.get(2), row);
+                }
+                return applied(applied);
+            }
+        }
+        throw new UnsupportedOperationException(cql);
+    }
+
+    /**
+     * The result of a conditional update: a row whose first column is [applied]
+     */
+    private static List<List<Object>> applied(boolean applied) {
+        return Collections.singletonList(Collections.singletonList(applied));
+    }
+
+    private static List<Object> select(Map<String, Object> row, String columns) {
+        List<Object> values = new ArrayList<>();
+        for (String column : columns.split(",\\s*")) {
+            Object value = row.get(column);
+            values.add(value instanceof ByteBuffer ? ((ByteBuffer) value).duplicate() : value);
+        }
+        return values;
+    }
+
+    private static AsyncResultSet page(List<List<Object>> rows, int from) {
+        List<Row> page = new ArrayList<>();
+        for (List<Object> values : rows.subList(from, Math.min(from + PAGE_SIZE, rows.size()))) {
+            page.add(row(values));
+        }
+        boolean more = from + PAGE_SIZE < rows.size();
+        return proxy(AsyncResultSet.class, (result, method, args) -> {
+            switch (method.getName()) {
+                case "currentPage":
+                    return page;
+                case "remaining":
+                    return page.size();
+                case "one":
+                    return page.isEmpty() ? null : page.get(0);
+                case "hasMorePages":
+                    return more;
+                case "fetchNextPage":
+                    if (!more) {
+                        throw new IllegalStateException("no more pages");
+                    }
+                    return CompletableFuture.supplyAsync(() -> page(rows, from + PAGE_SIZE), SCHEDULER);
+                case "wasApplied":
+                    return rows.isEmpty() || !(rows.get(0).get(0) instanceof Boolean) || (Boolean) rows.get(0).get(0);
+                default:
+                    return identity(result, method.getName(), args);
+            }
+        });
+    }
+
+    private static ResultSet resultSet(List<List<Object>> rows) {
+        return proxy(ResultSet.class, (result, method, args) -> "one".equals(method.getName())
+            ? (rows.isEmpty() ? null : row(rows.get(0))) : identity(result, method.getName(), args));
+    }
+
+    private static Row row(List<Object> values) {
+        return proxy(Row.class, (row, method, args) -> {
+            switch (method.getName()) {
+                case "get":
+                case "getString":
+                case "getByteBuffer":
+                    return values.get((int) args[0]);
+                case "getLong":
+                    return ((Number) values.get((int) args[0])).longValue();
+                case "isNull":
+                    return values.get((int) args[0]) == null;
+                default:
+                    return identity(row, method.getName(), args);
+            }
+        });
+    }
+
+    /**
+     * The methods of {@link Object} of a proxy
+     */
+    static Object identity(Object proxy, String method, Object[] args) {
+        switch (method) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "fake " + proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeSession.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
@@ -0,0 +1,291 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.extractor.RecordExtractor;
+import com.cosmian.cloudproof_demo.fs.OutputDirectory;
+import com.cosmian.cloudproof_demo.injector.OutputFile;
+import com.cosmian.cloudproof_demo.injector.RecordInjector;
+import com.cosmian.cloudproof_demo.injector.RecordPlan;
+import com.cosmian.cloudproof_demo.sse.InMemoryDB;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+import com.cosmian.cloudproof_demo.sse.SseUpserter;
+import com.cosmian.jna.cover_crypt.Ffi;
+import com.cosmian.rest.kmip.objects.PrivateKey;
+import com.cosmian.rest.kmip.objects.PublicKey;
+
+public class HeaderTableTest {
+
+    // the parts of the default plan and the row of Spain
+    static final int PARTS = 4;
+
+    static final int SPAIN = 1;
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @Test
+    public void testToBytesRead() throws Exception {
+        int encryptionCache = Ffi.createEncryptionCache(PublicKey.fromJson(key("public_key.json")));
+        // Alice has the rights country::France & department::marketing
+        int decryptionCache = Ffi.createDecryptionCache(PrivateKey.fromJson(key("user_Alice_key.json")));
+        try {
+            HeaderTable table = HeaderTable.encrypt(encryptionCache, RecordPlan.defaultPlan().sharedAttributeSets());
+            byte[] bytes = table.toBytes();
+            assertEquals(20, table.size());
+            assertEquals(table.length(), bytes.length);
+            assertEquals(HeaderTable.MAGIC, ByteBuffer.wrap(bytes).getInt(0));
+            assertEquals(20, ByteBuffer.wrap(bytes).getInt(4));
+
+            // the table is consumed up to the first record
+            DataInputStream is = stream(bytes, 1234);
+            HeaderTable read = HeaderTable.read(decryptionCache, is);
+            assertEquals(20, read.size());
+            assertEquals(table.length(), read.length());
+            assertEquals(1234, is.readInt());
+            assertThrows(IllegalStateException.class, read::toBytes);
+
+            // the common and marketing parts of France only
+            for (int i = 0; i < read.size(); i++) {
+                if (i < 2) {
+                    assertArrayEquals(table.symmetricKey(i), read.symmetricKey(i));
+                } else {
+                    int index = i;
+                    assertThrows(AppException.class, () -> read.symmetricKey(index));
+                }
+            }
+            assertThrows(AppException.class, () -> read.symmetricKey(-1));
+            assertThrows(AppException.class, () -> read.symmetricKey(20));
+
+            // an empty table
+            HeaderTable empty = HeaderTable.encrypt(encryptionCache, Collections.emptyList());
+            assertEquals(8, empty.toBytes().length);
+            assertEquals(0, HeaderTable.read(decryptionCache, stream(empty.toBytes())).size());
+        } finally {
+            Ffi.destroyEncryptionCache(encryptionCache);
+            Ffi.destroyDecryptionCache(decryptionCache);
+        }
+    }
+
+    @Test
+    public void testTruncatedCorruptTable() throws Exception {
+        int encryptionCache = Ffi.createEncryptionCache(PublicKey.fromJson(key("public_key.json")));
+        int decryptionCache = Ffi.createDecryptionCache(PrivateKey.fromJson(key("user_Alice_key.json")));
+        try {
+            HeaderTable table = HeaderTable.encrypt(encryptionCache, RecordPlan.defaultPlan().sharedAttributeSets());
+            byte[] bytes = table.toBytes();
+
+            // truncated anywhere after the magic
+            for (int length = 4; length < bytes.length; length++) {
+                byte[] truncated = Arrays.copyOf(bytes, length);
+                AppException e =
+                    assertThrows(AppException.class, () -> HeaderTable.read(decryptionCache, stream(truncated)));
+                assertEquals("truncated header table", e.getMessage());
+            }
+
+            // a corrupt number of headers, which is not allocated upfront
+            byte[] corrupt = bytes.clone();
+            ByteBuffer.wrap(corrupt).putInt(4, -1);
+            assertThrows(AppException.class, () -> HeaderTable.read(decryptionCache, stream(corrupt)));
+            ByteBuffer.wrap(corrupt).putInt(4, Integer.MAX_VALUE);
+            AppException e = assertThrows(AppException.class, () -> HeaderTable.read(decryptionCache, stream(corrupt)));
+            assertEquals("truncated header table", e.getMessage());
+
+            // a corrupt header length
+            ByteBuffer.wrap(corrupt).putInt(4, 20).putInt(8, -1);
+            assertTrue(assertThrows(AppException.class, () -> HeaderTable.read(decryptionCache, stream(corrupt)))
+                .getMessage().startsWith("invalid length of the shared header #0"));
+            ByteBuffer.wrap(corrupt).putInt(8, Integer.MAX_VALUE);
+            assertTrue(assertThrows(AppException.class, () -> HeaderTable.read(decryptionCache, stream(corrupt)))
+                .getMessage().startsWith("invalid length of the shared header #0"));
+
+            // a corrupt header never yields the key of the original header
+            byte[] corruptHeader = bytes.clone();
+            corruptHeader[12] ^= 0x55;
+            HeaderTable read = HeaderTable.read(decryptionCache, stream(corruptHeader));
+            byte[] key = null;
+            try {
+                key = read.symmetricKey(0);
+            } catch (AppException noRight) {
+                // cannot be decrypted
+            }
+            assertFalse(Arrays.equals(table.symmetricKey(0), key));
+            assertArrayEquals(table.symmetricKey(1), read.symmetricKey(1));
+        } finally {
+            Ffi.destroyEncryptionCache(encryptionCache);
+            Ffi.destroyDecryptionCache(decryptionCache);
+        }
+    }
+
+    @Test
+    public void testFormatDetection() throws Exception {
+        // a file of the default mode, starting with the size of its first record
+        DataInputStream is = stream(new byte[] {0, 0, 0, 2, 42, 43});
+        assertNull(HeaderTable.read(0, is));
+        assertEquals(2, is.readInt());
+
+        // an empty file and a truncated first record: nothing is consumed
+        is = stream(new byte[0]);
+        assertNull(HeaderTable.read(0, is));
+        assertEquals(-1, is.read());
+        is = stream(new byte[] {(byte) 0xC0, 0x5E});
+        assertNull(HeaderTable.read(0, is));
+        assertEquals(2, is.available());
+
+        // a file in the shared header mode
+        assertNotNull(HeaderTable.read(0, stream(ByteBuffer.allocate(8).putInt(HeaderTable.MAGIC).array())));
+
+        // the stream must be reset when the file is in the default mode
+        assertThrows(IllegalArgumentException.class,
+            () -> HeaderTable.read(0, new DataInputStream(new InputStream() {
+                @Override
+                public int read() {
+                    return -1;
+                }
+            })));
+    }
+
+    /**
+     * The same records injected in both modes decrypt to the same clear text, each part of the shared header mode
+     * being encrypted under the header of its row value and part
+     */
+    @Test
+    public void testSharedPartRoundTrip() throws Exception {
+        RecordPlan plan = RecordPlan.defaultPlan();
+        // the example records of France, followed by the same records in Spain
+        List<String> lines = Files.readAllLines(Paths.get("").toAbsolutePath().resolve("src/test/resources/lines.txt"));
+        for (int i = 0, size = lines.size(); i < size; i++) {
+            lines.add(new JSONObject(lines.get(i)).put("country", "Spain").toString());
+        }
+        int encryptionCache = Ffi.createEncryptionCache(PublicKey.fromJson(key("public_key.json")));
+        int decryptionCache = Ffi.createDecryptionCache(PrivateKey.fromJson(key("user_Alice_key.json")));
+        Random rd = new Random(1);
+        try (SseUpserter upserter =
+            new SseUpserter(new Key(rd), new Key(rd), new InMemoryDB(1), new SseConfiguration(), Optional.empty())) {
+            Path defaultDirectory = Files.createTempDirectory("headers");
+            Path sharedDirectory = Files.createTempDirectory("headers");
+            List<RecordUid> defaultUids = new ArrayList<>();
+            List<RecordUid> sharedUids = new ArrayList<>();
+            try (
+                OutputFile defaultFile =
+                    new OutputFile(OutputDirectory.parse(defaultDirectory.toString()), Integer.MAX_VALUE,
+                        Integer.MAX_VALUE);
+                OutputFile sharedFile =
+                    new OutputFile(OutputDirectory.parse(sharedDirectory.toString()), Integer.MAX_VALUE,
+                        Integer.MAX_VALUE).withSharedHeaders(encryptionCache, plan.sharedAttributeSets())) {
+                MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+                for (String line : lines) {
+                    defaultUids.add(RecordInjector.process(plan, line, sha256, upserter, encryptionCache,
+                        Optional.empty(), defaultFile));
+                    sharedUids.add(RecordInjector.process(plan, line, sha256, upserter, encryptionCache,
+                        Optional.empty(), sharedFile));
+                }
+            }
+
+            Path defaultPath = defaultDirectory.resolve(defaultUids.get(0).filename);
+            Path sharedPath = sharedDirectory.resolve(sharedUids.get(0).filename);
+            try (DataInputStream defaultIs = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(defaultPath.toFile())));
+                DataInputStream sharedIs = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(sharedPath.toFile())))) {
+                assertNull(HeaderTable.read(decryptionCache, defaultIs));
+                HeaderTable sharedHeaders = HeaderTable.read(decryptionCache, sharedIs);
+                assertEquals(sharedHeaders.length(), sharedUids.get(0).mark);
+
+                for (int i = 0; i < lines.size(); i++) {
+                    String country = new JSONObject(lines.get(i)).getString("country");
+                    if (!country.equals("France")) {
+                        // Alice cannot decrypt the common part of the other countries; the record is consumed
+                        RecordUid uid = defaultUids.get(i);
+                        assertThrows(AppException.class,
+                            () -> RecordExtractor.readNext(decryptionCache, uid, defaultIs, Optional.empty()));
+                        RecordUid sharedUid = sharedUids.get(i);
+                        assertThrows(AppException.class, () -> RecordExtractor.readNext(decryptionCache,
+                            sharedHeaders, sharedUid, sharedIs, Optional.empty()));
+                        assertEquals("Spain", country);
+                        assertHeaderIndexes(sharedPath, sharedUid, SPAIN);
+                        continue;
+                    }
+                    RecordExtractor.Record defaultRecord =
+                        RecordExtractor.readNext(decryptionCache, defaultUids.get(i), defaultIs, Optional.empty());
+                    RecordExtractor.Record sharedRecord = RecordExtractor.readNext(decryptionCache, sharedHeaders,
+                        sharedUids.get(i), sharedIs, Optional.empty());
+                    JSONObject json = new JSONObject(new String(sharedRecord.clearText, StandardCharsets.UTF_8));
+                    assertTrue(new JSONObject(new String(defaultRecord.clearText, StandardCharsets.UTF_8))
+                        .similar(json));
+                    // the common and marketing parts
+                    JSONObject clear = new JSONObject(lines.get(i));
+                    assertEquals(4, json.length());
+                    for (String field : new String[] {"firstName", "lastName", "country", "region"}) {
+                        assertEquals(clear.getString(field), json.getString(field));
+                    }
+                    // the parts do not carry their headers
+                    assertTrue(sharedRecord.encryptedLength < defaultRecord.encryptedLength);
+                    assertHeaderIndexes(sharedPath, sharedUids.get(i), 0);
+                }
+            }
+        } finally {
+            Ffi.destroyEncryptionCache(encryptionCache);
+            Ffi.destroyDecryptionCache(decryptionCache);
+        }
+    }
+
+    /**
+     * Check the header indexes of the parts of a record written in the shared header mode
+     */
+    static void assertHeaderIndexes(Path file, RecordUid uid, int row) throws Exception {
+        ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(file));
+        record.position((int) uid.mark);
+        int end = record.getInt() + record.position();
+        for (int part = 0; record.position() < end; part++) {
+            assertEquals(row * PARTS + part, record.getInt());
+            record.position(record.getInt() + record.position());
+        }
+        assertEquals(end, record.position());
+    }
+
+    static String key(String name) throws Exception {
+        Path file = Paths.get("").toAbsolutePath().resolve("src/test/resources/keys").resolve(name);
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    static DataInputStream stream(byte[] bytes, int... next) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 4 * next.length).put(bytes);
+        for (int value : next) {
+            buffer.putInt(value);
+        }
+        return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+    }
+}
@@ -0,0 +1,701 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.DseDB.DseEntryTableRecord;
+import com.cosmian.cloudproof_demo.sse.AsyncDBInterface;
+import com.cosmian.cloudproof_demo.sse.CachingDBInterface;
+import com.cosmian.cloudproof_demo.sse.ChainCheckpointStore;
+import com.cosmian.cloudproof_demo.sse.ChainTableCache;
+import com.cosmian.cloudproof_demo.sse.DBEntryTableRecord;
+import com.cosmian.cloudproof_demo.sse.DBInterface;
+import com.cosmian.cloudproof_demo.sse.EntryTableValueCache;
+import com.cosmian.cloudproof_demo.sse.InMemoryDB;
+import com.cosmian.cloudproof_demo.sse.RetryPolicy;
+import com.cosmian.cloudproof_demo.sse.Sse;
+import com.cosmian.cloudproof_demo.sse.Sse.DbUid;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+import com.cosmian.cloudproof_demo.sse.SseUpserter;
+import com.cosmian.cloudproof_demo.sse.WordKeyMemo;
+
+public class InMemoryDBTest {
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @Test
+    public void testCompareAndSet() throws Exception {
+        InMemoryDB db = new InMemoryDB();
+        WordHash wordHash = new WordHash(new Key(new Random(1)).bytes());
+
+        // a new word is only inserted at revision 0
+        assertFalse(upsert(db, wordHash, 1));
+        assertTrue(upsert(db, wordHash, 0));
+        assertFalse(upsert(db, wordHash, 0));
+        // an update must be at the next revision
+        assertTrue(upsert(db, wordHash, 1));
+        assertFalse(upsert(db, wordHash, 1));
+        assertFalse(upsert(db, wordHash, 3));
+        assertEquals(1, db.getEntryTableEntries(Collections.singleton(wordHash)).get(wordHash).getRevision());
+        assertEquals(1, db.entryTableSize());
+        assertEquals(4, db.getConflicts());
+    }
+
+    private static boolean upsert(InMemoryDB db, WordHash wordHash, int revision) throws CosmianException {
+        Map<WordHash, DBEntryTableRecord> entries = new HashMap<>();
+        entries.put(wordHash, new DseEntryTableRecord(revision, new byte[] {(byte) revision}));
+        return db.upsertEntryTableEntries(entries).get(wordHash);
+    }
+
+    @Test
+    public void testUpsertRetrieveWithConflicts() throws Exception {
+        IndexFixture fixture = new IndexFixture(7, 20, 3);
+        InMemoryDB db = new InMemoryDB(7).withConflictProbability(0.3);
+        SseConfiguration sseConf = new SseConfiguration().withRetryBaseDelayMs(0).withChainSegmentSize(16);
+
+        fixture.upsert(db, sseConf, 5, 40);
+        assertTrue(db.getInjectedConflicts() > 0);
+        assertEquals(fixture.expected().size(), db.entryTableSize());
+
+        fixture.assertRetrieved(db, sseConf);
+        // the chains walked concurrently on the shared executor, twice to reuse its threads
+        SseConfiguration parallel = sseConf.withRetrieveParallelism(4).withChainChunkSize(4);
+        for (int i = 0; i < 2; i++) {
+            fixture.assertRetrieved(db, parallel);
+        }
+    }
+
+    /**
+     * The searched words which are not indexed map to an empty set, whether the other words are found or not
+     */
+    @Test
+    public void testRetrieveUnindexedWords() throws Exception {
+        Random rd = new Random(13);
+        Key k = new Key(rd);
+        InMemoryDB db = new InMemoryDB(13);
+        Word indexed = new Word(rd, 8);
+        Word unindexed = new Word(rd, 8);
+        Set<Word> words = new HashSet<>(Arrays.asList(indexed, unindexed));
+        SseConfiguration sseConf = new SseConfiguration();
+        ExecutorService crypto = Executors.newFixedThreadPool(2);
+        try {
+            AsyncDBInterface asyncDb = AsyncDBInterface.of(db, crypto);
+            Map<Word, Set<DbUid>> none = new HashMap<>();
+            none.put(indexed, Collections.emptySet());
+            none.put(unindexed, Collections.emptySet());
+            assertEquals(none, Sse.bulkRetrieve(k, words, db, sseConf));
+            assertEquals(none, Sse.bulkRetrieveAsync(k, words, asyncDb, sseConf, crypto).toCompletableFuture().get());
+
+            Set<DbUid> expected = new HashSet<>();
+            upsertPostings(k, new Key(rd), indexed, 3, sseConf, db, rd, expected);
+            Map<Word, Set<DbUid>> found = new HashMap<>(none);
+            found.put(indexed, expected);
+            assertEquals(found, Sse.bulkRetrieve(k, words, db, sseConf));
+            assertEquals(found, Sse.bulkRetrieveAsync(k, words, asyncDb, sseConf, crypto).toCompletableFuture().get());
+        } finally {
+            crypto.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSegmentationIsOptIn() throws Exception {
+        Random rd = new Random(5);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        InMemoryDB db = new InMemoryDB(5);
+        SseConfiguration segmented = new SseConfiguration().withChainSegmentSize(1000);
+
+        // the default configuration writes unsegmented chains, converted when extended with segments
+        Word word = new Word(rd, 8);
+        Set<DbUid> expected = new HashSet<>();
+        upsertPostings(k, kStar, word, 30, new SseConfiguration(), db, rd, expected);
+        assertEquals(expected, Sse.bulkRetrieve(k, Collections.singleton(word), db).get(word));
+        upsertPostings(k, kStar, word, 30, segmented, db, rd, expected);
+        assertEquals(60, expected.size());
+        assertEquals(expected, Sse.bulkRetrieve(k, Collections.singleton(word), db).get(word));
+
+        // an unsegmented chain longer than a search walks is not converted: it is still cut by the searches
+        Word longWord = new Word(rd, 8);
+        Set<DbUid> longExpected = new HashSet<>();
+        upsertPostings(k, kStar, longWord, 10_001, new SseConfiguration(), db, rd, longExpected);
+        upsertPostings(k, kStar, longWord, 10, segmented, db, rd, longExpected);
+        assertEquals(10_000, Sse.bulkRetrieve(k, Collections.singleton(longWord), db).get(longWord).size());
+    }
+
+    private static void upsertPostings(Key k, Key kStar, Word word, int postings, SseConfiguration sseConf,
+        DBInterface db, Random rd, Set<DbUid> expected) throws CosmianException {
+        Map<DbUid, Set<Word>> dbUidToWords = new HashMap<>();
+        for (int i = 0; i < postings; i++) {
+            DbUid dbUid = new DbUid(rd, 16);
+            dbUidToWords.put(dbUid, Collections.singleton(word));
+            expected.add(dbUid);
+        }
+        Sse.bulkUpsert(k, kStar, dbUidToWords, db, sseConf);
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        Random rd = new Random(9);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        InMemoryDB db = new InMemoryDB(9);
+        ChainCheckpointStore checkpoints = new ChainCheckpointStore(1000);
+        SseConfiguration sseConf = new SseConfiguration().withChainSegmentSize(4).withCheckpoints(checkpoints);
+        Word word = new Word(rd, 8);
+        Set<Word> words = Collections.singleton(word);
+
+        Set<DbUid> expected = new HashSet<>();
+        upsertPostings(k, kStar, word, 10, sseConf, db, rd, expected);
+        assertEquals(expected, Sse.bulkRetrieve(k, words, db, sseConf).get(word));
+        assertEquals(1, checkpoints.size());
+
+        // nothing new: only the row at the checkpoint is read again, the results are the ones of the checkpoint
+        long calls = db.getCalls();
+        assertEquals(expected, Sse.bulkRetrieve(k, words, db, sseConf).get(word));
+        assertEquals(2, db.getCalls() - calls);
+
+        // the chain is extended: only the suffix is walked
+        upsertPostings(k, kStar, word, 3, sseConf, db, rd, expected);
+        assertEquals(expected, Sse.bulkRetrieve(k, words, db, sseConf).get(word));
+
+        // the indexes are dropped and rewritten in a single upsert: the chain is longer than the checkpointed one but
+        // at a lower revision, the checkpoint is invalidated and its results are not returned
+        db.clear();
+        Set<DbUid> rewritten = new HashSet<>();
+        upsertPostings(k, kStar, word, 20, sseConf, db, rd, rewritten);
+        assertEquals(rewritten, Sse.bulkRetrieve(k, words, db, sseConf).get(word));
+        assertEquals(1, checkpoints.size());
+        assertEquals(rewritten, Sse.bulkRetrieve(k, words, db, sseConf).get(word));
+    }
+
+    @Test
+    public void testCheckpointsIncompleteChain() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            checkpointsIncompleteChain(null);
+            checkpointsIncompleteChain(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void checkpointsIncompleteChain(ExecutorService executor) throws Exception {
+        Random rd = new Random(13);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        HeldChainTableDB db = new HeldChainTableDB(new InMemoryDB(13));
+        ChainCheckpointStore checkpoints = new ChainCheckpointStore(1000);
+        SseConfiguration sseConf = new SseConfiguration().withChainSegmentSize(4).withCheckpoints(checkpoints);
+        Word word = new Word(rd, 8);
+
+        Set<DbUid> expected = new HashSet<>();
+        upsertPostings(k, kStar, word, 6, sseConf, db, rd, expected);
+        assertEquals(expected, retrieve(k, word, db, sseConf, executor));
+
+        // a search between the Entry Table update of an upsert and the write of its chain rows misses the new DB
+        // Uids: the checkpoint is not moved past them
+        db.hold = true;
+        Set<DbUid> added = new HashSet<>();
+        upsertPostings(k, kStar, word, 5, sseConf, db, rd, added);
+        assertEquals(expected, retrieve(k, word, db, sseConf, executor));
+        db.release();
+        expected.addAll(added);
+        assertEquals(expected, retrieve(k, word, db, sseConf, executor));
+        assertEquals(expected, retrieve(k, word, db, sseConf, executor));
+    }
+
+    @Test
+    public void testCheckpointsTruncatedIndexes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            checkpointsTruncatedIndexes(null);
+            checkpointsTruncatedIndexes(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void checkpointsTruncatedIndexes(ExecutorService executor) throws Exception {
+        Random rd = new Random(17);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        InMemoryDB db = new InMemoryDB(17);
+        ChainCheckpointStore checkpoints = new ChainCheckpointStore(1000);
+        SseConfiguration sseConf = new SseConfiguration().withChainSegmentSize(4).withCheckpoints(checkpoints);
+        Word word = new Word(rd, 8);
+
+        Set<DbUid> expected = new HashSet<>();
+        upsertPostings(k, kStar, word, 6, sseConf, db, rd, expected);
+        assertEquals(expected, retrieve(k, word, db, sseConf, executor));
+
+        // the indexes are dropped and rewritten past the revision and the length of the checkpointed chain, with the
+        // same chain keys: the row at the checkpoint changed, the whole chain is walked again
+        db.clear();
+        Set<DbUid> rewritten = new HashSet<>();
+        for (int upsert = 0; upsert < 3; upsert++) {
+            upsertPostings(k, kStar, word, 3, sseConf, db, rd, rewritten);
+        }
+        assertEquals(rewritten, retrieve(k, word, db, sseConf, executor));
+        assertEquals(1, checkpoints.size());
+        assertEquals(rewritten, retrieve(k, word, db, sseConf, executor));
+    }
+
+    private static Set<DbUid> retrieve(Key k, Word word, DBInterface db, SseConfiguration sseConf,
+        ExecutorService executor) throws Exception {
+        if (executor == null) {
+            return Sse.bulkRetrieve(k, Collections.singleton(word), db, sseConf).get(word);
+        }
+        return Sse.bulkRetrieveAsync(k, Collections.singleton(word), AsyncDBInterface.of(db, executor), sseConf,
+            executor).toCompletableFuture().get().get(word);
+    }
+
+    /**
+     * A store holding back the Chain Table writes until they are released
+     */
+    private static class HeldChainTableDB implements DBInterface {
+
+        private final InMemoryDB db;
+
+        private final Map<Key, byte[]> held = new HashMap<>();
+
+        boolean hold = false;
+
+        HeldChainTableDB(InMemoryDB db) {
+            this.db = db;
+        }
+
+        void release() throws CosmianException {
+            this.hold = false;
+            this.db.upsertChainTableEntries(this.held);
+            this.held.clear();
+        }
+
+        @Override
+        public Map<WordHash, DBEntryTableRecord> getEntryTableEntries(Set<WordHash> wordHashes)
+            throws CosmianException {
+            return this.db.getEntryTableEntries(wordHashes);
+        }
+
+        @Override
+        public Map<WordHash, Boolean> upsertEntryTableEntries(Map<WordHash, DBEntryTableRecord> entries)
+            throws CosmianException {
+            return this.db.upsertEntryTableEntries(entries);
+        }
+
+        @Override
+        public Map<Key, byte[]> getChainTableEntriesByKey(Set<Key> chainTableKeys) throws CosmianException {
+            return this.db.getChainTableEntriesByKey(chainTableKeys);
+        }
+
+        @Override
+        public void upsertChainTableEntries(Map<Key, byte[]> entries) throws CosmianException {
+            if (this.hold) {
+                this.held.putAll(entries);
+            } else {
+                this.db.upsertChainTableEntries(entries);
+            }
+        }
+    }
+
+    @Test
+    public void testInjectedFailures() throws Exception {
+        Random rd = new Random(3);
+        InMemoryDB db = new InMemoryDB(3).withFailureProbability(1);
+        Map<DbUid, Set<Word>> dbUidToWords =
+            Collections.singletonMap(new DbUid(rd, 16), Collections.singleton(new Word(rd, 8)));
+        assertThrows(CosmianException.class, () -> Sse.bulkUpsert(new Key(rd), new Key(rd), dbUidToWords, db));
+        assertEquals(1, db.getFailures());
+        assertEquals(0, db.entryTableSize());
+    }
+
+    @Test
+    public void testWordKeyMemo() throws Exception {
+        Random rd = new Random(13);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        InMemoryDB db = new InMemoryDB(13);
+        SseConfiguration sseConf = new SseConfiguration();
+        Word[] words = { new Word(rd, 8), new Word(rd, 8), new Word(rd, 8) };
+        Map<Word, Set<DbUid>> expected = new HashMap<>();
+
+        // a word is hashed once per batch it appears in, unless it is memoized
+        WordKeyMemo memo = new WordKeyMemo(k, kStar, 2);
+        upsertWords(words[0], memo, db, sseConf, rd, expected);
+        assertEquals(0, memo.getHits());
+        assertEquals(1, memo.getMisses());
+        upsertWords(words[0], memo, db, sseConf, rd, expected);
+        assertEquals(1, memo.getHits());
+        assertEquals(1, memo.getMisses());
+        // the least recently used word is evicted beyond the capacity
+        upsertWords(words[1], memo, db, sseConf, rd, expected);
+        upsertWords(words[2], memo, db, sseConf, rd, expected);
+        upsertWords(words[0], memo, db, sseConf, rd, expected);
+        assertEquals(1, memo.getHits());
+        assertEquals(4, memo.getMisses());
+        upsertWords(words[2], memo, db, sseConf, rd, expected);
+        assertEquals(2, memo.getHits());
+
+        // a memo of capacity 0 only memoizes K₁ and K₂
+        WordKeyMemo noWords = new WordKeyMemo(k, kStar, 0);
+        upsertWords(words[1], noWords, db, sseConf, rd, expected);
+        upsertWords(words[1], noWords, db, sseConf, rd, expected);
+        assertEquals(0, noWords.getHits());
+        assertEquals(2, noWords.getMisses());
+
+        // without K*, the words already indexed can be extended but new words cannot be indexed
+        WordKeyMemo noKStar = new WordKeyMemo(k, null, 10);
+        upsertWords(words[2], noKStar, db, sseConf, rd, expected);
+        Word newWord = new Word(rd, 8);
+        assertThrows(CosmianException.class, () -> upsertWords(newWord, noKStar, db, sseConf, rd, new HashMap<>()));
+
+        // the memoized derivations index the same chains
+        assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db));
+        assertEquals(3, db.entryTableSize());
+    }
+
+    private static void upsertWords(Word word, WordKeyMemo memo, InMemoryDB db, SseConfiguration sseConf, Random rd,
+        Map<Word, Set<DbUid>> expected) throws CosmianException {
+        upsertWords(word, memo, null, db, sseConf, rd, expected);
+    }
+
+    private static void upsertWords(Word word, WordKeyMemo memo, EntryTableValueCache writeBack, InMemoryDB db,
+        SseConfiguration sseConf, Random rd, Map<Word, Set<DbUid>> expected) throws CosmianException {
+        DbUid dbUid = new DbUid(rd, 16);
+        Sse.bulkUpsert(Collections.singletonMap(dbUid, Collections.singleton(word)), db, sseConf, memo, writeBack);
+        expected.computeIfAbsent(word, w -> new HashSet<>()).add(dbUid);
+    }
+
+    @Test
+    public void testWriteBackStaleness() throws Exception {
+        Random rd = new Random(15);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        InMemoryDB db = new InMemoryDB(15);
+        SseConfiguration sseConf = new SseConfiguration();
+        Word word = new Word(rd, 8);
+        Map<Word, Set<DbUid>> expected = new HashMap<>();
+
+        // indexer A keeps the values it writes, indexer B always reads them
+        WordKeyMemo memoA = new WordKeyMemo(k, kStar, 10);
+        EntryTableValueCache writeBack = new EntryTableValueCache(10);
+        WordKeyMemo memoB = new WordKeyMemo(k, kStar, 10);
+
+        upsertWords(word, memoA, writeBack, db, sseConf, rd, expected);
+        assertEquals(1, writeBack.getMisses());
+        upsertWords(word, memoA, writeBack, db, sseConf, rd, expected);
+        assertEquals(1, writeBack.getHits());
+        assertEquals(0, db.getConflicts());
+
+        // B extends the chain: the value cached by A is stale, its update conflicts and the value is read again
+        upsertWords(word, memoB, null, db, sseConf, rd, expected);
+        upsertWords(word, memoA, writeBack, db, sseConf, rd, expected);
+        assertEquals(2, writeBack.getHits());
+        assertEquals(1, writeBack.getConflicts());
+        assertEquals(1, db.getConflicts());
+        assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db));
+
+        // the value read again is cached
+        upsertWords(word, memoA, writeBack, db, sseConf, rd, expected);
+        assertEquals(3, writeBack.getHits());
+        assertEquals(1, writeBack.getConflicts());
+        assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db));
+        assertEquals(5, expected.get(word).size());
+    }
+
+    @Test
+    public void testHotWords() throws Exception {
+        Random rd = new Random(21);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        Word hot = new Word(rd, 8);
+        Set<Word> words = Collections.singleton(hot);
+
+        // flushed once the maximum number of postings is held
+        InMemoryDB db = new InMemoryDB(21);
+        SseConfiguration sseConf = new SseConfiguration().withHotWordThreshold(50).withHotWordMaxPostings(250)
+            .withHotWordMaxAgeMs(Long.MAX_VALUE);
+        try (SseUpserter upserter = new SseUpserter(k, kStar, db, sseConf, Optional.empty())) {
+            Map<Word, Set<DbUid>> expected = new HashMap<>();
+            upsertHotWord(upserter, hot, 200, rd, expected);
+            // the cold words of the batches are written, the hot word is held
+            assertEquals(200, db.entryTableSize());
+            assertTrue(Sse.bulkRetrieve(k, words, db).get(hot).isEmpty());
+            upsertHotWord(upserter, hot, 100, rd, expected);
+            assertEquals(300, Sse.bulkRetrieve(k, words, db).get(hot).size());
+            assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db));
+        }
+
+        // flushed with the first batch past the maximum age
+        db = new InMemoryDB(21);
+        sseConf.withHotWordMaxPostings(Integer.MAX_VALUE).withHotWordMaxAgeMs(50);
+        try (SseUpserter upserter = new SseUpserter(k, kStar, db, sseConf, Optional.empty())) {
+            upsertHotWord(upserter, hot, 100, rd, new HashMap<>());
+            assertTrue(Sse.bulkRetrieve(k, words, db).get(hot).isEmpty());
+            Thread.sleep(60);
+            upsertHotWord(upserter, hot, 100, rd, new HashMap<>());
+            assertEquals(200, Sse.bulkRetrieve(k, words, db).get(hot).size());
+        }
+
+        // flushed on close with the last partial batch
+        db = new InMemoryDB(21);
+        sseConf.withHotWordMaxAgeMs(Long.MAX_VALUE);
+        Map<Word, Set<DbUid>> expected = new HashMap<>();
+        try (SseUpserter upserter = new SseUpserter(k, kStar, db, sseConf, Optional.empty())) {
+            upsertHotWord(upserter, hot, 150, rd, expected);
+            assertEquals(100, db.entryTableSize());
+            assertTrue(Sse.bulkRetrieve(k, words, db).get(hot).isEmpty());
+        }
+        assertEquals(151, db.entryTableSize());
+        assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db));
+    }
+
+    /**
+     * Upsert records holding the hot word and a word of their own
+     */
+    private static void upsertHotWord(SseUpserter upserter, Word hot, int records, Random rd,
+        Map<Word, Set<DbUid>> expected) throws AppException {
+        for (int i = 0; i < records; i++) {
+            DbUid dbUid = new DbUid(rd, 16);
+            Word cold = new Word(rd, 8);
+            upserter.upsert(dbUid.bytes(), new HashSet<>(Arrays.asList(hot, cold)));
+            expected.computeIfAbsent(hot, w -> new HashSet<>()).add(dbUid);
+            expected.put(cold, Collections.singleton(dbUid));
+        }
+    }
+
+    @Test
+    public void testChainTableCache() throws Exception {
+        Random rd = new Random(17);
+        Key k = new Key(rd);
+        InMemoryDB db = new InMemoryDB(17);
+        Word word = new Word(rd, 8);
+        Key kStar = new Key(rd);
+        Set<DbUid> dbUids = new HashSet<>();
+        upsertPostings(k, kStar, word, 50, new SseConfiguration(), db, rd, dbUids);
+
+        // the second search of a word reads its Entry Table value only
+        ChainTableCache cache = new ChainTableCache(1024 * 1024);
+        CachingDBInterface cachingDb = new CachingDBInterface(db, cache);
+        assertEquals(dbUids, Sse.bulkRetrieve(k, Collections.singleton(word), cachingDb).get(word));
+        long calls = db.getCalls();
+        assertEquals(dbUids, Sse.bulkRetrieve(k, Collections.singleton(word), cachingDb).get(word));
+        assertEquals(1, db.getCalls() - calls);
+        assertEquals(50, cache.getHeapHits());
+        assertEquals(50, cache.getMisses());
+
+        // a truncated index reindexed under the same keys has the same chain table keys: the cache must be cleared
+        db.clear();
+        Set<DbUid> reindexed = new HashSet<>();
+        upsertPostings(k, kStar, word, 50, new SseConfiguration(), db, rd, reindexed);
+        assertEquals(dbUids, Sse.bulkRetrieve(k, Collections.singleton(word), cachingDb).get(word));
+        cache.clear();
+        assertEquals(0, cache.getHeapSize());
+        assertEquals(reindexed, Sse.bulkRetrieve(k, Collections.singleton(word), cachingDb).get(word));
+    }
+
+    @Test
+    public void testChainTableCacheEviction() throws Exception {
+        Random rd = new Random(19);
+        // room for 2 entries of 16 bytes on-heap, the others are evicted to the off-heap tier
+        ChainTableCache cache = new ChainTableCache(2 * (16 + 96), 1024);
+        Key[] keys = randomKeys(5, rd);
+        byte[][] values = RecordBufferTest.randomArrays(5, 16);
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], values[i]);
+        }
+        assertEquals(2, cache.getHeapSize());
+        assertEquals(3, cache.getOffHeapSize());
+
+        assertArrayEquals(values[4], cache.get(keys[4]));
+        assertEquals(1, cache.getHeapHits());
+        // the oldest entry is found off-heap and promoted
+        assertArrayEquals(values[0], cache.get(keys[0]));
+        assertEquals(1, cache.getOffHeapHits());
+        assertArrayEquals(values[0], cache.get(keys[0]));
+        assertEquals(2, cache.getHeapHits());
+        assertNull(cache.get(new Key(rd)));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testChainTableCacheOffHeapRing() throws Exception {
+        Random rd = new Random(23);
+        // an entry takes 32 + 4 + 16 bytes in the ring
+        final int entrySize = Key.KEY_LENGTH + 4 + 16;
+
+        // exactly 3 entries: the ring wraps around at its end, the oldest entries are overwritten
+        ChainTableCache cache = new ChainTableCache(0, 3 * entrySize);
+        Key[] keys = randomKeys(10, rd);
+        byte[][] values = RecordBufferTest.randomArrays(10, 16);
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], values[i]);
+        }
+        assertEquals(0, cache.getHeapSize());
+        assertEquals(3, cache.getOffHeapSize());
+        for (int i = 0; i < 7; i++) {
+            assertNull(cache.get(keys[i]));
+        }
+        for (int i = 7; i < 10; i++) {
+            assertArrayEquals(values[i], cache.get(keys[i]));
+        }
+        assertEquals(3, cache.getOffHeapHits());
+
+        // once cleared, the ring is written again from its start
+        cache.clear();
+        assertEquals(0, cache.getOffHeapSize());
+        assertNull(cache.get(keys[9]));
+        cache.put(keys[0], values[0]);
+        assertArrayEquals(values[0], cache.get(keys[0]));
+
+        // 2.5 entries: the entries which do not fit at the end of the ring are written at its start
+        cache = new ChainTableCache(0, 5 * entrySize / 2);
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], values[i]);
+            assertArrayEquals(values[i], cache.get(keys[i]));
+            if (i > 0) {
+                assertArrayEquals(values[i - 1], cache.get(keys[i - 1]));
+            }
+            if (i > 1) {
+                assertNull(cache.get(keys[i - 2]));
+            }
+        }
+        assertEquals(2, cache.getOffHeapSize());
+
+        // an entry larger than the ring is not cached
+        cache = new ChainTableCache(0, entrySize - 1);
+        cache.put(keys[0], values[0]);
+        assertEquals(0, cache.getOffHeapSize());
+        assertNull(cache.get(keys[0]));
+        assertEquals(1, cache.getMisses());
+    }
+
+    static Key[] randomKeys(int number, Random rd) {
+        Key[] keys = new Key[number];
+        for (int i = 0; i < number; i++) {
+            keys[i] = new Key(rd);
+        }
+        return keys;
+    }
+
+    @Test
+    public void testRetryPolicy() throws Exception {
+        Random rd = new Random(25);
+        Key k = new Key(rd);
+        Key kStar = new Key(rd);
+        Map<DbUid, Set<Word>> dbUidToWords =
+            Collections.singletonMap(new DbUid(rd, 16), Collections.singleton(new Word(rd, 8)));
+        SseConfiguration sseConf = new SseConfiguration();
+        WordKeyMemo memo = new WordKeyMemo(k, kStar, 0);
+
+        // the conflicts are retried up to the budget, after delays bounded by min(max, base × 2ⁿ): 2 + 4 + 5 + 5
+        InMemoryDB db = new InMemoryDB(25).withConflictProbability(1);
+        RetryPolicy retry = new RetryPolicy(4, 2, 5);
+        CosmianException e = assertThrows(CosmianException.class,
+            () -> Sse.bulkUpsert(dbUidToWords, db, sseConf, memo, null, retry));
+        assertTrue(e.getMessage().contains("after 4 retries"));
+        assertEquals(4, retry.getRetries());
+        assertEquals(5, retry.getConflicts());
+        assertEquals(5, db.getInjectedConflicts());
+        assertTrue(retry.getBackoffMs() <= 16);
+        assertEquals(0, db.entryTableSize());
+
+        // a base delay overflowing the backoff is capped by the maximum delay
+        RetryPolicy overflow = new RetryPolicy(40, Long.MAX_VALUE / 2, 1);
+        assertThrows(CosmianException.class, () -> Sse.bulkUpsert(dbUidToWords, db, sseConf, memo, null, overflow));
+        assertEquals(40, overflow.getRetries());
+        assertTrue(overflow.getBackoffMs() <= 40);
+
+        // a budget of 0 fails on the first conflict
+        RetryPolicy none = new RetryPolicy(0, 2, 5);
+        assertThrows(CosmianException.class, () -> Sse.bulkUpsert(dbUidToWords, db, sseConf, memo, null, none));
+        assertEquals(0, none.getRetries());
+        assertEquals(1, none.getConflicts());
+
+        // the failures of the DB are not retried
+        InMemoryDB failing = new InMemoryDB(25).withFailureProbability(1);
+        RetryPolicy notRetried = new RetryPolicy(4, 2, 5);
+        assertThrows(CosmianException.class,
+            () -> Sse.bulkUpsert(dbUidToWords, failing, sseConf, memo, null, notRetried));
+        assertEquals(1, failing.getFailures());
+        assertEquals(0, notRetried.getRetries());
+        assertEquals(0, notRetried.getConflicts());
+
+        // the words which do not conflict are written without retries
+        InMemoryDB healthy = new InMemoryDB(25);
+        RetryPolicy unused = new RetryPolicy(4, 2, 5);
+        Sse.bulkUpsert(dbUidToWords, healthy, sseConf, memo, null, unused);
+        assertEquals(0, unused.getRetries());
+        assertEquals(1, healthy.entryTableSize());
+    }
+
+    @Test
+    public void testAsyncUpsertRetrieve() throws Exception {
+        IndexFixture fixture = new IndexFixture(11, 30, 3);
+        Key k = fixture.k;
+        Map<Word, Set<DbUid>> expected = fixture.expected();
+        InMemoryDB memoryDb = new InMemoryDB(11).withLatencyMs(2).withConflictProbability(0.1);
+        SseConfiguration sseConf = new SseConfiguration().withRetryBaseDelayMs(1).withChainSegmentSize(8);
+        WordKeyMemo memo = new WordKeyMemo(k, fixture.kStar, 100);
+        RetryPolicy retry = new RetryPolicy(sseConf);
+
+        ExecutorService io = Executors.newFixedThreadPool(4);
+        ExecutorService crypto = Executors.newFixedThreadPool(2);
+        try {
+            AsyncDBInterface db = AsyncDBInterface.of(memoryDb, io);
+            // the batches are upserted concurrently: their updates of the same words conflict and are retried
+            List<CompletableFuture<long[]>> batches = new ArrayList<>();
+            for (int batch = 0; batch < 8; batch++) {
+                batches.add(Sse.bulkUpsertAsync(fixture.nextBatch(20), db, sseConf, memo, null, retry, crypto)
+                    .toCompletableFuture());
+            }
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[batches.size()])).get();
+            assertTrue(retry.getRetries() > 0);
+            assertEquals(expected.size(), memoryDb.entryTableSize());
+
+            assertEquals(expected,
+                Sse.bulkRetrieveAsync(k, expected.keySet(), db, sseConf.withChainChunkSize(4), crypto)
+                    .toCompletableFuture().get());
+            // the synchronous callers use the asynchronous store through the blocking adapter
+            fixture.assertRetrieved(AsyncDBInterface.blocking(db), new SseConfiguration());
+
+            // a failure of the store completes the stages exceptionally
+            memoryDb.withFailureProbability(1);
+            ExecutionException e = assertThrows(ExecutionException.class,
+                () -> Sse.bulkRetrieveAsync(k, expected.keySet(), db, sseConf, crypto).toCompletableFuture().get());
+            assertTrue(e.getCause() instanceof CosmianException);
+        } finally {
+            io.shutdownNow();
+            crypto.shutdownNow();
+        }
+    }
+}
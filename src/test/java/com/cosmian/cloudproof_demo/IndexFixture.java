@@ -0,0 +1,95 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.DBInterface;
+import com.cosmian.cloudproof_demo.sse.Sse;
+import com.cosmian.cloudproof_demo.sse.Sse.DbUid;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+
+/**
+ * Random records indexing a fixed set of words, and the DB Uids each word is expected to retrieve. Not thread safe.
+ */
+public class IndexFixture {
+
+    final Key k;
+
+    final Key kStar;
+
+    private final Random rd;
+
+    private final Word[] words;
+
+    private final int wordsPerRecord;
+
+    private final Map<Word, Set<DbUid>> expected = new HashMap<>();
+
+    /**
+     * @param seed the seed of the keys, words and records
+     * @param numWords the number of distinct words
+     * @param wordsPerRecord the number of words drawn for each record, possibly the same ones
+     */
+    IndexFixture(long seed, int numWords, int wordsPerRecord) {
+        this.rd = new Random(seed);
+        this.k = new Key(rd);
+        this.kStar = new Key(rd);
+        this.words = new Word[numWords];
+        for (int i = 0; i < numWords; i++) {
+            this.words[i] = new Word(rd, 8);
+        }
+        this.wordsPerRecord = wordsPerRecord;
+    }
+
+    /**
+     * Draw a batch of records, adding them to the expected results
+     *
+     * @param records the number of records
+     * @return the words of the records, by DB Uid
+     */
+    Map<DbUid, Set<Word>> nextBatch(int records) {
+        Map<DbUid, Set<Word>> dbUidToWords = new HashMap<>();
+        for (int i = 0; i < records; i++) {
+            DbUid dbUid = new DbUid(rd, 16);
+            Set<Word> recordWords = new HashSet<>();
+            for (int j = 0; j < wordsPerRecord; j++) {
+                Word word = words[rd.nextInt(words.length)];
+                recordWords.add(word);
+                expected.computeIfAbsent(word, w -> new HashSet<>()).add(dbUid);
+            }
+            dbUidToWords.put(dbUid, recordWords);
+        }
+        return dbUidToWords;
+    }
+
+    /**
+     * Upsert batches of records one after the other
+     */
+    void upsert(DBInterface db, SseConfiguration sseConf, int batches, int records) throws CosmianException {
+        for (int batch = 0; batch < batches; batch++) {
+            Sse.bulkUpsert(k, kStar, nextBatch(records), db, sseConf);
+        }
+    }
+
+    /**
+     * @return the DB Uids of the records drawn so far, by word
+     */
+    Map<Word, Set<DbUid>> expected() {
+        return expected;
+    }
+
+    /**
+     * Check that a search of all the indexed words retrieves the DB Uids of all the drawn records
+     */
+    void assertRetrieved(DBInterface db, SseConfiguration sseConf) throws CosmianException {
+        assertEquals(expected, Sse.bulkRetrieve(k, expected.keySet(), db, sseConf));
+    }
+}
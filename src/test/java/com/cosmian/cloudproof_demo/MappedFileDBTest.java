@@ -0,0 +1,193 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.DseDB.DseEntryTableRecord;
+import com.cosmian.cloudproof_demo.sse.DBEntryTableRecord;
+import com.cosmian.cloudproof_demo.sse.MappedFileDB;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.WordHash;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+
+public class MappedFileDBTest {
+
+    // the directories of the test, with their 64 MiB log segments
+    private final List<Path> directories = new ArrayList<>();
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @AfterEach
+    public void after_each() throws IOException {
+        for (Path directory : this.directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                List<Path> paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+                for (Path path : paths) {
+                    Files.delete(path);
+                }
+            }
+        }
+        this.directories.clear();
+    }
+
+    private Path newDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("mapped_db");
+        this.directories.add(directory);
+        return directory;
+    }
+
+    @Test
+    public void testUpsertRetrieveReopen() throws Exception {
+        Path directory = newDirectory();
+        IndexFixture fixture = new IndexFixture(5, 500, 10);
+        SseConfiguration sseConf = new SseConfiguration();
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            // a directory is opened once
+            assertThrows(CosmianException.class, () -> new MappedFileDB(directory));
+            fixture.upsert(db, sseConf, 10, 1000);
+            assertEquals(fixture.expected().size(), db.entryTableSize());
+            fixture.assertRetrieved(db, sseConf);
+        }
+
+        // the clean index is reloaded
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            assertEquals(fixture.expected().size(), db.entryTableSize());
+            fixture.assertRetrieved(db, sseConf);
+        }
+
+        // a lost index is rebuilt from the logs
+        Files.delete(directory.resolve("entry_table.idx"));
+        Files.delete(directory.resolve("chain_table.idx"));
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            assertEquals(fixture.expected().size(), db.entryTableSize());
+            fixture.assertRetrieved(db, sseConf);
+        }
+    }
+
+    @Test
+    public void testCompactClose() throws Exception {
+        Path directory = newDirectory();
+        IndexFixture fixture = new IndexFixture(3, 10, 2);
+        SseConfiguration sseConf = new SseConfiguration();
+        MappedFileDB db = new MappedFileDB(directory);
+        // 100 updates of each of the 10 words and 2 rows of the Chain Table upserted twice
+        fixture.upsert(db, sseConf, 100, 10);
+        Key key = new Key(new Random(3));
+        db.upsertChainTableEntries(Collections.singletonMap(key, new byte[] {1}));
+        db.upsertChainTableEntries(Collections.singletonMap(key, new byte[] {2}));
+        long chainRows = db.chainTableSize();
+
+        long logs = logSizes(directory);
+        long reclaimed = db.compact();
+        assertTrue(reclaimed > 0);
+        // a compacted log has nothing left to reclaim
+        assertEquals(0, db.compact());
+        assertEquals(10, db.entryTableSize());
+        assertEquals(chainRows, db.chainTableSize());
+        fixture.assertRetrieved(db, sseConf);
+        assertArrayEquals(new byte[] {2}, db.getChainTableEntriesByKey(Collections.singleton(key)).get(key));
+        fixture.upsert(db, sseConf, 1, 10);
+        chainRows = db.chainTableSize();
+        db.close();
+        // closing twice does nothing
+        db.close();
+        assertTrue(logSizes(directory) <= logs);
+
+        // the compacted logs are reloaded and rebuilt
+        try (MappedFileDB reopened = new MappedFileDB(directory)) {
+            fixture.assertRetrieved(reopened, sseConf);
+        }
+        Files.delete(directory.resolve("entry_table.idx"));
+        Files.delete(directory.resolve("chain_table.idx"));
+        try (MappedFileDB rebuilt = new MappedFileDB(directory)) {
+            assertEquals(10, rebuilt.entryTableSize());
+            assertEquals(chainRows, rebuilt.chainTableSize());
+            fixture.assertRetrieved(rebuilt, sseConf);
+        }
+    }
+
+    private static long logSizes(Path directory) throws IOException {
+        return Files.size(directory.resolve("entry_table.log")) + Files.size(directory.resolve("chain_table.log"));
+    }
+
+    @Test
+    public void testCompareAndSet() throws Exception {
+        Path directory = newDirectory();
+        WordHash wordHash = new WordHash(new Key(new Random(1)).bytes());
+        try (MappedFileDB db = new MappedFileDB(directory, true)) {
+            assertFalse(upsert(db, wordHash, 1));
+            assertTrue(upsert(db, wordHash, 0));
+            assertFalse(upsert(db, wordHash, 0));
+            assertTrue(upsert(db, wordHash, 1));
+            assertFalse(upsert(db, wordHash, 3));
+            DBEntryTableRecord record = db.getEntryTableEntries(Collections.singleton(wordHash)).get(wordHash);
+            assertEquals(1, record.getRevision());
+            assertArrayEquals(new byte[] {1}, record.getEncryptedValue());
+            assertEquals(1, db.entryTableSize());
+        }
+    }
+
+    private static boolean upsert(MappedFileDB db, WordHash wordHash, int revision) throws CosmianException {
+        Map<WordHash, DBEntryTableRecord> entries = new HashMap<>();
+        entries.put(wordHash, new DseEntryTableRecord(revision, new byte[] {(byte) revision}));
+        return db.upsertEntryTableEntries(entries).get(wordHash);
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        Path directory = newDirectory();
+        Random rd = new Random(2);
+        Key first = new Key(rd);
+        Key second = new Key(rd);
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            db.upsertChainTableEntries(Collections.singletonMap(first, new byte[] {1, 2, 3}));
+            db.upsertChainTableEntries(Collections.singletonMap(second, new byte[] {4, 5, 6}));
+        }
+        // simulate a crash while the second record [length][key][value][CRC32] was written
+        Files.delete(directory.resolve("chain_table.idx"));
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve("chain_table.log").toFile(), "rw")) {
+            long secondRecord = 4 + Key.KEY_LENGTH + 3 + 4;
+            log.seek(secondRecord + 4 + Key.KEY_LENGTH);
+            log.write(9);
+        }
+        Key third = new Key(rd);
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            assertEquals(1, db.chainTableSize());
+            assertArrayEquals(new byte[] {1, 2, 3},
+                db.getChainTableEntriesByKey(Collections.singleton(first)).get(first));
+            assertNull(db.getChainTableEntriesByKey(Collections.singleton(second)).get(second));
+            db.upsertChainTableEntries(Collections.singletonMap(third, new byte[] {7}));
+        }
+        try (MappedFileDB db = new MappedFileDB(directory)) {
+            assertEquals(2, db.chainTableSize());
+            assertArrayEquals(new byte[] {7}, db.getChainTableEntriesByKey(Collections.singleton(third)).get(third));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.injector.RecordBuffer;
+
+public class RecordBufferTest {
+
+    // a record of 4 parts: the sizes of an encrypted header and of an encrypted block
+    static final int PARTS = 4;
+
+    static final int HEADER_LENGTH = 120;
+
+    static final int BLOCK_LENGTH = 90;
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @Test
+    public void testFraming() throws Exception {
+        byte[][] headers = randomArrays(PARTS, HEADER_LENGTH);
+        byte[][] blocks = randomArrays(PARTS, BLOCK_LENGTH);
+
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        ByteArrayOutputStream pooled = new ByteArrayOutputStream();
+        RecordBuffer buffer = new RecordBuffer();
+        for (int i = 0; i < 3; i++) {
+            frameLegacy(legacy, headers, blocks);
+            assertEquals(4 + PARTS * (8 + HEADER_LENGTH + BLOCK_LENGTH), frame(buffer, headers, blocks, pooled));
+        }
+        assertArrayEquals(legacy.toByteArray(), pooled.toByteArray());
+
+        // the buffer grows past its initial capacity and keeps it
+        byte[][] large = randomArrays(1, 10_000);
+        buffer.begin();
+        buffer.writeInt(large[0].length);
+        buffer.write(large[0], 0, large[0].length);
+        assertEquals(10_004, buffer.recordLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeRecordTo(out);
+        byte[] bytes = out.toByteArray();
+        assertEquals(10_004, ByteBuffer.wrap(bytes).getInt());
+        assertEquals(10_000, ByteBuffer.wrap(bytes).getInt(4));
+        assertEquals(large[0][9_999], bytes[bytes.length - 1]);
+        buffer.begin();
+        assertEquals(0, buffer.recordLength());
+    }
+
+    /**
+     * Micro benchmark of the framing of the encrypted records: a byte array stream, length buffers and copies per
+     * record vs. the pooled {@link RecordBuffer}
+     */
+    @Test
+    public void benchmarkFraming() throws Exception {
+        final int ITERATIONS = 200_000;
+        byte[][] headers = randomArrays(PARTS, HEADER_LENGTH);
+        byte[][] blocks = randomArrays(PARTS, BLOCK_LENGTH);
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        RecordBuffer buffer = new RecordBuffer();
+
+        // warm up
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            frameLegacy(sink, headers, blocks);
+            frame(buffer, headers, blocks, sink);
+        }
+
+        long allocLegacy = SseCryptoTest.allocatedBytes();
+        long startLegacy = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            frameLegacy(sink, headers, blocks);
+        }
+        long timeLegacy = System.nanoTime() - startLegacy;
+        allocLegacy = SseCryptoTest.allocatedBytes() - allocLegacy;
+
+        long allocPooled = SseCryptoTest.allocatedBytes();
+        long startPooled = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            frame(buffer, headers, blocks, sink);
+        }
+        long timePooled = System.nanoTime() - startPooled;
+        allocPooled = SseCryptoTest.allocatedBytes() - allocPooled;
+
+        System.out.println("Framing of " + ITERATIONS + " records of " + PARTS + " parts:");
+        System.out.println("  - legacy: " + String.format("%,d", recordsPerSecond(ITERATIONS, timeLegacy))
+            + " records/s, " + (allocLegacy < 0 ? "n.a." : allocLegacy / ITERATIONS) + " bytes/record");
+        System.out.println("  - pooled: " + String.format("%,d", recordsPerSecond(ITERATIONS, timePooled))
+            + " records/s, " + (allocPooled < 0 ? "n.a." : allocPooled / ITERATIONS) + " bytes/record");
+        if (allocLegacy >= 0 && allocPooled >= 0) {
+            assertTrue(allocPooled < allocLegacy);
+            // close to no garbage in steady state
+            assertTrue(allocPooled / ITERATIONS < 16);
+        }
+    }
+
+    /**
+     * The framing of the records before the record buffers: see the history of RecordInjector and OutputFile
+     */
+    static void frameLegacy(OutputStream os, byte[][] headers, byte[][] blocks) throws IOException {
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        for (int part = 0; part < headers.length; part++) {
+            ByteBuffer headerSize = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(headers[part].length);
+            ByteBuffer blockSize = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(blocks[part].length);
+            bao.write(headerSize.array());
+            bao.write(headers[part]);
+            bao.write(blockSize.array());
+            bao.write(blocks[part]);
+            bao.flush();
+        }
+        byte[] bytes = bao.toByteArray();
+        ByteBuffer sizeBytes = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(bytes.length);
+        os.write(sizeBytes.array());
+        os.write(bytes);
+    }
+
+    static int frame(RecordBuffer buffer, byte[][] headers, byte[][] blocks, OutputStream os) throws IOException {
+        buffer.begin();
+        for (int part = 0; part < headers.length; part++) {
+            buffer.writeInt(headers[part].length);
+            buffer.write(headers[part], 0, headers[part].length);
+            buffer.writeInt(blocks[part].length);
+            buffer.write(blocks[part], 0, blocks[part].length);
+        }
+        return buffer.writeRecordTo(os);
+    }
+
+    static byte[][] randomArrays(int number, int length) {
+        Random rd = new Random(number * 31L + length);
+        byte[][] arrays = new byte[number][length];
+        for (byte[] array : arrays) {
+            rd.nextBytes(array);
+        }
+        return arrays;
+    }
+
+    static long recordsPerSecond(int iterations, long nanos) {
+        return iterations * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+}
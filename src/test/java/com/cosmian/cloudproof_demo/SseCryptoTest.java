@@ -0,0 +1,133 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.CosmianException;
+import com.cosmian.cloudproof_demo.sse.SseCrypto;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+
+public class SseCryptoTest {
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @Test
+    public void testHmacAndAes() throws Exception {
+        Random rd = new SecureRandom();
+        Key key = new Key(rd);
+        byte[] data = new byte[47];
+        rd.nextBytes(data);
+
+        // the HMAC must match the JCA one
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.bytes(), "HmacSHA256"));
+        SseCrypto.Context context = SseCrypto.get().context(key);
+        assertArrayEquals(mac.doFinal(data), context.derive(data).bytes());
+        // the context is reused
+        assertTrue(context == SseCrypto.get().context(new Key(key.bytes())));
+
+        // encrypt/decrypt round trip, with offsets
+        byte[] out = new byte[3 + data.length + SseCrypto.OVERHEAD];
+        assertEquals(data.length + SseCrypto.OVERHEAD, context.encrypt(data, 0, data.length, out, 3));
+        byte[] clear = new byte[data.length + 5];
+        assertEquals(data.length, context.decrypt(out, 3, out.length - 3, clear, 5));
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], clear[5 + i]);
+        }
+        assertArrayEquals(data, context.decrypt(context.encrypt(data)));
+
+        // tampering is detected
+        byte[] ciphertext = context.encrypt(data);
+        ciphertext[SseCrypto.NONCE_LENGTH] ^= 1;
+        assertThrows(CosmianException.class, () -> context.decrypt(ciphertext));
+        // a different key fails
+        assertThrows(CosmianException.class, () -> SseCrypto.get().context(new Key(rd)).decrypt(context.encrypt(data)));
+    }
+
+    /**
+     * Micro benchmark of the chain derivation r = H(Kwᵢ, r): a new JCA Mac per call vs. the {@link SseCrypto} context
+     */
+    @Test
+    public void benchmarkHmac() throws Exception {
+        final int ITERATIONS = 200_000;
+        Random rd = new SecureRandom();
+        Key kwi = new Key(rd);
+
+        // warm up
+        chainJca(kwi, ITERATIONS / 10);
+        chainSseCrypto(kwi, ITERATIONS / 10);
+
+        long allocJca = allocatedBytes();
+        long startJca = System.nanoTime();
+        byte[] lastJca = chainJca(kwi, ITERATIONS);
+        long timeJca = System.nanoTime() - startJca;
+        allocJca = allocatedBytes() - allocJca;
+
+        long allocSse = allocatedBytes();
+        long startSse = System.nanoTime();
+        byte[] lastSse = chainSseCrypto(kwi, ITERATIONS);
+        long timeSse = System.nanoTime() - startSse;
+        allocSse = allocatedBytes() - allocSse;
+
+        assertArrayEquals(lastJca, lastSse);
+        System.out.println("HMAC chain of " + ITERATIONS + " links:");
+        System.out.println("  - JCA per call: " + String.format("%,d", hmacPerSecond(ITERATIONS, timeJca))
+            + " HMAC/s, " + (allocJca < 0 ? "n.a." : allocJca / ITERATIONS) + " bytes/HMAC");
+        System.out.println("  - SseCrypto   : " + String.format("%,d", hmacPerSecond(ITERATIONS, timeSse))
+            + " HMAC/s, " + (allocSse < 0 ? "n.a." : allocSse / ITERATIONS) + " bytes/HMAC");
+        if (allocJca >= 0 && allocSse >= 0) {
+            assertTrue(allocSse < allocJca);
+        }
+    }
+
+    static byte[] chainJca(Key kwi, int iterations) throws Exception {
+        byte[] r = kwi.bytes();
+        for (int i = 0; i < iterations; i++) {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(kwi.bytes(), "HmacSHA256"));
+            r = mac.doFinal(r);
+        }
+        return r;
+    }
+
+    static byte[] chainSseCrypto(Key kwi, int iterations) throws Exception {
+        SseCrypto.Context context = SseCrypto.get().context(kwi);
+        byte[] r = kwi.bytes().clone();
+        for (int i = 0; i < iterations; i++) {
+            context.hmac(r, 0, r.length, r, 0);
+        }
+        return r;
+    }
+
+    static long hmacPerSecond(int iterations, long nanos) {
+        return iterations * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+
+    /**
+     * The bytes allocated by the current thread if the JVM supports it, -1 otherwise
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
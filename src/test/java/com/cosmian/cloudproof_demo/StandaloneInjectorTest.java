@@ -0,0 +1,192 @@
+package com.cosmian.cloudproof_demo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.fs.OutputDirectory;
+import com.cosmian.cloudproof_demo.injector.FilesLineReader;
+import com.cosmian.cloudproof_demo.injector.LineReader;
+import com.cosmian.cloudproof_demo.injector.OutputFile;
+import com.cosmian.cloudproof_demo.injector.StandaloneInjector;
+import com.cosmian.cloudproof_demo.sse.InMemoryDB;
+import com.cosmian.cloudproof_demo.sse.Sse;
+import com.cosmian.cloudproof_demo.sse.Sse.Key;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.cloudproof_demo.sse.SseConfiguration;
+import com.cosmian.cloudproof_demo.sse.SseUpserter;
+
+public class StandaloneInjectorTest {
+
+    static final int RECORDS = 300;
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    /**
+     * Queues of a single record and an indexer slower than the writer: the stages wait for each other
+     */
+    @Test
+    public void testDepthOneQueues() throws Exception {
+        Random rd = new Random(1);
+        Key k = new Key(rd);
+        InMemoryDB db = new InMemoryDB(1);
+        StandaloneInjector injector = new StandaloneInjector().withConfiguration(
+            new StandaloneInjector.Configuration().withWorkers(2).withQueueDepth(1).withSseQueueDepth(1));
+        Path lines = lines(RECORDS);
+
+        SlowUpserter upserter = new SlowUpserter(k, new Key(rd), db, Integer.MAX_VALUE);
+        try (LineReader reader = new FilesLineReader(Collections.singletonList(lines.toString()));
+            OutputFile outputFile = outputFile()) {
+            assertEquals(RECORDS, injector.inject(publicKeyJson(), reader, outputFile, upserter));
+        }
+        assertEquals(RECORDS, upserter.upserts.get());
+        upserter.close();
+
+        Word france = new Word("country=france".getBytes(StandardCharsets.UTF_8));
+        assertEquals(RECORDS, Sse.bulkRetrieve(k, Collections.singleton(france), db).get(france).size());
+    }
+
+    /**
+     * An indexer failing with full queues: the injection fails with its error and no stage uses the upserter once it
+     * returns
+     */
+    @Test
+    public void testFailingIndexer() throws Exception {
+        Random rd = new Random(2);
+        InMemoryDB db = new InMemoryDB(2);
+        StandaloneInjector injector = new StandaloneInjector().withConfiguration(
+            new StandaloneInjector.Configuration().withWorkers(2).withQueueDepth(1).withSseQueueDepth(1));
+        Path lines = lines(RECORDS);
+
+        SlowUpserter upserter = new SlowUpserter(new Key(rd), new Key(rd), db, 50);
+        try (LineReader reader = new FilesLineReader(Collections.singletonList(lines.toString()));
+            OutputFile outputFile = outputFile()) {
+            AppException e =
+                assertThrows(AppException.class, () -> injector.inject(publicKeyJson(), reader, outputFile, upserter));
+            assertEquals("indexer failure", e.getMessage());
+        }
+        upserter.returned.set(true);
+        int upserts = upserter.upserts.get();
+        Thread.sleep(50);
+        assertEquals(upserts, upserter.upserts.get());
+        assertEquals(0, upserter.afterReturn.get());
+    }
+
+    /**
+     * A reader failing while the indexer is busy: the injection fails with its error once the indexer is done
+     */
+    @Test
+    public void testFailingReader() throws Exception {
+        Random rd = new Random(3);
+        InMemoryDB db = new InMemoryDB(3);
+        StandaloneInjector injector = new StandaloneInjector().withConfiguration(
+            new StandaloneInjector.Configuration().withWorkers(2).withQueueDepth(1).withSseQueueDepth(1));
+        String line = Files.readAllLines(Paths.get("").toAbsolutePath().resolve("src/test/resources/lines.txt")).get(0);
+        AtomicInteger read = new AtomicInteger();
+        LineReader reader = new LineReader() {
+            @Override
+            public String readNext() throws AppException {
+                if (read.incrementAndGet() > 100) {
+                    throw new AppException("reader failure");
+                }
+                return line;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        SlowUpserter upserter = new SlowUpserter(new Key(rd), new Key(rd), db, Integer.MAX_VALUE);
+        try (OutputFile outputFile = outputFile()) {
+            AppException e =
+                assertThrows(AppException.class, () -> injector.inject(publicKeyJson(), reader, outputFile, upserter));
+            assertEquals("reader failure", e.getMessage());
+        }
+        upserter.returned.set(true);
+        int upserts = upserter.upserts.get();
+        Thread.sleep(50);
+        assertEquals(upserts, upserter.upserts.get());
+        assertEquals(0, upserter.afterReturn.get());
+    }
+
+    /**
+     * An upserter taking a millisecond per record and failing after a number of records
+     */
+    static class SlowUpserter extends SseUpserter {
+
+        final AtomicInteger upserts = new AtomicInteger();
+
+        final AtomicBoolean returned = new AtomicBoolean();
+
+        final AtomicInteger afterReturn = new AtomicInteger();
+
+        private final int failAfter;
+
+        SlowUpserter(Key k, Key kStar, InMemoryDB db, int failAfter) throws AppException {
+            super(k, kStar, db, new SseConfiguration(), Optional.empty());
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void upsert(byte[] uid, Set<Word> words) throws AppException {
+            if (this.returned.get()) {
+                this.afterReturn.incrementAndGet();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AppException("interrupted", e);
+            }
+            if (this.upserts.incrementAndGet() > this.failAfter) {
+                throw new AppException("indexer failure");
+            }
+            super.upsert(uid, words);
+        }
+    }
+
+    static OutputFile outputFile() throws Exception {
+        Path outputDirectory = Files.createTempDirectory("injector");
+        return new OutputFile(OutputDirectory.parse(outputDirectory.toString()), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    static String publicKeyJson() throws Exception {
+        Path publicKeyFile = Paths.get("").toAbsolutePath().resolve("src/test/resources/keys/public_key.json");
+        return new String(Files.readAllBytes(publicKeyFile), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A file of records of the example people directory
+     */
+    static Path lines(int records) throws Exception {
+        List<String> examples =
+            Files.readAllLines(Paths.get("").toAbsolutePath().resolve("src/test/resources/lines.txt"));
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            lines.add(examples.get(i % examples.size()));
+        }
+        Path file = Files.createTempFile("lines", ".txt");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,267 @@
+package com.cosmian.cloudproof_demo.injector;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.App;
+import com.cosmian.cloudproof_demo.AppException;
+import com.cosmian.cloudproof_demo.injector.RecordInjector.ParsedRecord;
+import com.cosmian.cloudproof_demo.policy.Country;
+import com.cosmian.cloudproof_demo.policy.Department;
+import com.cosmian.cloudproof_demo.sse.Sse.Word;
+import com.cosmian.rest.cover_crypt.acccess_policy.Attr;
+
+public class RecordPlanTest {
+
+    // the fields c, the row field, and f
+    static final String SCHEMA = "{\"rowAttribute\": {\"field\": \"c\", \"axis\": \"C\", \"values\": [\"a\"]},"
+        + "\"parts\": [{\"name\": \"p\", \"fields\": [\"c\", \"f\"], \"attributes\": []}], \"keywords\": []}";
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    @Test
+    public void testDefaultPlan() throws Exception {
+        RecordPlan plan = RecordPlan.defaultPlan();
+        // 5 countries x 4 parts
+        List<Attr[]> sets = plan.sharedAttributeSets();
+        assertEquals(20, sets.size());
+        // the common part of France is readable by Marketing and HR
+        assertEquals(3, sets.get(0).length);
+        // the security part of Other
+        assertEquals(2, sets.get(19).length);
+        // the schema survives a round trip, as done by the Spark injector
+        assertEquals(20, RecordPlan.compile(plan.getSchema()).sharedAttributeSets().size());
+    }
+
+    /**
+     * The default plan processes the records as the injector did before the plans: same keywords, attributes and
+     * clear text of the parts
+     */
+    @Test
+    public void testDefaultPlanOutput() throws Exception {
+        RecordPlan plan = RecordPlan.defaultPlan();
+        List<String> lines = Files.readAllLines(Paths.get("").toAbsolutePath().resolve("src/test/resources/lines.txt"));
+        JSONObject escaped = new JSONObject(lines.get(0)).put("country", "Other").put("firstName", "Jos\u00e9 \"Jo\"")
+            .put("lastName", "O'Neil\\\t").put("region", "\u00cele-de-France").put("email", "a</b>@c.fr/")
+            .put("phone", "\u2013 \u20ac\u0085\u00a0\u001f\u007f\b\f\r\n").put("security", "\ud83d\ude00 \u2100");
+        lines.add(escaped.toString());
+        for (String line : lines) {
+            JSONObject json = new JSONObject(line);
+            String[] fields = plan.readFields(line);
+            int row = plan.rowIndex(fields);
+            assertEquals(Country.from(json.getString("country")).ordinal(), row);
+
+            String[] legacyValues = legacyIndexedValues(json);
+            assertArrayEquals(legacyValues, plan.keywords(fields));
+            ParsedRecord record = ParsedRecord.parse(plan, line);
+            assertEquals(Arrays.stream(legacyValues).map(v -> new Word(v.getBytes(StandardCharsets.UTF_8)))
+                .collect(Collectors.toSet()), record.words);
+
+            Attr[][] legacyAttributes = legacyAttributes(json);
+            byte[][] legacyParts = legacyParts(json);
+            assertEquals(legacyParts.length, plan.parts());
+            for (int part = 0; part < legacyParts.length; part++) {
+                assertEquals(new String(legacyParts[part], StandardCharsets.UTF_8),
+                    new String(record.partClearText(part), StandardCharsets.UTF_8));
+                assertArrayEquals(legacyParts[part], record.partClearText(part));
+                assertEquals(Arrays.toString(legacyAttributes[part]), Arrays.toString(plan.attributes(row, part)));
+            }
+        }
+
+        // an unknown row value
+        String[] fields = plan.readFields(new JSONObject(lines.get(0)).put("country", "Peru").toString());
+        AppException e = assertThrows(AppException.class, () -> plan.rowIndex(fields));
+        assertEquals("Invalid attributes: unknown country: Peru", e.getMessage());
+    }
+
+    @Test
+    public void testHeaderIndex() throws Exception {
+        RecordPlan plan = RecordPlan.defaultPlan();
+        List<Attr[]> sets = plan.sharedAttributeSets();
+        Set<Integer> indexes = new HashSet<>();
+        for (int row = 0; row < Country.values().length; row++) {
+            for (int part = 0; part < plan.parts(); part++) {
+                int index = plan.headerIndex(row, part);
+                assertTrue(indexes.add(index));
+                // the shared header of a part is the one of its attributes
+                assertSame(plan.attributes(row, part), sets.get(index));
+            }
+        }
+        assertEquals(sets.size(), indexes.size());
+        assertEquals(0, plan.headerIndex(0, 0));
+        assertEquals(sets.size() - 1, plan.headerIndex(Country.values().length - 1, plan.parts() - 1));
+    }
+
+    @Test
+    public void testInvalidSchema() throws Exception {
+        assertThrows(AppException.class, () -> RecordPlan.compile("not json"));
+        assertThrows(AppException.class, () -> RecordPlan.compile("{\"parts\": []}"));
+        AppException e = assertThrows(AppException.class,
+            () -> RecordPlan.compile("{\"rowAttribute\": {\"field\": \"c\", \"axis\": \"C\", \"values\": [\"a\"]},"
+                + "\"parts\": [{\"name\": \"p\", \"fields\": [\"c\"], \"attributes\": [\"nope\"]}],"
+                + "\"keywords\": []}"));
+        assertTrue(e.getMessage().startsWith("Invalid schema"));
+        e = assertThrows(AppException.class,
+            () -> RecordPlan.compile("{\"rowAttribute\": {\"field\": \"c\", \"axis\": \"C\", \"values\": [\"a\"]},"
+                + "\"parts\": [{\"name\": \"p\", \"fields\": [\"c\"], \"attributes\": []}],"
+                + "\"keywords\": [{\"field\": \"c\", \"normalization\": \"upper\"}]}"));
+        assertTrue(e.getMessage().contains("normalization"));
+
+        // unknown normalizations
+        for (String normalization : new String[] {"", "trim", "lower case", "\"lowercase\"", "1"}) {
+            e = assertThrows(AppException.class, () -> RecordPlan.compile(schema("[\"a\"]", "[\"c\"]",
+                "[]", "[{\"field\": \"c\", \"normalization\": " + quote(normalization) + "}]")));
+            assertTrue(e.getMessage().startsWith("Invalid schema"));
+        }
+        // the known ones, whatever their case
+        String keywords = "[{\"field\": \"c\", \"normalization\": \"TRIM_lowercase\"},"
+            + " {\"field\": \"c\", \"normalization\": \"none\"}]";
+        RecordPlan.compile(schema("[\"a\"]", "[\"c\"]", "[]", keywords));
+
+        // malformed attributes
+        for (String attribute : new String[] {"", "::", "::b", "a::", "a:b", "a", ":a::"}) {
+            e = assertThrows(AppException.class,
+                () -> RecordPlan.compile(schema("[\"a\"]", "[\"c\"]", "[" + quote(attribute) + "]", "[]")));
+            assertTrue(e.getMessage().startsWith("Invalid schema: the attribute"), e.getMessage());
+        }
+
+        // no parts or no row values
+        e = assertThrows(AppException.class, () -> RecordPlan.compile(
+            "{\"rowAttribute\": {\"field\": \"c\", \"axis\": \"C\", \"values\": [\"a\"]}, \"parts\": [],"
+                + " \"keywords\": []}"));
+        assertEquals("Invalid schema: no parts", e.getMessage());
+        e = assertThrows(AppException.class, () -> RecordPlan.compile(schema("[]", "[\"c\"]", "[]", "[]")));
+        assertEquals("Invalid schema: the row attribute has no values", e.getMessage());
+    }
+
+    /**
+     * A schema of a single part
+     */
+    static String schema(String values, String fields, String attributes, String keywords) {
+        return "{\"rowAttribute\": {\"field\": \"c\", \"axis\": \"C\", \"values\": " + values + "},"
+            + "\"parts\": [{\"name\": \"p\", \"fields\": " + fields + ", \"attributes\": " + attributes + "}],"
+            + "\"keywords\": " + keywords + "}";
+    }
+
+    static String quote(String value) {
+        return JSONObject.quote(value);
+    }
+
+    /**
+     * The indexed values of a record before the plans: see the history of RecordInjector
+     */
+    static String[] legacyIndexedValues(JSONObject json) {
+        String country = json.getString("country");
+        String firstName = json.getString("firstName").toLowerCase();
+        String lastName = json.getString("lastName").toLowerCase();
+        return Arrays.stream(
+            new String[] {firstName, lastName, "first=" + firstName, "last=" + lastName, "country=" + country})
+            .map(String::toLowerCase).toArray(String[]::new);
+    }
+
+    /**
+     * The attributes of the parts of a record before the plans
+     */
+    static Attr[][] legacyAttributes(JSONObject json) throws Exception {
+        Attr country = Country.from(json.getString("country")).getAttribute();
+        return new Attr[][] {
+            {country, Department.Marketing.getAttribute(), Department.HR.getAttribute()},
+            {country, Department.Marketing.getAttribute()},
+            {country, Department.HR.getAttribute()},
+            {country, Department.Security.getAttribute()}};
+    }
+
+    /**
+     * The clear text of the parts of a record before the plans
+     */
+    static byte[][] legacyParts(JSONObject json) {
+        JSONObject common = new JSONObject();
+        common.put("firstName", json.getString("firstName"));
+        common.put("lastName", json.getString("lastName"));
+        common.put("country", json.getString("country"));
+        JSONObject marketing = new JSONObject();
+        marketing.put("region", json.getString("region"));
+        JSONObject hr = new JSONObject();
+        hr.put("phone", json.getString("phone"));
+        hr.put("email", json.getString("email"));
+        hr.put("employeeNumber", json.getString("employeeNumber"));
+        JSONObject security = new JSONObject();
+        security.put("security", json.getString("security"));
+        return new byte[][] {
+            common.toString().getBytes(StandardCharsets.UTF_8),
+            marketing.toString().getBytes(StandardCharsets.UTF_8),
+            hr.toString().getBytes(StandardCharsets.UTF_8),
+            security.toString().getBytes(StandardCharsets.UTF_8)};
+    }
+
+    @Test
+    public void testReadFields() throws Exception {
+        RecordPlan plan = RecordPlan.compile(SCHEMA);
+        assertArrayEquals(new String[] {"a", "x"}, plan.readFields("{\"f\": \"x\", \"c\": \"a\"}"));
+
+        // escaped strings
+        assertArrayEquals(new String[] {"a", "q\"b\\s/\u00e9\n\t"},
+            plan.readFields("{\"c\": \"a\", \"f\": \"q\\\"b\\\\s\\/\\u00e9\\n\\t\"}"));
+        assertArrayEquals(new String[] {"a", "\u00e9t\u00e9"},
+            plan.readFields("{\"c\": \"a\", \"\\u0066\": \"\u00e9t\u00e9\"}"));
+
+        // the unknown fields are skipped, whatever their values; the fields of the nested objects are not read
+        assertArrayEquals(new String[] {"a", "x"},
+            plan.readFields("{\"n\": {\"c\": 1, \"o\": {\"f\": [\"y\"]}}, \"c\": \"a\","
+                + " \"l\": [[1, {\"f\": \"z\"}], []], \"u\": null, \"b\": true, \"d\": 1.5e3, \"f\": \"x\"}"));
+
+        // a missing field
+        AppException e = assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\"}"));
+        assertEquals("Invalid record: missing field f", e.getMessage());
+        e = assertThrows(AppException.class, () -> plan.readFields("{}"));
+        assertEquals("Invalid record: missing field c", e.getMessage());
+
+        // a field which is not a string
+        for (String value : new String[] {"1", "null", "true", "[\"x\"]", "{\"f\": \"x\"}"}) {
+            e = assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"f\": " + value + "}"));
+            assertEquals("Invalid record: the field f is not a string", e.getMessage());
+        }
+
+        // not a JSON object
+        for (String line : new String[] {"", "  ", "[]", "\"a\"", "1", "null", "not json"}) {
+            assertThrows(AppException.class, () -> plan.readFields(line));
+        }
+        assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"f\": \"x\""));
+        assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\" \"f\": \"x\"}"));
+
+        // a duplicate field is rejected, as the records are ambiguous, including in the skipped objects
+        e = assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"f\": \"x\", \"f\": \"y\"}"));
+        assertTrue(e.getMessage().contains("Duplicate field 'f'"));
+        assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"u\": 1, \"u\": 2, \"f\": \"x\"}"));
+        assertThrows(AppException.class,
+            () -> plan.readFields("{\"c\": \"a\", \"n\": {\"u\": 1, \"u\": 2}, \"f\": \"x\"}"));
+
+        // trailing content is rejected, except white spaces
+        assertArrayEquals(new String[] {"a", "x"}, plan.readFields("{\"c\": \"a\", \"f\": \"x\"}  \t"));
+        for (String trailing : new String[] {"}", "x", ",", "{\"c\": \"b\", \"f\": \"y\"}", "1"}) {
+            assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"f\": \"x\"} " + trailing));
+        }
+        e = assertThrows(AppException.class, () -> plan.readFields("{\"c\": \"a\", \"f\": \"x\"}{}"));
+        assertEquals("Invalid record: trailing content after the JSON object", e.getMessage());
+    }
+}
@@ -0,0 +1,52 @@
+package com.cosmian.cloudproof_demo.sse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.cloudproof_demo.App;
+
+public class RetryPolicyTest {
+
+    @BeforeAll
+    public static void before_all() {
+        App.initLogging(Level.INFO);
+    }
+
+    /**
+     * The ceiling of the delays doubles from the base delay up to the maximum delay, without overflowing
+     */
+    @Test
+    public void testCeiling() throws Exception {
+        RetryPolicy policy = new RetryPolicy(100, 2, 5);
+        assertEquals(2, policy.ceilingMs(0));
+        assertEquals(4, policy.ceilingMs(1));
+        assertEquals(5, policy.ceilingMs(2));
+        assertEquals(5, policy.ceilingMs(99));
+
+        // the shifts which used to overflow into a small positive ceiling: 2^40 + 1 shifted by 30 is 2^30
+        long[] bases = {1, 3, 1000, (1L << 40) + 1, (1L << 62) + 1, Long.MAX_VALUE / 2, Long.MAX_VALUE};
+        long[] maxes = {1, 1000, 1L << 40, Long.MAX_VALUE};
+        for (long base : bases) {
+            for (long max : maxes) {
+                RetryPolicy overflow = new RetryPolicy(100, base, max);
+                for (int attempt = 0; attempt < 100; attempt++) {
+                    long expected = BigInteger.valueOf(base).shiftLeft(attempt).min(BigInteger.valueOf(max))
+                        .longValueExact();
+                    assertEquals(expected, overflow.ceilingMs(attempt), base + " << " + attempt);
+                }
+            }
+        }
+
+        // a base delay of 0 retries immediately
+        RetryPolicy immediate = new RetryPolicy(100, 0, 1000);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            assertEquals(0, immediate.ceilingMs(attempt));
+            assertEquals(0, immediate.delayMs(attempt));
+        }
+    }
+}